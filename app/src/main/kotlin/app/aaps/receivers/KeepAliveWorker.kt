@@ -30,6 +30,7 @@ import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventProfileSwitchChanged
 import app.aaps.core.interfaces.utils.DateUtil
 import app.aaps.core.interfaces.utils.fabric.FabricPrivacy
+import app.aaps.core.keys.IntNonKey
 import app.aaps.core.keys.LongNonKey
 import app.aaps.core.keys.interfaces.Preferences
 import app.aaps.core.objects.profile.ProfileSealed
@@ -145,11 +146,24 @@ class KeepAliveWorker(
 
     // Perform history data cleanup every day
     // Keep 6 months
-    private fun databaseCleanup() {
+    // Cleanup interrupted by process death is continued from stored watermark
+    @VisibleForTesting
+    fun databaseCleanup() {
         val lastRun = preferences.get(LongNonKey.LastCleanupRun)
-        if (lastRun < dateUtil.now() - T.days(1).msecs()) {
-            val result = persistenceLayer.cleanupDatabase(6 * 31, deleteTrackedChanges = false)
+        val watermarkThan = preferences.get(LongNonKey.CleanupWatermarkThan)
+        if (watermarkThan != 0L || lastRun < dateUtil.now() - T.days(1).msecs()) {
+            val resumeFrom =
+                if (watermarkThan != 0L) PersistenceLayer.CleanupWatermark(watermarkThan, preferences.get(IntNonKey.CleanupWatermarkStep))
+                else PersistenceLayer.CleanupWatermark(dateUtil.now() - T.days(6 * 31).msecs(), 0)
+            preferences.put(LongNonKey.CleanupWatermarkThan, resumeFrom.than)
+            val result = persistenceLayer.cleanupDatabase(6 * 31, deleteTrackedChanges = false, resumeFrom = resumeFrom) { watermark ->
+                preferences.put(LongNonKey.CleanupWatermarkThan, watermark.than)
+                preferences.put(IntNonKey.CleanupWatermarkStep, watermark.step)
+                aapsLogger.debug(LTag.CORE, "Cleanup progress: step ${watermark.step}")
+            }
             aapsLogger.debug(LTag.CORE, "Cleanup result: $result")
+            preferences.remove(LongNonKey.CleanupWatermarkThan)
+            preferences.remove(IntNonKey.CleanupWatermarkStep)
             preferences.put(LongNonKey.LastCleanupRun, dateUtil.now())
         }
     }
@@ -14,6 +14,7 @@ import app.aaps.core.interfaces.queue.Command
 import app.aaps.core.interfaces.queue.CommandQueue
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventProfileSwitchChanged
+import app.aaps.core.keys.IntNonKey
 import app.aaps.core.keys.LongNonKey
 import app.aaps.plugins.configuration.maintenance.MaintenancePlugin
 import app.aaps.plugins.constraints.dstHelper.DstHelperPlugin
@@ -25,6 +26,7 @@ import org.junit.jupiter.api.Test
 import org.mockito.Mock
 import org.mockito.kotlin.any
 import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.eq
 import org.mockito.kotlin.never
 import org.mockito.kotlin.verify
 import org.mockito.kotlin.whenever
@@ -148,7 +150,26 @@ class KeepAliveWorkerTest : TestBaseWithProfile() {
         worker.doWorkAndLog()
 
         // Assert
-        verify(persistenceLayer, never()).cleanupDatabase(any(), any())
+        verify(persistenceLayer, never()).cleanupDatabase(any(), any(), anyOrNull(), any())
+        Unit
+    }
+
+    @Test
+    fun `interrupted databaseCleanup is resumed from watermark`() = runBlocking {
+        // Arrange
+        worker = createWorker()
+        whenever(preferences.get(LongNonKey.LastCleanupRun)).thenReturn(now - T.hours(12).msecs())
+        whenever(preferences.get(LongNonKey.CleanupWatermarkThan)).thenReturn(now - T.days(186).msecs())
+        whenever(preferences.get(IntNonKey.CleanupWatermarkStep)).thenReturn(5)
+        whenever(persistenceLayer.cleanupDatabase(any(), any(), anyOrNull(), any())).thenReturn("")
+
+        // Act
+        worker.databaseCleanup()
+
+        // Assert
+        verify(persistenceLayer).cleanupDatabase(any(), any(), eq(PersistenceLayer.CleanupWatermark(now - T.days(186).msecs(), 5)), any())
+        verify(preferences).remove(LongNonKey.CleanupWatermarkThan)
+        verify(preferences).put(LongNonKey.LastCleanupRun, now)
         Unit
     }
 }
@@ -44,6 +44,10 @@ tasks.withType<Test> {
 tasks.withType<Test>().configureEach {
     failOnNoDiscoveredTests = false
     maxParallelForks = (Runtime.getRuntime().availableProcessors() / 2).coerceAtLeast(1)
+    // @BenchmarkTest of :shared:tests runs only with -Pbenchmark
+    useJUnitPlatform {
+        if (project.hasProperty("benchmark")) includeTags("benchmark") else excludeTags("benchmark")
+    }
 }
 
 android {
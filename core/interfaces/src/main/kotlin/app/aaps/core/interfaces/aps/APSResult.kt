@@ -51,6 +51,32 @@ interface APSResult {
 
     val iob: IobTotal? get() = iobData?.get(0)
 
+    /**
+     * Inputs loaded from database. Every value is decoded from its JSON column on first access
+     */
+    class LazyInputs(
+        val autosensResult: Lazy<AutosensResult?>,
+        val iobData: Lazy<Array<IobTotal>?>,
+        val glucoseStatus: Lazy<GlucoseStatus?>,
+        val currentTemp: Lazy<CurrentTemp?>,
+        val oapsProfile: Lazy<OapsProfile?>,
+        val oapsProfileAutoIsf: Lazy<OapsProfileAutoIsf?>,
+        val mealData: Lazy<MealData?>
+    )
+
+    /**
+     * Set inputs without decoding them. Implementations not supporting lazy inputs decode them immediately
+     */
+    fun withInputs(inputs: LazyInputs): APSResult = this.also {
+        autosensResult = inputs.autosensResult.value
+        iobData = inputs.iobData.value
+        glucoseStatus = inputs.glucoseStatus.value
+        currentTemp = inputs.currentTemp.value
+        oapsProfile = inputs.oapsProfile.value
+        oapsProfileAutoIsf = inputs.oapsProfileAutoIsf.value
+        mealData = inputs.mealData.value
+    }
+
     fun resultAsString(): String
     fun resultAsSpanned(): Spanned
     fun newAndClone(): APSResult
@@ -40,12 +40,25 @@ interface PersistenceLayer {
      */
     fun clearApsResults()
 
+    /**
+     * Position of running database cleanup
+     * @param than records older than this are removed
+     * @param step next step to run
+     */
+    data class CleanupWatermark(val than: Long, val step: Int)
+
     /**
      * Perform database maintenance
+     *
+     * Records are removed in small batches to not block other transactions.
+     * Interrupted cleanup can be continued from last watermark reported by [onProgress]
+     *
      * @param keepDays remove all records older than
      * @param deleteTrackedChanges delete tracked changes from all tables
+     * @param resumeFrom watermark of interrupted cleanup or null to start new one
+     * @param onProgress called after every finished step
      */
-    fun cleanupDatabase(keepDays: Long, deleteTrackedChanges: Boolean): String
+    fun cleanupDatabase(keepDays: Long, deleteTrackedChanges: Boolean, resumeFrom: CleanupWatermark? = null, onProgress: (CleanupWatermark) -> Unit = {}): String
 
     // BS
     /**
@@ -412,6 +425,28 @@ interface PersistenceLayer {
      */
     fun getNextSyncElementGlucoseValue(id: Long): Maybe<Pair<GV, GV>>
     fun getBgReadingsDataFromTimeToTime(start: Long, end: Long, ascending: Boolean): List<GV>
+
+    /**
+     * Counts of glucose values of one day split by range
+     *
+     * @param day local day of values, (timestamp + utcOffset) / day length
+     * @param firstTimestamp timestamp of the first value of the day
+     * @param lastTimestamp timestamp of the last value of the day
+     */
+    data class GlucoseRangeCount(val day: Long, val firstTimestamp: Long, val lastTimestamp: Long, val below: Int, val inRange: Int, val above: Int)
+
+    /**
+     * Count the same values as [getBgReadingsDataFromTimeToTime] per day without loading them
+     *
+     * Day is local day according to utcOffset stored in record
+     *
+     * @param start from (inclusive)
+     * @param end to (inclusive)
+     * @param lowMgdl below is value < lowMgdl
+     * @param highMgdl above is value > highMgdl
+     * @return one record per day ordered by time
+     */
+    fun getGlucoseRangeCountsPerDay(start: Long, end: Long, lowMgdl: Double, highMgdl: Double): List<GlucoseRangeCount>
     fun getBgReadingsDataFromTime(timestamp: Long, ascending: Boolean): Single<List<GV>>
     fun getBgReadingByNSId(nsId: String): GV?
 
@@ -1334,6 +1369,49 @@ interface PersistenceLayer {
      */
     fun insertOrUpdateTotalDailyDose(totalDailyDose: TDD): Single<TransactionResult<TDD>>
 
+    // Pump history batch
+
+    /**
+     * Record of pump history to be synced by [syncPumpBatch]
+     */
+    sealed class PumpBatchRecord {
+
+        /** @see syncPumpBolus */
+        class Bolus(val bolus: BS, val type: BS.Type?) : PumpBatchRecord()
+
+        /** @see insertPumpCarbsIfNewByTimestamp */
+        class Carbs(val carbs: CA) : PumpBatchRecord()
+
+        /** @see insertPumpTherapyEventIfNewByTimestamp */
+        class TherapyEvent(val therapyEvent: TE, val action: Action, val source: Sources, val note: String?, val listValues: List<ValueWithUnit>) : PumpBatchRecord()
+
+        /** @see syncPumpTemporaryBasal */
+        class TemporaryBasal(val temporaryBasal: TB, val type: TB.Type?) : PumpBatchRecord()
+
+        /** @see syncPumpCancelTemporaryBasalIfAny */
+        class CancelTemporaryBasal(val timestamp: Long, val endPumpId: Long, val pumpType: PumpType, val pumpSerial: String) : PumpBatchRecord()
+
+        /** @see syncPumpExtendedBolus */
+        class ExtendedBolus(val extendedBolus: EB) : PumpBatchRecord()
+
+        /** @see syncPumpStopExtendedBolusWithPumpId */
+        class StopExtendedBolus(val timestamp: Long, val endPumpId: Long, val pumpType: PumpType, val pumpSerial: String) : PumpBatchRecord()
+
+        /** @see insertOrUpdateTotalDailyDose */
+        class TotalDailyDose(val totalDailyDose: TDD) : PumpBatchRecord()
+    }
+
+    /**
+     * Sync records coming from pump history to database in one transaction
+     *
+     * Result is the same as calling single record functions one by one in the same order
+     * but lookups are batched and only one change event is emitted
+     *
+     * @param records records in order of pump history
+     * @return List of inserted/updated records for every record in the same order
+     */
+    fun syncPumpBatch(records: List<PumpBatchRecord>): Single<List<TransactionResult<*>>>
+
     // SC
 
     /**
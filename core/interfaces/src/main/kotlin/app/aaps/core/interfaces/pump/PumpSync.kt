@@ -564,4 +564,81 @@ interface PumpSync {
 
     fun createOrUpdateTotalDailyDose(timestamp: Long, bolusAmount: Double, basalAmount: Double, totalAmount: Double, pumpId: Long?, pumpType: PumpType, pumpSerial: String): Boolean
 
-}
\ No newline at end of file
+
+    /*
+     *   BATCH
+     */
+
+    /**
+     * Record of pump history for [syncBatch]
+     *
+     * Every class carries the same parameters as the corresponding single record function
+     */
+    sealed class HistoryRecord {
+
+        abstract val timestamp: Long
+        abstract val pumpType: PumpType
+        abstract val pumpSerial: String
+
+        /** @see syncBolusWithPumpId */
+        data class Bolus(
+            override val timestamp: Long, val amount: Double, val type: BS.Type?, val pumpId: Long, override val pumpType: PumpType, override val pumpSerial: String
+        ) : HistoryRecord()
+
+        /** @see syncCarbsWithTimestamp */
+        data class Carbs(
+            override val timestamp: Long, val amount: Double, val pumpId: Long?, override val pumpType: PumpType, override val pumpSerial: String
+        ) : HistoryRecord()
+
+        /** @see insertTherapyEventIfNewWithTimestamp */
+        data class TherapyEvent(
+            override val timestamp: Long, val type: TE.Type, val note: String? = null, val pumpId: Long? = null, override val pumpType: PumpType, override val pumpSerial: String
+        ) : HistoryRecord()
+
+        /** @see insertFingerBgIfNewWithTimestamp */
+        data class FingerBg(
+            override val timestamp: Long, val glucose: Double, val glucoseUnit: GlucoseUnit, val note: String? = null, val pumpId: Long? = null,
+            override val pumpType: PumpType, override val pumpSerial: String
+        ) : HistoryRecord()
+
+        /** @see syncTemporaryBasalWithPumpId */
+        data class TemporaryBasal(
+            override val timestamp: Long, val rate: Double, val duration: Long, val isAbsolute: Boolean, val type: TemporaryBasalType?, val pumpId: Long,
+            override val pumpType: PumpType, override val pumpSerial: String
+        ) : HistoryRecord()
+
+        /** @see syncStopTemporaryBasalWithPumpId */
+        data class StopTemporaryBasal(
+            override val timestamp: Long, val endPumpId: Long, override val pumpType: PumpType, override val pumpSerial: String, val ignorePumpIds: Boolean = false
+        ) : HistoryRecord()
+
+        /** @see syncExtendedBolusWithPumpId */
+        data class ExtendedBolus(
+            override val timestamp: Long, val amount: Double, val duration: Long, val isEmulatingTB: Boolean, val pumpId: Long,
+            override val pumpType: PumpType, override val pumpSerial: String
+        ) : HistoryRecord()
+
+        /** @see syncStopExtendedBolusWithPumpId */
+        data class StopExtendedBolus(
+            override val timestamp: Long, val endPumpId: Long, override val pumpType: PumpType, override val pumpSerial: String
+        ) : HistoryRecord()
+
+        /** @see createOrUpdateTotalDailyDose */
+        data class TotalDailyDose(
+            override val timestamp: Long, val bolusAmount: Double, val basalAmount: Double, val totalAmount: Double, val pumpId: Long?,
+            override val pumpType: PumpType, override val pumpSerial: String
+        ) : HistoryRecord()
+    }
+
+    /**
+     * Synchronization of whole pump history read
+     *
+     * Result is the same as calling corresponding single record functions one by one in the same order
+     * but all records are stored in one database transaction. Use it when pump history is read in bulk
+     * (after reconnect, history download) to avoid transaction per record
+     *
+     * @param records       records in order of pump history
+     * @return result of every record in the same order (the same value as returned by single record function)
+     **/
+    fun syncBatch(records: List<HistoryRecord>): List<Boolean>
+}
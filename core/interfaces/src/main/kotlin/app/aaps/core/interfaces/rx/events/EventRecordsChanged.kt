@@ -0,0 +1,21 @@
+package app.aaps.core.interfaces.rx.events
+
+/**
+ * Fired when database records have been inserted or updated.
+ *
+ * @param type Type of changed records.
+ * @param from Timestamp of the oldest changed record.
+ * @param to Last timestamp whose data may be affected by the change.
+ */
+class EventRecordsChanged(val type: Type, val from: Long, val to: Long) : Event() {
+
+    enum class Type {
+        BOLUS,
+        CARBS,
+        EFFECTIVE_PROFILE_SWITCH,
+        EXTENDED_BOLUS,
+        THERAPY_EVENT,
+        HEART_RATE,
+        STEPS_COUNT
+    }
+}
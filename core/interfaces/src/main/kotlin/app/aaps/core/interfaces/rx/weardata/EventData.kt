@@ -314,6 +314,30 @@ sealed class EventData : Event() {
         val entries: ArrayList<SingleBg>
     ) : EventData()
 
+    /**
+     * Changes of graph and treatment data since [baseSequence] (see [GraphDataDeltaEncoder]).
+     * [baseSequence] == 0 marks full state. Sequences are counted within [session] of the sender.
+     */
+    @Serializable
+    data class GraphDataDelta(
+        val session: Long,
+        val sequence: Long,
+        val baseSequence: Long,
+        val addedEntries: ArrayList<SingleBg> = arrayListOf(),
+        val removedEntries: ArrayList<SingleBg> = arrayListOf(),
+        val addedTemps: ArrayList<TreatmentData.TempBasal> = arrayListOf(),
+        val removedTemps: ArrayList<TreatmentData.TempBasal> = arrayListOf(),
+        val addedBasals: ArrayList<TreatmentData.Basal> = arrayListOf(),
+        val removedBasals: ArrayList<TreatmentData.Basal> = arrayListOf(),
+        val addedBoluses: ArrayList<TreatmentData.Treatment> = arrayListOf(),
+        val removedBoluses: ArrayList<TreatmentData.Treatment> = arrayListOf(),
+        val predictionsChanged: Boolean = false,
+        val predictions: ArrayList<SingleBg> = arrayListOf()
+    ) : EventData() {
+
+        val isFull get() = baseSequence == 0L
+    }
+
     @Serializable
     data class TreatmentData(
         val temps: ArrayList<TempBasal>,
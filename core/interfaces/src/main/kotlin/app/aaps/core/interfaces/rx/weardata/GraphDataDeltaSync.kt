@@ -0,0 +1,182 @@
+package app.aaps.core.interfaces.rx.weardata
+
+import kotlin.random.Random
+
+/**
+ * Phone side of graph data synchronization.
+ *
+ * Remembers last sent state and produces [EventData.GraphDataDelta] containing only changed items.
+ * Every delta references sequence it was computed from. Watch cannot apply delta on top of different state
+ * and requests full resend (see [GraphDataDeltaMerger]) which is produced after [reset].
+ *
+ * @param session identifies this sender, sequences start again in every session (e.g. after restart of phone app)
+ */
+class GraphDataDeltaEncoder(private val session: Long = Random.nextLong()) {
+
+    private var sequence = 0L
+    private var entries: List<EventData.SingleBg> = emptyList()
+    private var temps: List<EventData.TreatmentData.TempBasal> = emptyList()
+    private var basals: List<EventData.TreatmentData.Basal> = emptyList()
+    private var boluses: List<EventData.TreatmentData.Treatment> = emptyList()
+    private var predictions: List<EventData.SingleBg> = emptyList()
+    private var fullRequested = true
+
+    /**
+     * Next [encode] produces full state
+     */
+    @Synchronized
+    fun reset() {
+        fullRequested = true
+    }
+
+    /**
+     * @param newEntries current bg entries or null if not available (no change)
+     * @param treatmentData current treatments or null if not available (no change)
+     */
+    @Synchronized
+    fun encode(newEntries: List<EventData.SingleBg>?, treatmentData: EventData.TreatmentData?): EventData.GraphDataDelta {
+        val full = fullRequested
+        val baseSequence = if (full) 0L else sequence
+        fullRequested = false
+        sequence++
+        // on full state everything is sent as added
+        val entriesDiff = diff(if (full) emptyList() else entries, newEntries ?: entries) { it.contentKey() }
+        val tempsDiff = diff(if (full) emptyList() else temps, treatmentData?.temps ?: temps) { it }
+        val basalsDiff = diff(if (full) emptyList() else basals, treatmentData?.basals ?: basals) { it }
+        val bolusesDiff = diff(if (full) emptyList() else boluses, treatmentData?.boluses ?: boluses) { it }
+        val newPredictions = treatmentData?.predictions ?: predictions
+        val predictionsChanged = full || newPredictions.map { it.contentKey() } != predictions.map { it.contentKey() }
+
+        newEntries?.let { entries = ArrayList(it) }
+        treatmentData?.let {
+            temps = ArrayList(it.temps)
+            basals = ArrayList(it.basals)
+            boluses = ArrayList(it.boluses)
+            predictions = ArrayList(it.predictions)
+        }
+        return EventData.GraphDataDelta(
+            session = session,
+            sequence = sequence,
+            baseSequence = baseSequence,
+            addedEntries = entriesDiff.first,
+            removedEntries = entriesDiff.second,
+            addedTemps = tempsDiff.first,
+            removedTemps = tempsDiff.second,
+            addedBasals = basalsDiff.first,
+            removedBasals = basalsDiff.second,
+            addedBoluses = bolusesDiff.first,
+            removedBoluses = bolusesDiff.second,
+            predictionsChanged = predictionsChanged,
+            predictions = if (predictionsChanged) ArrayList(newPredictions) else arrayListOf()
+        )
+    }
+
+    /**
+     * @return pair of (added, removed) items. Lists are compared as multisets
+     */
+    private fun <T> diff(old: List<T>, new: List<T>, key: (T) -> Any): Pair<ArrayList<T>, ArrayList<T>> {
+        val remaining = HashMap<Any, Int>(old.size * 2)
+        old.forEach { remaining.merge(key(it), 1) { a, b -> a + b } }
+        val added = ArrayList<T>()
+        for (item in new) {
+            val k = key(item)
+            val count = remaining[k] ?: 0
+            if (count > 0) remaining[k] = count - 1
+            else added.add(item)
+        }
+        val removed = ArrayList<T>()
+        for (item in old) {
+            val k = key(item)
+            val count = remaining[k] ?: 0
+            if (count > 0) {
+                remaining[k] = count - 1
+                removed.add(item)
+            }
+        }
+        return Pair(added, removed)
+    }
+}
+
+/**
+ * Watch side of graph data synchronization.
+ *
+ * Applies [EventData.GraphDataDelta] on top of local state. Full state of new sender session resets ordering,
+ * within a session older or duplicated deltas and full states are ignored. Delta computed from different state
+ * is reported as [Result.GAP] and full resend should be requested from phone.
+ */
+class GraphDataDeltaMerger {
+
+    enum class Result { APPLIED, IGNORED, GAP }
+
+    var sequence = 0L
+        private set
+    private var session: Long? = null
+    private val entries = ArrayList<EventData.SingleBg>()
+    private val temps = ArrayList<EventData.TreatmentData.TempBasal>()
+    private val basals = ArrayList<EventData.TreatmentData.Basal>()
+    private val boluses = ArrayList<EventData.TreatmentData.Treatment>()
+    private val predictions = ArrayList<EventData.SingleBg>()
+
+    @Synchronized
+    fun apply(delta: EventData.GraphDataDelta): Result {
+        when {
+            delta.session != session                        -> if (!delta.isFull) return Result.GAP
+            delta.sequence <= sequence                      -> return Result.IGNORED
+            !delta.isFull && delta.baseSequence != sequence -> return Result.GAP
+        }
+        if (delta.isFull) {
+            entries.clear()
+            temps.clear()
+            basals.clear()
+            boluses.clear()
+            predictions.clear()
+        }
+        remove(entries, delta.removedEntries) { it.contentKey() }
+        remove(temps, delta.removedTemps) { it }
+        remove(basals, delta.removedBasals) { it }
+        remove(boluses, delta.removedBoluses) { it }
+        entries.addAll(delta.addedEntries)
+        temps.addAll(delta.addedTemps)
+        basals.addAll(delta.addedBasals)
+        boluses.addAll(delta.addedBoluses)
+        entries.sortBy { it.timeStamp }
+        temps.sortBy { it.startTime }
+        basals.sortBy { it.startTime }
+        boluses.sortBy { it.date }
+        if (delta.predictionsChanged) {
+            predictions.clear()
+            predictions.addAll(delta.predictions)
+        }
+        session = delta.session
+        sequence = delta.sequence
+        return Result.APPLIED
+    }
+
+    @Synchronized
+    fun graphData(): EventData.GraphData = EventData.GraphData(ArrayList(entries))
+
+    @Synchronized
+    fun treatmentData(): EventData.TreatmentData =
+        EventData.TreatmentData(ArrayList(temps), ArrayList(basals), ArrayList(boluses), ArrayList(predictions))
+
+    private fun <T> remove(list: MutableList<T>, removed: List<T>, key: (T) -> Any) {
+        if (removed.isEmpty()) return
+        val toRemove = HashMap<Any, Int>(removed.size * 2)
+        removed.forEach { toRemove.merge(key(it), 1) { a, b -> a + b } }
+        list.removeAll { item ->
+            val k = key(item)
+            val count = toRemove[k] ?: 0
+            if (count > 0) toRemove[k] = count - 1
+            count > 0
+        }
+    }
+}
+
+/**
+ * [EventData.SingleBg.equals] compares only timestamp and color. Delta must detect changed values too.
+ */
+private fun EventData.SingleBg.contentKey(): Any =
+    listOf(
+        dataset, timeStamp, sgvString, glucoseUnits, slopeArrow, delta, deltaDetailed, avgDelta, avgDeltaDetailed,
+        sgvLevel, sgv, high, low, color, deltaMgdl, avgDeltaMgdl, id
+    )
@@ -0,0 +1,158 @@
+package app.aaps.core.interfaces.rx.weardata
+
+import com.google.common.truth.Truth.assertThat
+import kotlinx.serialization.ExperimentalSerializationApi
+import org.junit.jupiter.api.Test
+
+@ExperimentalSerializationApi
+class GraphDataDeltaSyncTest {
+
+    private fun bg(timeStamp: Long, sgv: Double) =
+        EventData.SingleBg(dataset = 0, timeStamp = timeStamp, sgvString = sgv.toString(), glucoseUnits = "mg/dl", sgv = sgv, high = 180.0, low = 70.0)
+
+    private fun entries(now: Long, count: Int = 288): List<EventData.SingleBg> =
+        (0 until count).map { now - (count - 1 - it) * 300_000L }.map { bg(it, 100.0 + it / 300_000L % 50) }
+
+    private fun treatments(now: Long) = EventData.TreatmentData(
+        arrayListOf(EventData.TreatmentData.TempBasal(now - 3_600_000, 1.0, now, 1.5, 1.5)),
+        arrayListOf(EventData.TreatmentData.Basal(now - 7_200_000, now, 1.0)),
+        arrayListOf(EventData.TreatmentData.Treatment(now - 1_800_000, 2.0, 0.0, isSMB = false, isValid = true)),
+        arrayListOf(bg(now + 300_000, 120.0), bg(now + 600_000, 125.0))
+    )
+
+    @Test
+    fun firstMessageIsFull() {
+        val encoder = GraphDataDeltaEncoder()
+        val delta = encoder.encode(entries(1_000_000_000), treatments(1_000_000_000))
+        assertThat(delta.isFull).isTrue()
+        assertThat(delta.addedEntries).hasSize(288)
+        assertThat(delta.predictionsChanged).isTrue()
+    }
+
+    @Test
+    fun deltaContainsOnlyChanges() {
+        val encoder = GraphDataDeltaEncoder()
+        val now = 1_000_000_000L
+        encoder.encode(entries(now), treatments(now))
+        val delta = encoder.encode(entries(now + 300_000), treatments(now))
+
+        assertThat(delta.isFull).isFalse()
+        assertThat(delta.addedEntries.map { it.timeStamp }).containsExactly(now + 300_000)
+        assertThat(delta.removedEntries.map { it.timeStamp }).containsExactly(now - 287 * 300_000L)
+        assertThat(delta.addedTemps).isEmpty()
+        assertThat(delta.removedBoluses).isEmpty()
+        assertThat(delta.predictionsChanged).isFalse()
+    }
+
+    @Test
+    fun changedValueWithSameTimestampIsDetected() {
+        val encoder = GraphDataDeltaEncoder()
+        val merger = GraphDataDeltaMerger()
+        merger.apply(encoder.encode(listOf(bg(1000, 100.0)), null))
+        val delta = encoder.encode(listOf(bg(1000, 110.0)), null)
+
+        assertThat(delta.addedEntries).hasSize(1)
+        assertThat(delta.removedEntries).hasSize(1)
+        assertThat(merger.apply(delta)).isEqualTo(GraphDataDeltaMerger.Result.APPLIED)
+        assertThat(merger.graphData().entries.single().sgv).isEqualTo(110.0)
+    }
+
+    @Test
+    fun mergerConvergesToPhoneState() {
+        val encoder = GraphDataDeltaEncoder()
+        val merger = GraphDataDeltaMerger()
+        var now = 1_000_000_000L
+        repeat(20) {
+            now += 300_000
+            val treatmentData = treatments(now)
+            assertThat(merger.apply(encoder.encode(entries(now), treatmentData))).isEqualTo(GraphDataDeltaMerger.Result.APPLIED)
+            assertThat(merger.graphData().entries.map { it.timeStamp }).isEqualTo(entries(now).map { it.timeStamp })
+            assertThat(merger.treatmentData().temps).isEqualTo(treatmentData.temps)
+            assertThat(merger.treatmentData().boluses).isEqualTo(treatmentData.boluses)
+            assertThat(merger.treatmentData().predictions.map { it.sgv }).isEqualTo(treatmentData.predictions.map { it.sgv })
+        }
+    }
+
+    @Test
+    fun droppedMessageIsDetectedAndRecoveredByFullResend() {
+        val encoder = GraphDataDeltaEncoder()
+        val merger = GraphDataDeltaMerger()
+        val now = 1_000_000_000L
+        merger.apply(encoder.encode(entries(now), treatments(now)))
+        encoder.encode(entries(now + 300_000), treatments(now + 300_000)) // lost
+        val next = encoder.encode(entries(now + 600_000), treatments(now + 600_000))
+
+        assertThat(merger.apply(next)).isEqualTo(GraphDataDeltaMerger.Result.GAP)
+        encoder.reset()
+        val full = encoder.encode(entries(now + 600_000), treatments(now + 600_000))
+        assertThat(merger.apply(full)).isEqualTo(GraphDataDeltaMerger.Result.APPLIED)
+        assertThat(merger.graphData().entries.map { it.timeStamp }).isEqualTo(entries(now + 600_000).map { it.timeStamp })
+    }
+
+    @Test
+    fun reorderedAndDuplicatedMessagesAreNotApplied() {
+        val encoder = GraphDataDeltaEncoder()
+        val merger = GraphDataDeltaMerger()
+        val now = 1_000_000_000L
+        val first = encoder.encode(entries(now), null)
+        val second = encoder.encode(entries(now + 300_000), null)
+        val third = encoder.encode(entries(now + 600_000), null)
+
+        assertThat(merger.apply(first)).isEqualTo(GraphDataDeltaMerger.Result.APPLIED)
+        assertThat(merger.apply(third)).isEqualTo(GraphDataDeltaMerger.Result.GAP)
+        assertThat(merger.apply(second)).isEqualTo(GraphDataDeltaMerger.Result.APPLIED)
+        assertThat(merger.apply(second)).isEqualTo(GraphDataDeltaMerger.Result.IGNORED)
+        assertThat(merger.apply(third)).isEqualTo(GraphDataDeltaMerger.Result.APPLIED)
+        // delayed full state of the same session doesn't roll back
+        assertThat(merger.apply(first)).isEqualTo(GraphDataDeltaMerger.Result.IGNORED)
+        assertThat(merger.graphData().entries.map { it.timeStamp }).isEqualTo(entries(now + 600_000).map { it.timeStamp })
+    }
+
+    @Test
+    fun staleFullStateIsNotApplied() {
+        val encoder = GraphDataDeltaEncoder()
+        val merger = GraphDataDeltaMerger()
+        val now = 1_000_000_000L
+        val first = encoder.encode(entries(now), null)
+        encoder.reset()
+        val resent = encoder.encode(entries(now + 300_000), null)
+        val next = encoder.encode(entries(now + 600_000), null)
+
+        assertThat(merger.apply(first)).isEqualTo(GraphDataDeltaMerger.Result.APPLIED)
+        assertThat(merger.apply(resent)).isEqualTo(GraphDataDeltaMerger.Result.APPLIED)
+        assertThat(merger.apply(next)).isEqualTo(GraphDataDeltaMerger.Result.APPLIED)
+        assertThat(merger.apply(resent)).isEqualTo(GraphDataDeltaMerger.Result.IGNORED)
+        assertThat(merger.graphData().entries.map { it.timeStamp }).isEqualTo(entries(now + 600_000).map { it.timeStamp })
+    }
+
+    @Test
+    fun newSessionResetsOrdering() {
+        val merger = GraphDataDeltaMerger()
+        val now = 1_000_000_000L
+        val encoder = GraphDataDeltaEncoder(session = 1)
+        repeat(5) { merger.apply(encoder.encode(entries(now + it * 300_000L), null)) }
+        assertThat(merger.sequence).isEqualTo(5)
+
+        // restarted phone app counts from beginning
+        val restarted = GraphDataDeltaEncoder(session = 2)
+        val full = restarted.encode(entries(now + 1_500_000), null)
+        val delta = restarted.encode(entries(now + 1_800_000), null)
+        assertThat(merger.apply(delta)).isEqualTo(GraphDataDeltaMerger.Result.GAP)
+        assertThat(merger.apply(full)).isEqualTo(GraphDataDeltaMerger.Result.APPLIED)
+        assertThat(merger.apply(delta)).isEqualTo(GraphDataDeltaMerger.Result.APPLIED)
+        assertThat(merger.graphData().entries.map { it.timeStamp }).isEqualTo(entries(now + 1_800_000).map { it.timeStamp })
+        // delta of previous session
+        assertThat(merger.apply(encoder.encode(entries(now + 2_100_000), null))).isEqualTo(GraphDataDeltaMerger.Result.GAP)
+    }
+
+    @Test
+    fun deltaIsSmallerThanFullPayload() {
+        val encoder = GraphDataDeltaEncoder()
+        val now = 1_000_000_000L
+        encoder.encode(entries(now), treatments(now))
+        val delta = encoder.encode(entries(now + 300_000), treatments(now + 300_000))
+        val fullSize = EventData.GraphData(ArrayList(entries(now + 300_000))).serializeByte().size + treatments(now + 300_000).serializeByte().size
+
+        assertThat(delta.serializeByte().size * 10).isLessThan(fullSize)
+    }
+}
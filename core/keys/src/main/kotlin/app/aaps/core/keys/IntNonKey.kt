@@ -10,5 +10,6 @@ enum class IntNonKey(
 ) : IntNonPreferenceKey {
 
     ObjectivesManualEnacts("ObjectivesmanualEnacts", 0),
-    RangeToDisplay("rangetodisplay", 6)
+    RangeToDisplay("rangetodisplay", 6),
+    CleanupWatermarkStep("cleanup_watermark_step", 0, exportable = false)
 }
\ No newline at end of file
@@ -12,5 +12,6 @@ enum class LongNonKey(
     BtWatchdogLastBark("bt_watchdog_last", 0L),
     ActivePumpChangeTimestamp("active_pump_change_timestamp", 0L),
     LastCleanupRun("last_cleanup_run", 0L),
+    CleanupWatermarkThan("cleanup_watermark_than", 0L, exportable = false),
 }
 
@@ -1,20 +1,108 @@
 package app.aaps.core.utils
 
+import java.util.Arrays
 import kotlin.math.floor
 
 object Percentile {
 
+    // ranges shorter than this are sorted
+    private const val SORT_THRESHOLD = 16
+
     // From https://gist.github.com/IceCreamYou/6ffa1b18c4c8f6aeaad2
     // Returns the value at a given percentile in a sorted numeric array.
     // "Linear interpolation between closest ranks" method
     fun percentile(arr: Array<Double>, p: Double): Double {
         if (arr.isEmpty()) return 0.0
-        if (p <= 0) return arr[0]
-        if (p >= 1) return arr[arr.size - 1]
-        val index = arr.size * p
+        return interpolate(arr.size, p) { arr[it] }
+    }
+
+    /**
+     * The same as [percentile] of sorted array but [arr] doesn't need to be sorted.
+     * Only needed ranks are selected by quickselect in expected O(n). Order of [arr] is changed.
+     */
+    fun percentile(arr: DoubleArray, p: Double): Double = percentiles(arr, p)[0]
+
+    /**
+     * Several percentiles of unsorted [arr] computed in one partitioning pass
+     *
+     * @param arr values in any order. Order is changed.
+     * @param p requested percentiles (0.0 - 1.0)
+     * @return value of every percentile in order of [p], the same as [percentile] of sorted array
+     */
+    fun percentiles(arr: DoubleArray, vararg p: Double): DoubleArray {
+        if (arr.isEmpty()) return DoubleArray(p.size)
+        val ranks = IntArray(p.size * 2)
+        var count = 0
+        for (q in p) {
+            val lower = lowerRank(arr.size, q)
+            ranks[count++] = lower
+            if (q > 0 && q < 1 && lower + 1 < arr.size) ranks[count++] = lower + 1
+        }
+        ranks.sort(0, count)
+        select(arr, 0, arr.size - 1, ranks, 0, count - 1, 2 * (32 - Integer.numberOfLeadingZeros(arr.size)))
+        return DoubleArray(p.size) { interpolate(arr.size, p[it]) { rank -> arr[rank] } }
+    }
+
+    private fun lowerRank(size: Int, p: Double): Int = when {
+        p <= 0 -> 0
+        p >= 1 -> size - 1
+        else   -> floor(size * p).toInt()
+    }
+
+    private inline fun interpolate(size: Int, p: Double, valueAt: (Int) -> Double): Double {
+        if (p <= 0) return valueAt(0)
+        if (p >= 1) return valueAt(size - 1)
+        val index = size * p
         val lower = floor(index)
         val upper = lower + 1
         val weight = index % 1
-        return if (upper >= arr.size) arr[lower.toInt()] else arr[lower.toInt()] * (1 - weight) + arr[upper.toInt()] * weight
+        return if (upper >= size) valueAt(lower.toInt()) else valueAt(lower.toInt()) * (1 - weight) + valueAt(upper.toInt()) * weight
+    }
+
+    /**
+     * Move values of sorted [ranks] (indexes [rFrom]..[rTo]) to their sorted position within [from]..[to]
+     *
+     * Values are compared by [Double.compareTo] which gives the same order as sorting.
+     * When [depth] is exhausted (bad pivots) the range is sorted instead.
+     */
+    private fun select(arr: DoubleArray, from: Int, to: Int, ranks: IntArray, rFrom: Int, rTo: Int, depth: Int) {
+        if (rFrom > rTo || from >= to) return
+        if (depth == 0 || to - from < SORT_THRESHOLD) {
+            Arrays.sort(arr, from, to + 1)
+            return
+        }
+        val pivot = median(arr[from], arr[(from + to) ushr 1], arr[to])
+        // 3-way partition: [from, lt) < pivot, [lt, gt] == pivot, (gt, to] > pivot
+        var lt = from
+        var gt = to
+        var i = from
+        while (i <= gt) {
+            val c = arr[i].compareTo(pivot)
+            when {
+                c < 0 -> swap(arr, lt++, i++)
+                c > 0 -> swap(arr, i, gt--)
+                else  -> i++
+            }
+        }
+        var left = rFrom
+        while (left <= rTo && ranks[left] < lt) left++
+        var right = left
+        while (right <= rTo && ranks[right] <= gt) right++
+        select(arr, from, lt - 1, ranks, rFrom, left - 1, depth - 1)
+        select(arr, gt + 1, to, ranks, right, rTo, depth - 1)
+    }
+
+    // pivot choice only, correctness doesn't depend on NaN handling here
+    private fun median(a: Double, b: Double, c: Double): Double =
+        if (a < b) {
+            if (b < c) b else if (a < c) c else a
+        } else {
+            if (a < c) a else if (b < c) c else b
+        }
+
+    private fun swap(arr: DoubleArray, i: Int, j: Int) {
+        val tmp = arr[i]
+        arr[i] = arr[j]
+        arr[j] = tmp
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,68 @@
+package app.aaps.core.utils
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import kotlin.random.Random
+
+class PercentileTest {
+
+    private val random = Random(42)
+
+    private fun sorted(values: DoubleArray): Array<Double> = values.toTypedArray().also { it.sort() }
+
+    // deviations like in sensitivity plugins: rounded values, many zeros from padding, negative zeros
+    private fun deviations(size: Int): DoubleArray = DoubleArray(size) {
+        when (random.nextInt(6)) {
+            0    -> 0.0
+            1    -> -0.0
+            2    -> Math.round(random.nextDouble(-10.0, 10.0)).toDouble()
+            else -> random.nextDouble(-50.0, 50.0)
+        }
+    }
+
+    @Test
+    fun emptyArray() {
+        assertThat(Percentile.percentile(DoubleArray(0), 0.5)).isEqualTo(0.0)
+        assertThat(Percentile.percentiles(DoubleArray(0), 0.25, 0.75).toList()).containsExactly(0.0, 0.0)
+    }
+
+    @Test
+    fun knownValues() {
+        assertThat(Percentile.percentile(doubleArrayOf(3.0, 1.0, 2.0), 0.5)).isWithin(1e-9).of(2.5)
+        assertThat(Percentile.percentile(doubleArrayOf(4.0, 1.0, 3.0, 2.0), 0.5)).isEqualTo(3.0)
+        assertThat(Percentile.percentile(doubleArrayOf(4.0, 1.0, 3.0, 2.0), 0.0)).isEqualTo(1.0)
+        assertThat(Percentile.percentile(doubleArrayOf(4.0, 1.0, 3.0, 2.0), 1.0)).isEqualTo(4.0)
+    }
+
+    @Test
+    fun sameAsSortedArrayOnRandomInput() {
+        repeat(5000) { round ->
+            val values = deviations(1 + random.nextInt(if (round % 50 == 0) 3000 else 100))
+            val p = listOf(0.5, random.nextDouble(), random.nextDouble(-0.2, 1.2), 0.0, 1.0, 0.25, 0.75)
+            val expected = sorted(values).let { s -> p.map { Percentile.percentile(s, it) } }
+
+            for (i in p.indices)
+                assertThat(Percentile.percentile(values.copyOf(), p[i]).toRawBits()).isEqualTo(expected[i].toRawBits())
+            assertThat(Percentile.percentiles(values.copyOf(), *p.toDoubleArray()).map { it.toRawBits() }).isEqualTo(expected.map { it.toRawBits() })
+        }
+    }
+
+    @Test
+    fun sameAsSortedArrayOnAdverseInput() {
+        val size = 5000
+        val inputs = listOf(
+            DoubleArray(size) { it.toDouble() },
+            DoubleArray(size) { (size - it).toDouble() },
+            DoubleArray(size) { 1.0 },
+            DoubleArray(size) { (it % 2).toDouble() },
+            // organ pipe
+            DoubleArray(size) { minOf(it, size - it).toDouble() },
+            DoubleArray(size) { if (it % 10 == 0) Double.NaN else random.nextDouble() }
+        )
+        for (values in inputs) {
+            val s = sorted(values)
+            val expected = listOf(0.1, 0.5, 0.9).map { Percentile.percentile(s, it).toRawBits() }
+            assertThat(Percentile.percentiles(values.copyOf(), 0.1, 0.5, 0.9).map { it.toRawBits() }).isEqualTo(expected)
+        }
+    }
+}
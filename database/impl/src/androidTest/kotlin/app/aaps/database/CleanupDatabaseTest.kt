@@ -0,0 +1,129 @@
+package app.aaps.database
+
+import android.content.Context
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import app.aaps.database.entities.GlucoseValue
+import app.aaps.database.entities.TABLE_GLUCOSE_VALUES
+import app.aaps.database.entities.TherapyEvent
+import app.aaps.database.entities.data.GlucoseUnit
+import app.aaps.database.transactions.InsertIfNewByTimestampTherapyEventTransaction
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.concurrent.thread
+
+@RunWith(AndroidJUnit4::class)
+class CleanupDatabaseTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private lateinit var db: AppDatabase
+    private lateinit var repo: AppRepository
+
+    private val now = System.currentTimeMillis()
+    private val keepDays = 93L
+
+    /** Max allowed wait of concurrent transaction in ms. Can be overridden by instrumentation argument "maxTransactionWait" */
+    private val maxTransactionWait = InstrumentationRegistry.getArguments().getString("maxTransactionWait")?.toLong() ?: 500L
+
+    @Before
+    fun setUp() {
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java).build()
+        repo = AppRepository(db)
+    }
+
+    @After
+    fun shutdown() {
+        db.close()
+    }
+
+    /**
+     * Seed 1-minute CGM data for [days] days back
+     */
+    private fun seedGlucose(days: Int) {
+        val start = now - TimeUnit.DAYS.toMillis(days.toLong())
+        db.runInTransaction {
+            var time = start
+            while (time < now) {
+                db.glucoseValueDao.insert(
+                    GlucoseValue(
+                        timestamp = time, raw = null, value = 100.0, trendArrow = GlucoseValue.TrendArrow.FLAT, noise = null,
+                        sourceSensor = GlucoseValue.SourceSensor.UNKNOWN
+                    )
+                )
+                time += TimeUnit.MINUTES.toMillis(1)
+            }
+        }
+    }
+
+    private fun glucoseCount(than: Long = Long.MAX_VALUE): Int =
+        db.openHelper.readableDatabase.query("SELECT COUNT(*) FROM $TABLE_GLUCOSE_VALUES WHERE timestamp < $than").use { c ->
+            c.moveToFirst()
+            c.getInt(0)
+        }
+
+    @Test
+    fun concurrentTransactionIsNotBlockedByCleanup() {
+        seedGlucose(365)
+        val before = glucoseCount()
+
+        val cleanupRunning = AtomicBoolean(true)
+        val cleanup = thread {
+            try {
+                repo.cleanupDatabase(keepDays, deleteTrackedChanges = true, batchSize = 2000)
+            } finally {
+                cleanupRunning.set(false)
+            }
+        }
+
+        var maxWait = 0L
+        var inserted = 0
+        while (cleanupRunning.get()) {
+            val start = System.nanoTime()
+            repo.runTransaction(
+                InsertIfNewByTimestampTherapyEventTransaction(
+                    TherapyEvent(timestamp = now + inserted, type = TherapyEvent.Type.NOTE, glucoseUnit = GlucoseUnit.MGDL)
+                )
+            ).blockingAwait()
+            maxWait = maxOf(maxWait, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+            inserted++
+        }
+        cleanup.join()
+
+        assertTrue("No transaction run during cleanup", inserted > 0)
+        assertTrue("Transaction waited $maxWait ms", maxWait <= maxTransactionWait)
+        val expected = TimeUnit.DAYS.toMinutes(keepDays).toInt()
+        assertTrue(glucoseCount() in expected - 1..expected + 1)
+        assertTrue(glucoseCount() < before)
+    }
+
+    @Test
+    fun interruptedCleanupIsResumed() {
+        seedGlucose(120)
+        var watermark: Pair<Long, Int>? = null
+        try {
+            repo.cleanupDatabase(keepDays, deleteTrackedChanges = false, batchSize = 1000) { than, nextStep ->
+                watermark = Pair(than, nextStep)
+                // simulate process death after first step (APSResult)
+                throw InterruptedException()
+            }
+        } catch (ignored: InterruptedException) {
+            // expected
+        }
+        assertEquals(1, watermark!!.second)
+        val before = glucoseCount()
+
+        val result = repo.cleanupDatabase(keepDays, deleteTrackedChanges = false, resumeThan = watermark!!.first, resumeStep = watermark!!.second, batchSize = 1000)
+
+        assertTrue(result.contains("GlucoseValue"))
+        assertEquals(0, glucoseCount(watermark!!.first))
+        assertTrue(glucoseCount() < before)
+    }
+}
@@ -0,0 +1,70 @@
+package app.aaps.database.dao
+
+import android.content.Context
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import app.aaps.database.AppDatabase
+import app.aaps.database.entities.GlucoseValue
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.time.Instant
+import java.time.ZoneId
+import java.util.TimeZone
+import java.util.concurrent.TimeUnit
+
+@RunWith(AndroidJUnit4::class)
+class GlucoseValueDaoTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private lateinit var db: AppDatabase
+
+    private val zone = ZoneId.of("Europe/Prague")
+
+    // 2023-03-20 00:00 Prague, DST starts 2023-03-26
+    private val start = 1_679_266_800_000L
+
+    @Before
+    fun setUp() {
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java).build()
+    }
+
+    @After
+    fun shutdown() {
+        db.close()
+    }
+
+    @Test
+    fun dailyRangeCountsAreGroupedByLocalDay() {
+        val timeZone = TimeZone.getTimeZone(zone)
+        val values = doubleArrayOf(38.0, 39.0, 55.0, 70.0, 120.0, 180.0, 180.5, 250.0)
+        val inserted = ArrayList<GlucoseValue>()
+        db.runInTransaction {
+            for (i in 0 until TimeUnit.DAYS.toMinutes(14).toInt() / 5) {
+                val timestamp = start + TimeUnit.MINUTES.toMillis(i * 5L)
+                val gv = GlucoseValue(
+                    timestamp = timestamp, utcOffset = timeZone.getOffset(timestamp).toLong(), raw = null, value = values[i % values.size],
+                    trendArrow = GlucoseValue.TrendArrow.FLAT, noise = null, sourceSensor = GlucoseValue.SourceSensor.UNKNOWN, isValid = i % 50 != 0
+                )
+                db.glucoseValueDao.insert(gv)
+                inserted.add(gv)
+            }
+        }
+        val end = start + TimeUnit.DAYS.toMillis(10)
+
+        val expected = inserted
+            .filter { it.isValid && it.value >= 39 && it.timestamp in start..end }
+            .groupBy { Instant.ofEpochMilli(it.timestamp).atZone(zone).toLocalDate() }
+            .values
+            .map { day -> listOf(day.first().timestamp, day.last().timestamp, day.count { it.value < 70 }, day.count { it.value in 70.0..180.0 }, day.count { it.value > 180 }) }
+
+        val actual = db.glucoseValueDao.getDailyRangeCounts(start, end, 70.0, 180.0)
+            .map { listOf(it.firstTimestamp, it.lastTimestamp, it.below, it.inRange, it.above) }
+
+        assertEquals(11, actual.size)
+        assertEquals(expected, actual)
+    }
+}
@@ -0,0 +1,168 @@
+package app.aaps.database.dao
+
+import android.content.Context
+import androidx.room.Room
+import androidx.room.RoomDatabase
+import androidx.sqlite.db.SimpleSQLiteQuery
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import app.aaps.database.AppDatabase
+import app.aaps.database.di.createCustomTriggers
+import app.aaps.database.entities.GlucoseValue
+import app.aaps.database.entities.TemporaryBasal
+import app.aaps.database.entities.TherapyEvent
+import app.aaps.database.entities.UserEntry
+import app.aaps.database.entities.embedments.InterfaceIDs
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.Collections
+
+/**
+ * "Active at" and range queries must be resolved by index search, not by full table scan
+ *
+ * Not checked: housekeeping deletes (deleteOlderThan) and queries for the last or oldest record,
+ * which have no time condition and only walk the timestamp order.
+ */
+@RunWith(AndroidJUnit4::class)
+class QueryPlanTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private lateinit var db: AppDatabase
+    private val capturedQueries = Collections.synchronizedList(ArrayList<Pair<String, List<Any?>>>())
+
+    @Before
+    fun setUp() {
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java)
+            .addCallback(object : RoomDatabase.Callback() {
+                override fun onOpen(db: SupportSQLiteDatabase) {
+                    super.onOpen(db)
+                    createCustomTriggers(db)
+                }
+            })
+            .setQueryCallback({ sql, args -> capturedQueries.add(Pair(sql, args.toList())) }, Runnable::run)
+            .build()
+    }
+
+    @After
+    fun shutdown() {
+        db.close()
+    }
+
+    @Test
+    fun activeAtQueriesUseIndexes() {
+        val now = 1_700_000_000_000L
+        capturedQueries.clear()
+        db.temporaryBasalDao.getTemporaryBasalActiveAt(now).blockingGet()
+        db.temporaryBasalDao.getTemporaryBasalActiveAtLegacy(now)
+        db.temporaryBasalDao.getTemporaryBasalActiveBetweenTimeAndTime(now - 3_600_000, now).blockingGet()
+        db.extendedBolusDao.getExtendedBolusActiveAt(now).blockingGet()
+        db.extendedBolusDao.getExtendedBolusActiveAtLegacy(now)
+        db.temporaryTargetDao.getTemporaryTargetActiveAt(now).blockingGet()
+        db.temporaryTargetDao.getTemporaryTargetActiveAtLegacy(now)
+        db.carbsDao.getCarbsFromTimeExpandable(now).blockingGet()
+        db.carbsDao.getCarbsFromTimeToTimeExpandable(now - 3_600_000, now).blockingGet()
+        db.runningModeDao.getTemporaryRunningModeActiveAt(now).blockingGet()
+        db.bolusDao.getBolusesFromTime(now).blockingGet()
+        assertNoTableScan(11)
+    }
+
+    @Test
+    fun timeRangeQueriesUseIndexes() {
+        val now = 1_700_000_000_000L
+        capturedQueries.clear()
+        db.temporaryBasalDao.findByTimestamp(now)
+        db.temporaryBasalDao.getTemporaryBasalDataFromTime(now).blockingGet()
+        db.temporaryBasalDao.getTemporaryBasalStartingFromTimeToTime(now - 3_600_000, now).blockingGet()
+        db.temporaryBasalDao.getTemporaryBasalDataIncludingInvalidFromTime(now).blockingGet()
+        db.extendedBolusDao.findByTimestamp(now)
+        db.extendedBolusDao.getExtendedBolusesStartingFromTime(now).blockingGet()
+        db.extendedBolusDao.getExtendedBolusDataFromTimeToTime(now - 3_600_000, now).blockingGet()
+        db.extendedBolusDao.getExtendedBolusDataIncludingInvalidFromTime(now).blockingGet()
+        db.temporaryTargetDao.getTemporaryTargetDataFromTime(now).blockingGet()
+        db.temporaryTargetDao.getTemporaryTargetDataIncludingInvalidFromTime(now).blockingGet()
+        db.carbsDao.findByTimestamp(now)
+        db.carbsDao.getCarbsFromTime(now).blockingGet()
+        db.carbsDao.getCarbsIncludingInvalidFromTime(now).blockingGet()
+        db.runningModeDao.findByTimestamp(now)
+        db.runningModeDao.getPermanentRunningModeActiveAt(now).blockingGet()
+        db.runningModeDao.getRunningModeDataFromTime(now).blockingGet()
+        db.runningModeDao.getRunningModeDataFromTimeToTime(now - 3_600_000, now).blockingGet()
+        db.runningModeDao.getRunningModeDataIncludingInvalidFromTime(now).blockingGet()
+        db.bolusDao.findByTimestamp(now)
+        db.bolusDao.getBolusesFromTime(now - 3_600_000, now).blockingGet()
+        db.bolusDao.getBolusesIncludingInvalidFromTime(now).blockingGet()
+        db.glucoseValueDao.findByTimestampAndSensor(now, GlucoseValue.SourceSensor.UNKNOWN)
+        db.glucoseValueDao.compatGetBgReadingsDataFromTime(now).blockingGet()
+        db.glucoseValueDao.compatGetBgReadingsDataFromTime(now - 3_600_000, now).blockingGet()
+        db.therapyEventDao.findByTimestamp(TherapyEvent.Type.NOTE, now)
+        db.therapyEventDao.getTherapyEventDataFromTime(now).blockingGet()
+        db.therapyEventDao.getTherapyEventDataFromTime(now, TherapyEvent.Type.NOTE).blockingGet()
+        db.therapyEventDao.getTherapyEventDataIncludingInvalidFromTime(now).blockingGet()
+        db.therapyEventDao.getLastTherapyRecord(TherapyEvent.Type.NOTE, now).blockingGet()
+        db.therapyEventDao.compatGetTherapyEventDataFromToTime(now - 3_600_000, now).blockingGet()
+        db.profileSwitchDao.findByTimestamp(now)
+        db.profileSwitchDao.getTemporaryProfileSwitchActiveAt(now).blockingGet()
+        db.profileSwitchDao.getPermanentProfileSwitchActiveAt(now).blockingGet()
+        db.profileSwitchDao.getProfileSwitchDataFromTime(now).blockingGet()
+        db.profileSwitchDao.getProfileSwitchDataIncludingInvalidFromTime(now).blockingGet()
+        db.effectiveProfileSwitchDao.findByTimestamp(now)
+        db.effectiveProfileSwitchDao.getEffectiveProfileSwitchActiveAt(now).blockingGet()
+        db.effectiveProfileSwitchDao.getEffectiveProfileSwitchDataFromTime(now).blockingGet()
+        db.effectiveProfileSwitchDao.getEffectiveProfileSwitchDataFromTimeToTime(now - 3_600_000, now).blockingGet()
+        db.effectiveProfileSwitchDao.getEffectiveProfileSwitchDataIncludingInvalidFromTime(now).blockingGet()
+        db.heartRateDao.getFromTime(now).blockingGet()
+        db.heartRateDao.getFromTimeToTime(now - 3_600_000, now).blockingGet()
+        db.heartRateDao.getNewEntriesSince(now - 3_600_000, now, 100, 0)
+        db.stepsCountDao.getFromTime(now).blockingGet()
+        db.stepsCountDao.getFromTimeToTime(now - 3_600_000, now).blockingGet()
+        db.stepsCountDao.getNewEntriesSince(now - 3_600_000, now, 100, 0)
+        db.stepsCountDao.getLastStepsCountFromTime(now).blockingGet()
+        db.stepsCountDao.getLastStepsCountFromTimeToTime(now - 3_600_000, now).blockingGet()
+        db.bolusCalculatorResultDao.findByTimestamp(now)
+        db.bolusCalculatorResultDao.getBolusCalculatorResultsFromTime(now).blockingGet()
+        db.bolusCalculatorResultDao.getBolusCalculatorResultsIncludingInvalidFromTime(now).blockingGet()
+        db.totalDailyDoseDao.findByPumpTimestamp(now, InterfaceIDs.PumpType.DANA_I, "ABC123")
+        db.totalDailyDoseDao.findByPumpTimestamp(now, InterfaceIDs.PumpType.DANA_I)
+        db.totalDailyDoseDao.findByTimestamp(now, InterfaceIDs.PumpType.DANA_I).blockingGet()
+        db.apsResultDao.getApsResult(now - 3_600_000, now).blockingGet()
+        db.apsResultDao.getApsResults(now - 3_600_000, now).blockingGet()
+        db.userEntryDao.getUserEntryDataFromTime(now).blockingGet()
+        db.userEntryDao.getUserEntryFilteredDataFromTime(UserEntry.Sources.Loop, now).blockingGet()
+        assertNoTableScan(58)
+    }
+
+    @Test
+    fun endTimestampIsMaintainedByTriggers() {
+        val tb = TemporaryBasal(timestamp = 1000, duration = 100, rate = 1.0, isAbsolute = true, type = TemporaryBasal.Type.NORMAL)
+        tb.endTimestamp = 0 // simulate stale value
+        val id = db.temporaryBasalDao.insertNewEntry(tb)
+        assertEquals(1100L, db.temporaryBasalDao.findById(id)!!.endTimestamp)
+
+        // direct SQL update bypassing entity
+        db.openHelper.writableDatabase.execSQL("UPDATE temporaryBasals SET duration = 500 WHERE id = $id")
+        assertEquals(1500L, db.temporaryBasalDao.findById(id)!!.endTimestamp)
+    }
+
+    private fun assertNoTableScan(expectedQueries: Int) {
+        val selects = capturedQueries.filter { it.first.trimStart().startsWith("SELECT", ignoreCase = true) && it.first.contains("timestamp") }
+        assertEquals(expectedQueries, selects.size)
+        for ((sql, args) in selects) {
+            val plan = explain(sql, args)
+            assertTrue("Full table scan in: $sql\n$plan", plan.none { it.startsWith("SCAN") })
+        }
+    }
+
+    private fun explain(sql: String, args: List<Any?>): List<String> {
+        val details = ArrayList<String>()
+        db.openHelper.readableDatabase.query(SimpleSQLiteQuery("EXPLAIN QUERY PLAN $sql", args.toTypedArray())).use { c ->
+            val detail = c.getColumnIndex("detail")
+            while (c.moveToNext()) details.add(c.getString(detail))
+        }
+        return details
+    }
+}
@@ -0,0 +1,209 @@
+package app.aaps.database.transactions
+
+import android.content.Context
+import android.util.Log
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import app.aaps.database.AppDatabase
+import app.aaps.database.AppRepository
+import app.aaps.database.entities.Bolus
+import app.aaps.database.entities.ExtendedBolus
+import app.aaps.database.entities.TABLE_BOLUSES
+import app.aaps.database.entities.TABLE_EXTENDED_BOLUSES
+import app.aaps.database.entities.TABLE_TEMPORARY_BASALS
+import app.aaps.database.entities.TemporaryBasal
+import app.aaps.database.entities.embedments.InterfaceIDs
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.concurrent.TimeUnit
+
+@RunWith(AndroidJUnit4::class)
+class SyncPumpBatchTransactionTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private lateinit var singleDb: AppDatabase
+    private lateinit var batchDb: AppDatabase
+    private lateinit var singleRepo: AppRepository
+    private lateinit var batchRepo: AppRepository
+
+    private val start = 1_700_000_000_000L
+    private val step = TimeUnit.MINUTES.toMillis(5)
+    private val serial = "123456"
+
+    @Before
+    fun setUp() {
+        singleDb = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java).build()
+        batchDb = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java).build()
+        singleRepo = AppRepository(singleDb)
+        batchRepo = AppRepository(batchDb)
+    }
+
+    @After
+    fun shutdown() {
+        singleDb.close()
+        batchDb.close()
+    }
+
+    private fun ids(pumpId: Long) = InterfaceIDs(pumpId = pumpId, pumpType = InterfaceIDs.PumpType.ACCU_CHEK_INSIGHT, pumpSerial = serial)
+
+    /**
+     * Mixed pump history replay. New instances are created on every call because transactions modify records
+     */
+    private fun replay(count: Int): List<Transaction<*>> = (0 until count).map { i ->
+        val time = start + i * step
+        val pumpId = i.toLong()
+        when (i % 10) {
+            0, 5 -> SyncPumpBolusTransaction(Bolus(timestamp = time, amount = 1.0, type = Bolus.Type.NORMAL, interfaceIDs_backing = ids(pumpId)), null)
+            // running temporary basal is cut by the next one
+            1, 6 -> SyncPumpTemporaryBasalTransaction(
+                TemporaryBasal(timestamp = time, type = TemporaryBasal.Type.NORMAL, isAbsolute = true, rate = 0.5 + i % 3, duration = TimeUnit.MINUTES.toMillis(30), interfaceIDs_backing = ids(pumpId)),
+                null
+            )
+
+            2    -> SyncPumpCancelTemporaryBasalIfAnyTransaction(time, pumpId, InterfaceIDs.PumpType.ACCU_CHEK_INSIGHT, serial)
+            3    -> SyncPumpExtendedBolusTransaction(ExtendedBolus(timestamp = time, amount = 2.0, duration = TimeUnit.MINUTES.toMillis(60), interfaceIDs_backing = ids(pumpId)))
+            8    -> SyncPumpCancelExtendedBolusIfAnyTransaction(time, pumpId, InterfaceIDs.PumpType.ACCU_CHEK_INSIGHT, serial)
+            // update of record from the same batch
+            4    -> SyncPumpBolusTransaction(Bolus(timestamp = time - 4 * step, amount = 1.5, type = Bolus.Type.SMB, interfaceIDs_backing = ids(pumpId - 4)), Bolus.Type.SMB)
+            // duplicate
+            7    -> SyncPumpTemporaryBasalTransaction(
+                TemporaryBasal(timestamp = time - step, type = TemporaryBasal.Type.NORMAL, isAbsolute = true, rate = 0.5 + (i - 1) % 3, duration = TimeUnit.MINUTES.toMillis(30), interfaceIDs_backing = ids(pumpId - 1)),
+                null
+            )
+
+            else -> SyncPumpBolusTransaction(Bolus(timestamp = time, amount = 0.2, type = Bolus.Type.SMB, interfaceIDs_backing = ids(pumpId)), Bolus.Type.SMB)
+        }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun runSingle(repo: AppRepository, transaction: Transaction<*>): Any = repo.runTransactionForResult(transaction as Transaction<Any>).blockingGet()
+
+    private fun dump(db: AppDatabase, table: String): List<String> {
+        val rows = ArrayList<String>()
+        db.openHelper.readableDatabase.query("SELECT * FROM $table ORDER BY id").use { c ->
+            while (c.moveToNext())
+                rows.add(c.columnNames.indices.filter { c.columnNames[it] != "dateCreated" }.joinToString { "${c.columnNames[it]}=${c.getString(it)}" })
+        }
+        return rows
+    }
+
+    /**
+     * Records inserted and updated by every transaction. Creation time is set by database clock and differs
+     */
+    private fun content(result: Any?): List<Any> = when (result) {
+        is SyncPumpBolusTransaction.TransactionResult                     ->
+            listOf("bolus inserted", result.inserted.map { it.copy(dateCreated = 0) }, "updated", result.updated.map { it.copy(dateCreated = 0) })
+
+        is SyncPumpTemporaryBasalTransaction.TransactionResult            ->
+            listOf(
+                "temporary basal inserted", result.inserted.map { it.copy(dateCreated = 0) },
+                "updated", result.updated.map { (old, new) -> Pair(old.copy(dateCreated = 0), new.copy(dateCreated = 0)) }
+            )
+
+        is SyncPumpCancelTemporaryBasalIfAnyTransaction.TransactionResult ->
+            listOf("temporary basal cancelled", result.updated.map { (old, new) -> Pair(old.copy(dateCreated = 0), new.copy(dateCreated = 0)) })
+
+        is SyncPumpExtendedBolusTransaction.TransactionResult             ->
+            listOf("extended bolus inserted", result.inserted.map { it.copy(dateCreated = 0) }, "updated", result.updated.map { it.copy(dateCreated = 0) })
+
+        is SyncPumpCancelExtendedBolusIfAnyTransaction.TransactionResult  ->
+            listOf("extended bolus cancelled", result.updated.map { it.copy(dateCreated = 0) })
+
+        else                                                              -> throw IllegalArgumentException("Unexpected result $result")
+    }
+
+    private fun assertSameContent() {
+        for (table in listOf(TABLE_BOLUSES, TABLE_TEMPORARY_BASALS, TABLE_EXTENDED_BOLUSES))
+            assertEquals(table, dump(singleDb, table), dump(batchDb, table))
+    }
+
+    @Test
+    fun batchGivesSameResultAsSingleTransactions() {
+        // part of history is already synced
+        replay(100).forEach { runSingle(singleRepo, it) }
+        replay(100).forEach { runSingle(batchRepo, it) }
+
+        val expected = replay(500).map { runSingle(singleRepo, it) }
+
+        val changes = batchRepo.changeObservable().test()
+        val actual = batchRepo.runTransactionForResult(SyncPumpBatchTransaction(replay(500))).blockingGet()
+
+        assertEquals(expected.size, actual.size)
+        for (i in expected.indices) assertEquals("transaction $i", content(expected[i]), content(actual[i]))
+        assertSameContent()
+        assertTrue(dump(batchDb, TABLE_BOLUSES).size > 100)
+
+        // one change event for whole batch
+        changes.awaitCount(1)
+        changes.assertValueCount(1)
+        assertTrue(changes.values()[0].isNotEmpty())
+        changes.dispose()
+    }
+
+    @Test
+    fun repeatedBatchChangesNothing() {
+        batchRepo.runTransactionForResult(SyncPumpBatchTransaction(replay(200))).blockingGet()
+        replay(200).forEach { runSingle(singleRepo, it) }
+        assertSameContent()
+
+        val result = batchRepo.runTransactionForResult(SyncPumpBatchTransaction(replay(200))).blockingGet()
+        val inserted = result.filterIsInstance<SyncPumpBolusTransaction.TransactionResult>().sumOf { it.inserted.size } +
+            result.filterIsInstance<SyncPumpTemporaryBasalTransaction.TransactionResult>().sumOf { it.inserted.size } +
+            result.filterIsInstance<SyncPumpExtendedBolusTransaction.TransactionResult>().sumOf { it.inserted.size }
+        assertEquals(0, inserted)
+        replay(200).forEach { runSingle(singleRepo, it) }
+        assertSameContent()
+    }
+
+    /**
+     * Time of 500 records replay, single transactions against one batch. Logged as SyncPumpBatchTest.
+     * Run by instrumentation argument benchmark=true
+     */
+    @Test
+    fun replayBenchmark() {
+        assumeTrue(InstrumentationRegistry.getArguments().getString("benchmark") == "true")
+        val rounds = 5
+        var singleTime = 0L
+        var batchTime = 0L
+        repeat(rounds + 1) { round ->
+            val singleDb = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java).build()
+            val batchDb = Room.inMemoryDatabaseBuilder(context, AppDatabase::class.java).build()
+            try {
+                val singleRepo = AppRepository(singleDb)
+                val batchRepo = AppRepository(batchDb)
+                replay(100).forEach { runSingle(singleRepo, it) }
+                batchRepo.runTransactionForResult(SyncPumpBatchTransaction(replay(100))).blockingGet()
+
+                val singleTransactions = replay(500)
+                val singleStart = System.nanoTime()
+                singleTransactions.forEach { runSingle(singleRepo, it) }
+                val single = System.nanoTime() - singleStart
+
+                val batchTransaction = SyncPumpBatchTransaction(replay(500))
+                val batchStart = System.nanoTime()
+                batchRepo.runTransactionForResult(batchTransaction).blockingGet()
+                val batch = System.nanoTime() - batchStart
+
+                // first round is warm up
+                if (round > 0) {
+                    singleTime += single
+                    batchTime += batch
+                }
+            } finally {
+                singleDb.close()
+                batchDb.close()
+            }
+        }
+        Log.i(
+            "SyncPumpBatchTest",
+            "500 records single: ${TimeUnit.NANOSECONDS.toMillis(singleTime / rounds)} ms batch: ${TimeUnit.NANOSECONDS.toMillis(batchTime / rounds)} ms"
+        )
+    }
+}
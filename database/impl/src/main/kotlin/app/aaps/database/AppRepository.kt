@@ -18,6 +18,7 @@ import app.aaps.database.entities.TemporaryTarget
 import app.aaps.database.entities.TherapyEvent
 import app.aaps.database.entities.TotalDailyDose
 import app.aaps.database.entities.UserEntry
+import app.aaps.database.entities.data.DailyGlucoseRangeCount
 import app.aaps.database.entities.data.NewEntries
 import app.aaps.database.entities.embedments.InterfaceIDs
 import app.aaps.database.entities.interfaces.DBEntry
@@ -79,51 +80,43 @@ class AppRepository @Inject internal constructor(
 
     fun clearApsResults() = database.apsResultDao.deleteAllEntries()
 
-    fun cleanupDatabase(keepDays: Long, deleteTrackedChanges: Boolean): String {
-        val than = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(keepDays)
+    /**
+     * Remove old records and optionally tracked changes
+     *
+     * Records are removed in batches of [batchSize], each batch in its own short transaction.
+     * [batchPause] ms is waited between batches to let other transactions acquire the database.
+     * Cleanup can be interrupted anytime. [onProgress] is called after every finished step
+     * and reported values can be passed back in [resumeThan] and [resumeStep] to continue.
+     *
+     * @param keepDays remove records older than (ignored when resuming)
+     * @param deleteTrackedChanges delete tracked changes from all tables
+     * @param resumeThan threshold of interrupted cleanup or null to start new one
+     * @param resumeStep first step to run when resuming
+     * @param onProgress (threshold, next step) called after every finished step
+     * @return summary of removed records
+     */
+    fun cleanupDatabase(
+        keepDays: Long,
+        deleteTrackedChanges: Boolean,
+        resumeThan: Long? = null,
+        resumeStep: Int = 0,
+        batchSize: Int = CLEANUP_BATCH_SIZE,
+        batchPause: Long = CLEANUP_BATCH_PAUSE,
+        onProgress: (than: Long, nextStep: Int) -> Unit = { _, _ -> }
+    ): String {
+        val than = resumeThan ?: (System.currentTimeMillis() - TimeUnit.DAYS.toMillis(keepDays))
+        val steps = cleanupSteps(than, deleteTrackedChanges)
         val removed = mutableListOf<Pair<String, Int>>()
-        removed.add(Pair("APSResult", database.apsResultDao.deleteOlderThan(than)))
-        removed.add(Pair("GlucoseValue", database.glucoseValueDao.deleteOlderThan(than)))
-        removed.add(Pair("TherapyEvent", database.therapyEventDao.deleteOlderThan(than)))
-        removed.add(Pair("TemporaryBasal", database.temporaryBasalDao.deleteOlderThan(than)))
-        removed.add(Pair("ExtendedBolus", database.extendedBolusDao.deleteOlderThan(than)))
-        removed.add(Pair("Bolus", database.bolusDao.deleteOlderThan(than)))
-        removed.add(Pair("TotalDailyDose", database.totalDailyDoseDao.deleteOlderThan(than)))
-        removed.add(Pair("Carbs", database.carbsDao.deleteOlderThan(than)))
-        removed.add(Pair("TemporaryTarget", database.temporaryTargetDao.deleteOlderThan(than)))
-        removed.add(Pair("BolusCalculatorResult", database.bolusCalculatorResultDao.deleteOlderThan(than)))
-        // keep at least one EPS
-        if (database.effectiveProfileSwitchDao.getEffectiveProfileSwitchDataFromTime(than + 1).blockingGet().isNotEmpty())
-            removed.add(Pair("EffectiveProfileSwitch", database.effectiveProfileSwitchDao.deleteOlderThan(than)))
-        removed.add(Pair("ProfileSwitch", database.profileSwitchDao.deleteOlderThan(than)))
-        removed.add(Pair("ApsResult", database.apsResultDao.deleteOlderThan(than)))
-        // keep version history database.versionChangeDao.deleteOlderThan(than)
-        removed.add(Pair("UserEntry", database.userEntryDao.deleteOlderThan(than)))
-        removed.add(Pair("PreferenceChange", database.preferenceChangeDao.deleteOlderThan(than)))
-        // keep foods database.foodDao.deleteOlderThan(than)
-        removed.add(Pair("DeviceStatus", database.deviceStatusDao.deleteOlderThan(than)))
-        removed.add(Pair("RunningMode", database.runningModeDao.deleteOlderThan(than)))
-        removed.add(Pair("HeartRate", database.heartRateDao.deleteOlderThan(than)))
-        removed.add(Pair("StepsCount", database.stepsCountDao.deleteOlderThan(than)))
-
-        if (deleteTrackedChanges) {
-            removed.add(Pair("CHANGES APSResult", database.apsResultDao.deleteTrackedChanges()))
-            removed.add(Pair("CHANGES GlucoseValue", database.glucoseValueDao.deleteTrackedChanges()))
-            removed.add(Pair("CHANGES TherapyEvent", database.therapyEventDao.deleteTrackedChanges()))
-            removed.add(Pair("CHANGES TemporaryBasal", database.temporaryBasalDao.deleteTrackedChanges()))
-            removed.add(Pair("CHANGES Bolus", database.bolusDao.deleteTrackedChanges()))
-            removed.add(Pair("CHANGES ExtendedBolus", database.extendedBolusDao.deleteTrackedChanges()))
-            removed.add(Pair("CHANGES TotalDailyDose", database.totalDailyDoseDao.deleteTrackedChanges()))
-            removed.add(Pair("CHANGES Carbs", database.carbsDao.deleteTrackedChanges()))
-            removed.add(Pair("CHANGES TemporaryTarget", database.temporaryTargetDao.deleteTrackedChanges()))
-            removed.add(Pair("CHANGES BolusCalculatorResult", database.bolusCalculatorResultDao.deleteTrackedChanges()))
-            removed.add(Pair("CHANGES EffectiveProfileSwitch", database.effectiveProfileSwitchDao.deleteTrackedChanges()))
-            removed.add(Pair("CHANGES ProfileSwitch", database.profileSwitchDao.deleteTrackedChanges()))
-            removed.add(Pair("CHANGES ApsResult", database.apsResultDao.deleteTrackedChanges()))
-            // keep food database.foodDao.deleteHistory()
-            removed.add(Pair("CHANGES RunningMode", database.runningModeDao.deleteTrackedChanges()))
-            removed.add(Pair("CHANGES HeartRate", database.heartRateDao.deleteTrackedChanges()))
-            removed.add(Pair("CHANGES StepsCount", database.stepsCountDao.deleteTrackedChanges()))
+        for (step in resumeStep.coerceAtLeast(0) until steps.size) {
+            val (name, delete) = steps[step]
+            var count = 0
+            do {
+                val deleted = delete(batchSize)
+                count += deleted
+                if (deleted >= batchSize) Thread.sleep(batchPause)
+            } while (deleted >= batchSize)
+            removed.add(Pair(name, count))
+            onProgress(than, step + 1)
         }
         val ret = StringBuilder()
         removed
@@ -132,6 +125,59 @@ class AppRepository @Inject internal constructor(
         return ret.toString()
     }
 
+    /**
+     * Ordered cleanup steps. Order must stay stable to be able to resume interrupted cleanup
+     * @return list of (name, delete batch of given size)
+     */
+    private fun cleanupSteps(than: Long, deleteTrackedChanges: Boolean): List<Pair<String, (Int) -> Int>> {
+        val steps = mutableListOf<Pair<String, (Int) -> Int>>(
+            Pair("APSResult") { limit -> database.apsResultDao.deleteOlderThan(than, limit) },
+            Pair("GlucoseValue") { limit -> database.glucoseValueDao.deleteOlderThan(than, limit) },
+            Pair("TherapyEvent") { limit -> database.therapyEventDao.deleteOlderThan(than, limit) },
+            Pair("TemporaryBasal") { limit -> database.temporaryBasalDao.deleteOlderThan(than, limit) },
+            Pair("ExtendedBolus") { limit -> database.extendedBolusDao.deleteOlderThan(than, limit) },
+            Pair("Bolus") { limit -> database.bolusDao.deleteOlderThan(than, limit) },
+            Pair("TotalDailyDose") { limit -> database.totalDailyDoseDao.deleteOlderThan(than, limit) },
+            Pair("Carbs") { limit -> database.carbsDao.deleteOlderThan(than, limit) },
+            Pair("TemporaryTarget") { limit -> database.temporaryTargetDao.deleteOlderThan(than, limit) },
+            Pair("BolusCalculatorResult") { limit -> database.bolusCalculatorResultDao.deleteOlderThan(than, limit) },
+            // keep at least one EPS
+            Pair("EffectiveProfileSwitch") { limit ->
+                if (database.effectiveProfileSwitchDao.getEffectiveProfileSwitchDataFromTime(than + 1).blockingGet().isNotEmpty())
+                    database.effectiveProfileSwitchDao.deleteOlderThan(than, limit)
+                else 0
+            },
+            Pair("ProfileSwitch") { limit -> database.profileSwitchDao.deleteOlderThan(than, limit) },
+            // keep version history database.versionChangeDao.deleteOlderThan(than)
+            Pair("UserEntry") { limit -> database.userEntryDao.deleteOlderThan(than, limit) },
+            Pair("PreferenceChange") { limit -> database.preferenceChangeDao.deleteOlderThan(than, limit) },
+            // keep foods database.foodDao.deleteOlderThan(than)
+            Pair("DeviceStatus") { limit -> database.deviceStatusDao.deleteOlderThan(than, limit) },
+            Pair("RunningMode") { limit -> database.runningModeDao.deleteOlderThan(than, limit) },
+            Pair("HeartRate") { limit -> database.heartRateDao.deleteOlderThan(than, limit) },
+            Pair("StepsCount") { limit -> database.stepsCountDao.deleteOlderThan(than, limit) }
+        )
+        if (deleteTrackedChanges) {
+            steps.add(Pair("CHANGES APSResult") { limit -> database.apsResultDao.deleteTrackedChanges(limit) })
+            steps.add(Pair("CHANGES GlucoseValue") { limit -> database.glucoseValueDao.deleteTrackedChanges(limit) })
+            steps.add(Pair("CHANGES TherapyEvent") { limit -> database.therapyEventDao.deleteTrackedChanges(limit) })
+            steps.add(Pair("CHANGES TemporaryBasal") { limit -> database.temporaryBasalDao.deleteTrackedChanges(limit) })
+            steps.add(Pair("CHANGES Bolus") { limit -> database.bolusDao.deleteTrackedChanges(limit) })
+            steps.add(Pair("CHANGES ExtendedBolus") { limit -> database.extendedBolusDao.deleteTrackedChanges(limit) })
+            steps.add(Pair("CHANGES TotalDailyDose") { limit -> database.totalDailyDoseDao.deleteTrackedChanges(limit) })
+            steps.add(Pair("CHANGES Carbs") { limit -> database.carbsDao.deleteTrackedChanges(limit) })
+            steps.add(Pair("CHANGES TemporaryTarget") { limit -> database.temporaryTargetDao.deleteTrackedChanges(limit) })
+            steps.add(Pair("CHANGES BolusCalculatorResult") { limit -> database.bolusCalculatorResultDao.deleteTrackedChanges(limit) })
+            steps.add(Pair("CHANGES EffectiveProfileSwitch") { limit -> database.effectiveProfileSwitchDao.deleteTrackedChanges(limit) })
+            steps.add(Pair("CHANGES ProfileSwitch") { limit -> database.profileSwitchDao.deleteTrackedChanges(limit) })
+            // keep food database.foodDao.deleteHistory()
+            steps.add(Pair("CHANGES RunningMode") { limit -> database.runningModeDao.deleteTrackedChanges(limit) })
+            steps.add(Pair("CHANGES HeartRate") { limit -> database.heartRateDao.deleteTrackedChanges(limit) })
+            steps.add(Pair("CHANGES StepsCount") { limit -> database.stepsCountDao.deleteTrackedChanges(limit) })
+        }
+        return steps
+    }
+
     fun clearCachedTddData(from: Long) {
         database.totalDailyDoseDao.deleteNewerThan(from, InterfaceIDs.PumpType.CACHE)
     }
@@ -147,6 +193,9 @@ class AppRepository @Inject internal constructor(
             .map { if (!ascending) it.reversed() else it }
             .subscribeOn(Schedulers.io())
 
+    fun getDailyGlucoseRangeCounts(start: Long, end: Long, low: Double, high: Double): List<DailyGlucoseRangeCount> =
+        database.glucoseValueDao.getDailyRangeCounts(start, end, low, high)
+
     //BG READINGS -- including invalid/history records
     fun findBgReadingByNSId(nsId: String): GlucoseValue? =
         database.glucoseValueDao.findByNSId(nsId)
@@ -820,6 +869,14 @@ class AppRepository @Inject internal constructor(
         database.apsResultDao.getApsResults(start, end)
             .subscribeOn(Schedulers.io())
 
+    companion object {
+
+        /** Records removed in one cleanup transaction */
+        const val CLEANUP_BATCH_SIZE = 5000
+
+        /** Pause between cleanup batches in ms */
+        const val CLEANUP_BATCH_PAUSE = 20L
+    }
 }
 
 @Suppress("USELESS_CAST", "unused")
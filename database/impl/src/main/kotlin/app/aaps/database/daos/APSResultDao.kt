@@ -16,11 +16,11 @@ internal interface APSResultDao : TraceableDao<APSResult> {
     @Query("DELETE FROM $TABLE_APS_RESULTS")
     override fun deleteAllEntries()
 
-    @Query("DELETE FROM $TABLE_APS_RESULTS WHERE timestamp < :than")
-    override fun deleteOlderThan(than: Long): Int
+    @Query("DELETE FROM $TABLE_APS_RESULTS WHERE id IN (SELECT id FROM $TABLE_APS_RESULTS WHERE timestamp < :than AND referenceId IS NOT NULL UNION ALL SELECT id FROM $TABLE_APS_RESULTS WHERE timestamp < :than AND referenceId IS NULL LIMIT :limit)")
+    override fun deleteOlderThan(than: Long, limit: Int): Int
 
-    @Query("DELETE FROM $TABLE_APS_RESULTS WHERE referenceId IS NOT NULL")
-    override fun deleteTrackedChanges(): Int
+    @Query("DELETE FROM $TABLE_APS_RESULTS WHERE id IN (SELECT id FROM $TABLE_APS_RESULTS WHERE referenceId IS NOT NULL LIMIT :limit)")
+    override fun deleteTrackedChanges(limit: Int): Int
 
     @Query("SELECT * FROM $TABLE_APS_RESULTS WHERE dateCreated > :since AND dateCreated <= :until LIMIT :limit OFFSET :offset")
     fun getNewEntriesSince(since: Long, until: Long, limit: Int, offset: Int): List<APSResult>
@@ -17,11 +17,11 @@ internal interface BolusCalculatorResultDao : TraceableDao<BolusCalculatorResult
 
     override fun deleteAllEntries()
 
-    @Query("DELETE FROM $TABLE_BOLUS_CALCULATOR_RESULTS WHERE timestamp < :than")
-    override fun deleteOlderThan(than: Long): Int
+    @Query("DELETE FROM $TABLE_BOLUS_CALCULATOR_RESULTS WHERE id IN (SELECT id FROM $TABLE_BOLUS_CALCULATOR_RESULTS WHERE timestamp < :than AND referenceId IS NOT NULL UNION ALL SELECT id FROM $TABLE_BOLUS_CALCULATOR_RESULTS WHERE timestamp < :than AND referenceId IS NULL LIMIT :limit)")
+    override fun deleteOlderThan(than: Long, limit: Int): Int
 
-    @Query("DELETE FROM $TABLE_BOLUS_CALCULATOR_RESULTS WHERE referenceId IS NOT NULL")
-    override fun deleteTrackedChanges(): Int
+    @Query("DELETE FROM $TABLE_BOLUS_CALCULATOR_RESULTS WHERE id IN (SELECT id FROM $TABLE_BOLUS_CALCULATOR_RESULTS WHERE referenceId IS NOT NULL LIMIT :limit)")
+    override fun deleteTrackedChanges(limit: Int): Int
 
     @Query("SELECT id FROM $TABLE_BOLUS_CALCULATOR_RESULTS ORDER BY id DESC limit 1")
     fun getLastId(): Long?
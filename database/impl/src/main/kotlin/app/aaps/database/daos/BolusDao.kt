@@ -17,11 +17,11 @@ internal interface BolusDao : TraceableDao<Bolus> {
     @Query("DELETE FROM $TABLE_BOLUSES")
     override fun deleteAllEntries()
 
-    @Query("DELETE FROM $TABLE_BOLUSES WHERE timestamp < :than")
-    override fun deleteOlderThan(than: Long): Int
+    @Query("DELETE FROM $TABLE_BOLUSES WHERE id IN (SELECT id FROM $TABLE_BOLUSES WHERE timestamp < :than AND referenceId IS NOT NULL UNION ALL SELECT id FROM $TABLE_BOLUSES WHERE timestamp < :than AND referenceId IS NULL LIMIT :limit)")
+    override fun deleteOlderThan(than: Long, limit: Int): Int
 
-    @Query("DELETE FROM $TABLE_BOLUSES WHERE referenceId IS NOT NULL")
-    override fun deleteTrackedChanges(): Int
+    @Query("DELETE FROM $TABLE_BOLUSES WHERE id IN (SELECT id FROM $TABLE_BOLUSES WHERE referenceId IS NOT NULL LIMIT :limit)")
+    override fun deleteTrackedChanges(limit: Int): Int
 
     @Query("SELECT id FROM $TABLE_BOLUSES ORDER BY id DESC limit 1")
     fun getLastId(): Long?
@@ -35,6 +35,9 @@ internal interface BolusDao : TraceableDao<Bolus> {
     @Query("SELECT * FROM $TABLE_BOLUSES WHERE unlikely(pumpId = :pumpId) AND likely(pumpType = :pumpType) AND likely(pumpSerial = :pumpSerial) AND likely(referenceId IS NULL)")
     fun findByPumpIds(pumpId: Long, pumpType: InterfaceIDs.PumpType, pumpSerial: String): Bolus?
 
+    @Query("SELECT * FROM $TABLE_BOLUSES WHERE pumpId IN (:pumpIds) AND pumpType = :pumpType AND pumpSerial = :pumpSerial AND referenceId IS NULL")
+    fun findAllByPumpIds(pumpIds: List<Long>, pumpType: InterfaceIDs.PumpType, pumpSerial: String): List<Bolus>
+
     @Query("SELECT * FROM $TABLE_BOLUSES WHERE unlikely(temporaryId = :temporaryId) AND likely(pumpType = :pumpType) AND likely(pumpSerial = :pumpSerial) AND likely(referenceId IS NULL)")
     fun findByPumpTempIds(temporaryId: Long, pumpType: InterfaceIDs.PumpType, pumpSerial: String): Bolus?
 
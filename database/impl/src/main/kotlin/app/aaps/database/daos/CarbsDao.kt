@@ -17,11 +17,11 @@ internal interface CarbsDao : TraceableDao<Carbs> {
     @Query("DELETE FROM $TABLE_CARBS")
     override fun deleteAllEntries()
 
-    @Query("DELETE FROM $TABLE_CARBS WHERE timestamp < :than")
-    override fun deleteOlderThan(than: Long): Int
+    @Query("DELETE FROM $TABLE_CARBS WHERE id IN (SELECT id FROM $TABLE_CARBS WHERE timestamp < :than AND referenceId IS NOT NULL UNION ALL SELECT id FROM $TABLE_CARBS WHERE timestamp < :than AND referenceId IS NULL LIMIT :limit)")
+    override fun deleteOlderThan(than: Long, limit: Int): Int
 
-    @Query("DELETE FROM $TABLE_CARBS WHERE referenceId IS NOT NULL")
-    override fun deleteTrackedChanges(): Int
+    @Query("DELETE FROM $TABLE_CARBS WHERE id IN (SELECT id FROM $TABLE_CARBS WHERE referenceId IS NOT NULL LIMIT :limit)")
+    override fun deleteTrackedChanges(limit: Int): Int
 
     @Query("SELECT id FROM $TABLE_CARBS ORDER BY id DESC limit 1")
     fun getLastId(): Long?
@@ -44,10 +44,10 @@ internal interface CarbsDao : TraceableDao<Carbs> {
     @Query("SELECT * FROM $TABLE_CARBS WHERE likely(isValid = 1) AND unlikely(timestamp >= :timestamp) AND likely(referenceId IS NULL) ORDER BY id DESC")
     fun getCarbsFromTime(timestamp: Long): Single<List<Carbs>>
 
-    @Query("SELECT * FROM $TABLE_CARBS WHERE likely(isValid = 1) AND unlikely((timestamp + duration) >= :timestamp) AND likely(referenceId IS NULL) ORDER BY id DESC")
+    @Query("SELECT * FROM $TABLE_CARBS WHERE likely(isValid = 1) AND unlikely(endTimestamp >= :timestamp) AND likely(referenceId IS NULL) ORDER BY id DESC")
     fun getCarbsFromTimeExpandable(timestamp: Long): Single<List<Carbs>>
 
-    @Query("SELECT * FROM $TABLE_CARBS WHERE likely(isValid = 1) AND unlikely((timestamp + duration) > :from) AND unlikely(timestamp <= :to) AND likely(referenceId IS NULL) ORDER BY id DESC")
+    @Query("SELECT * FROM $TABLE_CARBS WHERE likely(isValid = 1) AND unlikely(endTimestamp > :from) AND unlikely(timestamp <= :to) AND likely(referenceId IS NULL) ORDER BY id DESC")
     fun getCarbsFromTimeToTimeExpandable(from: Long, to: Long): Single<List<Carbs>>
 
     @Query("SELECT * FROM $TABLE_CARBS WHERE unlikely(timestamp >= :timestamp) AND likely(referenceId IS NULL) ORDER BY id DESC")
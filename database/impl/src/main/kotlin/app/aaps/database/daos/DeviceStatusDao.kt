@@ -23,8 +23,8 @@ internal interface DeviceStatusDao {
     @Query("DELETE FROM $TABLE_DEVICE_STATUS")
     fun deleteAllEntries()
 
-    @Query("DELETE FROM $TABLE_DEVICE_STATUS WHERE timestamp < :than")
-    fun deleteOlderThan(than: Long): Int
+    @Query("DELETE FROM $TABLE_DEVICE_STATUS WHERE id IN (SELECT id FROM $TABLE_DEVICE_STATUS WHERE timestamp < :than LIMIT :limit)")
+    fun deleteOlderThan(than: Long, limit: Int): Int
 
     @Query("SELECT id FROM $TABLE_DEVICE_STATUS ORDER BY id DESC limit 1")
     fun getLastId(): Long?
@@ -16,11 +16,11 @@ internal interface EffectiveProfileSwitchDao : TraceableDao<EffectiveProfileSwit
     @Query("DELETE FROM $TABLE_EFFECTIVE_PROFILE_SWITCHES")
     override fun deleteAllEntries()
 
-    @Query("DELETE FROM $TABLE_EFFECTIVE_PROFILE_SWITCHES WHERE timestamp < :than")
-    override fun deleteOlderThan(than: Long): Int
+    @Query("DELETE FROM $TABLE_EFFECTIVE_PROFILE_SWITCHES WHERE id IN (SELECT id FROM $TABLE_EFFECTIVE_PROFILE_SWITCHES WHERE timestamp < :than AND referenceId IS NOT NULL UNION ALL SELECT id FROM $TABLE_EFFECTIVE_PROFILE_SWITCHES WHERE timestamp < :than AND referenceId IS NULL LIMIT :limit)")
+    override fun deleteOlderThan(than: Long, limit: Int): Int
 
-    @Query("DELETE FROM $TABLE_EFFECTIVE_PROFILE_SWITCHES WHERE referenceId IS NOT NULL")
-    override fun deleteTrackedChanges(): Int
+    @Query("DELETE FROM $TABLE_EFFECTIVE_PROFILE_SWITCHES WHERE id IN (SELECT id FROM $TABLE_EFFECTIVE_PROFILE_SWITCHES WHERE referenceId IS NOT NULL LIMIT :limit)")
+    override fun deleteTrackedChanges(limit: Int): Int
 
     @Query("SELECT id FROM $TABLE_EFFECTIVE_PROFILE_SWITCHES ORDER BY id DESC limit 1")
     fun getLastId(): Long?
@@ -16,11 +16,11 @@ internal interface FoodDao : TraceableDao<Food> {
     @Query("DELETE FROM $TABLE_FOODS")
     override fun deleteAllEntries()
 
-    @Query("DELETE FROM $TABLE_FOODS WHERE dateCreated < :than")
-    override fun deleteOlderThan(than: Long): Int
+    @Query("DELETE FROM $TABLE_FOODS WHERE id IN (SELECT id FROM $TABLE_FOODS WHERE dateCreated < :than AND referenceId IS NOT NULL UNION ALL SELECT id FROM $TABLE_FOODS WHERE dateCreated < :than AND referenceId IS NULL LIMIT :limit)")
+    override fun deleteOlderThan(than: Long, limit: Int): Int
 
-    @Query("DELETE FROM $TABLE_FOODS WHERE referenceId IS NOT NULL")
-    override fun deleteTrackedChanges(): Int
+    @Query("DELETE FROM $TABLE_FOODS WHERE id IN (SELECT id FROM $TABLE_FOODS WHERE referenceId IS NOT NULL LIMIT :limit)")
+    override fun deleteTrackedChanges(limit: Int): Int
 
     @Query("SELECT id FROM $TABLE_FOODS ORDER BY id DESC limit 1")
     fun getLastId(): Long?
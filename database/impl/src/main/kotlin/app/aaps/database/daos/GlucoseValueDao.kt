@@ -4,6 +4,7 @@ import androidx.room.Dao
 import androidx.room.Query
 import app.aaps.database.entities.GlucoseValue
 import app.aaps.database.entities.TABLE_GLUCOSE_VALUES
+import app.aaps.database.entities.data.DailyGlucoseRangeCount
 import io.reactivex.rxjava3.core.Maybe
 import io.reactivex.rxjava3.core.Single
 
@@ -16,11 +17,11 @@ internal interface GlucoseValueDao : TraceableDao<GlucoseValue> {
     @Query("DELETE FROM $TABLE_GLUCOSE_VALUES")
     override fun deleteAllEntries()
 
-    @Query("DELETE FROM $TABLE_GLUCOSE_VALUES WHERE timestamp < :than")
-    override fun deleteOlderThan(than: Long): Int
+    @Query("DELETE FROM $TABLE_GLUCOSE_VALUES WHERE id IN (SELECT id FROM $TABLE_GLUCOSE_VALUES WHERE timestamp < :than AND referenceId IS NOT NULL UNION ALL SELECT id FROM $TABLE_GLUCOSE_VALUES WHERE timestamp < :than AND referenceId IS NULL LIMIT :limit)")
+    override fun deleteOlderThan(than: Long, limit: Int): Int
 
-    @Query("DELETE FROM $TABLE_GLUCOSE_VALUES WHERE referenceId IS NOT NULL")
-    override fun deleteTrackedChanges(): Int
+    @Query("DELETE FROM $TABLE_GLUCOSE_VALUES WHERE id IN (SELECT id FROM $TABLE_GLUCOSE_VALUES WHERE referenceId IS NOT NULL LIMIT :limit)")
+    override fun deleteTrackedChanges(limit: Int): Int
 
     @Query("SELECT * FROM $TABLE_GLUCOSE_VALUES WHERE isValid = 1 AND referenceId IS NULL ORDER BY timestamp DESC limit 1")
     fun getLast(): Maybe<GlucoseValue>
@@ -40,6 +41,17 @@ internal interface GlucoseValueDao : TraceableDao<GlucoseValue> {
     @Query("SELECT * FROM $TABLE_GLUCOSE_VALUES WHERE unlikely(timestamp BETWEEN :start AND :end) AND likely(isValid = 1) AND likely(referenceId IS NULL) AND likely(value >= 39) ORDER BY timestamp ASC")
     fun compatGetBgReadingsDataFromTime(start: Long, end: Long): Single<List<GlucoseValue>>
 
+    /**
+     * Values of [compatGetBgReadingsDataFromTime] grouped by local day of stored utcOffset
+     */
+    @Query(
+        "SELECT (timestamp + utcOffset) / 86400000 AS day, MIN(timestamp) AS firstTimestamp, MAX(timestamp) AS lastTimestamp, " +
+            "SUM(value < :low) AS below, SUM(value BETWEEN :low AND :high) AS inRange, SUM(value > :high) AS above " +
+            "FROM $TABLE_GLUCOSE_VALUES WHERE unlikely(timestamp BETWEEN :start AND :end) AND likely(isValid = 1) AND likely(referenceId IS NULL) AND likely(value >= 39) " +
+            "GROUP BY day ORDER BY firstTimestamp ASC"
+    )
+    fun getDailyRangeCounts(start: Long, end: Long, low: Double, high: Double): List<DailyGlucoseRangeCount>
+
     // for WS we need 1 record only
     @Query("SELECT * FROM $TABLE_GLUCOSE_VALUES WHERE id > :id ORDER BY id ASC limit 1")
     fun getNextModifiedOrNewAfter(id: Long): Maybe<GlucoseValue>
@@ -15,11 +15,11 @@ internal interface HeartRateDao : TraceableDao<HeartRate> {
     @Query("DELETE FROM $TABLE_HEART_RATE")
     override fun deleteAllEntries()
 
-    @Query("DELETE FROM $TABLE_HEART_RATE WHERE timestamp < :than")
-    override fun deleteOlderThan(than: Long): Int
+    @Query("DELETE FROM $TABLE_HEART_RATE WHERE id IN (SELECT id FROM $TABLE_HEART_RATE WHERE timestamp < :than AND referenceId IS NOT NULL UNION ALL SELECT id FROM $TABLE_HEART_RATE WHERE timestamp < :than AND referenceId IS NULL LIMIT :limit)")
+    override fun deleteOlderThan(than: Long, limit: Int): Int
 
-    @Query("DELETE FROM $TABLE_HEART_RATE WHERE referenceId IS NOT NULL")
-    override fun deleteTrackedChanges(): Int
+    @Query("DELETE FROM $TABLE_HEART_RATE WHERE id IN (SELECT id FROM $TABLE_HEART_RATE WHERE referenceId IS NOT NULL LIMIT :limit)")
+    override fun deleteTrackedChanges(limit: Int): Int
 
     @Query("SELECT * FROM $TABLE_HEART_RATE WHERE timestamp >= :timestamp ORDER BY timestamp")
     fun getFromTime(timestamp: Long): Single<List<HeartRate>>
@@ -12,8 +12,8 @@ interface PreferenceChangeDao {
     @Insert
     fun insert(preferenceChange: PreferenceChange)
 
-    @Query("DELETE FROM $TABLE_PREFERENCE_CHANGES WHERE timestamp < :than")
-    fun deleteOlderThan(than: Long): Int
+    @Query("DELETE FROM $TABLE_PREFERENCE_CHANGES WHERE id IN (SELECT id FROM $TABLE_PREFERENCE_CHANGES WHERE timestamp < :than LIMIT :limit)")
+    fun deleteOlderThan(than: Long, limit: Int): Int
 
     @Query("SELECT * FROM $TABLE_PREFERENCE_CHANGES WHERE timestamp > :since AND timestamp <= :until LIMIT :limit OFFSET :offset")
     fun getNewEntriesSince(since: Long, until: Long, limit: Int, offset: Int): List<PreferenceChange>
@@ -16,11 +16,11 @@ internal interface RunningModeDao : TraceableDao<RunningMode> {
     @Query("DELETE FROM $TABLE_RUNNING_MODE")
     override fun deleteAllEntries()
 
-    @Query("DELETE FROM $TABLE_RUNNING_MODE WHERE timestamp < :than")
-    override fun deleteOlderThan(than: Long): Int
+    @Query("DELETE FROM $TABLE_RUNNING_MODE WHERE id IN (SELECT id FROM $TABLE_RUNNING_MODE WHERE timestamp < :than AND referenceId IS NOT NULL UNION ALL SELECT id FROM $TABLE_RUNNING_MODE WHERE timestamp < :than AND referenceId IS NULL LIMIT :limit)")
+    override fun deleteOlderThan(than: Long, limit: Int): Int
 
-    @Query("DELETE FROM $TABLE_RUNNING_MODE WHERE referenceId IS NOT NULL")
-    override fun deleteTrackedChanges(): Int
+    @Query("DELETE FROM $TABLE_RUNNING_MODE WHERE id IN (SELECT id FROM $TABLE_RUNNING_MODE WHERE referenceId IS NOT NULL LIMIT :limit)")
+    override fun deleteTrackedChanges(limit: Int): Int
 
     @Query("SELECT id FROM $TABLE_RUNNING_MODE ORDER BY id DESC limit 1")
     fun getLastId(): Long?
@@ -31,7 +31,7 @@ internal interface RunningModeDao : TraceableDao<RunningMode> {
     @Query("SELECT * FROM $TABLE_RUNNING_MODE WHERE unlikely(nightscoutId = :nsId) AND likely(referenceId IS NULL)")
     fun findByNSId(nsId: String): RunningMode?
 
-    @Query("SELECT * FROM $TABLE_RUNNING_MODE WHERE unlikely(timestamp <= :timestamp) AND unlikely((timestamp + duration) > :timestamp) AND likely(referenceId IS NULL) AND likely(isValid = 1) ORDER BY timestamp DESC LIMIT 1")
+    @Query("SELECT * FROM $TABLE_RUNNING_MODE WHERE unlikely(timestamp <= :timestamp) AND unlikely(endTimestamp > :timestamp) AND likely(referenceId IS NULL) AND likely(isValid = 1) ORDER BY timestamp DESC LIMIT 1")
     fun getTemporaryRunningModeActiveAt(timestamp: Long): Maybe<RunningMode>
 
     @Query("SELECT * FROM $TABLE_RUNNING_MODE WHERE unlikely(timestamp <= :timestamp) AND unlikely(duration = 0) AND likely(referenceId IS NULL) AND likely(isValid = 1) ORDER BY timestamp DESC LIMIT 1")
@@ -16,11 +16,11 @@ internal interface StepsCountDao : TraceableDao<StepsCount> {
     @Query("DELETE FROM $TABLE_STEPS_COUNT")
     override fun deleteAllEntries()
 
-    @Query("DELETE FROM $TABLE_STEPS_COUNT WHERE timestamp < :than")
-    override fun deleteOlderThan(than: Long): Int
+    @Query("DELETE FROM $TABLE_STEPS_COUNT WHERE id IN (SELECT id FROM $TABLE_STEPS_COUNT WHERE timestamp < :than AND referenceId IS NOT NULL UNION ALL SELECT id FROM $TABLE_STEPS_COUNT WHERE timestamp < :than AND referenceId IS NULL LIMIT :limit)")
+    override fun deleteOlderThan(than: Long, limit: Int): Int
 
-    @Query("DELETE FROM $TABLE_STEPS_COUNT WHERE referenceId IS NOT NULL")
-    override fun deleteTrackedChanges(): Int
+    @Query("DELETE FROM $TABLE_STEPS_COUNT WHERE id IN (SELECT id FROM $TABLE_STEPS_COUNT WHERE referenceId IS NOT NULL LIMIT :limit)")
+    override fun deleteTrackedChanges(limit: Int): Int
 
     @Query("SELECT * FROM $TABLE_STEPS_COUNT WHERE timestamp >= :timestamp ORDER BY timestamp")
     fun getFromTime(timestamp: Long): Single<List<StepsCount>>
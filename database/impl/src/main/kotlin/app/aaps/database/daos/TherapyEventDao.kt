@@ -16,11 +16,11 @@ internal interface TherapyEventDao : TraceableDao<TherapyEvent> {
     @Query("DELETE FROM $TABLE_THERAPY_EVENTS")
     override fun deleteAllEntries()
 
-    @Query("DELETE FROM $TABLE_THERAPY_EVENTS WHERE timestamp < :than")
-    override fun deleteOlderThan(than: Long): Int
+    @Query("DELETE FROM $TABLE_THERAPY_EVENTS WHERE id IN (SELECT id FROM $TABLE_THERAPY_EVENTS WHERE timestamp < :than AND referenceId IS NOT NULL UNION ALL SELECT id FROM $TABLE_THERAPY_EVENTS WHERE timestamp < :than AND referenceId IS NULL LIMIT :limit)")
+    override fun deleteOlderThan(than: Long, limit: Int): Int
 
-    @Query("DELETE FROM $TABLE_THERAPY_EVENTS WHERE referenceId IS NOT NULL")
-    override fun deleteTrackedChanges(): Int
+    @Query("DELETE FROM $TABLE_THERAPY_EVENTS WHERE id IN (SELECT id FROM $TABLE_THERAPY_EVENTS WHERE referenceId IS NOT NULL LIMIT :limit)")
+    override fun deleteTrackedChanges(limit: Int): Int
 
     @Query("SELECT id FROM $TABLE_THERAPY_EVENTS ORDER BY id DESC limit 1")
     fun getLastId(): Long?
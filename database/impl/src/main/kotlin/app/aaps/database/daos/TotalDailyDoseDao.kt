@@ -17,11 +17,11 @@ internal interface TotalDailyDoseDao : TraceableDao<TotalDailyDose> {
     @Query("DELETE FROM $TABLE_TOTAL_DAILY_DOSES")
     override fun deleteAllEntries()
 
-    @Query("DELETE FROM $TABLE_TOTAL_DAILY_DOSES WHERE timestamp < :than")
-    override fun deleteOlderThan(than: Long): Int
+    @Query("DELETE FROM $TABLE_TOTAL_DAILY_DOSES WHERE id IN (SELECT id FROM $TABLE_TOTAL_DAILY_DOSES WHERE timestamp < :than AND referenceId IS NOT NULL UNION ALL SELECT id FROM $TABLE_TOTAL_DAILY_DOSES WHERE timestamp < :than AND referenceId IS NULL LIMIT :limit)")
+    override fun deleteOlderThan(than: Long, limit: Int): Int
 
-    @Query("DELETE FROM $TABLE_TOTAL_DAILY_DOSES WHERE referenceId IS NOT NULL")
-    override fun deleteTrackedChanges(): Int
+    @Query("DELETE FROM $TABLE_TOTAL_DAILY_DOSES WHERE id IN (SELECT id FROM $TABLE_TOTAL_DAILY_DOSES WHERE referenceId IS NOT NULL LIMIT :limit)")
+    override fun deleteTrackedChanges(limit: Int): Int
 
     @Query("SELECT * FROM $TABLE_TOTAL_DAILY_DOSES WHERE unlikely(pumpId = :pumpId) AND likely(pumpType = :pumpType) AND likely(pumpSerial = :pumpSerial) AND likely(referenceId IS NULL)")
     fun findByPumpIds(pumpId: Long, pumpType: InterfaceIDs.PumpType, pumpSerial: String): TotalDailyDose?
@@ -11,8 +11,18 @@ internal interface TraceableDao<T : TraceableDBEntry> : TraceableDaoWorkaround<T
 
     fun deleteAllEntries()
 
-    fun deleteOlderThan(than: Long): Int
-    fun deleteTrackedChanges(): Int
+    /**
+     * Delete at most [limit] records older than [than]. Tracked changes are removed before current records
+     * to not break referenceId foreign key between batches
+     * @return number of removed records
+     */
+    fun deleteOlderThan(than: Long, limit: Int): Int
+
+    /**
+     * Delete at most [limit] tracked changes (records with referenceId)
+     * @return number of removed records
+     */
+    fun deleteTrackedChanges(limit: Int): Int
 
     @Insert
     fun insert(entry: T): Long
@@ -14,8 +14,8 @@ interface UserEntryDao {
     @Insert
     fun insert(userEntry: UserEntry)
 
-    @Query("DELETE FROM $TABLE_USER_ENTRY WHERE timestamp < :than")
-    fun deleteOlderThan(than: Long): Int
+    @Query("DELETE FROM $TABLE_USER_ENTRY WHERE id IN (SELECT id FROM $TABLE_USER_ENTRY WHERE timestamp < :than LIMIT :limit)")
+    fun deleteOlderThan(than: Long, limit: Int): Int
 
     @Query("SELECT * FROM $TABLE_USER_ENTRY WHERE timestamp >= :timestamp ORDER BY timestamp DESC")
     fun getUserEntryDataFromTime(timestamp: Long): Single<List<UserEntry>>
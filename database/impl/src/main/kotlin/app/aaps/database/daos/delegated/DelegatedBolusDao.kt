@@ -12,7 +12,7 @@ internal class DelegatedBolusDao(changes: MutableList<DBEntry>, private val dao:
     }
 
     override fun updateExistingEntry(entry: Bolus): Long {
-        changes.add(entry)
+        addUpdated(entry, dao)
         return dao.updateExistingEntry(entry)
     }
 }
\ No newline at end of file
@@ -12,7 +12,7 @@ internal class DelegatedCarbsDao(changes: MutableList<DBEntry>, private val dao:
     }
 
     override fun updateExistingEntry(entry: Carbs): Long {
-        changes.add(entry)
+        addUpdated(entry, dao)
         return dao.updateExistingEntry(entry)
     }
 }
\ No newline at end of file
@@ -1,8 +1,21 @@
 package app.aaps.database.daos.delegated
 
+import app.aaps.database.daos.TraceableDao
 import app.aaps.database.entities.interfaces.DBEntry
+import app.aaps.database.entities.interfaces.DBEntryWithTime
+import app.aaps.database.entities.interfaces.TraceableDBEntry
 
 /**
  * A DAO that adds updated or inserted entries to a list
  */
-internal abstract class DelegatedDao(protected val changes: MutableList<DBEntry>)
\ No newline at end of file
+internal abstract class DelegatedDao(protected val changes: MutableList<DBEntry>) {
+
+    /**
+     * Adds [entry] before it's updated. Stored record is added too if update moves it in time
+     * (e.g. pump sync of record stored with temporary id) so range of both timestamps is reported as changed.
+     */
+    protected fun <T> addUpdated(entry: T, dao: TraceableDao<T>) where T : TraceableDBEntry, T : DBEntryWithTime {
+        changes.add(entry)
+        dao.findById(entry.id)?.let { stored -> if (stored.timestamp != entry.timestamp) changes.add(stored) }
+    }
+}
@@ -12,7 +12,7 @@ internal class DelegatedEffectiveProfileSwitchDao(changes: MutableList<DBEntry>,
     }
 
     override fun updateExistingEntry(entry: EffectiveProfileSwitch): Long {
-        changes.add(entry)
+        addUpdated(entry, dao)
         return super.updateExistingEntry(entry)
     }
 }
\ No newline at end of file
@@ -12,7 +12,7 @@ internal class DelegatedExtendedBolusDao(changes: MutableList<DBEntry>, private
     }
 
     override fun updateExistingEntry(entry: ExtendedBolus): Long {
-        changes.add(entry)
+        addUpdated(entry, dao)
         return dao.updateExistingEntry(entry)
     }
 }
\ No newline at end of file
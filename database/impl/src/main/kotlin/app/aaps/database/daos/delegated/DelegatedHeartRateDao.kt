@@ -15,7 +15,7 @@ internal class DelegatedHeartRateDao(
     }
 
     override fun updateExistingEntry(entry: HeartRate): Long {
-        changes.add(entry)
+        addUpdated(entry, dao)
         return dao.updateExistingEntry(entry)
     }
 }
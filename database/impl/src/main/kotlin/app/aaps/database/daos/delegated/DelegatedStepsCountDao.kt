@@ -15,7 +15,7 @@ internal class DelegatedStepsCountDao(
     }
 
     override fun updateExistingEntry(entry: StepsCount): Long {
-        changes.add(entry)
+        addUpdated(entry, dao)
         return dao.updateExistingEntry(entry)
     }
 }
@@ -12,7 +12,7 @@ internal class DelegatedTemporaryBasalDao(changes: MutableList<DBEntry>, private
     }
 
     override fun updateExistingEntry(entry: TemporaryBasal): Long {
-        changes.add(entry)
+        addUpdated(entry, dao)
         return dao.updateExistingEntry(entry)
     }
 }
\ No newline at end of file
@@ -12,7 +12,7 @@ internal class DelegatedTherapyEventDao(changes: MutableList<DBEntry>, private v
     }
 
     override fun updateExistingEntry(entry: TherapyEvent): Long {
-        changes.add(entry)
+        addUpdated(entry, dao)
         return dao.updateExistingEntry(entry)
     }
 }
\ No newline at end of file
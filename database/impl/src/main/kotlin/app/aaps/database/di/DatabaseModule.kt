@@ -8,10 +8,15 @@ import androidx.room.migration.Migration
 import androidx.sqlite.db.SupportSQLiteDatabase
 import app.aaps.database.AppDatabase
 import app.aaps.database.entities.TABLE_APS_RESULTS
+import app.aaps.database.entities.TABLE_BOLUSES
+import app.aaps.database.entities.TABLE_CARBS
+import app.aaps.database.entities.TABLE_EXTENDED_BOLUSES
 import app.aaps.database.entities.TABLE_HEART_RATE
 import app.aaps.database.entities.TABLE_PREFERENCE_CHANGES
 import app.aaps.database.entities.TABLE_RUNNING_MODE
 import app.aaps.database.entities.TABLE_STEPS_COUNT
+import app.aaps.database.entities.TABLE_TEMPORARY_BASALS
+import app.aaps.database.entities.TABLE_TEMPORARY_TARGETS
 import app.aaps.database.entities.TABLE_THERAPY_EVENTS
 import app.aaps.database.entities.TABLE_USER_ENTRY
 import dagger.Module
@@ -35,7 +40,7 @@ open class DatabaseModule {
             .addCallback(object : Callback() {
                 override fun onOpen(db: SupportSQLiteDatabase) {
                     super.onOpen(db)
-                    createCustomIndexes(db)
+                    createCustomTriggers(db)
                 }
             })
             .fallbackToDestructiveMigration(false)
@@ -44,14 +49,6 @@ open class DatabaseModule {
     @Qualifier
     annotation class DbFileName
 
-    private fun createCustomIndexes(database: SupportSQLiteDatabase) {
-        database.execSQL("CREATE INDEX IF NOT EXISTS `index_temporaryBasals_end` ON `temporaryBasals` (`timestamp` + `duration`)")
-        database.execSQL("CREATE INDEX IF NOT EXISTS `index_extendedBoluses_end` ON `extendedBoluses` (`timestamp` + `duration`)")
-        database.execSQL("CREATE INDEX IF NOT EXISTS `index_temporaryTargets_end` ON `temporaryTargets` (`timestamp` + `duration`)")
-        database.execSQL("CREATE INDEX IF NOT EXISTS `index_carbs_end` ON `carbs` (`timestamp` + `duration`)")
-        database.execSQL("CREATE INDEX IF NOT EXISTS `index_runningModes_end` ON `runningModes` (`timestamp` + `duration`)")
-    }
-
     private fun dropCustomIndexes(database: SupportSQLiteDatabase) {
         database.execSQL("DROP INDEX IF EXISTS `index_temporaryBasals_end`")
         database.execSQL("DROP INDEX IF EXISTS `index_extendedBoluses_end`")
@@ -202,7 +199,44 @@ open class DatabaseModule {
         }
     }
 
+    internal val migration31to32 = object : Migration(31, 32) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            for (table in tablesWithEndTimestamp) {
+                db.execSQL("ALTER TABLE `$table` ADD COLUMN `endTimestamp` INTEGER NOT NULL DEFAULT 0")
+                db.execSQL("UPDATE `$table` SET `endTimestamp` = `timestamp` + `duration`")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_${table}_referenceId_isValid_timestamp` ON `$table` (`referenceId`, `isValid`, `timestamp`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_${table}_referenceId_isValid_endTimestamp` ON `$table` (`referenceId`, `isValid`, `endTimestamp`)")
+            }
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_${TABLE_BOLUSES}_referenceId_isValid_timestamp` ON `$TABLE_BOLUSES` (`referenceId`, `isValid`, `timestamp`)")
+            // Custom indexes must be dropped on migration to pass room schema checking after upgrade
+            // Expression indexes on (timestamp + duration) are replaced by endTimestamp indexes
+            dropCustomIndexes(db)
+        }
+    }
+
     /** List of all migrations for easy reply in tests. */
     @VisibleForTesting
-    internal val migrations = arrayOf(migration20to21, migration21to22, migration22to23, migration23to24, migration24to25, migration25to26, migration26to27, migration27to28, migration28to29, migration29to30, migration30to31)
+    internal val migrations = arrayOf(migration20to21, migration21to22, migration22to23, migration23to24, migration24to25, migration25to26, migration26to27, migration27to28, migration28to29, migration29to30, migration30to31, migration31to32)
+}
+
+/** Tables with stored `endTimestamp` = `timestamp` + `duration` used by "active at" queries */
+internal val tablesWithEndTimestamp = listOf(TABLE_TEMPORARY_BASALS, TABLE_EXTENDED_BOLUSES, TABLE_TEMPORARY_TARGETS, TABLE_CARBS, TABLE_RUNNING_MODE)
+
+/**
+ * Keep `endTimestamp` in sync on every insert and update of `timestamp` or `duration`.
+ * Triggers are not part of Room schema, they are (re)created on every open.
+ */
+internal fun createCustomTriggers(database: SupportSQLiteDatabase) {
+    for (table in tablesWithEndTimestamp) {
+        database.execSQL(
+            "CREATE TRIGGER IF NOT EXISTS `trigger_${table}_end_insert` AFTER INSERT ON `$table` " +
+                "WHEN NEW.`endTimestamp` != NEW.`timestamp` + NEW.`duration` " +
+                "BEGIN UPDATE `$table` SET `endTimestamp` = NEW.`timestamp` + NEW.`duration` WHERE `id` = NEW.`id`; END"
+        )
+        database.execSQL(
+            "CREATE TRIGGER IF NOT EXISTS `trigger_${table}_end_update` AFTER UPDATE OF `timestamp`, `duration` ON `$table` " +
+                "WHEN NEW.`endTimestamp` != NEW.`timestamp` + NEW.`duration` " +
+                "BEGIN UPDATE `$table` SET `endTimestamp` = NEW.`timestamp` + NEW.`duration` WHERE `id` = NEW.`id`; END"
+        )
+    }
 }
@@ -27,7 +27,8 @@ import java.util.TimeZone
         Index("pumpSerial"),
         Index("pumpType"),
         Index("referenceId"),
-        Index("timestamp")
+        Index("timestamp"),
+        Index("referenceId", "isValid", "timestamp")
     ]
 )
 data class Bolus(
@@ -1,5 +1,6 @@
 package app.aaps.database.entities
 
+import androidx.room.ColumnInfo
 import androidx.room.Embedded
 import androidx.room.Entity
 import androidx.room.ForeignKey
@@ -22,7 +23,9 @@ import java.util.TimeZone
         Index("isValid"),
         Index("nightscoutId"),
         Index("referenceId"),
-        Index("timestamp")
+        Index("timestamp"),
+        Index("referenceId", "isValid", "timestamp"),
+        Index("referenceId", "isValid", "endTimestamp")
     ]
 )
 data class Carbs(
@@ -39,4 +42,9 @@ data class Carbs(
     override var duration: Long, // in milliseconds
     var amount: Double,
     var notes: String? = null
-) : TraceableDBEntry, DBEntryWithTimeAndDuration
\ No newline at end of file
+) : TraceableDBEntry, DBEntryWithTimeAndDuration {
+
+    /** timestamp + duration stored for indexed "active at" queries. Kept in sync by database trigger */
+    @ColumnInfo(defaultValue = "0")
+    var endTimestamp: Long = timestamp + duration
+}
@@ -1,5 +1,6 @@
 package app.aaps.database.entities
 
+import androidx.room.ColumnInfo
 import androidx.room.Embedded
 import androidx.room.Entity
 import androidx.room.ForeignKey
@@ -25,7 +26,9 @@ import java.util.TimeZone
         Index("pumpId"),
         Index("pumpType"),
         Index("referenceId"),
-        Index("timestamp")
+        Index("timestamp"),
+        Index("referenceId", "isValid", "timestamp"),
+        Index("referenceId", "isValid", "endTimestamp")
     ]
 )
 data class ExtendedBolus(
@@ -44,6 +47,10 @@ data class ExtendedBolus(
     var isEmulatingTempBasal: Boolean = false
 ) : TraceableDBEntry, DBEntryWithTimeAndDuration {
 
+    /** timestamp + duration stored for indexed "active at" queries. Kept in sync by database trigger */
+    @ColumnInfo(defaultValue = "0")
+    var endTimestamp: Long = timestamp + duration
+
     init {
         require(duration > 0)
     }
@@ -1,5 +1,6 @@
 package app.aaps.database.entities
 
+import androidx.room.ColumnInfo
 import androidx.room.Embedded
 import androidx.room.Entity
 import androidx.room.ForeignKey
@@ -21,7 +22,9 @@ import java.util.TimeZone
         Index("id"),
         Index("nightscoutId"),
         Index("referenceId"),
-        Index("timestamp")
+        Index("timestamp"),
+        Index("referenceId", "isValid", "timestamp"),
+        Index("referenceId", "isValid", "endTimestamp")
     ]
 )
 data class RunningMode(
@@ -48,6 +51,10 @@ data class RunningMode(
     var reasons: String? = null
 ) : TraceableDBEntry, DBEntryWithTimeAndDuration {
 
+    /** timestamp + duration stored for indexed "active at" queries. Kept in sync by database trigger */
+    @ColumnInfo(defaultValue = "0")
+    var endTimestamp: Long = timestamp + duration
+
     enum class Mode {
         DISABLED_LOOP,
         OPEN_LOOP,
@@ -1,5 +1,6 @@
 package app.aaps.database.entities
 
+import androidx.room.ColumnInfo
 import androidx.room.Embedded
 import androidx.room.Entity
 import androidx.room.ForeignKey
@@ -26,7 +27,9 @@ import java.util.TimeZone
         Index("pumpSerial"),
         Index("temporaryId"),
         Index("referenceId"),
-        Index("timestamp")
+        Index("timestamp"),
+        Index("referenceId", "isValid", "timestamp"),
+        Index("referenceId", "isValid", "endTimestamp")
     ]
 )
 data class TemporaryBasal(
@@ -46,6 +49,10 @@ data class TemporaryBasal(
     override var duration: Long
 ) : TraceableDBEntry, DBEntryWithTimeAndDuration {
 
+    /** timestamp + duration stored for indexed "active at" queries. Kept in sync by database trigger */
+    @ColumnInfo(defaultValue = "0")
+    var endTimestamp: Long = timestamp + duration
+
     init {
         require(duration > 0)
     }
@@ -1,5 +1,6 @@
 package app.aaps.database.entities
 
+import androidx.room.ColumnInfo
 import androidx.room.Embedded
 import androidx.room.Entity
 import androidx.room.ForeignKey
@@ -22,7 +23,9 @@ import java.util.TimeZone
         Index("isValid"),
         Index("nightscoutId"),
         Index("referenceId"),
-        Index("timestamp")
+        Index("timestamp"),
+        Index("referenceId", "isValid", "timestamp"),
+        Index("referenceId", "isValid", "endTimestamp")
     ]
 )
 data class TemporaryTarget(
@@ -42,6 +45,10 @@ data class TemporaryTarget(
     override var duration: Long // in millis
 ) : TraceableDBEntry, DBEntryWithTimeAndDuration {
 
+    /** timestamp + duration stored for indexed "active at" queries. Kept in sync by database trigger */
+    @ColumnInfo(defaultValue = "0")
+    var endTimestamp: Long = timestamp + duration
+
     enum class Reason {
         CUSTOM,
         HYPOGLYCEMIA,
@@ -0,0 +1,17 @@
+package app.aaps.database.entities.data
+
+/**
+ * Counts of valid glucose values of one local day split by range
+ *
+ * @param day local day of values, (timestamp + utcOffset) / day length
+ * @param firstTimestamp timestamp of the first value of the day
+ * @param lastTimestamp timestamp of the last value of the day
+ */
+data class DailyGlucoseRangeCount(
+    val day: Long,
+    val firstTimestamp: Long,
+    val lastTimestamp: Long,
+    val below: Int,
+    val inRange: Int,
+    val above: Int
+)
@@ -0,0 +1,58 @@
+package app.aaps.database.transactions
+
+import app.aaps.database.entities.embedments.InterfaceIDs
+import app.aaps.database.entities.interfaces.TraceableDBEntry
+
+/**
+ * Current records of one table prefetched by pump ids for [SyncPumpBatchTransaction]
+ *
+ * Prefetched record is used only for the first lookup and only if it has not been changed by the batch before.
+ * All other lookups fall back to database, so the result is the same as with one transaction per record.
+ */
+internal class PumpIdLookup<T : TraceableDBEntry> {
+
+    private data class Key(val pumpId: Long, val pumpType: InterfaceIDs.PumpType, val pumpSerial: String)
+
+    // null value means prefetched but not existing in database
+    private val prefetched = HashMap<Key, T?>()
+
+    fun prefetch(ids: List<InterfaceIDs>, loader: (pumpIds: List<Long>, pumpType: InterfaceIDs.PumpType, pumpSerial: String) -> List<T>) {
+        ids.filter { it.pumpId != null && it.pumpType != null && it.pumpSerial != null }
+            .groupBy { Pair(it.pumpType!!, it.pumpSerial!!) }
+            .forEach { (pump, pumpIds) ->
+                pumpIds.map { it.pumpId!! }.distinct().chunked(MAX_QUERY_PARAMETERS).forEach { chunk ->
+                    chunk.forEach { prefetched[Key(it, pump.first, pump.second)] = null }
+                    loader(chunk, pump.first, pump.second).forEach { entry ->
+                        val key = Key(entry.interfaceIDs.pumpId!!, pump.first, pump.second)
+                        // keep first record like single record query does
+                        if (prefetched[key] == null) prefetched[key] = entry
+                    }
+                }
+            }
+    }
+
+    /**
+     * @return prefetched record (or null if it doesn't exist) or result of [fallback] if not prefetched
+     */
+    fun find(pumpId: Long, pumpType: InterfaceIDs.PumpType, pumpSerial: String, fallback: () -> T?): T? {
+        val key = Key(pumpId, pumpType, pumpSerial)
+        return if (prefetched.containsKey(key)) prefetched.remove(key) else fallback()
+    }
+
+    /**
+     * Record has been changed by other transaction of the batch. Next lookup must go to database
+     */
+    fun invalidate(entry: T) {
+        val ids = entry.interfaceIDs
+        val pumpId = ids.pumpId ?: return
+        val pumpType = ids.pumpType ?: return
+        val pumpSerial = ids.pumpSerial ?: return
+        prefetched.remove(Key(pumpId, pumpType, pumpSerial))
+    }
+
+    companion object {
+
+        // stay below SQLite host parameter limit
+        private const val MAX_QUERY_PARAMETERS = 500
+    }
+}
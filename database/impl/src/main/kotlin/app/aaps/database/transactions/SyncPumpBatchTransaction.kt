@@ -0,0 +1,47 @@
+package app.aaps.database.transactions
+
+import app.aaps.database.entities.Bolus
+import app.aaps.database.entities.ExtendedBolus
+import app.aaps.database.entities.TemporaryBasal
+
+/**
+ * Runs pump history synchronization transactions in one database transaction
+ *
+ * Records looked up by pump id ([SyncPumpBolusTransaction], [SyncPumpTemporaryBasalTransaction], [SyncPumpExtendedBolusTransaction])
+ * are prefetched for the whole batch by one query per table
+ *
+ * @param transactions transactions in order of pump history
+ * @return result of every transaction in the same order
+ */
+class SyncPumpBatchTransaction(
+    private val transactions: List<Transaction<*>>
+) : Transaction<List<Any?>>() {
+
+    override fun run(): List<Any?> {
+        val boluses = PumpIdLookup<Bolus>()
+        val temporaryBasals = PumpIdLookup<TemporaryBasal>()
+        val extendedBoluses = PumpIdLookup<ExtendedBolus>()
+
+        boluses.prefetch(transactions.filterIsInstance<SyncPumpBolusTransaction>().map { it.bolus.interfaceIDs }) { pumpIds, pumpType, pumpSerial ->
+            database.bolusDao.findAllByPumpIds(pumpIds, pumpType, pumpSerial)
+        }
+        temporaryBasals.prefetch(transactions.filterIsInstance<SyncPumpTemporaryBasalTransaction>().map { it.temporaryBasal.interfaceIDs }) { pumpIds, pumpType, pumpSerial ->
+            database.temporaryBasalDao.findAllByPumpIds(pumpIds, pumpType, pumpSerial)
+        }
+        extendedBoluses.prefetch(transactions.filterIsInstance<SyncPumpExtendedBolusTransaction>().map { it.extendedBolus.interfaceIDs }) { pumpIds, pumpType, pumpSerial ->
+            database.extendedBolusDao.findAllByPumpIds(pumpIds, pumpType, pumpSerial)
+        }
+
+        return transactions.map { transaction ->
+            when (transaction) {
+                is SyncPumpBolusTransaction                     -> transaction.lookup = boluses
+                is SyncPumpTemporaryBasalTransaction            -> transaction.lookup = temporaryBasals
+                is SyncPumpCancelTemporaryBasalIfAnyTransaction -> transaction.lookup = temporaryBasals
+                is SyncPumpExtendedBolusTransaction             -> transaction.lookup = extendedBoluses
+                is SyncPumpCancelExtendedBolusIfAnyTransaction  -> transaction.lookup = extendedBoluses
+            }
+            transaction.database = database
+            transaction.run()
+        }
+    }
+}
@@ -6,14 +6,18 @@ import app.aaps.database.entities.Bolus
  * Creates or updates the Bolus from pump synchronization
  */
 class SyncPumpBolusTransaction(
-    private val bolus: Bolus,
+    internal val bolus: Bolus,
     private val bolusType: Bolus.Type? // extra parameter because field is not nullable in Bolus.class
 ) : Transaction<SyncPumpBolusTransaction.TransactionResult>() {
 
+    internal var lookup = PumpIdLookup<Bolus>()
+
     override fun run(): TransactionResult {
         bolus.interfaceIDs.pumpId ?: bolus.interfaceIDs.pumpType ?: bolus.interfaceIDs.pumpSerial ?: throw IllegalStateException("Some pump ID is null")
         val result = TransactionResult()
-        val current = database.bolusDao.findByPumpIds(bolus.interfaceIDs.pumpId!!, bolus.interfaceIDs.pumpType!!, bolus.interfaceIDs.pumpSerial!!)
+        val current = lookup.find(bolus.interfaceIDs.pumpId!!, bolus.interfaceIDs.pumpType!!, bolus.interfaceIDs.pumpSerial!!) {
+            database.bolusDao.findByPumpIds(bolus.interfaceIDs.pumpId!!, bolus.interfaceIDs.pumpType!!, bolus.interfaceIDs.pumpSerial!!)
+        }
         if (current == null) {
             database.bolusDao.insertNewEntry(bolus)
             result.inserted.add(bolus)
@@ -8,6 +8,8 @@ class SyncPumpCancelExtendedBolusIfAnyTransaction(
     private val timestamp: Long, private val endPumpId: Long, private val pumpType: InterfaceIDs.PumpType, private val pumpSerial: String
 ) : Transaction<SyncPumpCancelExtendedBolusIfAnyTransaction.TransactionResult>() {
 
+    internal var lookup = PumpIdLookup<ExtendedBolus>()
+
     override fun run(): TransactionResult {
         val result = TransactionResult()
         val existing = database.extendedBolusDao.findByPumpEndIds(endPumpId, pumpType, pumpSerial)
@@ -20,6 +22,7 @@ class SyncPumpCancelExtendedBolusIfAnyTransaction(
             running.end = timestamp
             running.interfaceIDs.endId = endPumpId
             database.extendedBolusDao.updateExistingEntry(running)
+            lookup.invalidate(running)
             result.updated.add(running)
         }
         return result
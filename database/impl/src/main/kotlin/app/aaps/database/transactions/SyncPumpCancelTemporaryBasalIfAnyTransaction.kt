@@ -8,6 +8,8 @@ class SyncPumpCancelTemporaryBasalIfAnyTransaction(
     private val timestamp: Long, private val endPumpId: Long, private val pumpType: InterfaceIDs.PumpType, private val pumpSerial: String
 ) : Transaction<SyncPumpCancelTemporaryBasalIfAnyTransaction.TransactionResult>() {
 
+    internal var lookup = PumpIdLookup<TemporaryBasal>()
+
     override fun run(): TransactionResult {
         val result = TransactionResult()
         val existing = database.temporaryBasalDao.findByPumpEndIds(endPumpId, pumpType, pumpSerial)
@@ -20,6 +22,7 @@ class SyncPumpCancelTemporaryBasalIfAnyTransaction(
             else running.duration = 1
             running.interfaceIDs.endId = endPumpId
             database.temporaryBasalDao.updateExistingEntry(running)
+            lookup.invalidate(running)
             result.updated.add(Pair(old, running))
         }
         return result
@@ -6,14 +6,18 @@ import app.aaps.database.entities.interfaces.end
 /**
  * Creates or updates the extended bolus from pump synchronization
  */
-class SyncPumpExtendedBolusTransaction(private val extendedBolus: ExtendedBolus) : Transaction<SyncPumpExtendedBolusTransaction.TransactionResult>() {
+class SyncPumpExtendedBolusTransaction(internal val extendedBolus: ExtendedBolus) : Transaction<SyncPumpExtendedBolusTransaction.TransactionResult>() {
+
+    internal var lookup = PumpIdLookup<ExtendedBolus>()
 
     override fun run(): TransactionResult {
         extendedBolus.interfaceIDs.pumpId ?: extendedBolus.interfaceIDs.pumpType
         ?: extendedBolus.interfaceIDs.pumpSerial
         ?: throw IllegalStateException("Some pump ID is null")
         val result = TransactionResult()
-        val existing = database.extendedBolusDao.findByPumpIds(extendedBolus.interfaceIDs.pumpId!!, extendedBolus.interfaceIDs.pumpType!!, extendedBolus.interfaceIDs.pumpSerial!!)
+        val existing = lookup.find(extendedBolus.interfaceIDs.pumpId!!, extendedBolus.interfaceIDs.pumpType!!, extendedBolus.interfaceIDs.pumpSerial!!) {
+            database.extendedBolusDao.findByPumpIds(extendedBolus.interfaceIDs.pumpId!!, extendedBolus.interfaceIDs.pumpType!!, extendedBolus.interfaceIDs.pumpSerial!!)
+        }
         if (existing != null) {
             if (existing.interfaceIDs.endId == null &&
                 (existing.timestamp != extendedBolus.timestamp ||
@@ -34,6 +38,7 @@ class SyncPumpExtendedBolusTransaction(private val extendedBolus: ExtendedBolus)
                 running.end = extendedBolus.timestamp
                 running.interfaceIDs.endId = extendedBolus.interfaceIDs.pumpId
                 database.extendedBolusDao.updateExistingEntry(running)
+                lookup.invalidate(running)
                 result.updated.add(running)
             }
             database.extendedBolusDao.insertNewEntry(extendedBolus)
@@ -7,16 +7,20 @@ import app.aaps.database.entities.interfaces.end
  * Creates or updates the Temporary basal from pump synchronization
  */
 class SyncPumpTemporaryBasalTransaction(
-    private val temporaryBasal: TemporaryBasal,
+    internal val temporaryBasal: TemporaryBasal,
     private val type: TemporaryBasal.Type? // extra parameter because field is not nullable in TemporaryBasal.class
 ) : Transaction<SyncPumpTemporaryBasalTransaction.TransactionResult>() {
 
+    internal var lookup = PumpIdLookup<TemporaryBasal>()
+
     override fun run(): TransactionResult {
         temporaryBasal.interfaceIDs.pumpId ?: temporaryBasal.interfaceIDs.pumpType
         ?: temporaryBasal.interfaceIDs.pumpSerial
         ?: throw IllegalStateException("Some pump ID is null")
         val result = TransactionResult()
-        val existing = database.temporaryBasalDao.findByPumpIds(temporaryBasal.interfaceIDs.pumpId!!, temporaryBasal.interfaceIDs.pumpType!!, temporaryBasal.interfaceIDs.pumpSerial!!)
+        val existing = lookup.find(temporaryBasal.interfaceIDs.pumpId!!, temporaryBasal.interfaceIDs.pumpType!!, temporaryBasal.interfaceIDs.pumpSerial!!) {
+            database.temporaryBasalDao.findByPumpIds(temporaryBasal.interfaceIDs.pumpId!!, temporaryBasal.interfaceIDs.pumpType!!, temporaryBasal.interfaceIDs.pumpSerial!!)
+        }
         if (existing != null) {
             if (
                 existing.timestamp != temporaryBasal.timestamp ||
@@ -39,6 +43,7 @@ class SyncPumpTemporaryBasalTransaction(
                 running.end = temporaryBasal.timestamp
                 running.interfaceIDs.endId = temporaryBasal.interfaceIDs.pumpId
                 database.temporaryBasalDao.updateExistingEntry(running)
+                lookup.invalidate(running)
                 result.updated.add(Pair(old, running))
             }
             database.temporaryBasalDao.insertNewEntry(temporaryBasal)
@@ -0,0 +1,76 @@
+package app.aaps.database.daos.delegated
+
+import app.aaps.database.DelegatedAppDatabase
+import app.aaps.database.daos.BolusDao
+import app.aaps.database.daos.ExtendedBolusDao
+import app.aaps.database.entities.Bolus
+import app.aaps.database.entities.ExtendedBolus
+import app.aaps.database.entities.embedments.InterfaceIDs
+import app.aaps.database.entities.interfaces.DBEntry
+import app.aaps.database.entities.interfaces.DBEntryWithTime
+import app.aaps.database.transactions.SyncBolusWithTempIdTransaction
+import app.aaps.database.transactions.SyncPumpExtendedBolusTransaction
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.whenever
+
+class DelegatedBolusDaoTest {
+
+    private val changes = ArrayList<DBEntry>()
+    private lateinit var bolusDao: BolusDao
+    private lateinit var extendedBolusDao: ExtendedBolusDao
+    private lateinit var database: DelegatedAppDatabase
+
+    @BeforeEach
+    fun setup() {
+        bolusDao = mock()
+        extendedBolusDao = mock()
+        database = mock()
+        whenever(database.bolusDao).thenReturn(DelegatedBolusDao(changes, bolusDao))
+        whenever(database.extendedBolusDao).thenReturn(DelegatedExtendedBolusDao(changes, extendedBolusDao))
+    }
+
+    private fun changedTimestamps() = changes.map { (it as DBEntryWithTime).timestamp }
+
+    private fun bolus(timestamp: Long, pumpId: Long?) = Bolus(
+        timestamp = timestamp,
+        amount = 2.0,
+        type = Bolus.Type.NORMAL,
+        interfaceIDs_backing = InterfaceIDs(temporaryId = 500L, pumpId = pumpId, pumpType = InterfaceIDs.PumpType.DANA_I, pumpSerial = "ABC123")
+    ).also { it.id = if (pumpId == null) 1L else 0L }
+
+    @Test
+    fun `bolus moved by pump sync reports both timestamps`() {
+        // record loaded by transaction is modified, database still holds stored state
+        whenever(bolusDao.findByPumpTempIds(500L, InterfaceIDs.PumpType.DANA_I, "ABC123")).thenReturn(bolus(1000L, null))
+        whenever(bolusDao.findById(1L)).thenReturn(bolus(1000L, null))
+
+        SyncBolusWithTempIdTransaction(bolus(61000L, 100L), null).also { it.database = database }.run()
+
+        assertThat(changedTimestamps()).containsExactly(61000L, 1000L)
+    }
+
+    @Test
+    fun `update keeping timestamp reports record once`() {
+        whenever(bolusDao.findByPumpTempIds(500L, InterfaceIDs.PumpType.DANA_I, "ABC123")).thenReturn(bolus(1000L, null))
+        whenever(bolusDao.findById(1L)).thenReturn(bolus(1000L, null))
+
+        SyncBolusWithTempIdTransaction(bolus(1000L, 100L), null).also { it.database = database }.run()
+
+        assertThat(changedTimestamps()).containsExactly(1000L)
+    }
+
+    @Test
+    fun `extended bolus moved by pump sync reports both timestamps`() {
+        val ids = InterfaceIDs(pumpId = 100L, pumpType = InterfaceIDs.PumpType.ACCU_CHEK_INSIGHT, pumpSerial = "123456")
+        fun extendedBolus(timestamp: Long) = ExtendedBolus(timestamp = timestamp, amount = 2.0, duration = 3600000L, interfaceIDs_backing = ids.copy()).also { it.id = 1L }
+        whenever(extendedBolusDao.findByPumpIds(100L, InterfaceIDs.PumpType.ACCU_CHEK_INSIGHT, "123456")).thenReturn(extendedBolus(1000L))
+        whenever(extendedBolusDao.findById(1L)).thenReturn(extendedBolus(1000L))
+
+        SyncPumpExtendedBolusTransaction(extendedBolus(31000L).also { it.id = 0L }).also { it.database = database }.run()
+
+        assertThat(changedTimestamps()).containsExactly(31000L, 1000L)
+    }
+}
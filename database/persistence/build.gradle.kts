@@ -14,4 +14,6 @@ dependencies {
     implementation(project(":core:interfaces"))
     implementation(project(":database:impl"))
     implementation(project(":core:objects"))
+
+    testImplementation(project(":shared:tests"))
 }
\ No newline at end of file
@@ -11,6 +11,7 @@ import app.aaps.core.interfaces.rx.events.EventFoodDatabaseChanged
 import app.aaps.core.interfaces.rx.events.EventNewBG
 import app.aaps.core.interfaces.rx.events.EventNewHistoryData
 import app.aaps.core.interfaces.rx.events.EventProfileSwitchChanged
+import app.aaps.core.interfaces.rx.events.EventRecordsChanged
 import app.aaps.core.interfaces.rx.events.EventRunningModeChange
 import app.aaps.core.interfaces.rx.events.EventTempBasalChange
 import app.aaps.core.interfaces.rx.events.EventTempTargetChange
@@ -26,11 +27,14 @@ import app.aaps.database.entities.EffectiveProfileSwitch
 import app.aaps.database.entities.ExtendedBolus
 import app.aaps.database.entities.Food
 import app.aaps.database.entities.GlucoseValue
+import app.aaps.database.entities.HeartRate
 import app.aaps.database.entities.ProfileSwitch
 import app.aaps.database.entities.RunningMode
+import app.aaps.database.entities.StepsCount
 import app.aaps.database.entities.TemporaryBasal
 import app.aaps.database.entities.TemporaryTarget
 import app.aaps.database.entities.TherapyEvent
+import app.aaps.database.entities.interfaces.DBEntryWithTime
 import io.reactivex.rxjava3.disposables.Disposable
 import javax.inject.Inject
 import javax.inject.Singleton
@@ -51,6 +55,18 @@ class CompatDBHelper @Inject constructor(
             uiInteraction.updateWidget(context, "OnStart")
         }
         .subscribe {
+            /**
+             * Records moved in time by update come with their previous state too, range of changed records is enough for invalidation.
+             * Expanded carbs are the exception, shortened duration affects the rest of timeline.
+             * Sent first, caches must be invalidated before recalculation is triggered by other events.
+             */
+            sendRecordsChanged(EventRecordsChanged.Type.BOLUS, it.filterIsInstance<Bolus>())
+            sendRecordsChanged(EventRecordsChanged.Type.CARBS, it.filterIsInstance<Carbs>(), Long.MAX_VALUE)
+            sendRecordsChanged(EventRecordsChanged.Type.EFFECTIVE_PROFILE_SWITCH, it.filterIsInstance<EffectiveProfileSwitch>())
+            sendRecordsChanged(EventRecordsChanged.Type.EXTENDED_BOLUS, it.filterIsInstance<ExtendedBolus>())
+            sendRecordsChanged(EventRecordsChanged.Type.THERAPY_EVENT, it.filterIsInstance<TherapyEvent>())
+            sendRecordsChanged(EventRecordsChanged.Type.HEART_RATE, it.filterIsInstance<HeartRate>())
+            sendRecordsChanged(EventRecordsChanged.Type.STEPS_COUNT, it.filterIsInstance<StepsCount>())
             /**
              * GlucoseValues can come in batch
              * oldest one should be used for invalidation, newest one for for triggering Loop.
@@ -122,4 +138,11 @@ class CompatDBHelper @Inject constructor(
                 rxBus.send(EventDeviceStatusChange())
             }
         }
+
+    private fun sendRecordsChanged(type: EventRecordsChanged.Type, records: List<DBEntryWithTime>, to: Long? = null) {
+        if (records.isEmpty()) return
+        val event = EventRecordsChanged(type, records.minOf { it.timestamp }, to ?: records.maxOf { it.timestamp })
+        aapsLogger.debug(LTag.DATABASE, "Firing $event")
+        rxBus.send(event)
+    }
 }
\ No newline at end of file
@@ -82,6 +82,7 @@ import app.aaps.database.transactions.SyncNsRunningModeTransaction
 import app.aaps.database.transactions.SyncNsTemporaryBasalTransaction
 import app.aaps.database.transactions.SyncNsTemporaryTargetTransaction
 import app.aaps.database.transactions.SyncNsTherapyEventTransaction
+import app.aaps.database.transactions.SyncPumpBatchTransaction
 import app.aaps.database.transactions.SyncPumpBolusTransaction
 import app.aaps.database.transactions.SyncPumpCancelExtendedBolusIfAnyTransaction
 import app.aaps.database.transactions.SyncPumpCancelTemporaryBasalIfAnyTransaction
@@ -144,7 +145,10 @@ class PersistenceLayerImpl @Inject constructor(
 
     override fun clearDatabases() = repository.clearDatabases()
     override fun clearApsResults() = repository.clearApsResults()
-    override fun cleanupDatabase(keepDays: Long, deleteTrackedChanges: Boolean): String = repository.cleanupDatabase(keepDays, deleteTrackedChanges)
+    override fun cleanupDatabase(keepDays: Long, deleteTrackedChanges: Boolean, resumeFrom: PersistenceLayer.CleanupWatermark?, onProgress: (PersistenceLayer.CleanupWatermark) -> Unit): String =
+        repository.cleanupDatabase(keepDays, deleteTrackedChanges, resumeThan = resumeFrom?.than, resumeStep = resumeFrom?.step ?: 0) { than, nextStep ->
+            onProgress(PersistenceLayer.CleanupWatermark(than, nextStep))
+        }
 
     // BS
     override fun getNewestBolus(): BS? = repository.getNewestBolus().blockingGet()?.fromDb()
@@ -239,18 +243,20 @@ class PersistenceLayerImpl @Inject constructor(
     override fun syncPumpBolus(bolus: BS, type: BS.Type?): Single<PersistenceLayer.TransactionResult<BS>> =
         repository.runTransactionForResult(SyncPumpBolusTransaction(bolus.toDb(), type?.toDb()))
             .doOnError { aapsLogger.error(LTag.DATABASE, "Error while saving Bolus", it) }
-            .map { result ->
-                val transactionResult = PersistenceLayer.TransactionResult<BS>()
-                result.inserted.forEach {
-                    aapsLogger.debug(LTag.DATABASE, "Inserted Bolus $it")
-                    transactionResult.inserted.add(it.fromDb())
-                }
-                result.updated.forEach {
-                    aapsLogger.debug(LTag.DATABASE, "Updated Bolus $it")
-                    transactionResult.updated.add(it.fromDb())
-                }
-                transactionResult
-            }
+            .map { result -> result.toTransactionResult() }
+
+    private fun SyncPumpBolusTransaction.TransactionResult.toTransactionResult(): PersistenceLayer.TransactionResult<BS> {
+        val transactionResult = PersistenceLayer.TransactionResult<BS>()
+        inserted.forEach {
+            aapsLogger.debug(LTag.DATABASE, "Inserted Bolus $it")
+            transactionResult.inserted.add(it.fromDb())
+        }
+        updated.forEach {
+            aapsLogger.debug(LTag.DATABASE, "Updated Bolus $it")
+            transactionResult.updated.add(it.fromDb())
+        }
+        return transactionResult
+    }
 
     override fun syncPumpBolusWithTempId(bolus: BS, type: BS.Type?): Single<PersistenceLayer.TransactionResult<BS>> =
         repository.runTransactionForResult(SyncBolusWithTempIdTransaction(bolus.toDb(), type?.toDb()))
@@ -392,14 +398,16 @@ class PersistenceLayerImpl @Inject constructor(
     override fun insertPumpCarbsIfNewByTimestamp(carbs: CA): Single<PersistenceLayer.TransactionResult<CA>> =
         repository.runTransactionForResult(InsertIfNewByTimestampCarbsTransaction(carbs.toDb()))
             .doOnError { aapsLogger.error(LTag.DATABASE, "Error while saving Carbs", it) }
-            .map { result ->
-                val transactionResult = PersistenceLayer.TransactionResult<CA>()
-                result.inserted.forEach {
-                    aapsLogger.debug(LTag.DATABASE, "Inserted Carbs $it")
-                    transactionResult.inserted.add(it.fromDb())
-                }
-                transactionResult
-            }
+            .map { result -> result.toTransactionResult() }
+
+    private fun InsertIfNewByTimestampCarbsTransaction.TransactionResult.toTransactionResult(): PersistenceLayer.TransactionResult<CA> {
+        val transactionResult = PersistenceLayer.TransactionResult<CA>()
+        inserted.forEach {
+            aapsLogger.debug(LTag.DATABASE, "Inserted Carbs $it")
+            transactionResult.inserted.add(it.fromDb())
+        }
+        return transactionResult
+    }
 
     override fun invalidateCarbs(id: Long, action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>): Single<PersistenceLayer.TransactionResult<CA>> =
         repository.runTransactionForResult(InvalidateCarbsTransaction(id))
@@ -590,6 +598,10 @@ class PersistenceLayerImpl @Inject constructor(
             .map { list -> list.asSequence().map { it.fromDb() }.toList() }
             .blockingGet()
 
+    override fun getGlucoseRangeCountsPerDay(start: Long, end: Long, lowMgdl: Double, highMgdl: Double): List<PersistenceLayer.GlucoseRangeCount> =
+        repository.getDailyGlucoseRangeCounts(start, end, lowMgdl, highMgdl)
+            .map { PersistenceLayer.GlucoseRangeCount(it.day, it.firstTimestamp, it.lastTimestamp, it.below, it.inRange, it.above) }
+
     override fun getBgReadingsDataFromTime(timestamp: Long, ascending: Boolean): Single<List<GV>> =
         repository.compatGetBgReadingsDataFromTime(timestamp, ascending)
             .map { list -> list.asSequence().map { it.fromDb() }.toList() }
@@ -696,30 +708,34 @@ class PersistenceLayerImpl @Inject constructor(
     override fun syncPumpExtendedBolus(extendedBolus: EB): Single<PersistenceLayer.TransactionResult<EB>> =
         repository.runTransactionForResult(SyncPumpExtendedBolusTransaction(extendedBolus.toDb()))
             .doOnError { aapsLogger.error(LTag.DATABASE, "Error while syncing ExtendedBolus", it) }
-            .map { result ->
-                val transactionResult = PersistenceLayer.TransactionResult<EB>()
-                result.inserted.forEach {
-                    aapsLogger.debug(LTag.DATABASE, "Inserted ExtendedBolus $it")
-                    transactionResult.inserted.add(it.fromDb())
-                }
-                result.updated.forEach {
-                    aapsLogger.debug(LTag.DATABASE, "Updated ExtendedBolus $it")
-                    transactionResult.updated.add(it.fromDb())
-                }
-                transactionResult
-            }
+            .map { result -> result.toTransactionResult() }
+
+    private fun SyncPumpExtendedBolusTransaction.TransactionResult.toTransactionResult(): PersistenceLayer.TransactionResult<EB> {
+        val transactionResult = PersistenceLayer.TransactionResult<EB>()
+        inserted.forEach {
+            aapsLogger.debug(LTag.DATABASE, "Inserted ExtendedBolus $it")
+            transactionResult.inserted.add(it.fromDb())
+        }
+        updated.forEach {
+            aapsLogger.debug(LTag.DATABASE, "Updated ExtendedBolus $it")
+            transactionResult.updated.add(it.fromDb())
+        }
+        return transactionResult
+    }
 
     override fun syncPumpStopExtendedBolusWithPumpId(timestamp: Long, endPumpId: Long, pumpType: PumpType, pumpSerial: String): Single<PersistenceLayer.TransactionResult<EB>> =
         repository.runTransactionForResult(SyncPumpCancelExtendedBolusIfAnyTransaction(timestamp, endPumpId, pumpType.toDb(), pumpSerial))
             .doOnError { aapsLogger.error(LTag.DATABASE, "Error while syncing ExtendedBolus", it) }
-            .map { result ->
-                val transactionResult = PersistenceLayer.TransactionResult<EB>()
-                result.updated.forEach {
-                    aapsLogger.debug(LTag.DATABASE, "Updated ExtendedBolus $it")
-                    transactionResult.updated.add(it.fromDb())
-                }
-                transactionResult
-            }
+            .map { result -> result.toTransactionResult() }
+
+    private fun SyncPumpCancelExtendedBolusIfAnyTransaction.TransactionResult.toTransactionResult(): PersistenceLayer.TransactionResult<EB> {
+        val transactionResult = PersistenceLayer.TransactionResult<EB>()
+        updated.forEach {
+            aapsLogger.debug(LTag.DATABASE, "Updated ExtendedBolus $it")
+            transactionResult.updated.add(it.fromDb())
+        }
+        return transactionResult
+    }
 
     // EPS
     override fun getEffectiveProfileSwitchActiveAt(timestamp: Long): EPS? =
@@ -1218,30 +1234,34 @@ class PersistenceLayerImpl @Inject constructor(
     override fun syncPumpTemporaryBasal(temporaryBasal: TB, type: TB.Type?): Single<PersistenceLayer.TransactionResult<TB>> =
         repository.runTransactionForResult(SyncPumpTemporaryBasalTransaction(temporaryBasal.toDb(), type?.toDb()))
             .doOnError { aapsLogger.error(LTag.DATABASE, "Error while syncing TemporaryBasal", it) }
-            .map { result ->
-                val transactionResult = PersistenceLayer.TransactionResult<TB>()
-                result.inserted.forEach {
-                    aapsLogger.debug(LTag.DATABASE, "Inserted TemporaryBasal $it")
-                    transactionResult.inserted.add(it.fromDb())
-                }
-                result.updated.forEach {
-                    aapsLogger.debug(LTag.DATABASE, "Updated TemporaryBasal ${it.first} New: ${it.second}")
-                    transactionResult.updated.add(it.second.fromDb())
-                }
-                transactionResult
-            }
+            .map { result -> result.toTransactionResult() }
+
+    private fun SyncPumpTemporaryBasalTransaction.TransactionResult.toTransactionResult(): PersistenceLayer.TransactionResult<TB> {
+        val transactionResult = PersistenceLayer.TransactionResult<TB>()
+        inserted.forEach {
+            aapsLogger.debug(LTag.DATABASE, "Inserted TemporaryBasal $it")
+            transactionResult.inserted.add(it.fromDb())
+        }
+        updated.forEach {
+            aapsLogger.debug(LTag.DATABASE, "Updated TemporaryBasal ${it.first} New: ${it.second}")
+            transactionResult.updated.add(it.second.fromDb())
+        }
+        return transactionResult
+    }
 
     override fun syncPumpCancelTemporaryBasalIfAny(timestamp: Long, endPumpId: Long, pumpType: PumpType, pumpSerial: String): Single<PersistenceLayer.TransactionResult<TB>> =
         repository.runTransactionForResult(SyncPumpCancelTemporaryBasalIfAnyTransaction(timestamp, endPumpId, pumpType.toDb(), pumpSerial))
             .doOnError { aapsLogger.error(LTag.DATABASE, "Error while syncing TemporaryBasal", it) }
-            .map { result ->
-                val transactionResult = PersistenceLayer.TransactionResult<TB>()
-                result.updated.forEach {
-                    aapsLogger.debug(LTag.DATABASE, "Updated TemporaryBasal ${it.first} New: ${it.second}")
-                    transactionResult.updated.add(it.second.fromDb())
-                }
-                transactionResult
-            }
+            .map { result -> result.toTransactionResult() }
+
+    private fun SyncPumpCancelTemporaryBasalIfAnyTransaction.TransactionResult.toTransactionResult(): PersistenceLayer.TransactionResult<TB> {
+        val transactionResult = PersistenceLayer.TransactionResult<TB>()
+        updated.forEach {
+            aapsLogger.debug(LTag.DATABASE, "Updated TemporaryBasal ${it.first} New: ${it.second}")
+            transactionResult.updated.add(it.second.fromDb())
+        }
+        return transactionResult
+    }
 
     override fun syncPumpInvalidateTemporaryBasalWithTempId(temporaryId: Long): Single<PersistenceLayer.TransactionResult<TB>> =
         repository.runTransactionForResult(InvalidateTemporaryBasalWithTempIdTransaction(temporaryId))
@@ -1585,17 +1605,24 @@ class PersistenceLayerImpl @Inject constructor(
         repository.runTransactionForResult(InsertIfNewByTimestampTherapyEventTransaction(therapyEvent.toDb()))
             .doOnError { aapsLogger.error(LTag.DATABASE, "Error while saving TherapyEvent $therapyEvent", it) }
             .map { result ->
-                val transactionResult = PersistenceLayer.TransactionResult<TE>()
                 val ueValues = mutableListOf<UE>()
-                result.inserted.forEach {
-                    aapsLogger.debug(LTag.DATABASE, "Inserted TherapyEvent from ${source.name} $it")
-                    transactionResult.inserted.add(it.fromDb())
-                    ueValues.add(UE(timestamp = dateUtil.now(), action = action, source = source, note = note ?: "", values = listValues))
-                }
+                val transactionResult = result.toTransactionResult(action, source, note, listValues, ueValues)
                 log(ueValues)
                 transactionResult
             }
 
+    private fun InsertIfNewByTimestampTherapyEventTransaction.TransactionResult.toTransactionResult(
+        action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>, ueValues: MutableList<UE>
+    ): PersistenceLayer.TransactionResult<TE> {
+        val transactionResult = PersistenceLayer.TransactionResult<TE>()
+        inserted.forEach {
+            aapsLogger.debug(LTag.DATABASE, "Inserted TherapyEvent from ${source.name} $it")
+            transactionResult.inserted.add(it.fromDb())
+            ueValues.add(UE(timestamp = dateUtil.now(), action = action, source = source, note = note ?: "", values = listValues))
+        }
+        return transactionResult
+    }
+
     override fun insertOrUpdateTherapyEvent(therapyEvent: TE): Single<PersistenceLayer.TransactionResult<TE>> =
         repository.runTransactionForResult(InsertOrUpdateTherapyEventTransaction(therapyEvent.toDb()))
             .doOnError { aapsLogger.error(LTag.DATABASE, "Error while saving HeartRate", it) }
@@ -1890,17 +1917,56 @@ class PersistenceLayerImpl @Inject constructor(
     override fun insertOrUpdateTotalDailyDose(totalDailyDose: TDD): Single<PersistenceLayer.TransactionResult<TDD>> =
         repository.runTransactionForResult(SyncPumpTotalDailyDoseTransaction(totalDailyDose.toDb()))
             .doOnError { aapsLogger.error(LTag.DATABASE, "Error while saving TotalDailyDose $it") }
-            .map { result ->
-                val transactionResult = PersistenceLayer.TransactionResult<TDD>()
-                result.inserted.forEach {
-                    aapsLogger.debug(LTag.DATABASE, "Inserted TotalDailyDose $it")
-                    transactionResult.inserted.add(it.fromDb())
-                }
-                result.updated.forEach {
-                    aapsLogger.debug(LTag.DATABASE, "Updated TotalDailyDose $it")
-                    transactionResult.updated.add(it.fromDb())
+            .map { result -> result.toTransactionResult() }
+
+    private fun SyncPumpTotalDailyDoseTransaction.TransactionResult.toTransactionResult(): PersistenceLayer.TransactionResult<TDD> {
+        val transactionResult = PersistenceLayer.TransactionResult<TDD>()
+        inserted.forEach {
+            aapsLogger.debug(LTag.DATABASE, "Inserted TotalDailyDose $it")
+            transactionResult.inserted.add(it.fromDb())
+        }
+        updated.forEach {
+            aapsLogger.debug(LTag.DATABASE, "Updated TotalDailyDose $it")
+            transactionResult.updated.add(it.fromDb())
+        }
+        return transactionResult
+    }
+
+    override fun syncPumpBatch(records: List<PersistenceLayer.PumpBatchRecord>): Single<List<PersistenceLayer.TransactionResult<*>>> =
+        repository.runTransactionForResult(SyncPumpBatchTransaction(records.map { record ->
+            when (record) {
+                is PersistenceLayer.PumpBatchRecord.Bolus                -> SyncPumpBolusTransaction(record.bolus.toDb(), record.type?.toDb())
+                is PersistenceLayer.PumpBatchRecord.Carbs                -> InsertIfNewByTimestampCarbsTransaction(record.carbs.toDb())
+                is PersistenceLayer.PumpBatchRecord.TherapyEvent         -> InsertIfNewByTimestampTherapyEventTransaction(record.therapyEvent.toDb())
+                is PersistenceLayer.PumpBatchRecord.TemporaryBasal       -> SyncPumpTemporaryBasalTransaction(record.temporaryBasal.toDb(), record.type?.toDb())
+                is PersistenceLayer.PumpBatchRecord.CancelTemporaryBasal -> SyncPumpCancelTemporaryBasalIfAnyTransaction(record.timestamp, record.endPumpId, record.pumpType.toDb(), record.pumpSerial)
+                is PersistenceLayer.PumpBatchRecord.ExtendedBolus        -> SyncPumpExtendedBolusTransaction(record.extendedBolus.toDb())
+                is PersistenceLayer.PumpBatchRecord.StopExtendedBolus    -> SyncPumpCancelExtendedBolusIfAnyTransaction(record.timestamp, record.endPumpId, record.pumpType.toDb(), record.pumpSerial)
+                is PersistenceLayer.PumpBatchRecord.TotalDailyDose       -> SyncPumpTotalDailyDoseTransaction(record.totalDailyDose.toDb())
+            }
+        }))
+            .doOnError { aapsLogger.error(LTag.DATABASE, "Error while syncing pump history batch", it) }
+            .map { results ->
+                val ueValues = mutableListOf<UE>()
+                val transactionResults = results.mapIndexed { index, result ->
+                    when (result) {
+                        is SyncPumpBolusTransaction.TransactionResult                     -> result.toTransactionResult()
+                        is InsertIfNewByTimestampCarbsTransaction.TransactionResult       -> result.toTransactionResult()
+                        is InsertIfNewByTimestampTherapyEventTransaction.TransactionResult ->
+                            (records[index] as PersistenceLayer.PumpBatchRecord.TherapyEvent).let { record ->
+                                result.toTransactionResult(record.action, record.source, record.note, record.listValues, ueValues)
+                            }
+
+                        is SyncPumpTemporaryBasalTransaction.TransactionResult            -> result.toTransactionResult()
+                        is SyncPumpCancelTemporaryBasalIfAnyTransaction.TransactionResult -> result.toTransactionResult()
+                        is SyncPumpExtendedBolusTransaction.TransactionResult             -> result.toTransactionResult()
+                        is SyncPumpCancelExtendedBolusIfAnyTransaction.TransactionResult  -> result.toTransactionResult()
+                        is SyncPumpTotalDailyDoseTransaction.TransactionResult            -> result.toTransactionResult()
+                        else                                                              -> error("Unexpected result $result")
+                    }
                 }
-                transactionResult
+                log(ueValues)
+                transactionResults
             }
 
     // SC
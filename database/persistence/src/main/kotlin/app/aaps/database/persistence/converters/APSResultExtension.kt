@@ -3,6 +3,7 @@ package app.aaps.database.persistence.converters
 import app.aaps.core.interfaces.aps.APSResult
 import app.aaps.core.interfaces.aps.AutosensResult
 import app.aaps.core.interfaces.aps.CurrentTemp
+import app.aaps.core.interfaces.aps.GlucoseStatus
 import app.aaps.core.interfaces.aps.GlucoseStatusAutoIsf
 import app.aaps.core.interfaces.aps.GlucoseStatusSMB
 import app.aaps.core.interfaces.aps.IobTotal
@@ -18,39 +19,44 @@ import javax.inject.Provider
 fun app.aaps.database.entities.APSResult.fromDb(apsResultProvider: Provider<APSResult>): APSResult =
     when (algorithm) {
         app.aaps.database.entities.APSResult.Algorithm.AMA,
-        app.aaps.database.entities.APSResult.Algorithm.SMB      ->
-            apsResultProvider.get().with(Json.decodeFromString(this.resultJson)).also { result ->
-                result.date = this.timestamp
-                result.glucoseStatus = try {
-                    this.glucoseStatusJson?.let { Json.decodeFromString(it) }
-                } catch (_: Exception) {
-                    null
-                }
-                result.currentTemp = this.currentTempJson?.let { Json.decodeFromString(it) }
-                result.iobData = this.iobDataJson?.let { Json.decodeFromString(it) }
-                result.oapsProfile = this.profileJson?.let { Json.decodeFromString(it) }
-                result.mealData = this.mealDataJson?.let { Json.decodeFromString(it) }
-                result.autosensResult = this.autosensDataJson?.let { Json.decodeFromString(it) }
-            }
-
+        app.aaps.database.entities.APSResult.Algorithm.SMB,
         app.aaps.database.entities.APSResult.Algorithm.AUTO_ISF ->
             apsResultProvider.get().with(Json.decodeFromString(this.resultJson)).also { result ->
                 result.date = this.timestamp
-                result.glucoseStatus = try {
-                    this.glucoseStatusJson?.let { Json.decodeFromString(it) }
-                } catch (_: Exception) {
-                    null
-                }
-                result.currentTemp = this.currentTempJson?.let { Json.decodeFromString(it) }
-                result.iobData = this.iobDataJson?.let { Json.decodeFromString(it) }
-                result.oapsProfileAutoIsf = this.profileJson?.let { Json.decodeFromString(it) }
-                result.mealData = this.mealDataJson?.let { Json.decodeFromString(it) }
-                result.autosensResult = this.autosensDataJson?.let { Json.decodeFromString(it) }
+                result.withInputs(lazyInputs())
             }
 
         else                                                    -> error("Unsupported")
     }
 
+/**
+ * Inputs are decoded on first access. Results are often loaded only to show the result itself
+ */
+private fun app.aaps.database.entities.APSResult.lazyInputs(): APSResult.LazyInputs {
+    val glucoseStatusJson = this.glucoseStatusJson
+    val currentTempJson = this.currentTempJson
+    val iobDataJson = this.iobDataJson
+    val profileJson = this.profileJson
+    val mealDataJson = this.mealDataJson
+    val autosensDataJson = this.autosensDataJson
+    val isAutoIsf = algorithm == app.aaps.database.entities.APSResult.Algorithm.AUTO_ISF
+    return APSResult.LazyInputs(
+        autosensResult = lazy { autosensDataJson?.let { Json.decodeFromString<AutosensResult>(it) } },
+        iobData = lazy { iobDataJson?.let { Json.decodeFromString<Array<IobTotal>>(it) } },
+        glucoseStatus = lazy {
+            try {
+                glucoseStatusJson?.let { Json.decodeFromString<GlucoseStatus>(it) }
+            } catch (_: Exception) {
+                null
+            }
+        },
+        currentTemp = lazy { currentTempJson?.let { Json.decodeFromString<CurrentTemp>(it) } },
+        oapsProfile = lazy { if (isAutoIsf) null else profileJson?.let { Json.decodeFromString<OapsProfile>(it) } },
+        oapsProfileAutoIsf = lazy { if (isAutoIsf) profileJson?.let { Json.decodeFromString<OapsProfileAutoIsf>(it) } else null },
+        mealData = lazy { mealDataJson?.let { Json.decodeFromString<MealData>(it) } }
+    )
+}
+
 @OptIn(ExperimentalSerializationApi::class)
 fun APSResult.toDb(): app.aaps.database.entities.APSResult =
     when (algorithm) {
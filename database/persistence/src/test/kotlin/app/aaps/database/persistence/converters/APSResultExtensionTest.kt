@@ -0,0 +1,119 @@
+package app.aaps.database.persistence.converters
+
+import app.aaps.core.interfaces.aps.APSResult
+import app.aaps.core.interfaces.aps.AutosensResult
+import app.aaps.core.interfaces.aps.CurrentTemp
+import app.aaps.core.interfaces.aps.GlucoseStatusSMB
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.aps.MealData
+import app.aaps.core.interfaces.aps.OapsProfile
+import app.aaps.core.interfaces.aps.Predictions
+import app.aaps.core.interfaces.aps.RT
+import app.aaps.shared.tests.Benchmark
+import app.aaps.shared.tests.BenchmarkTest
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import kotlinx.serialization.json.Json
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestReporter
+import java.util.concurrent.TimeUnit
+
+class APSResultExtensionTest : TestBaseWithProfile() {
+
+    private val start = 1_700_000_000_000L
+
+    private fun profile(): OapsProfile =
+        OapsProfile(
+            dia = 5.0, min_5m_carbimpact = 8.0, max_iob = 3.5, max_daily_basal = 1.2, max_basal = 4.0, min_bg = 100.0, max_bg = 100.0, target_bg = 100.0,
+            carb_ratio = 10.0, sens = 50.0, autosens_adjust_targets = false, max_daily_safety_multiplier = 3.0, current_basal_safety_multiplier = 4.0,
+            lgsThreshold = null, high_temptarget_raises_sensitivity = false, low_temptarget_lowers_sensitivity = false, sensitivity_raises_target = true,
+            resistance_lowers_target = false, adv_target_adjustments = false, exercise_mode = false, half_basal_exercise_target = 160, maxCOB = 120,
+            skip_neutral_temps = false, remainingCarbsCap = 90, enableUAM = true, A52_risk_enable = false, SMBInterval = 3, enableSMB_with_COB = true,
+            enableSMB_with_temptarget = false, allowSMB_with_high_temptarget = false, enableSMB_always = true, enableSMB_after_carbs = false,
+            maxSMBBasalMinutes = 30, maxUAMSMBBasalMinutes = 30, bolus_increment = 0.1, carbsReqThreshold = 1, current_basal = 0.9, temptargetSet = false,
+            autosens_max = 1.2, out_units = "mg/dl", variable_sens = 0.0, insulinDivisor = 0, TDD = 0.0
+        )
+
+    private fun apsResult(algorithm: APSResult.Algorithm, timestamp: Long, index: Int): APSResult {
+        val predictions = List(48) { 120 - it + index % 10 }
+        val rt = RT(
+            algorithm = algorithm, runningDynamicIsf = false, timestamp = timestamp, bg = 120.0 + index % 10, tick = "+2", eventualBG = 100.0, targetBG = 100.0,
+            insulinReq = 0.3, units = 0.2, deliverAt = timestamp, sensitivityRatio = 1.0, reason = StringBuilder("COB: 0, Dev: 12, BGI: -1.5, ISF: 50"),
+            duration = 30, rate = 1.25, predBGs = Predictions(IOB = predictions, ZT = predictions, UAM = predictions), COB = 0.0, IOB = 1.2
+        )
+        return apsResultProvider.get().with(rt).also { result ->
+            result.glucoseStatus = GlucoseStatusSMB(glucose = 120.0 + index % 10, delta = 2.0, shortAvgDelta = 1.5, longAvgDelta = 1.0, date = timestamp)
+            result.currentTemp = CurrentTemp(duration = 20, rate = 1.1, minutesrunning = 10)
+            result.iobData = Array(48) { IobTotal(time = timestamp + it * 5 * 60 * 1000L, iob = 1.2 - it * 0.02, activity = 0.01, iobWithZeroTemp = IobTotal(time = timestamp)) }
+            result.oapsProfile = profile()
+            result.mealData = MealData(carbs = 20.0, mealCOB = 10.0, lastCarbTime = timestamp - 3_600_000L)
+            result.autosensResult = AutosensResult(ratio = 0.9)
+        }
+    }
+
+    // previous implementation decoding all inputs on load
+    private fun app.aaps.database.entities.APSResult.eagerFromDb(): APSResult =
+        apsResultProvider.get().with(Json.decodeFromString(this.resultJson)).also { result ->
+            result.date = this.timestamp
+            result.glucoseStatus = try {
+                this.glucoseStatusJson?.let { Json.decodeFromString(it) }
+            } catch (_: Exception) {
+                null
+            }
+            result.currentTemp = this.currentTempJson?.let { Json.decodeFromString(it) }
+            result.iobData = this.iobDataJson?.let { Json.decodeFromString(it) }
+            result.oapsProfile = this.profileJson?.let { Json.decodeFromString(it) }
+            result.mealData = this.mealDataJson?.let { Json.decodeFromString(it) }
+            result.autosensResult = this.autosensDataJson?.let { Json.decodeFromString(it) }
+        }
+
+    @Test
+    fun roundTripIsIdentical() {
+        for (algorithm in listOf(APSResult.Algorithm.SMB, APSResult.Algorithm.AMA)) {
+            val original = apsResult(algorithm, start, 0)
+            val entity = original.toDb()
+
+            val loaded = entity.fromDb(apsResultProvider)
+            assertThat(loaded.algorithm).isEqualTo(algorithm)
+            assertThat(loaded.date).isEqualTo(start)
+            assertThat(loaded.reason).isEqualTo(original.reason)
+            assertThat(loaded.oapsProfile).isEqualTo(original.oapsProfile)
+            assertThat(loaded.oapsProfileAutoIsf).isNull()
+            assertThat(loaded.iob).isEqualTo(original.iob)
+
+            val stored = loaded.toDb()
+            assertThat(stored).isEqualTo(entity.eagerFromDb().toDb())
+            // glucose status is stored by implementation but cannot be decoded to interface
+            assertThat(stored).isEqualTo(entity.copy(glucoseStatusJson = null))
+        }
+    }
+
+    @Test
+    fun inputsSetAfterLoadAreStored() {
+        val entity = apsResult(APSResult.Algorithm.SMB, start, 0).toDb()
+        val loaded = entity.fromDb(apsResultProvider)
+        loaded.mealData = MealData(carbs = 50.0)
+        loaded.iobData = null
+
+        val stored = loaded.toDb()
+        assertThat(stored.mealDataJson).isEqualTo(Json.encodeToString(MealData.serializer(), MealData(carbs = 50.0)))
+        assertThat(stored.iobDataJson).isNull()
+        assertThat(stored.profileJson).isEqualTo(entity.profileJson)
+    }
+
+    @Test
+    fun lazyDayIsStoredSameAsEager() {
+        val entities = List(288) { apsResult(APSResult.Algorithm.SMB, start + TimeUnit.MINUTES.toMillis(it * 5L), it).toDb() }
+        assertThat(entities.map { it.fromDb(apsResultProvider).toDb() }).isEqualTo(entities.map { it.eagerFromDb().toDb() })
+    }
+
+    @BenchmarkTest
+    fun loadDayBenchmark(reporter: TestReporter) {
+        // one day of 5 min loop runs
+        val entities = List(288) { apsResult(APSResult.Algorithm.SMB, start + TimeUnit.MINUTES.toMillis(it * 5L), it).toDb() }
+        val benchmark = Benchmark(reporter)
+        // list screens show result only
+        benchmark.measure("eager", entities.size) { entities.sumOf { it.eagerFromDb().reason.length } }
+        benchmark.measure("lazy", entities.size) { entities.sumOf { it.fromDb(apsResultProvider).reason.length } }
+    }
+}
@@ -77,13 +77,60 @@ class DetermineBasalResult @Inject constructor(
 
     // Inputs
     override var algorithm: APSResult.Algorithm = APSResult.Algorithm.UNKNOWN
-    override var autosensResult: AutosensResult? = null
-    override var iobData: Array<IobTotal>? = null
-    override var glucoseStatus: GlucoseStatus? = null
-    override var currentTemp: CurrentTemp? = null
-    override var oapsProfile: OapsProfile? = null
-    override var oapsProfileAutoIsf: OapsProfileAutoIsf? = null
-    override var mealData: MealData? = null
+    // decoded on first access if loaded from database
+    private var autosensResultValue: Lazy<AutosensResult?> = lazyOf(null)
+    private var iobDataValue: Lazy<Array<IobTotal>?> = lazyOf(null)
+    private var glucoseStatusValue: Lazy<GlucoseStatus?> = lazyOf(null)
+    private var currentTempValue: Lazy<CurrentTemp?> = lazyOf(null)
+    private var oapsProfileValue: Lazy<OapsProfile?> = lazyOf(null)
+    private var oapsProfileAutoIsfValue: Lazy<OapsProfileAutoIsf?> = lazyOf(null)
+    private var mealDataValue: Lazy<MealData?> = lazyOf(null)
+
+    override var autosensResult: AutosensResult?
+        get() = autosensResultValue.value
+        set(value) {
+            autosensResultValue = lazyOf(value)
+        }
+    override var iobData: Array<IobTotal>?
+        get() = iobDataValue.value
+        set(value) {
+            iobDataValue = lazyOf(value)
+        }
+    override var glucoseStatus: GlucoseStatus?
+        get() = glucoseStatusValue.value
+        set(value) {
+            glucoseStatusValue = lazyOf(value)
+        }
+    override var currentTemp: CurrentTemp?
+        get() = currentTempValue.value
+        set(value) {
+            currentTempValue = lazyOf(value)
+        }
+    override var oapsProfile: OapsProfile?
+        get() = oapsProfileValue.value
+        set(value) {
+            oapsProfileValue = lazyOf(value)
+        }
+    override var oapsProfileAutoIsf: OapsProfileAutoIsf?
+        get() = oapsProfileAutoIsfValue.value
+        set(value) {
+            oapsProfileAutoIsfValue = lazyOf(value)
+        }
+    override var mealData: MealData?
+        get() = mealDataValue.value
+        set(value) {
+            mealDataValue = lazyOf(value)
+        }
+
+    override fun withInputs(inputs: APSResult.LazyInputs): APSResult = this.also {
+        autosensResultValue = inputs.autosensResult
+        iobDataValue = inputs.iobData
+        glucoseStatusValue = inputs.glucoseStatus
+        currentTempValue = inputs.currentTemp
+        oapsProfileValue = inputs.oapsProfile
+        oapsProfileAutoIsfValue = inputs.oapsProfileAutoIsf
+        mealDataValue = inputs.mealData
+    }
 
     lateinit var result: RT
 
@@ -187,62 +187,30 @@ class PumpSyncImplementation @Inject constructor(
 
     override fun syncBolusWithPumpId(timestamp: Long, amount: Double, type: BS.Type?, pumpId: Long, pumpType: PumpType, pumpSerial: String): Boolean {
         if (!confirmActivePump(timestamp, pumpType, pumpSerial)) return false
-        val bolus = BS(
-            timestamp = timestamp,
-            amount = amount,
-            type = type ?: BS.Type.NORMAL,
-            ids = IDs(
-                pumpId = pumpId,
-                pumpType = pumpType,
-                pumpSerial = pumpSerial
-            )
-        )
-        return persistenceLayer.syncPumpBolus(bolus, type)
+        val record = PumpSync.HistoryRecord.Bolus(timestamp, amount, type, pumpId, pumpType, pumpSerial).toBatchRecord()
+        return persistenceLayer.syncPumpBolus(record.bolus, record.type)
             .map { result -> result.inserted.isNotEmpty() }
             .blockingGet()
     }
 
     override fun syncCarbsWithTimestamp(timestamp: Long, amount: Double, pumpId: Long?, pumpType: PumpType, pumpSerial: String): Boolean {
         if (!confirmActivePump(timestamp, pumpType, pumpSerial)) return false
-        val carbs = CA(
-            timestamp = timestamp,
-            amount = amount,
-            duration = 0,
-            ids = IDs(
-                pumpId = pumpId,
-                pumpType = pumpType,
-                pumpSerial = pumpSerial
-            )
-        )
-        return persistenceLayer.insertPumpCarbsIfNewByTimestamp(carbs)
+        val record = PumpSync.HistoryRecord.Carbs(timestamp, amount, pumpId, pumpType, pumpSerial).toBatchRecord()
+        return persistenceLayer.insertPumpCarbsIfNewByTimestamp(record.carbs)
             .map { result -> result.inserted.isNotEmpty() }
             .blockingGet()
     }
 
     override fun insertTherapyEventIfNewWithTimestamp(timestamp: Long, type: TE.Type, note: String?, pumpId: Long?, pumpType: PumpType, pumpSerial: String): Boolean {
         if (!confirmActivePump(timestamp, pumpType, pumpSerial)) return false
-        val therapyEvent = TE(
-            timestamp = timestamp,
-            type = type,
-            duration = 0,
-            note = note,
-            enteredBy = "AndroidAPS",
-            glucose = null,
-            glucoseType = null,
-            glucoseUnit = GlucoseUnit.MGDL,
-            ids = IDs(
-                pumpId = pumpId,
-                pumpType = pumpType,
-                pumpSerial = pumpSerial
-            )
-        )
+        val record = PumpSync.HistoryRecord.TherapyEvent(timestamp, type, note, pumpId, pumpType, pumpSerial).toBatchRecord()
         return persistenceLayer.insertPumpTherapyEventIfNewByTimestamp(
-            therapyEvent = therapyEvent,
-            action = Action.CAREPORTAL,
-            source = pumpType.source.toUeSource(),
-            note = note,
+            therapyEvent = record.therapyEvent,
+            action = record.action,
+            source = record.source,
+            note = record.note,
             timestamp = timestamp,
-            listValues = listOf(ValueWithUnit.Timestamp(timestamp), ValueWithUnit.TEType(type))
+            listValues = record.listValues
         )
             .map { result -> result.inserted.isNotEmpty() }
             .blockingGet()
@@ -250,28 +218,14 @@ class PumpSyncImplementation @Inject constructor(
 
     override fun insertFingerBgIfNewWithTimestamp(timestamp: Long, glucose: Double, glucoseUnit: GlucoseUnit, note: String?, pumpId: Long?, pumpType: PumpType, pumpSerial: String): Boolean {
         if (!confirmActivePump(timestamp, pumpType, pumpSerial)) return false
-        val therapyEvent = TE(
-            timestamp = timestamp,
-            type = TE.Type.FINGER_STICK_BG_VALUE,
-            duration = 0,
-            note = note,
-            enteredBy = "AndroidAPS",
-            glucose = glucose,
-            glucoseType = TE.MeterType.FINGER,
-            glucoseUnit = glucoseUnit,
-            ids = IDs(
-                pumpId = pumpId,
-                pumpType = pumpType,
-                pumpSerial = pumpSerial
-            )
-        )
+        val record = PumpSync.HistoryRecord.FingerBg(timestamp, glucose, glucoseUnit, note, pumpId, pumpType, pumpSerial).toBatchRecord()
         return persistenceLayer.insertPumpTherapyEventIfNewByTimestamp(
-            therapyEvent = therapyEvent,
+            therapyEvent = record.therapyEvent,
             timestamp = timestamp,
-            action = Action.CAREPORTAL,
-            source = Sources.Pump,
-            note = note,
-            listValues = listOf(ValueWithUnit.Timestamp(timestamp), ValueWithUnit.TEType(TE.Type.FINGER_STICK_BG_VALUE))
+            action = record.action,
+            source = record.source,
+            note = record.note,
+            listValues = record.listValues
         )
             .map { result -> result.inserted.isNotEmpty() }
             .blockingGet()
@@ -304,19 +258,8 @@ class PumpSyncImplementation @Inject constructor(
         pumpSerial: String
     ): Boolean {
         if (!confirmActivePump(timestamp, pumpType, pumpSerial)) return false
-        val temporaryBasal = TB(
-            timestamp = timestamp,
-            rate = rate,
-            duration = duration,
-            type = type?.toDbType() ?: TB.Type.NORMAL,
-            isAbsolute = isAbsolute,
-            ids = IDs(
-                pumpId = pumpId,
-                pumpType = pumpType,
-                pumpSerial = pumpSerial
-            )
-        )
-        return persistenceLayer.syncPumpTemporaryBasal(temporaryBasal, type?.toDbType())
+        val record = PumpSync.HistoryRecord.TemporaryBasal(timestamp, rate, duration, isAbsolute, type, pumpId, pumpType, pumpSerial).toBatchRecord()
+        return persistenceLayer.syncPumpTemporaryBasal(record.temporaryBasal, record.type)
             .map { result -> result.inserted.isNotEmpty() }
             .blockingGet()
     }
@@ -408,18 +351,8 @@ class PumpSyncImplementation @Inject constructor(
 
     override fun syncExtendedBolusWithPumpId(timestamp: Long, amount: Double, duration: Long, isEmulatingTB: Boolean, pumpId: Long, pumpType: PumpType, pumpSerial: String): Boolean {
         if (!confirmActivePump(timestamp, pumpType, pumpSerial)) return false
-        val extendedBolus = EB(
-            timestamp = timestamp,
-            amount = amount,
-            duration = duration,
-            isEmulatingTempBasal = isEmulatingTB,
-            ids = IDs(
-                pumpId = pumpId,
-                pumpType = pumpType,
-                pumpSerial = pumpSerial
-            )
-        )
-        return persistenceLayer.syncPumpExtendedBolus(extendedBolus)
+        val record = PumpSync.HistoryRecord.ExtendedBolus(timestamp, amount, duration, isEmulatingTB, pumpId, pumpType, pumpSerial).toBatchRecord()
+        return persistenceLayer.syncPumpExtendedBolus(record.extendedBolus)
             .map { result -> result.inserted.isNotEmpty() }
             .blockingGet()
     }
@@ -434,7 +367,158 @@ class PumpSyncImplementation @Inject constructor(
     override fun createOrUpdateTotalDailyDose(timestamp: Long, bolusAmount: Double, basalAmount: Double, totalAmount: Double, pumpId: Long?, pumpType: PumpType, pumpSerial: String): Boolean {
         // there are probably old data in pump -> do not show notification, just ignore
         if (!confirmActivePump(timestamp, pumpType, pumpSerial, showNotification = false)) return false
-        val tdd = TDD(
+        val record = PumpSync.HistoryRecord.TotalDailyDose(timestamp, bolusAmount, basalAmount, totalAmount, pumpId, pumpType, pumpSerial).toBatchRecord()
+        return persistenceLayer.insertOrUpdateTotalDailyDose(record.totalDailyDose)
+            .map { result -> result.inserted.isNotEmpty() || result.updated.isNotEmpty() }
+            .blockingGet()
+    }
+
+    /*
+     *   BATCH
+     */
+
+    override fun syncBatch(records: List<PumpSync.HistoryRecord>): List<Boolean> {
+        // the same checks as single record functions
+        val accepted = records.map { record ->
+            when (record) {
+                is PumpSync.HistoryRecord.StopTemporaryBasal -> record.ignorePumpIds || confirmActivePump(record.timestamp, record.pumpType, record.pumpSerial)
+                // there are probably old data in pump -> do not show notification, just ignore
+                is PumpSync.HistoryRecord.TotalDailyDose     -> confirmActivePump(record.timestamp, record.pumpType, record.pumpSerial, showNotification = false)
+                else                                         -> confirmActivePump(record.timestamp, record.pumpType, record.pumpSerial)
+            }
+        }
+        val toSync = records.filterIndexed { index, _ -> accepted[index] }
+        if (toSync.isEmpty()) return records.map { false }
+        val results = persistenceLayer.syncPumpBatch(toSync.map { it.toBatchRecord() }).blockingGet().iterator()
+        return records.mapIndexed { index, record ->
+            if (!accepted[index]) return@mapIndexed false
+            val result = results.next()
+            when (record) {
+                is PumpSync.HistoryRecord.StopTemporaryBasal,
+                is PumpSync.HistoryRecord.StopExtendedBolus -> result.updated.isNotEmpty()
+
+                is PumpSync.HistoryRecord.TotalDailyDose    -> result.inserted.isNotEmpty() || result.updated.isNotEmpty()
+                else                                        -> result.inserted.isNotEmpty()
+            }
+        }
+    }
+
+    private fun PumpSync.HistoryRecord.toBatchRecord(): PersistenceLayer.PumpBatchRecord =
+        when (this) {
+            is PumpSync.HistoryRecord.Bolus              -> toBatchRecord()
+            is PumpSync.HistoryRecord.Carbs              -> toBatchRecord()
+            is PumpSync.HistoryRecord.TherapyEvent       -> toBatchRecord()
+            is PumpSync.HistoryRecord.FingerBg           -> toBatchRecord()
+            is PumpSync.HistoryRecord.TemporaryBasal     -> toBatchRecord()
+            is PumpSync.HistoryRecord.StopTemporaryBasal -> PersistenceLayer.PumpBatchRecord.CancelTemporaryBasal(timestamp, endPumpId, pumpType, pumpSerial)
+            is PumpSync.HistoryRecord.ExtendedBolus      -> toBatchRecord()
+            is PumpSync.HistoryRecord.StopExtendedBolus  -> PersistenceLayer.PumpBatchRecord.StopExtendedBolus(timestamp, endPumpId, pumpType, pumpSerial)
+            is PumpSync.HistoryRecord.TotalDailyDose     -> toBatchRecord()
+        }
+
+    private fun PumpSync.HistoryRecord.Bolus.toBatchRecord() = PersistenceLayer.PumpBatchRecord.Bolus(
+        bolus = BS(
+            timestamp = timestamp,
+            amount = amount,
+            type = type ?: BS.Type.NORMAL,
+            ids = IDs(
+                pumpId = pumpId,
+                pumpType = pumpType,
+                pumpSerial = pumpSerial
+            )
+        ),
+        type = type
+    )
+
+    private fun PumpSync.HistoryRecord.Carbs.toBatchRecord() = PersistenceLayer.PumpBatchRecord.Carbs(
+        CA(
+            timestamp = timestamp,
+            amount = amount,
+            duration = 0,
+            ids = IDs(
+                pumpId = pumpId,
+                pumpType = pumpType,
+                pumpSerial = pumpSerial
+            )
+        )
+    )
+
+    private fun PumpSync.HistoryRecord.TherapyEvent.toBatchRecord() = PersistenceLayer.PumpBatchRecord.TherapyEvent(
+        therapyEvent = TE(
+            timestamp = timestamp,
+            type = type,
+            duration = 0,
+            note = note,
+            enteredBy = "AndroidAPS",
+            glucose = null,
+            glucoseType = null,
+            glucoseUnit = GlucoseUnit.MGDL,
+            ids = IDs(
+                pumpId = pumpId,
+                pumpType = pumpType,
+                pumpSerial = pumpSerial
+            )
+        ),
+        action = Action.CAREPORTAL,
+        source = pumpType.source.toUeSource(),
+        note = note,
+        listValues = listOf(ValueWithUnit.Timestamp(timestamp), ValueWithUnit.TEType(type))
+    )
+
+    private fun PumpSync.HistoryRecord.FingerBg.toBatchRecord() = PersistenceLayer.PumpBatchRecord.TherapyEvent(
+        therapyEvent = TE(
+            timestamp = timestamp,
+            type = TE.Type.FINGER_STICK_BG_VALUE,
+            duration = 0,
+            note = note,
+            enteredBy = "AndroidAPS",
+            glucose = glucose,
+            glucoseType = TE.MeterType.FINGER,
+            glucoseUnit = glucoseUnit,
+            ids = IDs(
+                pumpId = pumpId,
+                pumpType = pumpType,
+                pumpSerial = pumpSerial
+            )
+        ),
+        action = Action.CAREPORTAL,
+        source = Sources.Pump,
+        note = note,
+        listValues = listOf(ValueWithUnit.Timestamp(timestamp), ValueWithUnit.TEType(TE.Type.FINGER_STICK_BG_VALUE))
+    )
+
+    private fun PumpSync.HistoryRecord.TemporaryBasal.toBatchRecord() = PersistenceLayer.PumpBatchRecord.TemporaryBasal(
+        temporaryBasal = TB(
+            timestamp = timestamp,
+            rate = rate,
+            duration = duration,
+            type = type?.toDbType() ?: TB.Type.NORMAL,
+            isAbsolute = isAbsolute,
+            ids = IDs(
+                pumpId = pumpId,
+                pumpType = pumpType,
+                pumpSerial = pumpSerial
+            )
+        ),
+        type = type?.toDbType()
+    )
+
+    private fun PumpSync.HistoryRecord.ExtendedBolus.toBatchRecord() = PersistenceLayer.PumpBatchRecord.ExtendedBolus(
+        EB(
+            timestamp = timestamp,
+            amount = amount,
+            duration = duration,
+            isEmulatingTempBasal = isEmulatingTB,
+            ids = IDs(
+                pumpId = pumpId,
+                pumpType = pumpType,
+                pumpSerial = pumpSerial
+            )
+        )
+    )
+
+    private fun PumpSync.HistoryRecord.TotalDailyDose.toBatchRecord() = PersistenceLayer.PumpBatchRecord.TotalDailyDose(
+        TDD(
             timestamp = timestamp,
             bolusAmount = bolusAmount,
             basalAmount = basalAmount,
@@ -445,8 +529,5 @@ class PumpSyncImplementation @Inject constructor(
                 pumpSerial = pumpSerial
             )
         )
-        return persistenceLayer.insertOrUpdateTotalDailyDose(tdd)
-            .map { result -> result.inserted.isNotEmpty() || result.updated.isNotEmpty() }
-            .blockingGet()
-    }
+    )
 }
\ No newline at end of file
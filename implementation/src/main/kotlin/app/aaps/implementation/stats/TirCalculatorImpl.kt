@@ -9,6 +9,7 @@ import android.widget.TableLayout
 import android.widget.TextView
 import androidx.collection.LongSparseArray
 import app.aaps.core.data.configuration.Constants
+import app.aaps.core.data.time.T
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.profile.ProfileUtil
 import app.aaps.core.interfaces.resources.ResourceHelper
@@ -33,23 +34,37 @@ class TirCalculatorImpl @Inject constructor(
         val startTime = MidnightTime.calcDaysBack(days)
         val endTime = MidnightTime.calc(dateUtil.now())
 
-        val bgReadings = persistenceLayer.getBgReadingsDataFromTimeToTime(startTime, endTime, true)
         val result = LongSparseArray<TIR>()
-        for (bg in bgReadings) {
-            val midnight = MidnightTime.calc(bg.timestamp)
-            var tir = result[midnight]
-            if (tir == null) {
-                tir = TirImpl(midnight, lowMgdl, highMgdl)
-                result.append(midnight, tir)
+        for (day in persistenceLayer.getGlucoseRangeCountsPerDay(startTime, endTime, lowMgdl, highMgdl)) {
+            val midnight = MidnightTime.calc(day.firstTimestamp)
+            if (midnight != MidnightTime.calc(day.lastTimestamp)) {
+                // day of stored utcOffset differs from current timezone (ie. after travel), count values one by one
+                // values of other days with different utcOffset may be stored in the same time range
+                for (bg in persistenceLayer.getBgReadingsDataFromTimeToTime(day.firstTimestamp, day.lastTimestamp, true))
+                    if ((bg.timestamp + bg.utcOffset) / T.days(1).msecs() == day.day)
+                        tir(result, MidnightTime.calc(bg.timestamp), lowMgdl, highMgdl).add(bg.value)
+                continue
             }
-            if (bg.value < 39) tir.error()
-            if (bg.value >= 39 && bg.value < lowMgdl) tir.below()
-            if (bg.value in lowMgdl..highMgdl) tir.inRange()
-            if (bg.value > highMgdl) tir.above()
+            // days of different utcOffset may map to the same midnight
+            val tir = tir(result, midnight, lowMgdl, highMgdl)
+            tir.below += day.below
+            tir.inRange += day.inRange
+            tir.above += day.above
+            tir.count += day.below + day.inRange + day.above
         }
         return result
     }
 
+    private fun tir(result: LongSparseArray<TIR>, midnight: Long, lowMgdl: Double, highMgdl: Double): TIR =
+        result[midnight] ?: TirImpl(midnight, lowMgdl, highMgdl).also { result.put(midnight, it) }
+
+    private fun TIR.add(value: Double) {
+        if (value < 39) error()
+        if (value >= 39 && value < lowThreshold) below()
+        if (value in lowThreshold..highThreshold) inRange()
+        if (value > highThreshold) above()
+    }
+
     private fun averageTIR(tirs: LongSparseArray<TIR>): TIR {
         val totalTir = if (tirs.size() > 0) {
             TirImpl(tirs.valueAt(0).date, tirs.valueAt(0).lowThreshold, tirs.valueAt(0).highThreshold)
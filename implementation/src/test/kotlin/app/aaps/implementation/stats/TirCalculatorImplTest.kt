@@ -0,0 +1,162 @@
+package app.aaps.implementation.stats
+
+import androidx.collection.LongSparseArray
+import app.aaps.core.data.model.GV
+import app.aaps.core.data.model.SourceSensor
+import app.aaps.core.data.model.TrendArrow
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.profile.ProfileUtil
+import app.aaps.core.interfaces.resources.ResourceHelper
+import app.aaps.core.interfaces.stats.TIR
+import app.aaps.core.interfaces.utils.DateUtil
+import app.aaps.core.interfaces.utils.MidnightTime
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.whenever
+import java.util.TimeZone
+import java.util.concurrent.TimeUnit
+
+class TirCalculatorImplTest : TestBase() {
+
+    @Mock lateinit var rh: ResourceHelper
+    @Mock lateinit var profileUtil: ProfileUtil
+    @Mock lateinit var dateUtil: DateUtil
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+
+    private lateinit var tirCalculator: TirCalculatorImpl
+    private lateinit var defaultTimeZone: TimeZone
+
+    private val now = System.currentTimeMillis()
+    private val days = 400L
+    private val low = 70.0
+    private val high = 180.0
+
+    @BeforeEach
+    fun setup() {
+        defaultTimeZone = TimeZone.getDefault()
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Prague"))
+        tirCalculator = TirCalculatorImpl(rh, profileUtil, dateUtil, persistenceLayer)
+        whenever(dateUtil.now()).thenReturn(now)
+    }
+
+    @AfterEach
+    fun tearDown() {
+        TimeZone.setDefault(defaultTimeZone)
+    }
+
+    /**
+     * Readings every 10 min for more than [days] so at least 2 DST transitions are covered.
+     * Includes error values and values equal to thresholds.
+     */
+    private fun readings(timeZone: TimeZone, otherTimeZone: TimeZone = timeZone): List<GV> {
+        val values = doubleArrayOf(38.0, 39.0, 55.0, low, 120.0, high, 180.5, 250.0, 400.0)
+        val start = now - TimeUnit.DAYS.toMillis(days + 1)
+        return (0 until TimeUnit.DAYS.toMinutes(days + 1) / 10).map { i ->
+            val timestamp = start + TimeUnit.MINUTES.toMillis(i * 10)
+            // every third value from other timezone
+            val zone = if (i % 3 == 0L) otherTimeZone else timeZone
+            GV(
+                timestamp = timestamp, utcOffset = zone.getOffset(timestamp).toLong(), raw = null, value = values[(i % values.size).toInt()],
+                trendArrow = TrendArrow.FLAT, noise = null, sourceSensor = SourceSensor.UNKNOWN
+            )
+        }
+    }
+
+    // the same selection as database query
+    private fun select(readings: List<GV>, start: Long, end: Long) = readings.filter { it.timestamp in start..end && it.value >= 39 }
+
+    private fun mockDatabase(readings: List<GV>) {
+        whenever(persistenceLayer.getGlucoseRangeCountsPerDay(any(), any(), any(), any())).thenAnswer { invocation ->
+            val lowMgdl = invocation.getArgument<Double>(2)
+            val highMgdl = invocation.getArgument<Double>(3)
+            // GROUP BY (timestamp + utcOffset) / 86400000
+            select(readings, invocation.getArgument(0), invocation.getArgument(1))
+                .groupBy { (it.timestamp + it.utcOffset) / TimeUnit.DAYS.toMillis(1) }
+                .map { (key, day) ->
+                    PersistenceLayer.GlucoseRangeCount(
+                        day = key,
+                        firstTimestamp = day.minOf { it.timestamp },
+                        lastTimestamp = day.maxOf { it.timestamp },
+                        below = day.count { it.value < lowMgdl },
+                        inRange = day.count { it.value in lowMgdl..highMgdl },
+                        above = day.count { it.value > highMgdl }
+                    )
+                }
+        }
+    }
+
+    private fun mockReadings(readings: List<GV>) {
+        whenever(persistenceLayer.getBgReadingsDataFromTimeToTime(any(), any(), anyOrNull())).thenAnswer { invocation ->
+            select(readings, invocation.getArgument(0), invocation.getArgument(1))
+        }
+    }
+
+    // previous implementation loading all readings
+    private fun perReading(readings: List<GV>): LongSparseArray<TIR> {
+        val result = LongSparseArray<TIR>()
+        for (bg in select(readings, MidnightTime.calcDaysBack(days), MidnightTime.calc(now))) {
+            val midnight = MidnightTime.calc(bg.timestamp)
+            var tir = result[midnight]
+            if (tir == null) {
+                tir = TirImpl(midnight, low, high)
+                result.append(midnight, tir)
+            }
+            if (bg.value < 39) tir.error()
+            if (bg.value >= 39 && bg.value < low) tir.below()
+            if (bg.value in low..high) tir.inRange()
+            if (bg.value > high) tir.above()
+        }
+        return result
+    }
+
+    private fun assertSame(expected: LongSparseArray<TIR>, actual: LongSparseArray<TIR>) {
+        assertThat(actual.size()).isEqualTo(expected.size())
+        for (i in 0 until expected.size()) {
+            assertThat(actual.keyAt(i)).isEqualTo(expected.keyAt(i))
+            val e = expected.valueAt(i)
+            val a = actual.valueAt(i)
+            assertThat(a.date).isEqualTo(e.date)
+            assertThat(listOf(a.below, a.inRange, a.above, a.error, a.count)).isEqualTo(listOf(e.below, e.inRange, e.above, e.error, e.count))
+        }
+    }
+
+    private fun dayLengths(result: LongSparseArray<TIR>): Set<Long> =
+        (1 until result.size()).map { TimeUnit.MILLISECONDS.toHours(result.keyAt(it) - result.keyAt(it - 1)) }.toSet()
+
+    @Test
+    fun `aggregated counts match per reading counts over DST transitions`() {
+        val readings = readings(TimeZone.getDefault())
+        mockDatabase(readings)
+
+        val result = tirCalculator.calculate(days, low, high)
+
+        assertSame(perReading(readings), result)
+        assertThat(result.size()).isAtLeast(days.toInt())
+        // 23 and 25 hours days are included
+        assertThat(dayLengths(result)).containsExactly(23L, 24L, 25L)
+    }
+
+    @Test
+    fun `values stored in other timezone are counted by current timezone`() {
+        val readings = readings(TimeZone.getTimeZone("America/New_York"))
+        mockDatabase(readings)
+        mockReadings(readings)
+
+        assertSame(perReading(readings), tirCalculator.calculate(days, low, high))
+    }
+
+    @Test
+    fun `values stored in mixed timezones are counted once`() {
+        val readings = readings(TimeZone.getDefault(), TimeZone.getTimeZone("America/New_York"))
+        mockDatabase(readings)
+        mockReadings(readings)
+
+        assertSame(perReading(readings), tirCalculator.calculate(days, low, high))
+    }
+}
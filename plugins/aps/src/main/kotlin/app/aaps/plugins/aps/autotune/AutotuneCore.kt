@@ -414,13 +414,9 @@ class AutotuneCore @Inject constructor(
             ratios.add(ratio)
             count++
         }
-        avgDeltas.sort()
-        bGIs.sort()
-        isfDeviations.sort()
-        ratios.sort()
-        var p50deviation = Percentile.percentile(isfDeviations.toTypedArray(), 0.50)
-        var p50BGI = Percentile.percentile(bGIs.toTypedArray(), 0.50)
-        val p50ratios = Round.roundTo(Percentile.percentile(ratios.toTypedArray(), 0.50), 0.001)
+        var p50deviation = Percentile.percentile(isfDeviations.toDoubleArray(), 0.50)
+        var p50BGI = Percentile.percentile(bGIs.toDoubleArray(), 0.50)
+        val p50ratios = Round.roundTo(Percentile.percentile(ratios.toDoubleArray(), 0.50), 0.001)
         var fullNewISF = isf
         if (count < 10) {
             // leave isf unchanged if fewer than 5 isf data points
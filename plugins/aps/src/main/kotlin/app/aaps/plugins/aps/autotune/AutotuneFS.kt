@@ -123,6 +123,7 @@ class AutotuneFS @Inject constructor(
         createAutotunefile(RECOMMENDATIONS, result)
     }
 
+    @Synchronized
     fun exportLog(lastRun: Long, index: Int = 0) {
         val suffix = if (index == 0) "" else "_" + index
         log("Create " + LOGPREF + formatDate(lastRun) + suffix + ".log" + " file in " + AUTOTUNEFOLDER + " folder")
@@ -130,6 +131,7 @@ class AutotuneFS @Inject constructor(
         logString = ""
     }
 
+    @Synchronized
     fun exportLogAndZip(lastRun: Long) {
         log("Create " + LOGPREF + formatDate(lastRun) + ".log" + " file in " + AUTOTUNEFOLDER + " folder")
         createAutotunefile(LOGPREF + formatDate(lastRun) + ".log", logString)
@@ -175,6 +177,8 @@ class AutotuneFS @Inject constructor(
         atLog("[FS] $message")
     }
 
+    // called from export executor too
+    @Synchronized
     fun atLog(message: String) {
         logString += "$message\n"
         log.debug(message)
@@ -52,9 +52,42 @@ open class AutotuneIob @Inject constructor(
     private lateinit var tempBasals: ArrayList<TB>
     var startBG: Long = 0
     private var endBG: Long = 0
-    private fun range(): Long = (60 * 60 * 1000L * dia + T.hours(2).msecs()).toLong()
+    private fun range(dia: Double): Long = (60 * 60 * 1000L * dia + T.hours(2).msecs()).toLong()
+
+    /**
+     * History of one day as stored in database.
+     * Doesn't depend on tuned profile (only dia defines the range), so it can be loaded in advance
+     */
+    class RawData(
+        val from: Long,
+        val to: Long,
+        val dia: Double,
+        val glucose: List<GV>,
+        val carbs: List<CA>,
+        val boluses: List<BS>,
+        val tempBasals: List<TB>,
+        val extendedBoluses: List<EB>
+    )
+
+    /**
+     * Load database records needed by [initializeData]. Safe to call from another thread
+     */
+    fun loadRawData(from: Long, to: Long, dia: Double): RawData =
+        RawData(
+            from = from,
+            to = to,
+            dia = dia,
+            glucose = persistenceLayer.getBgReadingsDataFromTimeToTime(from, to, false),
+            carbs = persistenceLayer.getCarbsFromTimeToTimeExpanded(from - range(dia), to, false),
+            boluses = persistenceLayer.getBolusesFromTimeToTime(from - range(dia), to, false),
+            tempBasals = persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(from - range(dia), to, false),
+            extendedBoluses = persistenceLayer.getExtendedBolusesStartingFromTimeToTime(from - range(dia), to, false)
+        )
 
-    fun initializeData(from: Long, to: Long, tunedProfile: ATProfile) {
+    /**
+     * @param rawData data loaded in advance by [loadRawData]. Loaded again if it doesn't match requested day or dia
+     */
+    fun initializeData(from: Long, to: Long, tunedProfile: ATProfile, rawData: RawData? = null) {
         dia = tunedProfile.dia
         startBG = from
         endBG = to
@@ -62,14 +95,15 @@ open class AutotuneIob @Inject constructor(
         meals.clear()
         boluses.clear()
         tempBasals = ArrayList()
-        if (profileFunction.getProfile(from - range()) == null)
+        if (profileFunction.getProfile(from - range(dia)) == null)
             return
-        initializeBgReadings(from, to)
-        initializeTreatmentData(from - range(), to)
-        initializeTempBasalData(from - range(), to, tunedProfile)
-        initializeExtendedBolusData(from - range(), to, tunedProfile)
+        val data = rawData?.takeIf { it.from == from && it.to == to && it.dia == dia } ?: loadRawData(from, to, dia)
+        glucose = data.glucose
+        initializeTreatmentData(data.carbs, data.boluses, to)
+        initializeTempBasalData(data.tempBasals, tunedProfile)
+        initializeExtendedBolusData(data.extendedBoluses, tunedProfile)
         sortTempBasal()
-        addNeutralTempBasal(from - range(), to, tunedProfile)        // Without Neutral TBR, Autotune Web will ignore iob for periods without TBR running
+        addNeutralTempBasal(from - range(dia), to, tunedProfile)        // Without Neutral TBR, Autotune Web will ignore iob for periods without TBR running
         sortNsTreatments()
         sortBoluses()
         aapsLogger.debug(LTag.AUTOTUNE, "Nb Treatments: " + nsTreatments.size + " Nb meals: " + meals.size)
@@ -90,18 +124,13 @@ open class AutotuneIob @Inject constructor(
         boluses = ArrayList(boluses.toList().sortedWith { o1: BS, o2: BS -> if (o2.timestamp > o1.timestamp) 1 else -1 })
     }
 
-    private fun initializeBgReadings(from: Long, to: Long) {
-        glucose = persistenceLayer.getBgReadingsDataFromTimeToTime(from, to, false)
-    }
-
     //nsTreatment is used only for export data, meals is used in AutotunePrep
-    private fun initializeTreatmentData(from: Long, to: Long) {
-        val oldestBgDate = if (glucose.isNotEmpty()) glucose[glucose.size - 1].timestamp else from
+    private fun initializeTreatmentData(tmpCarbs: List<CA>, tmpBolus: List<BS>, to: Long) {
+        val oldestBgDate = if (glucose.isNotEmpty()) glucose[glucose.size - 1].timestamp else startBG - range(dia)
         aapsLogger.debug(
             LTag.AUTOTUNE,
             "Check BG date: BG Size: " + glucose.size + " OldestBG: " + dateUtil.dateAndTimeAndSecondsString(oldestBgDate) + " to: " + dateUtil.dateAndTimeAndSecondsString(to)
         )
-        val tmpCarbs = persistenceLayer.getCarbsFromTimeToTimeExpanded(from, to, false)
         aapsLogger.debug(LTag.AUTOTUNE, "Nb treatments after query: " + tmpCarbs.size)
         var nbCarbs = 0
         for (i in tmpCarbs.indices) {
@@ -114,7 +143,6 @@ open class AutotuneIob @Inject constructor(
                     nbCarbs++
             }
         }
-        val tmpBolus = persistenceLayer.getBolusesFromTimeToTime(from, to, false)
         var nbSMB = 0
         var nbBolus = 0
         for (i in tmpBolus.indices) {
@@ -135,8 +163,7 @@ open class AutotuneIob @Inject constructor(
     }
 
     //nsTreatment is used only for export data
-    private fun initializeTempBasalData(from: Long, to: Long, tunedProfile: ATProfile) {
-        val tBRs = persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(from, to, false)
+    private fun initializeTempBasalData(tBRs: List<TB>, tunedProfile: ATProfile) {
         //log.debug("D/AutotunePlugin tempBasal size before cleaning:" + tBRs.size);
         for (i in tBRs.indices) {
             if (tBRs[i].isValid)
@@ -146,8 +173,7 @@ open class AutotuneIob @Inject constructor(
     }
 
     //nsTreatment is used only for export data
-    private fun initializeExtendedBolusData(from: Long, to: Long, tunedProfile: ATProfile) {
-        val extendedBoluses = persistenceLayer.getExtendedBolusesStartingFromTimeToTime(from, to, false)
+    private fun initializeExtendedBolusData(extendedBoluses: List<EB>, tunedProfile: ATProfile) {
         for (i in extendedBoluses.indices) {
             val eb = extendedBoluses[i]
             if (eb.isValid)
@@ -48,6 +48,10 @@ import app.aaps.plugins.aps.autotune.keys.AutotuneStringKey
 import org.json.JSONException
 import org.json.JSONObject
 import java.util.TimeZone
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 import javax.inject.Inject
 import javax.inject.Provider
 import javax.inject.Singleton
@@ -178,56 +182,68 @@ class AutotunePlugin @Inject constructor(
             return
         }
         var currentCalcDay = 0
-        for (i in 0 until daysBack) {
-            val from = startTime + i * 24 * 60 * 60 * 1000L         // get 24 hours BG values from 4 AM to 4 AM next day
-            val to = from + 24 * 60 * 60 * 1000L
-            if (days.isSet(from)) {
-                currentCalcDay++
+        // History loaded from database doesn't depend on tuned profile.
+        // Load next day and write exports in background while current day is tuned
+        val executor = Executors.newSingleThreadExecutor { Thread(it, "AutotuneHistory") }
+        try {
+            var rawData = prefetchRawData(executor, startTime, 0, daysBack, pumpProfile.dia)
+            for (i in 0 until daysBack) {
+                val from = startTime + i * 24 * 60 * 60 * 1000L         // get 24 hours BG values from 4 AM to 4 AM next day
+                val to = from + 24 * 60 * 60 * 1000L
+                if (days.isSet(from)) {
+                    currentCalcDay++
 
-                log("Tune day " + (i + 1) + " of " + daysBack + " (" + currentCalcDay + " of " + calcDays + ")")
-                tunedProfile?.let {
-                    autotuneIob.initializeData(from, to, it)  //autotuneIob contains BG and Treatments data from history (<=> query for ns-treatments and ns-entries)
-                    if (autotuneIob.boluses.isEmpty()) {
+                    log("Tune day " + (i + 1) + " of " + daysBack + " (" + currentCalcDay + " of " + calcDays + ")")
+                    tunedProfile?.let {
+                        autotuneIob.initializeData(from, to, it, rawData?.get())  //autotuneIob contains BG and Treatments data from history (<=> query for ns-treatments and ns-entries)
+                        if (autotuneIob.boluses.isEmpty()) {
+                            result = rh.gs(R.string.autotune_error)
+                            log("No basal data on day ${i + 1}")
+                            autotuneFS.exportResult(result)
+                            autotuneFS.exportLogAndZip(lastRun)
+                            rxBus.send(EventAutotuneUpdateGui())
+                            calculationRunning = false
+                            return
+                        }
+                        val exports = executor.submit(Runnable {
+                            autotuneFS.exportEntries(autotuneIob)               //<=> ns-entries.yyyymmdd.json files exported for results compare with oref0 autotune on virtual machine
+                            autotuneFS.exportTreatments(autotuneIob)            //<=> ns-treatments.yyyymmdd.json files exported for results compare with oref0 autotune on virtual machine (include treatments ,tempBasal and extended
+                        })
+                        rawData = prefetchRawData(executor, startTime, i + 1, daysBack, it.dia)
+                        preppedGlucose = autotunePrep.categorize(it) //<=> autotune.yyyymmdd.json files exported for results compare with oref0 autotune on virtual machine
+                        exports.get()                                   // categorize doesn't modify exported data, next initializeData does
+                        preppedGlucose?.let { preppedGlucose ->         //preppedGlucose and tunedProfile should never be null here
+                            autotuneFS.exportPreppedGlucose(preppedGlucose)
+                            tunedProfile = autotuneCore.tuneAllTheThings(preppedGlucose, it, pumpProfile).also { tunedProfile ->
+                                autotuneFS.exportTunedProfile(tunedProfile)   //<=> newprofile.yyyymmdd.json files exported for results compare with oref0 autotune on virtual machine
+                                if (currentCalcDay < calcDays) {
+                                    log("Partial result for day ${i + 1}".trimIndent())
+                                    result = rh.gs(R.string.autotune_partial_result, currentCalcDay, calcDays)
+                                    rxBus.send(EventAutotuneUpdateGui())
+                                }
+                                logResult = showResults(tunedProfile, pumpProfile)
+                                if (detailedLog)
+                                    autotuneFS.exportLog(lastRun, i + 1)
+                            }
+                        }
+                            ?: {
+                                log("preppedGlucose is null on day ${i + 1}")
+                                tunedProfile = null
+                            }
+                    }
+                    if (tunedProfile == null) {
                         result = rh.gs(R.string.autotune_error)
-                        log("No basal data on day ${i + 1}")
+                        log("TunedProfile is null on day ${i + 1}")
                         autotuneFS.exportResult(result)
                         autotuneFS.exportLogAndZip(lastRun)
                         rxBus.send(EventAutotuneUpdateGui())
                         calculationRunning = false
                         return
                     }
-                    autotuneFS.exportEntries(autotuneIob)               //<=> ns-entries.yyyymmdd.json files exported for results compare with oref0 autotune on virtual machine
-                    autotuneFS.exportTreatments(autotuneIob)            //<=> ns-treatments.yyyymmdd.json files exported for results compare with oref0 autotune on virtual machine (include treatments ,tempBasal and extended
-                    preppedGlucose = autotunePrep.categorize(it) //<=> autotune.yyyymmdd.json files exported for results compare with oref0 autotune on virtual machine
-                    preppedGlucose?.let { preppedGlucose ->         //preppedGlucose and tunedProfile should never be null here
-                        autotuneFS.exportPreppedGlucose(preppedGlucose)
-                        tunedProfile = autotuneCore.tuneAllTheThings(preppedGlucose, it, pumpProfile).also { tunedProfile ->
-                            autotuneFS.exportTunedProfile(tunedProfile)   //<=> newprofile.yyyymmdd.json files exported for results compare with oref0 autotune on virtual machine
-                            if (currentCalcDay < calcDays) {
-                                log("Partial result for day ${i + 1}".trimIndent())
-                                result = rh.gs(R.string.autotune_partial_result, currentCalcDay, calcDays)
-                                rxBus.send(EventAutotuneUpdateGui())
-                            }
-                            logResult = showResults(tunedProfile, pumpProfile)
-                            if (detailedLog)
-                                autotuneFS.exportLog(lastRun, i + 1)
-                        }
-                    }
-                        ?: {
-                            log("preppedGlucose is null on day ${i + 1}")
-                            tunedProfile = null
-                        }
-                }
-                if (tunedProfile == null) {
-                    result = rh.gs(R.string.autotune_error)
-                    log("TunedProfile is null on day ${i + 1}")
-                    autotuneFS.exportResult(result)
-                    autotuneFS.exportLogAndZip(lastRun)
-                    rxBus.send(EventAutotuneUpdateGui())
-                    calculationRunning = false
-                    return
                 }
             }
+        } finally {
+            executor.shutdownNow()
         }
         result = rh.gs(R.string.autotune_result, dateUtil.dateAndTimeString(lastRun))
         if (!detailedLog)
@@ -463,6 +479,15 @@ class AutotunePlugin @Inject constructor(
         return result
     }
 
+    private fun prefetchRawData(executor: ExecutorService, startTime: Long, firstDay: Int, daysBack: Int, dia: Double): Future<AutotuneIob.RawData>? {
+        for (i in firstDay until daysBack) {
+            val from = startTime + i * 24 * 60 * 60 * 1000L
+            if (days.isSet(from))
+                return executor.submit(Callable { autotuneIob.loadRawData(from, from + 24 * 60 * 60 * 1000L, dia) })
+        }
+        return null
+    }
+
     private fun log(message: String) {
         atLog("[Plugin] $message")
     }
@@ -12,7 +12,6 @@ import app.aaps.core.interfaces.aps.Predictions
 import app.aaps.core.interfaces.aps.RT
 import app.aaps.core.interfaces.profile.ProfileUtil
 import app.aaps.core.interfaces.utils.fabric.FabricPrivacy
-import java.text.DecimalFormat
 import java.time.Instant
 import java.time.ZoneId
 import javax.inject.Inject
@@ -32,7 +31,10 @@ class DetermineBasalSMB @Inject constructor(
     private val consoleError = mutableListOf<String>()
     private val consoleLog = mutableListOf<String>()
 
-    private fun Double.toFixed2(): String = DecimalFormat("0.00#").format(round(this, 2))
+    private val fixed2Format = ThreadLocalDecimalFormat("0.00#")
+    private val withoutZerosFormat = ThreadLocalDecimalFormat("0.##")
+
+    private fun Double.toFixed2(): String = fixed2Format.format(round(this, 2))
 
     fun round_basal(value: Double): Double = value
 
@@ -44,7 +46,7 @@ class DetermineBasalSMB @Inject constructor(
         return Math.round(value * scale) / scale
     }
 
-    fun Double.withoutZeros(): String = DecimalFormat("0.##").format(this)
+    fun Double.withoutZeros(): String = withoutZerosFormat.format(this)
     fun round(value: Double): Int = value.roundToInt()
 
     // we expect BG to rise or fall at the rate of BGI,
@@ -389,11 +391,13 @@ class DetermineBasalSMB @Inject constructor(
 
         // generate predicted future BGs based on IOB, COB, and current absorption rate
 
-        var COBpredBGs = mutableListOf<Double>()
-        var aCOBpredBGs = mutableListOf<Double>()
-        var IOBpredBGs = mutableListOf<Double>()
-        var UAMpredBGs = mutableListOf<Double>()
-        var ZTpredBGs = mutableListOf<Double>()
+        // one prediction per iob tick, max 4h
+        val predictions = min(48, iobArray.size + 1)
+        val COBpredBGs = PredictionBuffer(predictions)
+        val aCOBpredBGs = PredictionBuffer(predictions)
+        val IOBpredBGs = PredictionBuffer(predictions)
+        val UAMpredBGs = PredictionBuffer(predictions)
+        val ZTpredBGs = PredictionBuffer(predictions)
         COBpredBGs.add(bg)
         aCOBpredBGs.add(bg)
         IOBpredBGs.add(bg)
@@ -616,45 +620,45 @@ class DetermineBasalSMB @Inject constructor(
             consoleError.add("remainingCIs:      " + remainingCIs.joinToString(separator = " "))
         }
         rT.predBGs = Predictions()
-        IOBpredBGs = IOBpredBGs.map { round(min(401.0, max(39.0, it)), 0) }.toMutableList()
+        IOBpredBGs.clampAndRound()
         for (i in IOBpredBGs.size - 1 downTo 13) {
             if (IOBpredBGs[i - 1] != IOBpredBGs[i]) break
-            else IOBpredBGs.removeAt(IOBpredBGs.lastIndex)
+            else IOBpredBGs.removeLast()
         }
-        rT.predBGs?.IOB = IOBpredBGs.map { it.toInt() }
+        rT.predBGs?.IOB = IOBpredBGs.toIntList()
         lastIOBpredBG = round(IOBpredBGs[IOBpredBGs.size - 1]).toDouble()
-        ZTpredBGs = ZTpredBGs.map { round(min(401.0, max(39.0, it)), 0) }.toMutableList()
+        ZTpredBGs.clampAndRound()
         for (i in ZTpredBGs.size - 1 downTo 7) {
             // stop displaying ZTpredBGs once they're rising and above target
             if (ZTpredBGs[i - 1] >= ZTpredBGs[i] || ZTpredBGs[i] <= target_bg) break
-            else ZTpredBGs.removeAt(ZTpredBGs.lastIndex)
+            else ZTpredBGs.removeLast()
         }
-        rT.predBGs?.ZT = ZTpredBGs.map { it.toInt() }
+        rT.predBGs?.ZT = ZTpredBGs.toIntList()
         if (meal_data.mealCOB > 0) {
-            aCOBpredBGs = aCOBpredBGs.map { round(min(401.0, max(39.0, it)), 0) }.toMutableList()
+            aCOBpredBGs.clampAndRound()
             for (i in aCOBpredBGs.size - 1 downTo 13) {
                 if (aCOBpredBGs[i - 1] != aCOBpredBGs[i]) break
-                else aCOBpredBGs.removeAt(aCOBpredBGs.lastIndex)
+                else aCOBpredBGs.removeLast()
             }
         }
         if (meal_data.mealCOB > 0 && (ci > 0 || remainingCIpeak > 0)) {
-            COBpredBGs = COBpredBGs.map { round(min(401.0, max(39.0, it)), 0) }.toMutableList()
+            COBpredBGs.clampAndRound()
             for (i in COBpredBGs.size - 1 downTo 13) {
                 if (COBpredBGs[i - 1] != COBpredBGs[i]) break
-                else COBpredBGs.removeAt(COBpredBGs.lastIndex)
+                else COBpredBGs.removeLast()
             }
-            rT.predBGs?.COB = COBpredBGs.map { it.toInt() }
+            rT.predBGs?.COB = COBpredBGs.toIntList()
             lastCOBpredBG = COBpredBGs[COBpredBGs.size - 1]
             eventualBG = max(eventualBG, round(COBpredBGs[COBpredBGs.size - 1], 0))
         }
         if (ci > 0 || remainingCIpeak > 0) {
             if (enableUAM) {
-                UAMpredBGs = UAMpredBGs.map { round(min(401.0, max(39.0, it)), 0) }.toMutableList()
+                UAMpredBGs.clampAndRound()
                 for (i in UAMpredBGs.size - 1 downTo 13) {
                     if (UAMpredBGs[i - 1] != UAMpredBGs[i]) break
-                    else UAMpredBGs.removeAt(UAMpredBGs.lastIndex)
+                    else UAMpredBGs.removeLast()
                 }
-                rT.predBGs?.UAM = UAMpredBGs.map { it.toInt() }
+                rT.predBGs?.UAM = UAMpredBGs.toIntList()
                 lastUAMpredBG = UAMpredBGs[UAMpredBGs.size - 1]
                 eventualBG = max(eventualBG, round(UAMpredBGs[UAMpredBGs.size - 1], 0))
             }
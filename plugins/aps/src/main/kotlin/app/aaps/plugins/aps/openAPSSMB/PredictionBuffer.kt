@@ -0,0 +1,41 @@
+package app.aaps.plugins.aps.openAPSSMB
+
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Predicted BGs of one curve stored in primitive array
+ *
+ * @param capacity max number of predictions, ie. number of iob ticks + 1
+ */
+internal class PredictionBuffer(capacity: Int) {
+
+    private val values = DoubleArray(capacity)
+
+    var size = 0
+        private set
+
+    val indices: IntRange get() = 0 until size
+
+    operator fun get(index: Int): Double = values[index]
+
+    fun add(value: Double) {
+        values[size++] = value
+    }
+
+    fun removeLast() {
+        size--
+    }
+
+    /**
+     * Limit predictions to 39 - 401 and round them to whole mg/dl in place
+     */
+    fun clampAndRound() {
+        for (i in 0 until size) {
+            val value = min(401.0, max(39.0, values[i]))
+            values[i] = if (value.isNaN()) Double.NaN else Math.round(value).toDouble()
+        }
+    }
+
+    fun toIntList(): List<Int> = List(size) { values[it].toInt() }
+}
@@ -0,0 +1,20 @@
+package app.aaps.plugins.aps.openAPSSMB
+
+import java.text.DecimalFormat
+import java.util.Locale
+
+/**
+ * [DecimalFormat] is not thread safe. Keep one instance per thread instead of creating new one for every number.
+ * Instance is recreated when default locale changes because [DecimalFormat] reads symbols on creation only.
+ */
+internal class ThreadLocalDecimalFormat(private val pattern: String) {
+
+    private val format = ThreadLocal<Pair<Locale, DecimalFormat>>()
+
+    fun format(value: Double): String {
+        val locale = Locale.getDefault(Locale.Category.FORMAT)
+        val cached = format.get()
+        val decimalFormat = if (cached?.first == locale) cached.second else DecimalFormat(pattern).also { format.set(Pair(locale, it)) }
+        return decimalFormat.format(value)
+    }
+}
@@ -0,0 +1,131 @@
+package app.aaps.plugins.aps.autotune
+
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.CA
+import app.aaps.core.data.model.EB
+import app.aaps.core.data.model.GV
+import app.aaps.core.data.model.SourceSensor
+import app.aaps.core.data.model.TB
+import app.aaps.core.data.model.TrendArrow
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.plugins.aps.autotune.data.ATProfile
+import app.aaps.plugins.aps.autotune.data.LocalInsulin
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.atLeastOnce
+import org.mockito.kotlin.clearInvocations
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+class AutotuneIobTest : TestBaseWithProfile() {
+
+    @Mock lateinit var autotuneFS: AutotuneFS
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+    private lateinit var autotuneIob: AutotuneIob
+    private lateinit var tunedProfile: ATProfile
+
+    private val days = 30
+    private val day = T.days(1).msecs()
+    private val startTime = 1_700_000_000_000L
+    private val glucose = ArrayList<GV>()
+    private val carbs = ArrayList<CA>()
+    private val boluses = ArrayList<BS>()
+    private val tempBasals = ArrayList<TB>()
+    private val extendedBoluses = ArrayList<EB>()
+
+    @BeforeEach
+    fun prepare() {
+        // in-memory history for whole period incl. dia range before first day
+        var time = startTime - day
+        while (time < startTime + days * day) {
+            glucose.add(GV(timestamp = time, raw = null, value = 100.0 + (time / T.mins(5).msecs()) % 40, trendArrow = TrendArrow.FLAT, noise = null, sourceSensor = SourceSensor.UNKNOWN))
+            if (time % T.hours(3).msecs() == 0L) boluses.add(BS(timestamp = time, amount = 1.0, type = BS.Type.NORMAL))
+            if (time % T.hours(6).msecs() == 0L) carbs.add(CA(timestamp = time, duration = 0, amount = 20.0))
+            if (time % T.hours(2).msecs() == 0L) tempBasals.add(TB(timestamp = time, type = TB.Type.NORMAL, isAbsolute = false, rate = 120.0, duration = T.mins(30).msecs()))
+            if (time % T.hours(12).msecs() == 0L) extendedBoluses.add(EB(timestamp = time, duration = T.mins(30).msecs(), amount = 0.5))
+            time += T.mins(5).msecs()
+        }
+        whenever(persistenceLayer.getBgReadingsDataFromTimeToTime(any(), any(), any())).thenAnswer { i ->
+            glucose.filter { it.timestamp >= i.getArgument<Long>(0) && it.timestamp <= i.getArgument<Long>(1) }.sortedByDescending { it.timestamp }
+        }
+        whenever(persistenceLayer.getCarbsFromTimeToTimeExpanded(any(), any(), any())).thenAnswer { i ->
+            carbs.filter { it.timestamp >= i.getArgument<Long>(0) && it.timestamp <= i.getArgument<Long>(1) }
+        }
+        whenever(persistenceLayer.getBolusesFromTimeToTime(any(), any(), any())).thenAnswer { i ->
+            boluses.filter { it.timestamp >= i.getArgument<Long>(0) && it.timestamp <= i.getArgument<Long>(1) }
+        }
+        whenever(persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(any(), any(), any())).thenAnswer { i ->
+            tempBasals.filter { it.timestamp >= i.getArgument<Long>(0) && it.timestamp <= i.getArgument<Long>(1) }
+        }
+        whenever(persistenceLayer.getExtendedBolusesStartingFromTimeToTime(any(), any(), any())).thenAnswer { i ->
+            extendedBoluses.filter { it.timestamp >= i.getArgument<Long>(0) && it.timestamp <= i.getArgument<Long>(1) }
+        }
+        whenever(profileFunction.getProfile(any<Long>())).thenReturn(validProfile)
+        whenever(dateUtil.dateAndTimeAndSecondsString(any())).thenReturn("")
+        autotuneIob = AutotuneIob(aapsLogger, persistenceLayer, profileFunction, preferences, dateUtil, autotuneFS)
+        tunedProfile = ATProfile(activePlugin, preferences, profileUtil, dateUtil, rh, profileStoreProvider, aapsLogger)
+            .with(validProfile, LocalInsulin("Test", 75, validProfile.dia))
+    }
+
+    private class DayResult(val glucose: List<GV>, val boluses: List<BS>, val meals: List<CA>, val treatments: String)
+
+    private fun result() = DayResult(autotuneIob.glucose, ArrayList(autotuneIob.boluses), ArrayList(autotuneIob.meals), autotuneIob.nsHistoryToJSON())
+
+    private fun assertSame(expected: DayResult, actual: DayResult) {
+        assertThat(actual.glucose).isEqualTo(expected.glucose)
+        assertThat(actual.boluses).isEqualTo(expected.boluses)
+        assertThat(actual.meals).isEqualTo(expected.meals)
+        assertThat(actual.treatments).isEqualTo(expected.treatments)
+    }
+
+    @Test
+    fun prefetchedDataGivesSameResult() {
+        autotuneIob.initializeData(startTime, startTime + day, tunedProfile)
+        val expected = result()
+        assertThat(expected.boluses).isNotEmpty()
+
+        val rawData = autotuneIob.loadRawData(startTime, startTime + day, tunedProfile.dia)
+        clearInvocations(persistenceLayer)
+        autotuneIob.initializeData(startTime, startTime + day, tunedProfile, rawData)
+        verify(persistenceLayer, never()).getBolusesFromTimeToTime(any(), any(), any())
+        assertSame(expected, result())
+    }
+
+    @Test
+    fun notMatchingPrefetchedDataIsReloaded() {
+        val rawData = autotuneIob.loadRawData(startTime, startTime + day, tunedProfile.dia + 1.0)
+        clearInvocations(persistenceLayer)
+        autotuneIob.initializeData(startTime, startTime + day, tunedProfile, rawData)
+        verify(persistenceLayer, atLeastOnce()).getBolusesFromTimeToTime(any(), any(), any())
+    }
+
+    @Test
+    fun pipelinedThirtyDayRunMatchesSequential() {
+        // sequential reference run
+        val expected = (0 until days).map { i ->
+            autotuneIob.initializeData(startTime + i * day, startTime + (i + 1) * day, tunedProfile)
+            result()
+        }
+
+        // next day is loaded in background while current day is processed
+        val executor = Executors.newSingleThreadExecutor()
+        var next = executor.submit(Callable { autotuneIob.loadRawData(startTime, startTime + day, tunedProfile.dia) })
+        val actual = (0 until days).map { i ->
+            autotuneIob.initializeData(startTime + i * day, startTime + (i + 1) * day, tunedProfile, next.get())
+            val from = startTime + (i + 1) * day
+            next = executor.submit(Callable { autotuneIob.loadRawData(from, from + day, tunedProfile.dia) })
+            result()
+        }
+        executor.shutdownNow()
+
+        for (i in 0 until days) assertSame(expected[i], actual[i])
+    }
+}
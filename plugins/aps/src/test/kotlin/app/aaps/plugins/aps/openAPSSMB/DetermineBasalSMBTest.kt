@@ -0,0 +1,213 @@
+package app.aaps.plugins.aps.openAPSSMB
+
+import app.aaps.core.interfaces.aps.AutosensResult
+import app.aaps.core.interfaces.aps.CurrentTemp
+import app.aaps.core.interfaces.aps.GlucoseStatusSMB
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.aps.MealData
+import app.aaps.core.interfaces.aps.OapsProfile
+import app.aaps.core.interfaces.aps.RT
+import app.aaps.shared.tests.Benchmark
+import app.aaps.shared.tests.BenchmarkTest
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import org.json.JSONObject
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestReporter
+import org.skyscreamer.jsonassert.JSONAssert
+import org.skyscreamer.jsonassert.JSONCompareMode
+import java.io.File
+import java.time.Instant
+import java.util.Locale
+
+class DetermineBasalSMBTest : TestBaseWithProfile() {
+
+    private lateinit var sut: DetermineBasalSMB
+
+    // recorded by OpenAPSSMBPlugin and OpenAPSSMBDynamicISFPlugin, copied from ReplayApsResultsTest assets
+    private val recordedResults = File("src/test/res/openAPSSMB/recorded")
+    private val recordedNames = listOf(
+        "2023-10-28_133013", "2023-10-28_140013", "2023-10-28_143013", "2023-10-28_145014",
+        "2023-10-31_042017", "2023-10-31_053517", "2023-10-31_063018", "2023-10-31_075519"
+    )
+
+    // RT of every variant of recorded input, generated by DetermineBasalSMB before predictions were moved to primitive buffers, in en_US locale
+    private val expectedResults = JSONObject(File("src/test/res/openAPSSMB/determine_basal_results.json").readText())
+
+    private class Input(
+        val glucoseStatus: GlucoseStatusSMB,
+        val currentTemp: CurrentTemp,
+        val iobData: Array<IobTotal>,
+        val profile: OapsProfile,
+        val autosensData: AutosensResult,
+        val mealData: MealData,
+        val microBolusAllowed: Boolean,
+        val currentTime: Long,
+        val flatBGsDetected: Boolean,
+        val dynIsfMode: Boolean
+    )
+
+    @BeforeEach
+    fun prepare() {
+        // reason contains formatted numbers
+        Locale.setDefault(Locale.US)
+        sut = DetermineBasalSMB(profileUtil, fabricPrivacy)
+    }
+
+    private fun JSONObject.toIob(): IobTotal =
+        IobTotal(
+            time = Instant.parse(getString("time")).toEpochMilli(),
+            iob = getDouble("iob"),
+            basaliob = getDouble("basaliob"),
+            bolussnooze = getDouble("bolussnooze"),
+            activity = getDouble("activity"),
+            lastBolusTime = getLong("lastBolusTime"),
+            iobWithZeroTemp = optJSONObject("iobWithZeroTemp")?.toIob()
+        )
+
+    private fun JSONObject.toProfile(): OapsProfile =
+        OapsProfile(
+            dia = 0.0,
+            min_5m_carbimpact = 0.0,
+            max_iob = getDouble("max_iob"),
+            max_daily_basal = getDouble("max_daily_basal"),
+            max_basal = getDouble("max_basal"),
+            min_bg = getDouble("min_bg"),
+            max_bg = getDouble("max_bg"),
+            target_bg = getDouble("target_bg"),
+            carb_ratio = getDouble("carb_ratio"),
+            sens = getDouble("sens"),
+            autosens_adjust_targets = false,
+            max_daily_safety_multiplier = getDouble("max_daily_safety_multiplier"),
+            current_basal_safety_multiplier = getDouble("current_basal_safety_multiplier"),
+            lgsThreshold = null,
+            high_temptarget_raises_sensitivity = getBoolean("high_temptarget_raises_sensitivity"),
+            low_temptarget_lowers_sensitivity = getBoolean("low_temptarget_lowers_sensitivity"),
+            sensitivity_raises_target = getBoolean("sensitivity_raises_target"),
+            resistance_lowers_target = getBoolean("resistance_lowers_target"),
+            adv_target_adjustments = getBoolean("adv_target_adjustments"),
+            exercise_mode = getBoolean("exercise_mode"),
+            half_basal_exercise_target = getInt("half_basal_exercise_target"),
+            maxCOB = getInt("maxCOB"),
+            skip_neutral_temps = getBoolean("skip_neutral_temps"),
+            remainingCarbsCap = getInt("remainingCarbsCap"),
+            enableUAM = getBoolean("enableUAM"),
+            A52_risk_enable = getBoolean("A52_risk_enable"),
+            SMBInterval = getInt("SMBInterval"),
+            enableSMB_with_COB = getBoolean("enableSMB_with_COB"),
+            enableSMB_with_temptarget = getBoolean("enableSMB_with_temptarget"),
+            allowSMB_with_high_temptarget = getBoolean("allowSMB_with_high_temptarget"),
+            enableSMB_always = getBoolean("enableSMB_always"),
+            enableSMB_after_carbs = getBoolean("enableSMB_after_carbs"),
+            maxSMBBasalMinutes = getInt("maxSMBBasalMinutes"),
+            maxUAMSMBBasalMinutes = getInt("maxUAMSMBBasalMinutes"),
+            bolus_increment = getDouble("bolus_increment"),
+            carbsReqThreshold = getInt("carbsReqThreshold"),
+            current_basal = getDouble("current_basal"),
+            temptargetSet = getBoolean("temptargetSet"),
+            autosens_max = getDouble("autosens_max"),
+            out_units = optString("out_units"),
+            variable_sens = optDouble("variable_sens", 0.0),
+            insulinDivisor = optInt("insulinDivisor", 0),
+            TDD = optDouble("TDD", 0.0)
+        )
+
+    private fun recordedInput(name: String): Input =
+        JSONObject(File(recordedResults, "$name.json").readText()).let { recorded ->
+            val input = recorded.getJSONObject("input")
+            val glucoseStatus = input.getJSONObject("glucoseStatus")
+            val currentTemp = input.getJSONObject("currenttemp")
+            val mealData = input.getJSONObject("meal_data")
+            val iobData = input.getJSONArray("iob_data")
+            Input(
+                glucoseStatus = GlucoseStatusSMB(
+                    glucose = glucoseStatus.getDouble("glucose"),
+                    noise = glucoseStatus.getDouble("noise"),
+                    delta = glucoseStatus.getDouble("delta"),
+                    shortAvgDelta = glucoseStatus.getDouble("short_avgdelta"),
+                    longAvgDelta = glucoseStatus.getDouble("long_avgdelta"),
+                    date = glucoseStatus.getLong("date")
+                ),
+                currentTemp = CurrentTemp(duration = currentTemp.getInt("duration"), rate = currentTemp.getDouble("rate"), minutesrunning = null),
+                iobData = Array(iobData.length()) { iobData.getJSONObject(it).toIob() },
+                profile = input.getJSONObject("profile").toProfile(),
+                autosensData = AutosensResult(ratio = input.getJSONObject("autosens_data").getDouble("ratio")),
+                mealData = MealData(
+                    carbs = mealData.getDouble("carbs"),
+                    mealCOB = mealData.getDouble("mealCOB"),
+                    slopeFromMaxDeviation = mealData.getDouble("slopeFromMaxDeviation"),
+                    slopeFromMinDeviation = mealData.getDouble("slopeFromMinDeviation"),
+                    lastBolusTime = mealData.getLong("lastBolusTime"),
+                    lastCarbTime = mealData.getLong("lastCarbTime")
+                ),
+                microBolusAllowed = input.getBoolean("microBolusAllowed"),
+                currentTime = input.getLong("currentTime"),
+                flatBGsDetected = input.getBoolean("flatBGsDetected"),
+                dynIsfMode = recorded.getString("algorithm") == "OpenAPSSMBDynamicISFPlugin"
+            )
+        }
+
+    /**
+     * Recorded inputs have no carbs. Add carbs, UAM and SMB to cover COB, aCOB and UAM predictions too.
+     */
+    private fun variants(input: Input): List<Input> = listOf(
+        input,
+        Input(
+            glucoseStatus = input.glucoseStatus.copy(glucose = input.glucoseStatus.glucose + 80, delta = 9.5, shortAvgDelta = 8.2, longAvgDelta = 4.1),
+            currentTemp = input.currentTemp,
+            iobData = input.iobData,
+            profile = input.profile.copy(enableUAM = true, enableSMB_always = true, enableSMB_with_COB = true),
+            autosensData = input.autosensData,
+            mealData = input.mealData.copy(carbs = 45.0, mealCOB = 38.0, slopeFromMaxDeviation = 0.0, slopeFromMinDeviation = 3.5, lastCarbTime = input.currentTime - 25 * 60 * 1000L),
+            microBolusAllowed = true,
+            currentTime = input.currentTime,
+            flatBGsDetected = input.flatBGsDetected,
+            dynIsfMode = input.dynIsfMode
+        ),
+        Input(
+            glucoseStatus = input.glucoseStatus.copy(glucose = 65.0, delta = -4.5, shortAvgDelta = -5.0, longAvgDelta = -3.0),
+            currentTemp = input.currentTemp,
+            iobData = input.iobData,
+            profile = input.profile.copy(enableUAM = true),
+            autosensData = AutosensResult(ratio = 0.8),
+            mealData = input.mealData.copy(carbs = 10.0, mealCOB = 5.0, slopeFromMaxDeviation = -1.2, slopeFromMinDeviation = 0.0, lastCarbTime = input.currentTime - 90 * 60 * 1000L),
+            microBolusAllowed = true,
+            currentTime = input.currentTime,
+            flatBGsDetected = input.flatBGsDetected,
+            dynIsfMode = input.dynIsfMode
+        )
+    )
+
+    private fun DetermineBasalSMB.run(input: Input): RT =
+        determine_basal(
+            input.glucoseStatus, input.currentTemp, input.iobData, input.profile, input.autosensData, input.mealData,
+            input.microBolusAllowed, input.currentTime, input.flatBGsDetected, input.dynIsfMode
+        )
+
+    @Test
+    fun replayedInputsGiveRecordedResult() {
+        var withCob = 0
+        var withUam = 0
+        for (name in recordedNames) {
+            val inputs = variants(recordedInput(name))
+            val expected = expectedResults.getJSONArray(name)
+            assertThat(inputs).hasSize(expected.length())
+            inputs.forEachIndexed { index, input ->
+                // serialize immediately, console lists are reused by next invocation
+                val actual = sut.run(input)
+                JSONAssert.assertEquals("Error in $name variant $index", expected.getJSONObject(index).toString(), actual.serialize(), JSONCompareMode.STRICT)
+                if (actual.predBGs?.COB != null) withCob++
+                if (actual.predBGs?.UAM != null) withUam++
+            }
+        }
+        assertThat(withCob).isGreaterThan(0)
+        assertThat(withUam).isGreaterThan(0)
+    }
+
+    @BenchmarkTest
+    fun determineBasalBenchmark(reporter: TestReporter) {
+        val inputs = recordedNames.flatMap { variants(recordedInput(it)) }
+        Benchmark(reporter).measure("determine_basal", inputs.size) { inputs.map { sut.run(it).rate } }
+    }
+}
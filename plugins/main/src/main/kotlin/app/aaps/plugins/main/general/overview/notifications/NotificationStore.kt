@@ -10,7 +10,10 @@ import android.media.RingtoneManager
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
+import androidx.annotation.VisibleForTesting
 import androidx.core.app.NotificationCompat
+import androidx.recyclerview.widget.AdapterListUpdateCallback
+import androidx.recyclerview.widget.ListUpdateCallback
 import androidx.recyclerview.widget.RecyclerView
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LTag
@@ -27,7 +30,7 @@ import app.aaps.plugins.main.R
 import app.aaps.plugins.main.databinding.OverviewNotificationItemBinding
 import app.aaps.plugins.main.general.overview.notifications.events.EventUpdateOverviewNotification
 import app.aaps.plugins.main.general.overview.notifications.receivers.DismissNotificationReceiver
-import java.util.Collections
+import java.util.TreeSet
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -44,72 +47,116 @@ class NotificationStore @Inject constructor(
     private val activePlugin: ActivePlugin
 ) {
 
-    private var store: MutableList<Notification> = ArrayList()
+    /**
+     * Stored notification
+     *
+     * Level and sequence number are captured on insertion, so position of item can't change while it's stored.
+     * Items of the same level keep order of insertion.
+     */
+    internal data class Item(val notification: Notification, val level: Int, val seq: Long, val date: Long)
+
+    private val byId = HashMap<Int, Item>()
+    private val store = TreeSet(ORDER)
+    private var nextSeq = 0L
 
     companion object {
 
         private const val CHANNEL_ID = "AndroidAPS-Overview"
-    }
-
-    inner class NotificationComparator : Comparator<Notification> {
 
-        override fun compare(o1: Notification, o2: Notification): Int {
-            return o1.level - o2.level
+        private val ORDER = Comparator<Item> { o1, o2 -> if (o1.level != o2.level) o1.level.compareTo(o2.level) else o1.seq.compareTo(o2.seq) }
+
+        /**
+         * Send changes between two ordered snapshots of store to [callback]
+         */
+        @VisibleForTesting
+        internal fun dispatchDiff(old: List<Item>, new: List<Item>, callback: ListUpdateCallback) {
+            var i = 0
+            var j = 0
+            var position = 0
+            while (i < old.size || j < new.size) {
+                val c = when {
+                    i == old.size -> 1
+                    j == new.size -> -1
+                    else          -> ORDER.compare(old[i], new[j])
+                }
+                when {
+                    c < 0 -> {
+                        callback.onRemoved(position, 1)
+                        i++
+                    }
+
+                    c > 0 -> {
+                        callback.onInserted(position++, 1)
+                        j++
+                    }
+
+                    else  -> {
+                        if (old[i].date != new[j].date) callback.onChanged(position, 1, null)
+                        position++
+                        i++
+                        j++
+                    }
+                }
+            }
         }
     }
 
     @Synchronized
     fun add(n: Notification): Boolean {
         aapsLogger.debug(LTag.NOTIFICATION, "Notification received: " + n.text)
-        for (storeNotification in store) {
-            if (storeNotification.id == n.id) {
-                storeNotification.date = n.date
-                storeNotification.validTo = n.validTo
-                return false
-            }
+        byId[n.id]?.let { stored ->
+            stored.notification.date = n.date
+            stored.notification.validTo = n.validTo
+            val updated = stored.copy(date = n.date)
+            store.remove(stored)
+            store.add(updated)
+            byId[n.id] = updated
+            return false
         }
-        store.add(n)
+        val item = Item(n, n.level, nextSeq++, n.date)
+        byId[n.id] = item
+        store.add(item)
         if (preferences.get(BooleanKey.AlertUrgentAsAndroidNotification) && n !is NotificationWithAction)
             raiseSystemNotification(n)
         if (n.soundId != null && n.soundId != 0) uiInteraction.startAlarm(n.soundId!!, n.text)
-        Collections.sort(store, NotificationComparator())
         return true
     }
 
     @Synchronized
     fun remove(id: Int): Boolean {
-        for (i in store.indices) {
-            if (store[i].id == id) {
-                if (store[i].soundId != null) uiInteraction.stopAlarm("Removed " + store[i].text)
-                aapsLogger.debug(LTag.NOTIFICATION, "Notification removed: " + store[i].text)
-                store.removeAt(i)
-                return true
-            }
-        }
-        return false
+        val item = byId.remove(id) ?: return false
+        store.remove(item)
+        if (item.notification.soundId != null) uiInteraction.stopAlarm("Removed " + item.notification.text)
+        aapsLogger.debug(LTag.NOTIFICATION, "Notification removed: " + item.notification.text)
+        return true
     }
 
+    @VisibleForTesting
     @Synchronized
-    private fun removeExpired() {
-        var i = 0
-        while (i < store.size) {
-            val n = store[i]
-            if (n.validTo != 0L && n.validTo < System.currentTimeMillis()) {
-                if (store[i].soundId != null) uiInteraction.stopAlarm("Expired " + store[i].text)
-                aapsLogger.debug(LTag.NOTIFICATION, "Notification expired: " + store[i].text)
-                store.removeAt(i)
-                i--
+    internal fun removeExpired() {
+        val now = dateUtil.now()
+        val iterator = store.iterator()
+        while (iterator.hasNext()) {
+            val n = iterator.next().notification
+            if (n.validTo != 0L && n.validTo < now) {
+                if (n.soundId != null) uiInteraction.stopAlarm("Expired " + n.text)
+                aapsLogger.debug(LTag.NOTIFICATION, "Notification expired: " + n.text)
+                iterator.remove()
+                byId.remove(n.id)
+            } else if (n is NotificationWithAction && n.validityCheck?.invoke() == false) {
+                iterator.remove()
+                byId.remove(n.id)
             }
-            if (n is NotificationWithAction) {
-                if (n.validityCheck?.invoke() == false) {
-                    store.removeAt(i)
-                    i--
-                }
-            }
-            i++
         }
     }
 
+    /**
+     * @return stored notifications ordered by level
+     */
+    @VisibleForTesting
+    @Synchronized
+    internal fun items(): List<Item> = ArrayList(store)
+
     private fun raiseSystemNotification(n: Notification) {
         val mgr = context.getSystemService(Context.NOTIFICATION_SERVICE) as NotificationManager
         val largeIcon = rh.decodeResource(iconsProvider.getIcon())
@@ -148,24 +195,29 @@ class NotificationStore @Inject constructor(
     @Synchronized
     fun updateNotifications(notificationsView: RecyclerView) {
         removeExpired()
-        val clonedStore = ArrayList(store)
-        if (clonedStore.isNotEmpty()) {
-            val adapter = NotificationRecyclerViewAdapter(clonedStore)
-            notificationsView.adapter = adapter
-            notificationsView.visibility = View.VISIBLE
-        } else {
-            notificationsView.visibility = View.GONE
-        }
+        val items = items()
+        val adapter = notificationsView.adapter as? NotificationRecyclerViewAdapter
+        if (adapter != null) adapter.update(items)
+        else if (items.isNotEmpty()) notificationsView.adapter = NotificationRecyclerViewAdapter(items)
+        notificationsView.visibility = if (items.isNotEmpty()) View.VISIBLE else View.GONE
     }
 
-    inner class NotificationRecyclerViewAdapter internal constructor(private val notificationsList: List<Notification>) :
+    inner class NotificationRecyclerViewAdapter internal constructor(private var notificationsList: List<Item>) :
         RecyclerView.Adapter<NotificationRecyclerViewAdapter.NotificationsViewHolder>() {
 
+        private val listUpdateCallback = AdapterListUpdateCallback(this)
+
+        internal fun update(items: List<Item>) {
+            val old = notificationsList
+            notificationsList = items
+            dispatchDiff(old, items, listUpdateCallback)
+        }
+
         override fun onCreateViewHolder(viewGroup: ViewGroup, viewType: Int): NotificationsViewHolder =
             NotificationsViewHolder(LayoutInflater.from(viewGroup.context).inflate(R.layout.overview_notification_item, viewGroup, false))
 
         override fun onBindViewHolder(holder: NotificationsViewHolder, position: Int) {
-            val notification = notificationsList[position]
+            val notification = notificationsList[position].notification
             holder.binding.dismiss.tag = notification
             if (notification.buttonText != 0) holder.binding.dismiss.setText(notification.buttonText)
             else holder.binding.dismiss.setText(app.aaps.core.ui.R.string.snooze)
@@ -0,0 +1,120 @@
+package app.aaps.plugins.main.general.overview.notifications
+
+import android.content.Context
+import androidx.recyclerview.widget.ListUpdateCallback
+import app.aaps.core.interfaces.notifications.Notification
+import app.aaps.core.interfaces.notifications.NotificationHolder
+import app.aaps.core.interfaces.plugin.ActivePlugin
+import app.aaps.core.interfaces.resources.ResourceHelper
+import app.aaps.core.interfaces.ui.IconsProvider
+import app.aaps.core.interfaces.ui.UiInteraction
+import app.aaps.core.interfaces.utils.DateUtil
+import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.whenever
+import kotlin.random.Random
+
+class NotificationStoreTest : TestBase() {
+
+    @Mock lateinit var preferences: Preferences
+    @Mock lateinit var rh: ResourceHelper
+    @Mock lateinit var context: Context
+    @Mock lateinit var iconsProvider: IconsProvider
+    @Mock lateinit var uiInteraction: UiInteraction
+    @Mock lateinit var dateUtil: DateUtil
+    @Mock lateinit var notificationHolder: NotificationHolder
+    @Mock lateinit var activePlugin: ActivePlugin
+
+    private lateinit var sut: NotificationStore
+    private var now = 1_000_000L
+
+    @BeforeEach
+    fun setup() {
+        sut = NotificationStore(aapsLogger, preferences, rh, context, iconsProvider, uiInteraction, dateUtil, notificationHolder, activePlugin)
+        whenever(dateUtil.now()).thenAnswer { now }
+    }
+
+    /**
+     * Applies changes to copy of old snapshot. Inserted items are taken from new snapshot
+     */
+    private class ViewModel(var rows: MutableList<NotificationStore.Item>) {
+
+        var changed = 0
+
+        fun apply(new: List<NotificationStore.Item>) {
+            NotificationStore.dispatchDiff(rows.toList(), new, object : ListUpdateCallback {
+                override fun onInserted(position: Int, count: Int) = repeat(count) { rows.add(position + it, new[position + it]) }
+                override fun onRemoved(position: Int, count: Int) = repeat(count) { rows.removeAt(position) }
+                override fun onMoved(fromPosition: Int, toPosition: Int) = error("Unexpected move")
+                override fun onChanged(position: Int, count: Int, payload: Any?) {
+                    repeat(count) { rows[position + it] = new[position + it] }
+                    changed += count
+                }
+            })
+        }
+    }
+
+    @Test
+    fun sameLevelKeepsInsertionOrder() {
+        assertThat(sut.add(Notification(1, now, "a", Notification.NORMAL, 0))).isTrue()
+        assertThat(sut.add(Notification(2, now, "b", Notification.URGENT, 0))).isTrue()
+        assertThat(sut.add(Notification(3, now, "c", Notification.NORMAL, 0))).isTrue()
+        assertThat(sut.add(Notification(4, now, "d", Notification.INFO, 0))).isTrue()
+        assertThat(sut.add(Notification(5, now, "e", Notification.URGENT, 0))).isTrue()
+        assertThat(sut.items().map { it.notification.id }).containsExactly(2, 5, 1, 3, 4).inOrder()
+
+        // existing id is updated in place
+        val view = ViewModel(sut.items().toMutableList())
+        assertThat(sut.add(Notification(1, now + 10, "a", Notification.URGENT, 0))).isFalse()
+        view.apply(sut.items())
+        assertThat(sut.items().map { it.notification.id }).containsExactly(2, 5, 1, 3, 4).inOrder()
+        assertThat(sut.items()[2].notification.date).isEqualTo(now + 10)
+        assertThat(view.changed).isEqualTo(1)
+
+        assertThat(sut.remove(5)).isTrue()
+        assertThat(sut.remove(5)).isFalse()
+        assertThat(sut.items().map { it.notification.id }).containsExactly(2, 1, 3, 4).inOrder()
+    }
+
+    @Test
+    fun stressMatchesSortedListSemantics() {
+        val random = Random(7)
+        // previous implementation: list stable sorted by level
+        val model = ArrayList<Notification>()
+        val view = ViewModel(ArrayList())
+        repeat(10_000) {
+            when (random.nextInt(10)) {
+                in 0..4 -> {
+                    val id = random.nextInt(300)
+                    val validTo = if (random.nextBoolean()) 0L else now + random.nextLong(1, 60_000)
+                    val n = Notification(id, now, "n$id", random.nextInt(Notification.URGENT, Notification.ANNOUNCEMENT + 1), validTo)
+                    val existing = model.firstOrNull { it.id == id }
+                    assertThat(sut.add(n)).isEqualTo(existing == null)
+                    if (existing == null) {
+                        model.add(n)
+                        model.sortWith(compareBy { it.level })
+                    }
+                }
+
+                in 5..7 -> {
+                    val id = random.nextInt(300)
+                    assertThat(sut.remove(id)).isEqualTo(model.removeIf { it.id == id })
+                }
+
+                else    -> {
+                    now += random.nextLong(0, 20_000)
+                    sut.removeExpired()
+                    model.removeIf { it.validTo != 0L && it.validTo < now }
+                }
+            }
+            val items = sut.items()
+            assertThat(items.map { it.notification }).containsExactlyElementsIn(model).inOrder()
+            view.apply(items)
+            assertThat(view.rows).containsExactlyElementsIn(items).inOrder()
+        }
+    }
+}
@@ -28,7 +28,6 @@ import app.aaps.core.validators.preferences.AdaptiveIntPreference
 import app.aaps.plugins.sensitivity.extensions.isPSEvent5minBack
 import app.aaps.plugins.sensitivity.extensions.isTherapyEventEvent5minBack
 import org.json.JSONObject
-import java.util.Arrays
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlin.math.roundToInt
@@ -108,13 +107,12 @@ class SensitivityAAPSPlugin @Inject constructor(
             }
             index++
         }
-        val deviations = Array(deviationsArray.size) { i -> deviationsArray[i] }
+        val deviations = deviationsArray.toDoubleArray()
         //val sens = profile.getIsfMgdl(toTime, current.bg, "SensitivityAAPSPlugin")
         val sens = current.sens
         val ratioLimit = ""
         val sensResult: String
         aapsLogger.debug(LTag.AUTOSENS, "Records: $index   $pastSensitivity")
-        Arrays.sort(deviations)
         val percentile = Percentile.percentile(deviations, 0.50)
         val basalOff = percentile * (60.0 / 5.0) / sens
         val ratio = 1 + basalOff / profile.getMaxDailyBasal()
@@ -28,7 +28,6 @@ import app.aaps.core.validators.preferences.AdaptiveDoublePreference
 import app.aaps.plugins.sensitivity.extensions.isPSEvent5minBack
 import app.aaps.plugins.sensitivity.extensions.isTherapyEventEvent5minBack
 import org.json.JSONObject
-import java.util.Arrays
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlin.math.roundToInt
@@ -160,11 +159,9 @@ class SensitivityOref1Plugin @Inject constructor(
             var sensResult = "(8 hours) "
             if (hourUsed == 1) sensResult = "(24 hours) "
             val ratioLimit = ""
-            val deviations: Array<Double> = Array(deviationsArray.size) { i -> deviationsArray[i] }
+            val deviations = deviationsArray.toDoubleArray()
             aapsLogger.debug(LTag.AUTOSENS, "Records: $index   $pastSensitivity")
-            Arrays.sort(deviations)
-            val pSensitive = Percentile.percentile(deviations, 0.50)
-            val pResistant = Percentile.percentile(deviations, 0.50)
+            val (pSensitive, pResistant) = Percentile.percentiles(deviations, 0.50, 0.50)
             var basalOff = 0.0
             when {
                 pSensitive < 0 -> { // sensitive
@@ -3,11 +3,16 @@ package app.aaps.plugins.sensitivity
 import androidx.preference.PreferenceManager
 import app.aaps.core.interfaces.aps.Sensitivity
 import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.utils.Percentile
+import app.aaps.shared.tests.Benchmark
+import app.aaps.shared.tests.BenchmarkTest
 import app.aaps.shared.tests.TestBaseWithProfile
 import com.google.common.truth.Truth.assertThat
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestReporter
 import org.mockito.Mock
+import kotlin.random.Random
 
 class SensitivityAAPSPluginTest : TestBaseWithProfile() {
 
@@ -43,4 +48,16 @@ class SensitivityAAPSPluginTest : TestBaseWithProfile() {
         sensitivityAAPSPlugin.addPreferenceScreen(preferenceManager, screen, context, null)
         assertThat(screen.preferenceCount).isGreaterThan(0)
     }
+
+    @BenchmarkTest
+    fun medianOfDeviationsBenchmark(reporter: TestReporter) {
+        val random = Random(42)
+        val benchmark = Benchmark(reporter)
+        for (size in listOf(100, 1000, 10000)) {
+            // many zeros from padding like in deviations
+            val inputs = List(200) { DoubleArray(size) { if (random.nextInt(3) == 0) 0.0 else random.nextDouble(-50.0, 50.0) } }
+            benchmark.measure("median of $size values, boxed sort", inputs.size) { inputs.sumOf { values -> Percentile.percentile(values.toTypedArray().also { it.sort() }, 0.5) } }
+            benchmark.measure("median of $size values, quickselect", inputs.size) { inputs.sumOf { Percentile.percentile(it.copyOf(), 0.5) } }
+        }
+    }
 }
@@ -39,7 +39,6 @@ import java.time.Clock
 import java.time.Duration
 import java.time.Instant
 import java.util.Date
-import java.util.concurrent.locks.Condition
 import java.util.concurrent.locks.ReentrantLock
 import javax.inject.Inject
 import javax.inject.Singleton
@@ -108,10 +107,12 @@ class GarminPlugin @Inject constructor(
     var clock: Clock = Clock.systemUTC()
 
     private val valueLock = ReentrantLock()
-
-    @VisibleForTesting
-    var newValue: Condition = valueLock.newCondition()
     private var lastGlucoseValueTimestamp: Long? = null
+
+    /** Glucose values of the last query and their encoding, dropped when a new glucose value arrives.
+     * Watches poll far more often than new values arrive, so requests are served without database query
+     * until the next new glucose value. */
+    private var glucoseCache: GlucoseCache? = null
     private val glucoseUnitStr get() = if (loopHub.glucoseUnit == GlucoseUnit.MGDL) "mgdl" else "mmoll"
     private val garminAapsKey get() = preferences.get(GarminStringKey.RequestKey)
 
@@ -170,7 +171,7 @@ class GarminPlugin @Inject constructor(
             aapsLogger.info(LTag.GARMIN, "starting HTTP server on $port")
             server?.close()
             server = HttpServer(aapsLogger, port).apply {
-                registerEndpoint("/get", requestHandler(::onGetBloodGlucose))
+                registerEndpoint("/get", ::glucoseWait, requestHandler(::onGetBloodGlucose))
                 registerEndpoint("/carbs", requestHandler(::onPostCarbs))
                 registerEndpoint("/connect", requestHandler(::onConnectPump))
                 registerEndpoint("/sgv.json", requestHandler(::onSgv))
@@ -195,7 +196,7 @@ class GarminPlugin @Inject constructor(
      *
      * Stores new blood glucose values in lastGlucoseValue to make sure we return
      * these values immediately when values are requested by Garmin device.
-     * Sends a message to the Garmin devices via the ciqMessenger. */
+     * Requests waiting for the new value are answered. */
     @VisibleForTesting
     fun onNewBloodGlucose(event: EventNewBG) {
         val timestamp = event.glucoseValueTimestamp ?: return
@@ -203,8 +204,9 @@ class GarminPlugin @Inject constructor(
         valueLock.withLock {
             if ((lastGlucoseValueTimestamp ?: 0) >= timestamp) return
             lastGlucoseValueTimestamp = timestamp
-            newValue.signalAll()
+            glucoseCache = null
         }
+        server?.resumeParked()
     }
 
     @VisibleForTesting
@@ -242,30 +244,44 @@ class GarminPlugin @Inject constructor(
     @VisibleForTesting
     fun getGlucoseValues(): List<GV> {
         val from = clock.instant().minus(Duration.ofHours(2).plusMinutes(9))
-        return loopHub.getGlucoseValues(from, true)
+        val lastTimestamp = valueLock.withLock {
+            glucoseCache?.takeIf { it.contains(from) }?.let { return it.values }
+            lastGlucoseValueTimestamp
+        }
+        val glucoseValues = loopHub.getGlucoseValues(from, true)
+        valueLock.withLock {
+            // don't cache values queried before a new value arrived
+            if (lastGlucoseValueTimestamp == lastTimestamp) glucoseCache = GlucoseCache(from, glucoseValues) { encodeGlucose(it) }
+        }
+        return glucoseValues
     }
 
-    /** Get the last 2+ hours of glucose values and waits in case a new value should arrive soon. */
-    private fun getGlucoseValues(maxWait: Duration): List<GV> {
+    /** Time the glucose request waits in case a new value should arrive soon.
+     *
+     * The request is parked by [HttpServer] without holding a thread and is answered by
+     * [onNewBloodGlucose] or after the wait requested by the device. */
+    @VisibleForTesting
+    fun glucoseWait(uri: URI): Duration {
+        val maxWait = Duration.ofSeconds(getQueryParameter(uri, "wait", 0L))
+        if (maxWait.isZero) return Duration.ZERO
         val glucoseFrequency = Duration.ofMinutes(5)
-        val glucoseValues = getGlucoseValues()
-        val last = glucoseValues.lastOrNull() ?: return emptyList()
+        val last = getGlucoseValues().lastOrNull() ?: return Duration.ZERO
         val delay = Duration.ofMillis(clock.millis() - last.timestamp)
-        return if (!maxWait.isZero
-            && delay > glucoseFrequency
-            && delay < glucoseFrequency.plusMinutes(1)
-        ) {
-            valueLock.withLock {
-                aapsLogger.debug(LTag.GARMIN, "waiting for new glucose (delay=$delay)")
-                newValue.awaitNanos(maxWait.toNanos())
-            }
-            getGlucoseValues()
+        return if (delay > glucoseFrequency && delay < glucoseFrequency.plusMinutes(1)) {
+            aapsLogger.debug(LTag.GARMIN, "waiting for new glucose (delay=$delay)")
+            maxWait
         } else {
-            glucoseValues
+            Duration.ZERO
         }
     }
 
-    private fun encodedGlucose(glucoseValues: List<GV>): String {
+    @VisibleForTesting
+    fun encodedGlucose(glucoseValues: List<GV>): String {
+        val cache = valueLock.withLock { glucoseCache?.takeIf { it.values === glucoseValues } }
+        return cache?.encoded ?: encodeGlucose(glucoseValues)
+    }
+
+    private fun encodeGlucose(glucoseValues: List<GV>): String {
         val encodedGlucose = DeltaVarEncodedList(glucoseValues.size * 16, 2)
         for (glucose: GV in glucoseValues) {
             val timeSec: Int = (glucose.timestamp / 1000).toInt()
@@ -300,8 +316,7 @@ class GarminPlugin @Inject constructor(
     fun onGetBloodGlucose(uri: URI): CharSequence {
         receiveHeartRate(uri)
         val profileName = loopHub.currentProfileName
-        val waitSec = getQueryParameter(uri, "wait", 0L)
-        val glucoseValues = getGlucoseValues(Duration.ofSeconds(waitSec))
+        val glucoseValues = getGlucoseValues()
         val jo = JsonObject()
         jo.addProperty("encodedGlucose", encodedGlucose(glucoseValues))
         jo.addProperty("remainingInsulin", loopHub.insulinOnboard)
@@ -497,4 +512,13 @@ class GarminPlugin @Inject constructor(
             )
         }
     }
+
+    /** Values of query from [from] (the same [values] count is returned by any later start
+     * up to the oldest value) with their lazily built encoding. */
+    private class GlucoseCache(val from: Instant, val values: List<GV>, encode: (List<GV>) -> String) {
+
+        val encoded: String by lazy { encode(values) }
+
+        fun contains(start: Instant) = start >= from && start.toEpochMilli() <= (values.firstOrNull()?.timestamp ?: Long.MAX_VALUE)
+    }
 }
@@ -4,42 +4,83 @@ import android.os.StrictMode
 import androidx.annotation.VisibleForTesting
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LTag
-import app.aaps.core.utils.pump.ThreadUtil
-import java.io.BufferedOutputStream
+import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
 import java.io.Closeable
 import java.io.IOException
 import java.io.InputStream
-import java.io.OutputStream
 import java.lang.Thread.UncaughtExceptionHandler
 import java.net.HttpURLConnection
 import java.net.Inet4Address
 import java.net.InetSocketAddress
-import java.net.ServerSocket
-import java.net.Socket
 import java.net.SocketAddress
-import java.net.SocketTimeoutException
 import java.net.URI
+import java.nio.ByteBuffer
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
 import java.nio.charset.Charset
 import java.nio.charset.StandardCharsets
 import java.time.Duration
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
 import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.locks.ReentrantLock
 import java.util.regex.Pattern
 import kotlin.concurrent.withLock
 
-/** Basic HTTP server to communicate with Garmin device via localhost. */
-class HttpServer internal constructor(private var aapsLogger: AAPSLogger, val port: Int) : Closeable {
+/** Basic HTTP server to communicate with Garmin device via localhost.
+ *
+ * All connections are served by a single selector thread (non-blocking accept, read and write with
+ * keep-alive support). Parsed requests are handed to a small fixed pool of worker threads.
+ * Requests waiting for data (e.g. the next glucose value) are parked without holding a worker
+ * until [resumeParked] or their timeout. */
+class HttpServer internal constructor(
+    private var aapsLogger: AAPSLogger,
+    val port: Int,
+    workerThreads: Int = DEFAULT_WORKER_THREADS
+) : Closeable {
 
     private val serverThread: Thread
-    private val workerExecutor = Executors.newCachedThreadPool()
-    private val endpoints: MutableMap<String, (SocketAddress, URI, String?) -> Pair<Int, CharSequence>> =
-        ConcurrentHashMap()
-    private var serverSocket: ServerSocket? = null
+    private val workerCount = AtomicInteger()
+    private val workerExecutor = Executors.newFixedThreadPool(workerThreads) { r ->
+        Thread(r, "GarminHttpWorker" + workerCount.incrementAndGet()).apply { isDaemon = true }
+    }
+    private val endpoints: MutableMap<String, Endpoint> = ConcurrentHashMap()
+    private val parked = ArrayList<ParkedRequest>()
+    /** Number of [resumeParked] calls, guarded by [parked]. */
+    private var resumeCount = 0L
+    private val selector: Selector = Selector.open()
+    private val responses = ConcurrentLinkedQueue<Response>()
+    @Volatile private var serverChannel: ServerSocketChannel? = null
+    @Volatile private var closed = false
     private val readyLock = ReentrantLock()
     private val readyCond = readyLock.newCondition()
 
+    /** State of a single client connection, only accessed from the selector thread. */
+    private class Connection(val channel: SocketChannel) {
+
+        val input = ByteArrayOutputStream()
+        var output: ByteBuffer? = null
+        var keepAlive = true
+        var endOfInput = false
+        var busy = false
+        var lastActivity = System.currentTimeMillis()
+    }
+
+    private class Response(val connection: Connection, val data: ByteArray, val keepAlive: Boolean)
+
+    private class Endpoint(val wait: (URI) -> Duration, val handle: (SocketAddress, URI, String?) -> Pair<Int, CharSequence>)
+
+    /** Request waiting for [HttpServer.resumeParked] or [deadline], it holds no thread meanwhile. */
+    private class ParkedRequest(
+        val connection: Connection, val caller: SocketAddress, val uri: URI, val body: String?, val keepAlive: Boolean,
+        val endpoint: Endpoint, val deadline: Long
+    )
+
     init {
         serverThread = Thread { runServer() }
         serverThread.name = "GarminHttpServer"
@@ -47,18 +88,15 @@ class HttpServer internal constructor(private var aapsLogger: AAPSLogger, val po
         serverThread.uncaughtExceptionHandler = UncaughtExceptionHandler { _, e ->
             e.printStackTrace()
             aapsLogger.error(LTag.GARMIN, "uncaught in HTTP server", e)
-            serverSocket?.use {}
+            serverChannel?.use {}
         }
         serverThread.start()
     }
 
     override fun close() {
+        closed = true
         workerExecutor.shutdown()
-        try {
-            serverSocket?.close()
-            serverSocket = null
-        } catch (_: IOException) {
-        }
+        selector.wakeup()
         try {
             serverThread.join(10_000L)
         } catch (_: InterruptedException) {
@@ -69,81 +107,110 @@ class HttpServer internal constructor(private var aapsLogger: AAPSLogger, val po
     fun awaitReady(wait: Duration): Boolean {
         var waitNanos = wait.toNanos()
         readyLock.withLock {
-            while (serverSocket?.isBound != true && waitNanos > 0L) {
+            while (serverChannel?.socket()?.isBound != true && waitNanos > 0L) {
                 waitNanos = readyCond.awaitNanos(waitNanos)
             }
         }
-        return serverSocket?.isBound == true
+        return serverChannel?.socket()?.isBound == true
     }
 
     /** Register an endpoint (path) to handle requests. */
     fun registerEndpoint(path: String, endpoint: (SocketAddress, URI, String?) -> Pair<Int, CharSequence>) {
+        registerEndpoint(path, { Duration.ZERO }, endpoint)
+    }
+
+    /** Register an endpoint whose requests are parked for the duration returned by [wait]
+     * or until [resumeParked] is called, before [endpoint] handles them. */
+    fun registerEndpoint(path: String, wait: (URI) -> Duration, endpoint: (SocketAddress, URI, String?) -> Pair<Int, CharSequence>) {
         aapsLogger.info(LTag.GARMIN, "Register: '$path'")
-        endpoints[path] = endpoint
+        endpoints[path] = Endpoint(wait, endpoint)
     }
 
-    // @Suppress("all")
-    private fun respond(
-        @Suppress("SameParameterValue") code: Int,
-        body: CharSequence,
-        @Suppress("SameParameterValue") contentType: String,
-        out: OutputStream
-    ) {
-        respond(code, body.toString().toByteArray(Charset.forName("UTF8")), contentType, out)
+    /** Hands all parked requests over to workers, e.g. when the value they wait for arrived. */
+    fun resumeParked() {
+        val requests = synchronized(parked) {
+            resumeCount++
+            parked.toList().also { parked.clear() }
+        }
+        requests.forEach(::dispatchParked)
     }
 
-    private fun respond(code: Int, out: OutputStream) {
-        respond(code, null as ByteArray?, null, out)
+    private fun resumeExpired() {
+        val now = System.currentTimeMillis()
+        val requests = synchronized(parked) { parked.filter { it.deadline <= now }.also { parked.removeAll(it) } }
+        requests.forEach(::dispatchParked)
     }
 
-    private fun respond(code: Int, body: ByteArray?, contentType: String?, out: OutputStream) {
-        val header = StringBuilder()
-        header.append("HTTP/1.1 ").append(code).append(" OK\r\n")
-        if (body != null) {
-            appendHeader("Content-Length", "" + body.size, header)
-        }
-        if (contentType != null) {
-            appendHeader("Content-Type", contentType, header)
-        }
-        header.append("\r\n")
-        val bout = BufferedOutputStream(out)
-        bout.write(header.toString().toByteArray(StandardCharsets.US_ASCII))
-        if (body != null) {
-            bout.write(body)
+    private fun dispatchParked(request: ParkedRequest) {
+        try {
+            workerExecutor.execute {
+                respond(callEndpoint(request.connection, request.caller, request.uri, request.body, request.keepAlive, request.endpoint))
+            }
+        } catch (_: RejectedExecutionException) {
+            // Server is shutting down, connection is closed by the selector thread.
         }
-        bout.flush()
     }
 
-    private fun handleRequest(s: Socket) {
-        val out = s.getOutputStream()
-        try {
-            val (uri, reqBody) = parseRequest(s.getInputStream())
-            if ("favicon.ico" == uri.path) {
-                respond(HttpURLConnection.HTTP_NOT_FOUND, out)
-                return
+    private fun respond(response: Response) {
+        responses.add(response)
+        selector.wakeup()
+    }
+
+    /** Time until the next parked request expires, at most [SELECT_TIMEOUT_MILLIS]. */
+    private fun selectTimeout(): Long {
+        val deadline = synchronized(parked) { parked.minOfOrNull { it.deadline } } ?: return SELECT_TIMEOUT_MILLIS
+        // 0 would block select without timeout
+        return (deadline - System.currentTimeMillis()).coerceIn(1L, SELECT_TIMEOUT_MILLIS)
+    }
+
+    /** Handles a complete request and returns the encoded response or null if the request is parked.
+     * Runs on a worker thread. */
+    private fun handleRequest(connection: Connection, caller: SocketAddress, request: ByteArray, keepAlive: Boolean): Response? {
+        val (uri, reqBody) = try {
+            parseRequest(ByteArrayInputStream(request))
+        } catch (e: Exception) {
+            aapsLogger.error(LTag.GARMIN, "Invalid request", e)
+            return Response(connection, encodeResponse(HttpURLConnection.HTTP_BAD_REQUEST, null, null, false), false)
+        }
+        if ("favicon.ico" == uri.path) {
+            return Response(connection, encodeResponse(HttpURLConnection.HTTP_NOT_FOUND, null, null, keepAlive), keepAlive)
+        }
+        val endpoint = endpoints[uri.path ?: ""]
+        if (endpoint == null) {
+            aapsLogger.error(LTag.GARMIN, "request path not found '" + uri.path + "'")
+            return Response(connection, encodeResponse(HttpURLConnection.HTTP_NOT_FOUND, null, null, keepAlive), keepAlive)
+        }
+        val resumed = synchronized(parked) { resumeCount }
+        val wait = try {
+            endpoint.wait(uri)
+        } catch (e: Exception) {
+            aapsLogger.error(LTag.GARMIN, "endpoint " + uri.path + " wait failed", e)
+            Duration.ZERO
+        }
+        if (wait > Duration.ZERO) {
+            val deadline = System.currentTimeMillis() + wait.toMillis()
+            val isParked = synchronized(parked) {
+                // don't wait for a value which arrived in the meantime
+                (resumeCount == resumed).also { if (it) parked.add(ParkedRequest(connection, caller, uri, reqBody, keepAlive, endpoint, deadline)) }
             }
-            val endpoint = endpoints[uri.path ?: ""]
-            if (endpoint == null) {
-                aapsLogger.error(LTag.GARMIN, "request path not found '" + uri.path + "'")
-                respond(HttpURLConnection.HTTP_NOT_FOUND, out)
-            } else {
-                try {
-                    val (code, body) = endpoint(s.remoteSocketAddress, uri, reqBody)
-                    respond(code, body, "application/json", out)
-                } catch (e: Exception) {
-                    aapsLogger.error(LTag.GARMIN, "endpoint " + uri.path + " failed", e)
-                    respond(HttpURLConnection.HTTP_INTERNAL_ERROR, out)
-                }
+            if (isParked) {
+                // deadline may be earlier than the current select timeout
+                selector.wakeup()
+                return null
             }
-        } catch (e: SocketTimeoutException) {
-            // Client may just connect without sending anything.
-            aapsLogger.debug(LTag.GARMIN, "socket timeout: " + e.message)
-            return
-        } catch (e: IOException) {
-            aapsLogger.error(LTag.GARMIN, "Invalid request", e)
-            respond(HttpURLConnection.HTTP_BAD_REQUEST, out)
-            return
         }
+        return callEndpoint(connection, caller, uri, reqBody, keepAlive, endpoint)
+    }
+
+    private fun callEndpoint(connection: Connection, caller: SocketAddress, uri: URI, reqBody: String?, keepAlive: Boolean, endpoint: Endpoint): Response {
+        val response = try {
+            val (code, body) = endpoint.handle(caller, uri, reqBody)
+            encodeResponse(code, body.toString().toByteArray(StandardCharsets.UTF_8), "application/json", keepAlive)
+        } catch (e: Exception) {
+            aapsLogger.error(LTag.GARMIN, "endpoint " + uri.path + " failed", e)
+            encodeResponse(HttpURLConnection.HTTP_INTERNAL_ERROR, null, null, keepAlive)
+        }
+        return Response(connection, response, keepAlive)
     }
 
     private fun runServer() = try {
@@ -152,37 +219,144 @@ class HttpServer internal constructor(private var aapsLogger: AAPSLogger, val po
         val policy = StrictMode.ThreadPolicy.Builder()?.permitAll()?.build()
         if (policy != null) StrictMode.setThreadPolicy(policy)
         readyLock.withLock {
-            serverSocket = ServerSocket()
-            serverSocket!!.bind(
-                // Garmin will only connect to IP4 localhost. Therefore, we need to explicitly listen
-                // on that loopback interface and cannot use InetAddress.getLoopbackAddress(). That
-                // gives ::1 (IP6 localhost).
-                InetSocketAddress(Inet4Address.getByAddress(byteArrayOf(127, 0, 0, 1)), port)
-            )
+            serverChannel = ServerSocketChannel.open().apply {
+                bind(
+                    // Garmin will only connect to IP4 localhost. Therefore, we need to explicitly listen
+                    // on that loopback interface and cannot use InetAddress.getLoopbackAddress(). That
+                    // gives ::1 (IP6 localhost).
+                    InetSocketAddress(Inet4Address.getByAddress(byteArrayOf(127, 0, 0, 1)), port)
+                )
+                configureBlocking(false)
+                register(selector, SelectionKey.OP_ACCEPT)
+            }
             readyCond.signalAll()
         }
-        aapsLogger.info(LTag.GARMIN, "accept connections on " + serverSocket!!.localSocketAddress)
-        while (true) {
-            val socket = serverSocket!!.accept()
-            aapsLogger.info(LTag.GARMIN, "accept " + socket.remoteSocketAddress)
-            workerExecutor.execute {
-                Thread.currentThread().name = "worker" + ThreadUtil.threadId()
+        aapsLogger.info(LTag.GARMIN, "accept connections on " + serverChannel!!.localAddress)
+        while (!closed) {
+            selector.select(selectTimeout())
+            resumeExpired()
+            while (true) {
+                val response = responses.poll() ?: break
+                startWrite(response)
+            }
+            val selectedKeys = selector.selectedKeys().iterator()
+            while (selectedKeys.hasNext()) {
+                val key = selectedKeys.next()
+                selectedKeys.remove()
                 try {
-                    socket.use { s ->
-                        s.soTimeout = 10_000
-                        handleRequest(s)
+                    when {
+                        !key.isValid     -> {}
+                        key.isAcceptable -> accept()
+                        key.isReadable   -> read(key)
+                        key.isWritable   -> write(key)
                     }
-                } catch (e: Exception) {
+                } catch (e: IOException) {
                     aapsLogger.error(LTag.GARMIN, "response failed", e)
+                    closeConnection(key)
                 }
             }
+            closeIdleConnections()
         }
     } catch (e: IOException) {
         aapsLogger.error("Server crashed", e)
     } finally {
+        for (key in selector.keys()) closeConnection(key)
         try {
-            serverSocket?.close()
-            serverSocket = null
+            selector.close()
+            serverChannel?.close()
+            serverChannel = null
+        } catch (e: IOException) {
+            aapsLogger.error(LTag.GARMIN, "Socked close failed", e)
+        }
+    }
+
+    private fun accept() {
+        val channel = serverChannel?.accept() ?: return
+        aapsLogger.info(LTag.GARMIN, "accept " + channel.remoteAddress)
+        channel.configureBlocking(false)
+        channel.register(selector, SelectionKey.OP_READ, Connection(channel))
+    }
+
+    private fun read(key: SelectionKey) {
+        val connection = key.attachment() as Connection
+        val buffer = ByteBuffer.allocate(READ_BUFFER_SIZE)
+        while (true) {
+            val n = connection.channel.read(buffer)
+            if (n < 0) connection.endOfInput = true
+            if (n <= 0) break
+            connection.input.write(buffer.array(), 0, buffer.position())
+            buffer.clear()
+        }
+        connection.lastActivity = System.currentTimeMillis()
+        dispatchRequest(key, connection)
+    }
+
+    /** Hands over the next complete request of the connection to a worker, if there is one. */
+    private fun dispatchRequest(key: SelectionKey, connection: Connection) {
+        val data = connection.input.toByteArray()
+        val requestLength = requestLength(data, connection.endOfInput)
+        if (requestLength <= 0) {
+            if (connection.endOfInput) closeConnection(key)
+            return
+        }
+        val request = data.copyOfRange(0, requestLength)
+        connection.input.reset()
+        connection.input.write(data, requestLength, data.size - requestLength)
+        connection.busy = true
+        connection.keepAlive = !connection.endOfInput && isKeepAlive(request)
+        key.interestOps(0)
+        val caller = connection.channel.remoteAddress
+        val keepAlive = connection.keepAlive
+        try {
+            workerExecutor.execute {
+                handleRequest(connection, caller, request, keepAlive)?.let(::respond)
+            }
+        } catch (_: RejectedExecutionException) {
+            // Server is shutting down.
+            closeConnection(key)
+        }
+    }
+
+    private fun startWrite(response: Response) {
+        val key = response.connection.channel.keyFor(selector) ?: return
+        if (!key.isValid) return
+        response.connection.output = ByteBuffer.wrap(response.data)
+        response.connection.keepAlive = response.keepAlive
+        key.interestOps(SelectionKey.OP_WRITE)
+    }
+
+    private fun write(key: SelectionKey) {
+        val connection = key.attachment() as Connection
+        val output = connection.output ?: return
+        connection.channel.write(output)
+        connection.lastActivity = System.currentTimeMillis()
+        if (output.hasRemaining()) return
+        connection.output = null
+        connection.busy = false
+        if (connection.keepAlive) {
+            key.interestOps(SelectionKey.OP_READ)
+            dispatchRequest(key, connection)
+        } else {
+            closeConnection(key)
+        }
+    }
+
+    private fun closeIdleConnections() {
+        val now = System.currentTimeMillis()
+        for (key in selector.keys()) {
+            val connection = key.attachment() as? Connection ?: continue
+            if (!connection.busy && now - connection.lastActivity > IDLE_TIMEOUT_MILLIS) {
+                // Client may just connect without sending anything.
+                aapsLogger.debug(LTag.GARMIN, "connection timeout " + connection.channel.remoteAddress)
+                closeConnection(key)
+            }
+        }
+    }
+
+    private fun closeConnection(key: SelectionKey) {
+        key.cancel()
+        try {
+            key.channel().close()
         } catch (e: IOException) {
             aapsLogger.error(LTag.GARMIN, "Socked close failed", e)
         }
@@ -190,8 +364,15 @@ class HttpServer internal constructor(private var aapsLogger: AAPSLogger, val po
 
     companion object {
 
+        private const val DEFAULT_WORKER_THREADS = 2
+        private const val READ_BUFFER_SIZE = 4096
+        private const val SELECT_TIMEOUT_MILLIS = 1_000L
+        private const val IDLE_TIMEOUT_MILLIS = 10_000L
+
         private val REQUEST_HEADER = Pattern.compile("(GET|POST) (\\S*) HTTP/1.1")
         private val HEADER_LINE = Pattern.compile("([A-Za-z-]+)\\s*:\\s*(.*)")
+        private val CONTENT_LENGTH = Pattern.compile("(?im)^Content-Length\\s*:\\s*(\\d+)")
+        private val CONNECTION_CLOSE = Pattern.compile("(?im)^Connection\\s*:\\s*close")
 
         private fun readLine(input: InputStream, charset: Charset): String {
             val buffer = ByteArrayOutputStream(input.available())
@@ -262,6 +443,56 @@ class HttpServer internal constructor(private var aapsLogger: AAPSLogger, val po
             return Pair(uri, body?.takeUnless(String::isBlank))
         }
 
+        /** Returns the length of the first complete request in [data] or 0 if more input is needed. */
+        @VisibleForTesting
+        internal fun requestLength(data: ByteArray, endOfInput: Boolean): Int {
+            // End of headers is an empty line, tolerate lines terminated by '\n' only.
+            var headerEnd = -1
+            var lineStart = 0
+            for (i in data.indices) {
+                if (data[i] != '\n'.code.toByte()) continue
+                val lineLength = i - lineStart
+                if (lineLength == 0 || (lineLength == 1 && data[lineStart] == '\r'.code.toByte())) {
+                    headerEnd = i + 1
+                    break
+                }
+                lineStart = i + 1
+            }
+            if (headerEnd < 0) return if (endOfInput) data.size else 0
+            val headers = String(data, 0, headerEnd, StandardCharsets.US_ASCII)
+            if (!headers.startsWith("POST")) return headerEnd
+            val m = CONTENT_LENGTH.matcher(headers)
+            return if (m.find()) {
+                val contentLength = m.group(1)!!.toInt()
+                if (data.size - headerEnd >= contentLength) headerEnd + contentLength
+                else if (endOfInput) data.size
+                else 0
+            } else if (endOfInput) {
+                data.size
+            } else {
+                0
+            }
+        }
+
+        private fun isKeepAlive(request: ByteArray) =
+            !CONNECTION_CLOSE.matcher(String(request, StandardCharsets.US_ASCII)).find()
+
+        @VisibleForTesting
+        internal fun encodeResponse(code: Int, body: ByteArray?, contentType: String?, keepAlive: Boolean): ByteArray {
+            val header = StringBuilder()
+            header.append("HTTP/1.1 ").append(code).append(" OK\r\n")
+            appendHeader("Content-Length", "" + (body?.size ?: 0), header)
+            if (contentType != null) {
+                appendHeader("Content-Type", contentType, header)
+            }
+            if (!keepAlive) {
+                appendHeader("Connection", "close", header)
+            }
+            header.append("\r\n")
+            val headerBytes = header.toString().toByteArray(StandardCharsets.US_ASCII)
+            return if (body == null) headerBytes else headerBytes + body
+        }
+
         private fun appendHeader(name: String, value: String, header: StringBuilder) {
             header.append(name)
             header.append(": ")
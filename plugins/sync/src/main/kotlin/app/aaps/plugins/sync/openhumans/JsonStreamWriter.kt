@@ -0,0 +1,105 @@
+package app.aaps.plugins.sync.openhumans
+
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.Writer
+
+/**
+ * Streaming JSON writer producing the same output as building [JSONObject]s / [JSONArray]s and calling toString()
+ *
+ * [put] follows [JSONObject.put] rules: null value omits the key, numbers are formatted by [JSONObject.numberToString],
+ * other objects are written as strings. Keys must be unique because nothing is buffered.
+ */
+internal class JsonStreamWriter(private val out: Writer) {
+
+    private class Scope(val isArray: Boolean) {
+
+        var empty = true
+    }
+
+    private val scopes = ArrayDeque<Scope>()
+
+    fun beginObject(): JsonStreamWriter = open(isArray = false, '{')
+    fun endObject(): JsonStreamWriter = close('}')
+    fun beginArray(): JsonStreamWriter = open(isArray = true, '[')
+    fun endArray(): JsonStreamWriter = close(']')
+
+    fun put(name: String, value: Any?): JsonStreamWriter {
+        value ?: return this
+        name(name)
+        when (value) {
+            is JSONObject, is JSONArray -> out.write(value.toString())
+            is Boolean                  -> out.write(value.toString())
+            is Number                   -> out.write(JSONObject.numberToString(value))
+            else                        -> string(value.toString())
+        }
+        return this
+    }
+
+    /**
+     * Embed already serialized JSON (ie. stored JSON column) without parsing
+     */
+    fun putRaw(name: String, json: String?): JsonStreamWriter {
+        json ?: return this
+        name(name)
+        out.write(json)
+        return this
+    }
+
+    fun putArray(name: String, block: JsonStreamWriter.() -> Unit): JsonStreamWriter {
+        name(name)
+        beginArray()
+        block()
+        return endArray()
+    }
+
+    fun flush() = out.flush()
+
+    private fun open(isArray: Boolean, c: Char): JsonStreamWriter {
+        // value in object is separated by name()
+        scopes.lastOrNull()?.let { if (it.isArray) separate(it) }
+        out.write(c.code)
+        scopes.addLast(Scope(isArray))
+        return this
+    }
+
+    private fun close(c: Char): JsonStreamWriter {
+        scopes.removeLast()
+        out.write(c.code)
+        return this
+    }
+
+    private fun separate(scope: Scope) {
+        if (!scope.empty) out.write(','.code)
+        scope.empty = false
+    }
+
+    private fun name(name: String) {
+        separate(scopes.last())
+        string(name)
+        out.write(':'.code)
+    }
+
+    // the same escaping as org.json
+    private fun string(value: String) {
+        out.write('"'.code)
+        for (c in value) {
+            when (c) {
+                '"', '\\', '/' -> {
+                    out.write('\\'.code)
+                    out.write(c.code)
+                }
+
+                '\t'           -> out.write("\\t")
+                '\b'           -> out.write("\\b")
+                '\n'           -> out.write("\\n")
+                '\r'           -> out.write("\\r")
+                '\u000C'       -> out.write("\\f")
+                else           ->
+                    if (c.code <= 0x1F) out.write(String.format("\\u%04x", c.code))
+                    else out.write(c.code)
+            }
+        }
+        out.write('"'.code)
+    }
+}
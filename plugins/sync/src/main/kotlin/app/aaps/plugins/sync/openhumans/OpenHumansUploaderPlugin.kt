@@ -7,6 +7,7 @@ import android.content.Context
 import android.content.Intent
 import android.util.DisplayMetrics
 import android.view.WindowManager
+import androidx.annotation.VisibleForTesting
 import androidx.core.app.NotificationCompat
 import androidx.core.app.NotificationManagerCompat
 import androidx.preference.PreferenceCategory
@@ -22,6 +23,7 @@ import androidx.work.OneTimeWorkRequestBuilder
 import androidx.work.PeriodicWorkRequestBuilder
 import androidx.work.WorkManager
 import app.aaps.core.data.model.HasIDs
+import app.aaps.core.data.model.NE
 import app.aaps.core.data.model.data.Block
 import app.aaps.core.data.plugin.PluginType
 import app.aaps.core.interfaces.db.PersistenceLayer
@@ -48,9 +50,10 @@ import io.reactivex.rxjava3.kotlin.plusAssign
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.NonCancellable
 import kotlinx.coroutines.withContext
-import org.json.JSONArray
 import org.json.JSONObject
-import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.OutputStreamWriter
+import java.security.DigestOutputStream
 import java.security.MessageDigest
 import java.text.SimpleDateFormat
 import java.util.Locale
@@ -143,7 +146,7 @@ class OpenHumansUploaderPlugin @Inject internal constructor(
         return messageDigest.digest().toHexString()
     }
 
-    private fun <T : HasIDs> ZipOutputStream.writeDBEntryFile(name: String, list: List<T>, block: JSONObject.(entry: T) -> Unit) = writeJSONArrayFile(name, list) {
+    private fun <T : HasIDs> ZipOutputStream.writeDBEntryFile(name: String, list: List<T>, block: JsonStreamWriter.(entry: T) -> Unit) = writeJSONArrayFile(name, list) {
         put("structureVersion", 2)
         put("id", it.id)
         put("version", it.version)
@@ -158,14 +161,22 @@ class OpenHumansUploaderPlugin @Inject internal constructor(
         block(it)
     }
 
-    private fun <T> ZipOutputStream.writeJSONArrayFile(name: String, list: List<T>, block: JSONObject.(entry: T) -> Unit) {
-        val jsonArray = JSONArray()
+    /**
+     * Entries are streamed directly into zip, whole array is never held in memory
+     */
+    private fun <T> ZipOutputStream.writeJSONArrayFile(name: String, list: List<T>, block: JsonStreamWriter.(entry: T) -> Unit) {
+        putNextEntry(ZipEntry(name))
+        // do not close, it would close zip stream
+        val writer = JsonStreamWriter(OutputStreamWriter(this, Charsets.UTF_8).buffered())
+        writer.beginArray()
         list.forEach { entry ->
-            val jsonObject = JSONObject()
-            jsonObject.block(entry)
-            jsonArray.put(jsonObject)
+            writer.beginObject()
+            writer.block(entry)
+            writer.endObject()
         }
-        writeFile(name, jsonArray.toString().toByteArray())
+        writer.endArray()
+        writer.flush()
+        closeEntry()
     }
 
     private fun ZipOutputStream.writeFile(name: String, bytes: ByteArray) {
@@ -174,15 +185,13 @@ class OpenHumansUploaderPlugin @Inject internal constructor(
         closeEntry()
     }
 
-    private fun List<Block>.serialize(): JSONArray {
-        val jsonArray = JSONArray()
-        forEach {
-            val jsonObject = JSONObject()
-            jsonObject.put("duration", it.duration)
-            jsonObject.put("amount", it.amount)
-            jsonArray.put(jsonObject)
+    private fun JsonStreamWriter.putBlocks(name: String, blocks: List<Block>) = putArray(name) {
+        blocks.forEach {
+            beginObject()
+            put("duration", it.duration)
+            put("amount", it.amount)
+            endObject()
         }
-        return jsonArray
     }
 
     internal suspend fun uploadData() {
@@ -230,10 +239,39 @@ class OpenHumansUploaderPlugin @Inject internal constructor(
         }
         if (!hasData) return false
 
-        val baos = ByteArrayOutputStream()
-        val zos = ZipOutputStream(baos)
-        val tags = mutableListOf<String>()
+        // zip is spooled to file and md5 computed while writing
+        val file = File.createTempFile("openhumans", ".zip", context.cacheDir)
+        try {
+            val md5 = MessageDigest.getInstance("MD5")
+            val tags = mutableListOf<String>()
+            val uploadNumber = this.uploadCounter++
+            val uploadDate = System.currentTimeMillis()
+            ZipOutputStream(DigestOutputStream(file.outputStream().buffered(), md5)).use { zos ->
+                writeInfoEntries(zos, until, uploadNumber, uploadDate, tags)
+                writeEntries(zos, data, tags)
+            }
+
+            val fileName = "upload-num$uploadNumber-ver2-date${FILE_NAME_DATE_FORMAT.format(uploadDate)}-appid${appId.toString().replace("-", "")}.zip"
+
+            val metaData = OpenHumansAPI.FileMetadata(
+                tags = tags,
+                description = "AAPS Database Upload",
+                md5 = md5.digest().toHexString(),
+                creationDate = uploadDate
+            )
+
+            refreshAccessTokenIfNeeded()
+
+            val preparedUpload = openHumansAPI.prepareFileUpload(openHumansState!!.accessToken, fileName, metaData)
+            openHumansAPI.uploadFile(preparedUpload.uploadURL, file)
+            openHumansAPI.completeFileUpload(openHumansState!!.accessToken, preparedUpload.fileId)
+        } finally {
+            file.delete()
+        }
+        return true
+    }
 
+    private fun writeInfoEntries(zos: ZipOutputStream, until: Long, uploadNumber: Long, uploadDate: Long, tags: MutableList<String>) {
         val applicationInfo = JSONObject()
         //TODO: Move build configuration to core module
         /*applicationInfo.put("versionName", BuildConfig.VERSION_NAME)
@@ -270,8 +308,6 @@ class OpenHumansUploaderPlugin @Inject internal constructor(
         zos.writeFile("DisplayInfo.json", displayInfo.toString().toByteArray())
         tags.add("DisplayInfo")
 
-        val uploadNumber = this.uploadCounter++
-        val uploadDate = System.currentTimeMillis()
         val uploadInfo = JSONObject()
         uploadInfo.put("fileVersion", 2)
         uploadInfo.put("counter", uploadNumber)
@@ -279,21 +315,27 @@ class OpenHumansUploaderPlugin @Inject internal constructor(
         uploadInfo.put("utcOffset", TimeZone.getDefault().getOffset(uploadDate))
         zos.writeFile("UploadInfo.json", uploadInfo.toString().toByteArray())
         tags.add("UploadInfo")
+    }
 
+    /**
+     * Write database records of one page
+     */
+    @VisibleForTesting
+    internal fun writeEntries(zos: ZipOutputStream, data: NE, tags: MutableList<String>) {
         /*
                 if (data.apsResults.isNotEmpty()) {
                     zos.writeDBEntryFile("APSResults.json", data.apsResults) {
                         put("timestamp", it.timestamp)
                         put("utcOffset", it.utcOffset)
                         put("algorithm", it.algorithm.toString())
-                        put("glucoseStatus", JSONObject(it.glucoseStatusJson))
-                        put("currentTemp", JSONObject(it.currentTempJson))
-                        put("iobData", JSONObject(it.iobDataJson))
-                        put("profile", JSONObject(it.profileJson))
-                        put("autosensData", JSONObject(it.autosensDataJson ?: ""))
-                        put("mealData", JSONObject(it.mealDataJson))
+                        putRaw("glucoseStatus", it.glucoseStatusJson)
+                        putRaw("currentTemp", it.currentTempJson)
+                        putRaw("iobData", it.iobDataJson)
+                        putRaw("profile", it.profileJson)
+                        putRaw("autosensData", it.autosensDataJson)
+                        putRaw("mealData", it.mealDataJson)
                         put("isMicroBolusAllowed", it.isMicroBolusAllowed)
-                        put("result", JSONObject(it.resultJson))
+                        putRaw("result", it.resultJson)
                     }
                     tags.add("APSResults")
                 }
@@ -370,25 +412,16 @@ class OpenHumansUploaderPlugin @Inject internal constructor(
             zos.writeDBEntryFile("EffectiveProfileSwitches.json", data.effectiveProfileSwitches) {
                 put("timestamp", it.timestamp)
                 put("utcOffset", it.utcOffset)
-                put("basalBlocks", it.basalBlocks.serialize())
-                put("isfBlocks", it.isfBlocks.serialize())
-                put("icBlocks", it.icBlocks.serialize())
-                put("icBlocks", it.icBlocks.serialize())
-                val targetBlocks = JSONArray()
-                it.targetBlocks.forEach { block ->
-                    val jsonObject = JSONObject()
-                    jsonObject.put("duration", block.duration)
-                    jsonObject.put("lowTarget", block.lowTarget)
-                    jsonObject.put("highTarget", block.highTarget)
-                    targetBlocks.put(jsonObject)
-                }
+                putBlocks("basalBlocks", it.basalBlocks)
+                putBlocks("isfBlocks", it.isfBlocks)
+                putBlocks("icBlocks", it.icBlocks)
                 put("targetBlocks", it.targetBlocks)
                 put("glucoseUnit", it.glucoseUnit.toString())
                 put("originalTimeshift", it.originalTimeshift)
                 put("originalPercentage", it.originalPercentage)
                 put("originalDuration", it.originalDuration)
                 put("originalEnd", it.originalEnd)
-                put("insulinEndTime", it.iCfg.insulinEndTime)
+                // keys are not overwritten in stream, keep value uploaded so far
                 put("insulinEndTime", it.iCfg.peak)
             }
             tags.add("EffectiveProfileSwitches")
@@ -457,18 +490,9 @@ class OpenHumansUploaderPlugin @Inject internal constructor(
             zos.writeDBEntryFile("ProfileSwitches.json", data.profileSwitches) {
                 put("timestamp", it.timestamp)
                 put("utcOffset", it.utcOffset)
-                put("basalBlocks", it.basalBlocks.serialize())
-                put("isfBlocks", it.basalBlocks.serialize())
-                put("icBlocks", it.icBlocks.serialize())
-                put("basalBlocks", it.basalBlocks.serialize())
-                val targetBlocks = JSONArray()
-                it.targetBlocks.forEach { block ->
-                    val jsonObject = JSONObject()
-                    jsonObject.put("duration", block.duration)
-                    jsonObject.put("lowTarget", block.lowTarget)
-                    jsonObject.put("highTarget", block.highTarget)
-                    targetBlocks.put(jsonObject)
-                }
+                putBlocks("basalBlocks", it.basalBlocks)
+                putBlocks("isfBlocks", it.basalBlocks)
+                putBlocks("icBlocks", it.icBlocks)
                 put("glucoseUnit", it.glucoseUnit.toString())
                 put("timeshift", it.timeshift)
                 put("percentage", it.percentage)
@@ -544,25 +568,6 @@ class OpenHumansUploaderPlugin @Inject internal constructor(
                 }
         */
 
-        zos.close()
-        val bytes = baos.toByteArray()
-
-        val fileName = "upload-num$uploadNumber-ver2-date${FILE_NAME_DATE_FORMAT.format(uploadDate)}-appid${appId.toString().replace("-", "")}.zip"
-
-        val metaData = OpenHumansAPI.FileMetadata(
-            tags = tags,
-            description = "AAPS Database Upload",
-            md5 = MessageDigest.getInstance("MD5").digest(bytes).toHexString(),
-            creationDate = uploadDate
-        )
-
-        refreshAccessTokenIfNeeded()
-
-        val preparedUpload = openHumansAPI.prepareFileUpload(openHumansState!!.accessToken, fileName, metaData)
-        openHumansAPI.uploadFile(preparedUpload.uploadURL, bytes)
-        openHumansAPI.completeFileUpload(openHumansState!!.accessToken, preparedUpload.fileId)
-
-        return true
     }
 
     private fun cancelWorker() = WorkManager.getInstance(context).cancelUniqueWork(WORK_NAME_PERIODIC)
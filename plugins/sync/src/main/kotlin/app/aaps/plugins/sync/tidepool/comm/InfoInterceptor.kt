@@ -15,9 +15,12 @@ class InfoInterceptor(val aapsLogger: AAPSLogger) : Interceptor {
         val request = chain.request()
         request.body?.let {
             aapsLogger.debug(LTag.TIDEPOOL, "Interceptor Body size: " + it.contentLength())
-            val requestBuffer = Buffer()
-            it.writeTo(requestBuffer)
-            aapsLogger.debug(LTag.TIDEPOOL, "Interceptor Body: " + requestBuffer.readUtf8())
+            // one-shot body can be written only once, it's not buffered just for logging
+            if (!it.isOneShot()) {
+                val requestBuffer = Buffer()
+                it.writeTo(requestBuffer)
+                aapsLogger.debug(LTag.TIDEPOOL, "Interceptor Body: " + requestBuffer.readUtf8())
+            }
         }
         return chain.proceed(request)
     }
@@ -20,9 +20,7 @@ import app.aaps.plugins.sync.tidepool.messages.AuthReplyMessage
 import app.aaps.plugins.sync.tidepool.messages.DatasetReplyMessage
 import app.aaps.plugins.sync.tidepool.messages.OpenDatasetRequestMessage
 import app.aaps.plugins.sync.tidepool.messages.UploadReplyMessage
-import okhttp3.MediaType.Companion.toMediaTypeOrNull
 import okhttp3.OkHttpClient
-import okhttp3.RequestBody.Companion.toRequestBody
 import okhttp3.logging.HttpLoggingInterceptor
 import retrofit2.Retrofit
 import retrofit2.converter.gson.GsonConverterFactory
@@ -211,7 +209,7 @@ class TidepoolUploader @Inject constructor(
                     releaseWakeLock()
                 }
 
-                chunk.length == 2 -> {
+                chunk.isEmpty -> {
                     aapsLogger.debug(LTag.TIDEPOOL, "Empty dataset - marking as succeeded")
                     rxBus.send(EventTidepoolStatus(("No data to upload")))
                     releaseWakeLock()
@@ -219,11 +217,9 @@ class TidepoolUploader @Inject constructor(
                 }
 
                 else -> {
-                    val body = chunk.toRequestBody("application/json".toMediaTypeOrNull())
-
                     rxBus.send(EventTidepoolStatus(("Uploading")))
                     if (session.service != null && session.token != null && session.datasetReply != null) {
-                        val call = session.service.doUpload(session.token!!, session.datasetReply!!.getUploadId()!!, body)
+                        val call = session.service.doUpload(session.token!!, session.datasetReply!!.getUploadId()!!, chunk)
                         call.enqueue(
                             TidepoolCallback<UploadReplyMessage>(
                                 aapsLogger, rxBus, session, "Data Upload $from",
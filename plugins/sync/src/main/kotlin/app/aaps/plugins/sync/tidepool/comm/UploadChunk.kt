@@ -22,7 +22,14 @@ import app.aaps.plugins.sync.tidepool.elements.WizardElement
 import app.aaps.plugins.sync.tidepool.events.EventTidepoolStatus
 import app.aaps.plugins.sync.tidepool.keys.TidepoolLongNonKey
 import app.aaps.plugins.sync.tidepool.utils.GsonInstance
-import java.util.LinkedList
+import okhttp3.MediaType
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.RequestBody
+import okio.BufferedSink
+import java.io.IOException
+import java.io.OutputStreamWriter
+import java.io.StringWriter
+import java.io.Writer
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlin.math.max
@@ -42,43 +49,117 @@ class UploadChunk @Inject constructor(
 
     private val maxUploadSize = T.days(7).msecs() // don't change this
 
-    fun getNext(session: Session?): String? {
+    /**
+     * Request body of one upload chunk
+     *
+     * Records are loaded from database one source at a time and serialized directly to the request
+     * when body is written, so only records of one source are held in memory, not the element list
+     * or JSON string of the whole chunk.
+     * [isEmpty] probes sources in order until one has records. Sources are iterated only once,
+     * so writing continues with records loaded by the probe and no query runs twice.
+     * Body is one-shot: it's not retried and logging interceptors don't write it to their buffer,
+     * otherwise every query would run twice.
+     */
+    inner class Chunk(val start: Long, val end: Long) : RequestBody() {
+
+        private val sources = if (isValidRange(start, end)) sources(start, end) else emptyList()
+
+        val isEmpty: Boolean = sources.none { it.elements.hasNext() }
+
+        override fun contentType(): MediaType = "application/json".toMediaType()
+
+        // unknown length, body is streamed
+        override fun contentLength(): Long = -1
+
+        override fun isOneShot(): Boolean = true
+
+        // runs on OkHttp thread, only IOException is reported to the callback
+        override fun writeTo(sink: BufferedSink) {
+            try {
+                val writer = OutputStreamWriter(sink.outputStream(), Charsets.UTF_8)
+                write(sources, writer)
+                writer.flush()
+            } catch (e: RuntimeException) {
+                throw IOException("Reading records for upload failed", e)
+            }
+        }
+    }
+
+    fun getNext(session: Session?): Chunk? {
         session ?: return null
 
         session.start = getLastEnd()
         // do not upload last 3h, TBR can be still running
         session.end = min(session.start + maxUploadSize, dateUtil.now() - T.hours(3).msecs())
 
-        val result = get(session.start, session.end)
-        if (result.length < 3) {
+        val chunk = Chunk(session.start, session.end)
+        if (chunk.isEmpty) {
             aapsLogger.debug(LTag.TIDEPOOL, "No records in this time period, setting start to best end time")
             setLastEnd(session.end)
         }
-        return result
+        return chunk
     }
 
     fun get(start: Long, end: Long): String {
+        if (!isValidRange(start, end)) return ""
+        val writer = StringWriter()
+        write(start, end, writer)
+        return writer.toString()
+    }
 
+    /**
+     * Write elements between [start] and [end] as JSON array
+     *
+     * @return number of written elements
+     */
+    fun write(start: Long, end: Long, writer: Writer): Int = write(sources(start, end), writer)
+
+    private fun write(sources: List<ElementSource>, writer: Writer): Int {
+        val gson = GsonInstance.defaultGsonInstance()
+        val jsonWriter = gson.newJsonWriter(writer)
+        var count = 0
+        jsonWriter.beginArray()
+        for (source in sources) {
+            var selected = 0
+            source.elements.forEach { element ->
+                // runtime type like when serializing List<BaseElement>
+                gson.toJson(element, element.javaClass, jsonWriter)
+                selected++
+            }
+            if (selected > 0 && source.name != null)
+                rxBus.send(EventTidepoolStatus("$selected ${source.name} selected for upload"))
+            count += selected
+        }
+        jsonWriter.endArray()
+        jsonWriter.flush()
+        return count
+    }
+
+    private fun isValidRange(start: Long, end: Long): Boolean {
         aapsLogger.debug(LTag.TIDEPOOL, "Syncing data between: " + dateUtil.dateAndTimeString(start) + " -> " + dateUtil.dateAndTimeString(end))
         if (end <= start) {
             aapsLogger.debug(LTag.TIDEPOOL, "End is <= start: " + dateUtil.dateAndTimeString(start) + " " + dateUtil.dateAndTimeString(end))
-            return ""
+            return false
         }
         if (end - start > maxUploadSize) {
             aapsLogger.debug(LTag.TIDEPOOL, "More than max range - rejecting")
-            return ""
+            return false
         }
+        return true
+    }
 
-        val records = LinkedList<BaseElement>()
-
-        records.addAll(getTreatments(start, end))
-        records.addAll(getBloodTests(start, end))
-        records.addAll(getBasals(start, end))
-        records.addAll(getBgReadings(start, end))
-        records.addAll(getProfiles(start, end))
+    private class ElementSource(val name: String?, val elements: Iterator<BaseElement>)
 
-        return GsonInstance.defaultGsonInstance().toJson(records)
-    }
+    /**
+     * Element sources in upload order. Database is queried when the source is iterated
+     */
+    private fun sources(start: Long, end: Long): List<ElementSource> = listOf(
+        ElementSource(null, getTreatments(start, end).iterator()),
+        ElementSource("BGs", getBloodTests(start, end).iterator()),
+        ElementSource("TBRs", getBasals(start, end).iterator()),
+        ElementSource("CGMs", getBgReadings(start, end).iterator()),
+        ElementSource("ProfileSwitches", getProfiles(start, end).iterator())
+    )
 
     fun getLastEnd(): Long {
         val result = preferences.get(TidepoolLongNonKey.LastEnd)
@@ -96,54 +177,40 @@ class UploadChunk @Inject constructor(
         }
     }
 
-    private fun getTreatments(start: Long, end: Long): List<BaseElement> {
-        val result = LinkedList<BaseElement>()
+    private fun getTreatments(start: Long, end: Long): Sequence<BaseElement> = sequence {
         persistenceLayer.getBolusesFromTimeToTime(start, end, true)
             .forEach { bolus ->
-                result.add(BolusElement(bolus, dateUtil))
+                yield(BolusElement(bolus, dateUtil))
             }
         persistenceLayer.getCarbsFromTimeToTimeExpanded(start, end, true)
             .forEach { carb ->
                 if (carb.amount > 0.0)
-                    result.add(WizardElement(carb, dateUtil))
+                    yield(WizardElement(carb, dateUtil))
             }
-        return result
     }
 
-    private fun getBloodTests(start: Long, end: Long): List<BloodGlucoseElement> {
+    private fun getBloodTests(start: Long, end: Long): Sequence<BloodGlucoseElement> = sequence {
         val readings = persistenceLayer.getTherapyEventDataFromToTime(start, end).blockingGet()
-        val selection = BloodGlucoseElement.fromCareportalEvents(readings, dateUtil, profileUtil)
-        if (selection.isNotEmpty())
-            rxBus.send(EventTidepoolStatus("${selection.size} BGs selected for upload"))
-        return selection
-
+        yieldAll(BloodGlucoseElement.fromCareportalEvents(readings, dateUtil, profileUtil))
     }
 
-    private fun getBgReadings(start: Long, end: Long): List<SensorGlucoseElement> {
+    private fun getBgReadings(start: Long, end: Long): Sequence<SensorGlucoseElement> = sequence {
         val readings = persistenceLayer.getBgReadingsDataFromTimeToTime(start, end, true)
-        val selection = SensorGlucoseElement.fromBgReadings(readings, dateUtil)
-        if (selection.isNotEmpty())
-            rxBus.send(EventTidepoolStatus("${selection.size} CGMs selected for upload"))
-        return selection
+        yieldAll(SensorGlucoseElement.fromBgReadings(readings, dateUtil))
     }
 
-    private fun fromTemporaryBasals(tbrList: List<TB>, start: Long, end: Long): List<BasalElement> {
-        val results = LinkedList<BasalElement>()
+    private fun fromTemporaryBasals(tbrList: List<TB>, start: Long, end: Long): Sequence<BasalElement> = sequence {
         for (tbr in tbrList) {
             if (tbr.timestamp in start..end)
                 profileFunction.getProfile(tbr.timestamp)?.let {
-                    results.add(BasalElement(tbr, it, dateUtil))
+                    yield(BasalElement(tbr, it, dateUtil))
                 }
         }
-        return results
     }
 
-    private fun getBasals(start: Long, end: Long): List<BasalElement> {
+    private fun getBasals(start: Long, end: Long): Sequence<BasalElement> = sequence {
         val temporaryBasals = persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(start, end, true)
-        val selection = fromTemporaryBasals(temporaryBasals, start, end)
-        if (selection.isNotEmpty())
-            rxBus.send(EventTidepoolStatus("${selection.size} TBRs selected for upload"))
-        return selection
+        yieldAll(fromTemporaryBasals(temporaryBasals, start, end))
     }
 
     private fun newInstanceOrNull(ps: EPS): ProfileElement? = try {
@@ -152,17 +219,13 @@ class UploadChunk @Inject constructor(
         null
     }
 
-    private fun getProfiles(start: Long, end: Long): List<ProfileElement> {
+    private fun getProfiles(start: Long, end: Long): Sequence<ProfileElement> = sequence {
         val pss = persistenceLayer.getEffectiveProfileSwitchesFromTimeToTime(start, end, true)
-        val selection = LinkedList<ProfileElement>()
         for (ps in pss) {
             newInstanceOrNull(ps)?.let {
-                selection.add(it)
+                yield(it)
             }
         }
-        if (selection.isNotEmpty())
-            rxBus.send(EventTidepoolStatus("${selection.size} ProfileSwitches selected for upload"))
-        return selection
     }
 
 }
\ No newline at end of file
@@ -4,7 +4,6 @@ import app.aaps.core.data.model.TE
 import app.aaps.core.interfaces.profile.ProfileUtil
 import app.aaps.core.interfaces.utils.DateUtil
 import com.google.gson.annotations.Expose
-import java.util.LinkedList
 import java.util.UUID
 
 class BloodGlucoseElement(therapyEvent: TE, dateUtil: DateUtil, profileUtil: ProfileUtil) :
@@ -29,16 +28,10 @@ class BloodGlucoseElement(therapyEvent: TE, dateUtil: DateUtil, profileUtil: Pro
 
     companion object {
 
-        fun fromCareportalEvents(careportalList: List<TE>, dateUtil: DateUtil, profileUtil: ProfileUtil): List<BloodGlucoseElement> {
-            val results = LinkedList<BloodGlucoseElement>()
-            for (bt in careportalList) {
-                if (bt.type == TE.Type.NS_MBG || bt.type == TE.Type.FINGER_STICK_BG_VALUE) {
-                    val bge = BloodGlucoseElement(bt, dateUtil, profileUtil)
-                    if (bge.value > 0)
-                        results.add(BloodGlucoseElement(bt, dateUtil, profileUtil))
-                }
-            }
-            return results
-        }
+        fun fromCareportalEvents(careportalList: List<TE>, dateUtil: DateUtil, profileUtil: ProfileUtil): Sequence<BloodGlucoseElement> =
+            careportalList.asSequence()
+                .filter { bt -> bt.type == TE.Type.NS_MBG || bt.type == TE.Type.FINGER_STICK_BG_VALUE }
+                .map { bt -> BloodGlucoseElement(bt, dateUtil, profileUtil) }
+                .filter { bge -> bge.value > 0 }
     }
 }
\ No newline at end of file
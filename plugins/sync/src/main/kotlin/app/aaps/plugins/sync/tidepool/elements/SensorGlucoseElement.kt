@@ -3,7 +3,6 @@ package app.aaps.plugins.sync.tidepool.elements
 import app.aaps.core.data.model.GV
 import app.aaps.core.interfaces.utils.DateUtil
 import com.google.gson.annotations.Expose
-import java.util.LinkedList
 import java.util.UUID
 
 class SensorGlucoseElement(bgReading: GV, dateUtil: DateUtil) :
@@ -22,12 +21,7 @@ class SensorGlucoseElement(bgReading: GV, dateUtil: DateUtil) :
 
     companion object {
 
-        internal fun fromBgReadings(bgReadingList: List<GV>, dateUtil: DateUtil): List<SensorGlucoseElement> {
-            val results = LinkedList<SensorGlucoseElement>()
-            for (bgReading in bgReadingList) {
-                results.add(SensorGlucoseElement(bgReading, dateUtil))
-            }
-            return results
-        }
+        internal fun fromBgReadings(bgReadingList: List<GV>, dateUtil: DateUtil): Sequence<SensorGlucoseElement> =
+            bgReadingList.asSequence().map { bgReading -> SensorGlucoseElement(bgReading, dateUtil) }
     }
 }
\ No newline at end of file
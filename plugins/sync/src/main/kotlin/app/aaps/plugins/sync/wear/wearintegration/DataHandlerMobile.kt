@@ -53,6 +53,7 @@ import app.aaps.core.interfaces.rx.events.EventWearUpdateGui
 import app.aaps.core.interfaces.rx.weardata.CwfMetadataKey
 import app.aaps.core.interfaces.rx.weardata.EventData
 import app.aaps.core.interfaces.rx.weardata.EventData.LoopStatesList.AvailableLoopState
+import app.aaps.core.interfaces.rx.weardata.GraphDataDeltaEncoder
 import app.aaps.core.interfaces.rx.weardata.LoopStatusData
 import app.aaps.core.interfaces.rx.weardata.TempTargetInfo
 import app.aaps.core.interfaces.rx.weardata.TargetRange
@@ -133,6 +134,7 @@ class DataHandlerMobile @Inject constructor(
 
     @Inject lateinit var automation: Automation
     private val disposable = CompositeDisposable()
+    private val graphDataDeltaEncoder = GraphDataDeltaEncoder()
 
     private var lastBolusWizard: BolusWizard? = null
     private var lastQuickWizardEntry: QuickWizardEntry? = null
@@ -166,6 +168,8 @@ class DataHandlerMobile @Inject constructor(
             .observeOn(aapsSchedulers.io)
             .subscribe({
                            aapsLogger.debug(LTag.WEAR, "ResendData received from ${it.sourceNodeId}")
+                           // watch may have lost graph state, send everything
+                           graphDataDeltaEncoder.reset()
                            resendData(it.from)
                        }, fabricPrivacy::logException)
         disposable += rxBus
@@ -1277,12 +1281,9 @@ class DataHandlerMobile @Inject constructor(
         )
         //UserAction
         sendUserActions()
-        // GraphData
-        iobCobCalculator.ads.getBucketedDataTableCopy()?.let { bucketedData ->
-            rxBus.send(EventMobileToWear(EventData.GraphData(ArrayList(bucketedData.map { getSingleBG(it) }))))
-        }
-        // Treatments
-        sendTreatments()
+        // GraphData and Treatments, only changes since last sent state
+        val graphData = iobCobCalculator.ads.getBucketedDataTableCopy()?.map { getSingleBG(it) }
+        rxBus.send(EventMobileToWear(graphDataDeltaEncoder.encode(graphData, buildTreatmentData())))
         // Status
         // Keep status last. Wear start refreshing after status received
         sendStatus(from)
@@ -1308,14 +1309,14 @@ class DataHandlerMobile @Inject constructor(
         )
     }
 
-    private fun sendTreatments() {
+    private fun buildTreatmentData(): EventData.TreatmentData? {
         val now = System.currentTimeMillis()
         val startTimeWindow = now - (60000 * 60 * 5.5).toLong()
         val basals = arrayListOf<EventData.TreatmentData.Basal>()
         val temps = arrayListOf<EventData.TreatmentData.TempBasal>()
         val boluses = arrayListOf<EventData.TreatmentData.Treatment>()
         val predictions = arrayListOf<EventData.SingleBg>()
-        val profile = profileFunction.getProfile() ?: return
+        val profile = profileFunction.getProfile() ?: return null
         var beginBasalSegmentTime = startTimeWindow
         var runningTime = startTimeWindow
         var beginBasalValue = profile.getBasal(beginBasalSegmentTime)
@@ -1333,7 +1334,7 @@ class DataHandlerMobile @Inject constructor(
             }
         }
         while (runningTime < now) {
-            val profileTB = profileFunction.getProfile(runningTime) ?: return
+            val profileTB = profileFunction.getProfile(runningTime) ?: return null
             //basal rate
             endBasalValue = profile.getBasal(runningTime)
             if (endBasalValue != beginBasalValue) {
@@ -1440,7 +1441,7 @@ class DataHandlerMobile @Inject constructor(
                     )
                 )
             }
-        rxBus.send(EventMobileToWear(EventData.TreatmentData(temps, basals, boluses, predictions)))
+        return EventData.TreatmentData(temps, basals, boluses, predictions)
     }
 
     private fun predictionColor(context: Context?, data: GV): Int {
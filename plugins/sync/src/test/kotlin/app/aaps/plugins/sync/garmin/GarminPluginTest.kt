@@ -23,7 +23,6 @@ import org.junit.jupiter.api.Assertions.assertThrows
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.mockito.ArgumentCaptor
-import org.mockito.ArgumentMatchers.anyLong
 import org.mockito.Mock
 import org.mockito.kotlin.any
 import org.mockito.kotlin.anyOrNull
@@ -44,7 +43,9 @@ import java.time.Duration
 import java.time.Instant
 import java.time.ZoneId
 import java.time.temporal.ChronoUnit
-import java.util.concurrent.locks.Condition
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 import kotlin.ranges.LongProgression.Companion.fromClosedRange
 
 class GarminPluginTest : TestBaseWithProfile() {
@@ -165,12 +166,10 @@ class GarminPluginTest : TestBaseWithProfile() {
         val from = getGlucoseValuesFrom
         val lastTimestamp = clock.instant()
         val prev = createGlucoseValue(clock.instant())
-        gp.newValue = mock<Condition>()
         whenever(loopHub.getGlucoseValues(from, true)).thenReturn(listOf(prev))
         gp.onNewBloodGlucose(EventNewBG(lastTimestamp.toEpochMilli()))
         assertArrayEquals(arrayOf(prev), gp.getGlucoseValues().toTypedArray())
 
-        verify(gp.newValue).signalAll()
         verify(loopHub).getGlucoseValues(from, true)
     }
 
@@ -198,7 +197,8 @@ class GarminPluginTest : TestBaseWithProfile() {
         }
         gp.onStop()
 
-        verify(loopHub, times(2)).getGlucoseValues(anyOrNull(), eq(true))
+        // Second request is served from glucose cache.
+        verify(loopHub).getGlucoseValues(anyOrNull(), eq(true))
         verify(loopHub, times(2)).insulinOnboard
         verify(loopHub, times(2)).temporaryBasal
         verify(loopHub, times(2)).isConnected
@@ -348,41 +348,84 @@ class GarminPluginTest : TestBaseWithProfile() {
     }
 
     @Test
-    fun testOnGetBloodGlucose_Wait() {
-        whenever(loopHub.isConnected).thenReturn(true)
-        whenever(loopHub.insulinOnboard).thenReturn(3.14)
-        whenever(loopHub.temporaryBasal).thenReturn(0.8)
-        whenever(loopHub.glucoseUnit).thenReturn(GlucoseUnit.MMOL)
+    fun testGlucoseValuesCache() {
+        val values = listOf(createGlucoseValue(clock.instant().minusSeconds(300)))
+        whenever(loopHub.getGlucoseValues(any(), eq(true))).thenReturn(values)
+        val glucoseValues = gp.getGlucoseValues()
+        val encoded = gp.encodedGlucose(glucoseValues)
+        // Same window is served from cache without query.
+        Truth.assertThat(gp.getGlucoseValues()).isSameInstanceAs(glucoseValues)
+        Truth.assertThat(gp.encodedGlucose(glucoseValues)).isSameInstanceAs(encoded)
+        verify(loopHub).getGlucoseValues(getGlucoseValuesFrom, true)
+        // Other values are encoded again.
+        val reEncoded = gp.encodedGlucose(values.toList())
+        Truth.assertThat(reEncoded).isEqualTo(encoded)
+        Truth.assertThat(reEncoded).isNotSameInstanceAs(encoded)
+
+        // Window start passed the oldest value.
+        gp.clock = Clock.offset(clock, Duration.ofHours(2).plusMinutes(5))
+        gp.getGlucoseValues()
+        val from = getGlucoseValuesFrom.plus(Duration.ofHours(2).plusMinutes(5))
+        verify(loopHub).getGlucoseValues(from, true)
+
+        // New glucose value drops the cache.
+        gp.onNewBloodGlucose(EventNewBG(gp.clock.millis()))
+        Truth.assertThat(gp.getGlucoseValues()).isSameInstanceAs(values)
+        verify(loopHub, times(2)).getGlucoseValues(from, true)
+    }
+
+    @Test
+    fun testGlucoseWait() {
         val from = getGlucoseValuesFrom
         whenever(loopHub.getGlucoseValues(from, true)).thenReturn(
             listOf(createGlucoseValue(clock.instant().minusSeconds(330)))
         )
-        val params = createHeartRate(99).toMutableMap()
-        params["wait"] = 10
-        val uri = createUri(params)
-        gp.newValue = mock<Condition>()
-        val result = gp.onGetBloodGlucose(uri)
-        assertEquals(
-            """{"encodedGlucose":"/wS6AQ==",""" +
-                """"remainingInsulin":3.14,"remainingBasalInsulin":0.0,""" +
-                """"glucoseUnit":"mmoll","temporaryBasalRate":0.8,""" +
-                """"profile":"D","connected":true}""",
-            result.toString()
+        // Device doesn't want to wait.
+        assertEquals(Duration.ZERO, gp.glucoseWait(createUri(emptyMap())))
+        // New value is due.
+        assertEquals(Duration.ofSeconds(10), gp.glucoseWait(createUri(mapOf("wait" to 10))))
+
+        // Last value is recent.
+        whenever(loopHub.getGlucoseValues(from, true)).thenReturn(
+            listOf(createGlucoseValue(clock.instant().minusSeconds(100)))
         )
-        verify(gp.newValue).awaitNanos(anyLong())
+        gp.onNewBloodGlucose(EventNewBG(clock.millis()))
+        assertEquals(Duration.ZERO, gp.glucoseWait(createUri(mapOf("wait" to 10))))
         verify(loopHub, times(2)).getGlucoseValues(from, true)
+    }
+
+    @Test
+    fun testOnGetBloodGlucose_Wait() {
+        whenever(preferences.get(GarminStringKey.RequestKey)).thenReturn("")
+        whenever(preferences.get(GarminBooleanKey.LocalHttpServer)).thenReturn(true)
+        whenever(preferences.get(GarminIntKey.LocalHttpPort)).thenReturn(28894)
+        whenever(loopHub.getGlucoseValues(getGlucoseValuesFrom, true)).thenReturn(
+            listOf(createGlucoseValue(clock.instant().minusSeconds(330)))
+        )
+        gp.setupHttpServer(Duration.ofSeconds(10))
+        val client = Executors.newSingleThreadExecutor()
+        try {
+            val response = client.submit(Callable {
+                (URI("http://127.0.0.1:28894/get?wait=60").toURL().openConnection() as HttpURLConnection).responseCode
+            })
+            // Parked request is answered by the new value, not by its timeout.
+            var timestamp = clock.millis()
+            while (!response.isDone) {
+                gp.onNewBloodGlucose(EventNewBG(++timestamp))
+                Thread.sleep(50)
+            }
+            assertEquals(200, response.get(1, TimeUnit.SECONDS))
+        } finally {
+            client.shutdown()
+            gp.onStop()
+        }
+        verify(loopHub, atLeastOnce()).getGlucoseValues(getGlucoseValuesFrom, true)
         verify(loopHub).insulinOnboard
         verify(loopHub).temporaryBasal
         verify(loopHub).isConnected
         verify(loopHub).glucoseUnit
         verify(loopHub).lowGlucoseMark
         verify(loopHub).highGlucoseMark
-        verify(loopHub).storeHeartRate(
-            Instant.ofEpochSecond(params["hrStart"] as Long),
-            Instant.ofEpochSecond(params["hrEnd"] as Long),
-            99,
-            params["device"] as String
-        )
     }
 
     @Test
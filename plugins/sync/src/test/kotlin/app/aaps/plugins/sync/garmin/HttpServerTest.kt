@@ -1,6 +1,7 @@
 package app.aaps.plugins.sync.garmin
 
 import app.aaps.shared.tests.TestBase
+import org.junit.jupiter.api.Assertions.assertArrayEquals
 import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Assertions.assertTrue
 import org.junit.jupiter.api.Test
@@ -10,7 +11,13 @@ import java.net.HttpURLConnection
 import java.net.SocketAddress
 import java.net.URI
 import java.nio.charset.Charset
+import java.net.Socket
+import java.nio.charset.StandardCharsets
 import java.time.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 internal class HttpServerTest: TestBase() {
 
@@ -96,4 +103,112 @@ internal class HttpServerTest: TestBase() {
             assertEquals(404, resp.responseCode)
         }
     }
+
+    @Test fun testRequestLength() {
+        val get = "GET /foo HTTP/1.1\r\nHost: x\r\n\r\n".toByteArray(StandardCharsets.US_ASCII)
+        assertEquals(0, HttpServer.requestLength(get.copyOfRange(0, get.size - 2), false))
+        assertEquals(get.size, HttpServer.requestLength(get, false))
+        assertEquals(get.size, HttpServer.requestLength(get + get, false))
+        val post = "POST /foo HTTP/1.1\r\nContent-Length: 3\r\n\r\na=1".toByteArray(StandardCharsets.US_ASCII)
+        assertEquals(0, HttpServer.requestLength(post.copyOfRange(0, post.size - 1), false))
+        assertEquals(post.size, HttpServer.requestLength(post, false))
+        val postNoLength = "POST /foo HTTP/1.1\r\n\r\na=1".toByteArray(StandardCharsets.US_ASCII)
+        assertEquals(0, HttpServer.requestLength(postNoLength, false))
+        assertEquals(postNoLength.size, HttpServer.requestLength(postNoLength, true))
+    }
+
+    @Test fun testRequest_KeepAlive() {
+        val port = 28896
+        HttpServer(aapsLogger, port).use { server ->
+            server.registerEndpoint("/foo") { _: SocketAddress, _: URI, _: String? -> HttpURLConnection.HTTP_OK to "test" }
+            assertTrue(server.awaitReady(Duration.ofSeconds(10)))
+            Socket("127.0.0.1", port).use { socket ->
+                val request = "GET /foo HTTP/1.1\r\nHost: localhost\r\n\r\n".toByteArray(StandardCharsets.US_ASCII)
+                val expected = HttpServer.encodeResponse(200, "test".toByteArray(), "application/json", true)
+                // Two requests on the same connection.
+                socket.getOutputStream().write(request + request)
+                val input = socket.getInputStream()
+                for (i in 0 until 2) {
+                    val response = ByteArray(expected.size)
+                    var read = 0
+                    while (read < response.size) read += input.read(response, read, response.size - read)
+                    assertArrayEquals(expected, response)
+                }
+            }
+        }
+    }
+
+    @Test fun testConcurrentRequests() {
+        val port = 28897
+        val calls = AtomicInteger()
+        HttpServer(aapsLogger, port, workerThreads = 2).use { server ->
+            server.registerEndpoint("/foo") { _: SocketAddress, _: URI, _: String? ->
+                calls.incrementAndGet()
+                HttpURLConnection.HTTP_OK to "{\"sgv\":[1,2,3]}"
+            }
+            assertTrue(server.awaitReady(Duration.ofSeconds(10)))
+            val clients = Executors.newFixedThreadPool(8)
+            try {
+                val results = (0 until 40).map {
+                    clients.submit(Callable {
+                        val resp = URI("http://127.0.0.1:$port/foo").toURL().openConnection() as HttpURLConnection
+                        assertEquals(200, resp.responseCode)
+                        (resp.content as InputStream).use { it.readBytes() }
+                    })
+                }.map { it.get(10, TimeUnit.SECONDS) }
+                results.forEach { assertArrayEquals(results[0], it) }
+                assertEquals("{\"sgv\":[1,2,3]}", String(results[0], StandardCharsets.UTF_8))
+            } finally {
+                clients.shutdown()
+            }
+            assertEquals(40, calls.get())
+            assertServerThreadsBounded()
+        }
+    }
+
+    // One selector thread and the fixed worker pool, no matter how many clients.
+    private fun assertServerThreadsBounded() {
+        val serverThreads = Thread.getAllStackTraces().keys.count { it.name.startsWith("GarminHttp") }
+        assertTrue(serverThreads <= 3, "server threads $serverThreads")
+    }
+
+    @Test fun testWaitingRequestsDontBlockOthers() {
+        val port = 28898
+        HttpServer(aapsLogger, port, workerThreads = 2).use { server ->
+            // like glucose request waiting for the next value
+            server.registerEndpoint("/wait", { Duration.ofSeconds(10) }) { _: SocketAddress, _: URI, _: String? -> HttpURLConnection.HTTP_OK to "waited" }
+            server.registerEndpoint("/foo") { _: SocketAddress, _: URI, _: String? -> HttpURLConnection.HTTP_OK to "test" }
+            assertTrue(server.awaitReady(Duration.ofSeconds(10)))
+            val clients = Executors.newFixedThreadPool(8)
+            try {
+                val waiting = (0 until 8).map {
+                    clients.submit(Callable { (URI("http://127.0.0.1:$port/wait").toURL().openConnection() as HttpURLConnection).responseCode })
+                }
+                Thread.sleep(200)
+                // more requests are parked than there are workers
+                val resp = URI("http://127.0.0.1:$port/foo").toURL().openConnection() as HttpURLConnection
+                resp.readTimeout = 2_000
+                assertEquals(200, resp.responseCode)
+                waiting.forEach { assertTrue(!it.isDone) }
+                assertServerThreadsBounded()
+                server.resumeParked()
+                waiting.forEach { assertEquals(200, it.get(2, TimeUnit.SECONDS)) }
+            } finally {
+                clients.shutdown()
+            }
+        }
+    }
+
+    @Test fun testParkedRequestTimeout() {
+        val port = 28899
+        HttpServer(aapsLogger, port).use { server ->
+            server.registerEndpoint("/wait", { Duration.ofMillis(300) }) { _: SocketAddress, _: URI, _: String? -> HttpURLConnection.HTTP_OK to "waited" }
+            assertTrue(server.awaitReady(Duration.ofSeconds(10)))
+            val start = System.nanoTime()
+            val resp = URI("http://127.0.0.1:$port/wait").toURL().openConnection() as HttpURLConnection
+            assertEquals(200, resp.responseCode)
+            assertEquals("waited", (resp.content as InputStream).reader().use { r -> r.readText() })
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 300)
+        }
+    }
 }
@@ -1,14 +1,42 @@
 package app.aaps.plugins.sync.openhumans
 
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.CA
+import app.aaps.core.data.model.EB
+import app.aaps.core.data.model.GV
+import app.aaps.core.data.model.GlucoseUnit
+import app.aaps.core.data.model.HasIDs
+import app.aaps.core.data.model.ICfg
+import app.aaps.core.data.model.IDs
+import app.aaps.core.data.model.NE
+import app.aaps.core.data.model.RM
+import app.aaps.core.data.model.SourceSensor
+import app.aaps.core.data.model.TB
+import app.aaps.core.data.model.TDD
+import app.aaps.core.data.model.TE
+import app.aaps.core.data.model.TT
+import app.aaps.core.data.model.TrendArrow
+import app.aaps.core.data.model.data.Block
+import app.aaps.core.data.pump.defs.PumpType
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.plugins.sync.openhumans.delegates.OHAppIDDelegate
 import app.aaps.plugins.sync.openhumans.delegates.OHCounterDelegate
 import app.aaps.plugins.sync.openhumans.delegates.OHStateDelegate
+import app.aaps.shared.tests.Benchmark
+import app.aaps.shared.tests.BenchmarkTest
 import app.aaps.shared.tests.TestBaseWithProfile
 import com.google.common.truth.Truth.assertThat
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestReporter
+import org.json.JSONArray
+import org.json.JSONObject
 import org.mockito.Mock
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.security.MessageDigest
+import java.util.zip.ZipInputStream
+import java.util.zip.ZipOutputStream
 
 class OpenHumansUploaderPluginTest : TestBaseWithProfile() {
 
@@ -33,4 +61,203 @@ class OpenHumansUploaderPluginTest : TestBaseWithProfile() {
         openHumansUploaderPlugin.addPreferenceScreen(preferenceManager, screen, context, null)
         assertThat(screen.preferenceCount).isGreaterThan(0)
     }
+
+    private fun page(count: Int): NE {
+        val ids = IDs(pumpType = PumpType.ACCU_CHEK_INSIGHT, pumpSerial = "SN/123\"", pumpId = 10)
+        val start = 1_700_000_000_000L
+        return NE(
+            bolusCalculatorResults = listOf(),
+            boluses = List(count) { BS(timestamp = start + it, amount = 0.1 * it, type = BS.Type.SMB, ids = ids, icfg = ICfg("Fiasp", 18000000, 3600000)) },
+            carbs = List(count) { CA(timestamp = start + it, duration = 0, amount = 10.0, notes = "note\n</tag>") },
+            effectiveProfileSwitches = listOf(effectiveProfileSwitch),
+            extendedBoluses = List(count) { EB(timestamp = start + it, duration = 1800000, amount = 1.5, ids = ids) },
+            glucoseValues = List(count) { GV(timestamp = start + it, raw = if (it % 2 == 0) null else 120.5, value = 100.0 + it, trendArrow = TrendArrow.FLAT, noise = null, sourceSensor = SourceSensor.UNKNOWN) },
+            runningModes = List(count) { RM(timestamp = start + it, mode = RM.Mode.CLOSED_LOOP, duration = 0) },
+            profileSwitches = listOf(profileSwitch),
+            temporaryBasals = List(count) { TB(timestamp = start + it, type = TB.Type.NORMAL, isAbsolute = false, rate = 110.0, duration = 1800000, ids = ids) },
+            temporaryTarget = List(count) { TT(timestamp = start + it, reason = TT.Reason.ACTIVITY, highTarget = 140.0, lowTarget = 120.0, duration = 3600000, referenceId = if (it % 3 == 0) 7 else null) },
+            therapyEvents = List(count) { TE(timestamp = start + it, type = TE.Type.FINGER_STICK_BG_VALUE, glucose = 5.5, glucoseType = TE.MeterType.FINGER, glucoseUnit = GlucoseUnit.MMOL) },
+            totalDailyDoses = List(count) { TDD(timestamp = start + it, basalAmount = 12.25, bolusAmount = 20.0, totalAmount = 32.25, carbs = 150.0) },
+            heartRates = listOf()
+        )
+    }
+
+    private fun unzip(bytes: ByteArray): Map<String, String> {
+        val files = LinkedHashMap<String, String>()
+        ZipInputStream(bytes.inputStream()).use { zis ->
+            while (true) {
+                val entry = zis.nextEntry ?: break
+                files[entry.name] = zis.readBytes().toString(Charsets.UTF_8)
+            }
+        }
+        return files
+    }
+
+    private fun String.sha256(): String = MessageDigest.getInstance("SHA-256").digest(toByteArray()).joinToString("") { "%02X".format(it) }
+
+    // Former JSONObject based implementation
+    private fun <T : HasIDs> legacyFile(list: List<T>, block: JSONObject.(entry: T) -> Unit): String {
+        val jsonArray = JSONArray()
+        list.forEach {
+            val jsonObject = JSONObject()
+            jsonObject.put("structureVersion", 2)
+            jsonObject.put("id", it.id)
+            jsonObject.put("version", it.version)
+            jsonObject.put("dateCreated", it.dateCreated)
+            jsonObject.put("isValid", it)
+            jsonObject.put("referenceId", it.referenceId)
+            jsonObject.put("pumpType", it.ids.pumpType)
+            jsonObject.put("pumpSerialHash", it.ids.pumpSerial?.sha256())
+            jsonObject.put("pumpId", it.ids.pumpId)
+            jsonObject.put("startId", it.ids.startId)
+            jsonObject.put("endId", it.ids.endId)
+            jsonObject.block(it)
+            jsonArray.put(jsonObject)
+        }
+        return jsonArray.toString()
+    }
+
+    private fun List<Block>.legacySerialize(): JSONArray {
+        val jsonArray = JSONArray()
+        forEach { jsonArray.put(JSONObject().put("duration", it.duration).put("amount", it.amount)) }
+        return jsonArray
+    }
+
+    private fun legacyPage(data: NE): Map<String, String> = linkedMapOf(
+        "Boluses.json" to legacyFile(data.boluses) {
+            put("timestamp", it.timestamp)
+            put("utcOffset", it.utcOffset)
+            put("amount", it.amount)
+            put("type", it.type.toString())
+            put("isBasalInsulin", it.isBasalInsulin)
+            put("insulinEndTime", it.icfg?.insulinEndTime)
+            put("peak", it.icfg?.peak)
+        },
+        "Carbs.json" to legacyFile(data.carbs) {
+            put("timestamp", it.timestamp)
+            put("utcOffset", it.utcOffset)
+            put("duration", it.duration)
+            put("amount", it.amount)
+        },
+        "EffectiveProfileSwitches.json" to legacyFile(data.effectiveProfileSwitches) {
+            put("timestamp", it.timestamp)
+            put("utcOffset", it.utcOffset)
+            put("basalBlocks", it.basalBlocks.legacySerialize())
+            put("isfBlocks", it.isfBlocks.legacySerialize())
+            put("icBlocks", it.icBlocks.legacySerialize())
+            put("icBlocks", it.icBlocks.legacySerialize())
+            put("targetBlocks", it.targetBlocks)
+            put("glucoseUnit", it.glucoseUnit.toString())
+            put("originalTimeshift", it.originalTimeshift)
+            put("originalPercentage", it.originalPercentage)
+            put("originalDuration", it.originalDuration)
+            put("originalEnd", it.originalEnd)
+            put("insulinEndTime", it.iCfg.insulinEndTime)
+            put("insulinEndTime", it.iCfg.peak)
+        },
+        "ExtendedBoluses.json" to legacyFile(data.extendedBoluses) {
+            put("timestamp", it.timestamp)
+            put("utcOffset", it.utcOffset)
+            put("duration", it.duration)
+            put("amount", it.amount)
+            put("isEmulatingTempBasal", it.isEmulatingTempBasal)
+        },
+        "GlucoseValues.json" to legacyFile(data.glucoseValues) {
+            put("timestamp", it.timestamp)
+            put("utcOffset", it.utcOffset)
+            put("raw", it.raw)
+            put("value", it.value)
+            put("trendArrow", it.trendArrow.toString())
+            put("noise", it.noise)
+            put("sourceSensor", it.sourceSensor.toString())
+        },
+        "RunningModes.json" to legacyFile(data.runningModes) {
+            put("timestamp", it.timestamp)
+            put("utcOffset", it.utcOffset)
+            put("mode", it.mode.toString())
+            put("duration", it.duration)
+        },
+        "ProfileSwitches.json" to legacyFile(data.profileSwitches) {
+            put("timestamp", it.timestamp)
+            put("utcOffset", it.utcOffset)
+            put("basalBlocks", it.basalBlocks.legacySerialize())
+            put("isfBlocks", it.basalBlocks.legacySerialize())
+            put("icBlocks", it.icBlocks.legacySerialize())
+            put("basalBlocks", it.basalBlocks.legacySerialize())
+            put("glucoseUnit", it.glucoseUnit.toString())
+            put("timeshift", it.timeshift)
+            put("percentage", it.percentage)
+            put("duration", it.duration)
+            put("insulinEndTime", it.iCfg.insulinEndTime)
+            put("peak", it.iCfg.peak)
+        },
+        "TemporaryBasals.json" to legacyFile(data.temporaryBasals) {
+            put("timestamp", it.timestamp)
+            put("utcOffset", it.utcOffset)
+            put("type", it.type.toString())
+            put("isAbsolute", it.isAbsolute)
+            put("rate", it.rate)
+            put("duration", it.duration)
+        },
+        "TemporaryTargets.json" to legacyFile(data.temporaryTarget) {
+            put("timestamp", it.timestamp)
+            put("utcOffset", it.utcOffset)
+            put("reason", it.reason.toString())
+            put("highTarget", it.highTarget)
+            put("lowTarget", it.lowTarget)
+            put("duration", it.duration)
+        },
+        "TherapyEvents.json" to legacyFile(data.therapyEvents) {
+            put("timestamp", it.timestamp)
+            put("utcOffset", it.utcOffset)
+            put("type", it.type.toString())
+            put("glucose", it.glucose)
+            put("glucoseType", it.glucoseType?.toString())
+            put("glucoseUnit", it.glucoseUnit.toString())
+        },
+        "TotalDailyDoses.json" to legacyFile(data.totalDailyDoses) {
+            put("timestamp", it.timestamp)
+            put("utcOffset", it.utcOffset)
+            put("basalAmount", it.basalAmount)
+            put("bolusAmount", it.bolusAmount)
+            put("totalAmount", it.totalAmount)
+            put("carbs", it.carbs)
+        }
+    )
+
+    @Test
+    fun streamedEntriesMatchJsonObjectOutput() {
+        val data = page(20)
+        val tags = mutableListOf<String>()
+        val bytes = ByteArrayOutputStream()
+        ZipOutputStream(bytes).use { openHumansUploaderPlugin.writeEntries(it, data, tags) }
+
+        val expected = legacyPage(data)
+        val actual = unzip(bytes.toByteArray())
+        assertThat(actual.keys).containsExactlyElementsIn(expected.keys).inOrder()
+        for ((name, content) in expected) assertThat(actual[name]).isEqualTo(content)
+        assertThat(tags).containsExactlyElementsIn(expected.keys.map { it.removeSuffix(".json") }).inOrder()
+    }
+
+    @BenchmarkTest
+    fun pagePeakHeapBenchmark(reporter: TestReporter) {
+        // page size used by upload
+        val data = page(1000)
+        val benchmark = Benchmark(reporter)
+        benchmark.peakHeap("page of ${data.boluses.size} records per table in memory") {
+            val bytes = ByteArrayOutputStream()
+            ZipOutputStream(bytes).use { zos ->
+                legacyPage(data).forEach { (name, content) ->
+                    zos.putNextEntry(java.util.zip.ZipEntry(name))
+                    zos.write(content.toByteArray())
+                    zos.closeEntry()
+                }
+            }
+        }
+        val file = File.createTempFile("openhumans", ".zip")
+        benchmark.peakHeap("page of ${data.boluses.size} records per table streamed to file") {
+            ZipOutputStream(file.outputStream().buffered()).use { openHumansUploaderPlugin.writeEntries(it, data, mutableListOf()) }
+        }
+        file.delete()
+    }
 }
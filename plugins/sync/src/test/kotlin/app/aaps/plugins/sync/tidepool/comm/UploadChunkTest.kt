@@ -1,26 +1,50 @@
 package app.aaps.plugins.sync.tidepool.comm
 
 import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.CA
+import app.aaps.core.data.model.GV
+import app.aaps.core.data.model.GlucoseUnit
+import app.aaps.core.data.model.SourceSensor
+import app.aaps.core.data.model.TB
+import app.aaps.core.data.model.TE
+import app.aaps.core.data.model.TrendArrow
+import app.aaps.core.data.time.T
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.plugin.ActivePlugin
+import app.aaps.core.interfaces.profile.Profile
 import app.aaps.core.interfaces.profile.ProfileFunction
 import app.aaps.core.interfaces.profile.ProfileUtil
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.utils.DateUtil
 import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.plugins.sync.tidepool.elements.BasalElement
+import app.aaps.plugins.sync.tidepool.elements.BaseElement
+import app.aaps.plugins.sync.tidepool.elements.BloodGlucoseElement
 import app.aaps.plugins.sync.tidepool.elements.BolusElement
+import app.aaps.plugins.sync.tidepool.elements.SensorGlucoseElement
+import app.aaps.plugins.sync.tidepool.elements.WizardElement
 import app.aaps.plugins.sync.tidepool.utils.GsonInstance
+import app.aaps.shared.tests.Benchmark
+import app.aaps.shared.tests.BenchmarkTest
 import com.google.common.truth.Truth.assertThat
 import com.google.gson.reflect.TypeToken
 import io.reactivex.rxjava3.core.Single
+import okio.Buffer
+import okio.blackholeSink
+import okio.buffer
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestReporter
+import org.junit.jupiter.api.assertThrows
 import org.junit.jupiter.api.extension.ExtendWith
 import org.mockito.InjectMocks
 import org.mockito.Mock
 import org.mockito.junit.jupiter.MockitoExtension
 import org.mockito.kotlin.any
+import org.mockito.kotlin.verify
 import org.mockito.kotlin.whenever
+import java.io.IOException
+import java.util.LinkedList
 
 @ExtendWith(MockitoExtension::class)
 class UploadChunkTest {
@@ -29,11 +53,9 @@ class UploadChunkTest {
     @Mock lateinit var rxBus: RxBus
     @Mock lateinit var aapsLogger: AAPSLogger
 
-    @Suppress("unused")
     @Mock lateinit var profileFunction: ProfileFunction
-
-    @Suppress("unused")
     @Mock lateinit var profileUtil: ProfileUtil
+    @Mock lateinit var profile: Profile
 
     @Suppress("unused")
     @Mock lateinit var activePlugin: ActivePlugin
@@ -63,6 +85,123 @@ class UploadChunkTest {
         assertThat(resultBolusElements[1].normal).isEqualTo(0.5)
     }
 
+    private val start = 1_700_000_000_000L
+
+    private class Fixtures(val boluses: List<BS>, val carbs: List<CA>, val therapyEvents: List<TE>, val temporaryBasals: List<TB>, val glucose: List<GV>)
+
+    /**
+     * 1-minute CGM, boluses, carbs, finger BGs and temporary basals for [days] days
+     */
+    private fun mockData(days: Int): Fixtures {
+        val boluses = ArrayList<BS>()
+        val carbs = ArrayList<CA>()
+        val therapyEvents = ArrayList<TE>()
+        val temporaryBasals = ArrayList<TB>()
+        val glucose = ArrayList<GV>()
+        var time = start
+        while (time < start + T.days(days.toLong()).msecs()) {
+            glucose.add(GV(timestamp = time, raw = null, value = 100.0 + time / 60000 % 50, trendArrow = TrendArrow.FLAT, noise = null, sourceSensor = SourceSensor.UNKNOWN))
+            if (time % T.mins(30).msecs() == 0L) temporaryBasals.add(TB(timestamp = time, type = TB.Type.NORMAL, isAbsolute = true, rate = 0.8, duration = T.mins(30).msecs()))
+            if (time % T.hours(1).msecs() == 0L) boluses.add(BS(timestamp = time, amount = 0.3, type = BS.Type.SMB))
+            if (time % T.hours(6).msecs() == 0L) {
+                carbs.add(CA(timestamp = time, duration = 0, amount = 30.0))
+                carbs.add(CA(timestamp = time + 1, duration = 0, amount = 0.0))
+                therapyEvents.add(TE(timestamp = time, type = TE.Type.FINGER_STICK_BG_VALUE, glucose = 110.0, glucoseUnit = GlucoseUnit.MGDL))
+                therapyEvents.add(TE(timestamp = time + 1, type = TE.Type.NOTE, glucoseUnit = GlucoseUnit.MGDL))
+            }
+            time += T.mins(1).msecs()
+        }
+        whenever(dateUtil.toISONoZone(any())).thenAnswer { "local" + it.getArgument<Long>(0) }
+        whenever(dateUtil.toISOAsUTC(any())).thenAnswer { "utc" + it.getArgument<Long>(0) }
+        whenever(dateUtil.getTimeZoneOffsetMinutes(any())).thenReturn(60)
+        whenever(profileUtil.convertToMgdl(any(), any())).thenAnswer { it.getArgument<Double>(0) }
+        whenever(profileFunction.getProfile(any<Long>())).thenReturn(profile)
+        whenever(persistenceLayer.getBolusesFromTimeToTime(any(), any(), any())).thenReturn(boluses)
+        whenever(persistenceLayer.getCarbsFromTimeToTimeExpanded(any(), any(), any())).thenReturn(carbs)
+        whenever(persistenceLayer.getTherapyEventDataFromToTime(any(), any())).thenReturn(Single.just(therapyEvents))
+        whenever(persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(any(), any(), any())).thenReturn(temporaryBasals)
+        whenever(persistenceLayer.getBgReadingsDataFromTimeToTime(any(), any(), any())).thenReturn(glucose)
+        return Fixtures(boluses, carbs, therapyEvents, temporaryBasals, glucose)
+    }
+
+    /**
+     * Element list serialized at once, the way chunks were built before streaming
+     */
+    private fun serializedList(fixtures: Fixtures): String {
+        val records = LinkedList<BaseElement>()
+        fixtures.boluses.forEach { records.add(BolusElement(it, dateUtil)) }
+        fixtures.carbs.filter { it.amount > 0.0 }.forEach { records.add(WizardElement(it, dateUtil)) }
+        fixtures.therapyEvents.filter { it.type == TE.Type.FINGER_STICK_BG_VALUE }.forEach { records.add(BloodGlucoseElement(it, dateUtil, profileUtil)) }
+        fixtures.temporaryBasals.forEach { records.add(BasalElement(it, profile, dateUtil)) }
+        fixtures.glucose.forEach { records.add(SensorGlucoseElement(it, dateUtil)) }
+        return GsonInstance.defaultGsonInstance().toJson(records)
+    }
+
+    @Test
+    fun `streamed chunk is byte identical to serialized element list`() {
+        val fixtures = mockData(1)
+        val end = start + T.days(1).msecs()
+        val expected = serializedList(fixtures)
+
+        assertThat(sut.get(start, end)).isEqualTo(expected)
+
+        val chunk = sut.Chunk(start, end)
+        assertThat(chunk.isEmpty).isFalse()
+        val body = Buffer()
+        chunk.writeTo(body)
+        assertThat(body.readByteArray()).isEqualTo(expected.toByteArray(Charsets.UTF_8))
+    }
+
+    @Test
+    fun `emptiness probe and body share database queries`() {
+        mockData(1)
+        val chunk = sut.Chunk(start, start + T.days(1).msecs())
+        assertThat(chunk.isEmpty).isFalse()
+        chunk.writeTo(Buffer())
+
+        verify(persistenceLayer).getBolusesFromTimeToTime(any(), any(), any())
+        verify(persistenceLayer).getCarbsFromTimeToTimeExpanded(any(), any(), any())
+        verify(persistenceLayer).getTherapyEventDataFromToTime(any(), any())
+        verify(persistenceLayer).getTemporaryBasalsStartingFromTimeToTime(any(), any(), any())
+        verify(persistenceLayer).getBgReadingsDataFromTimeToTime(any(), any(), any())
+        verify(persistenceLayer).getEffectiveProfileSwitchesFromTimeToTime(any(), any(), any())
+    }
+
+    @Test
+    fun `chunk without records is empty`() {
+        whenever(persistenceLayer.getTherapyEventDataFromToTime(any(), any())).thenReturn(Single.just(listOf()))
+
+        assertThat(sut.Chunk(start, start + T.days(1).msecs()).isEmpty).isTrue()
+        assertThat(sut.get(start, start + T.days(1).msecs())).isEqualTo("[]")
+        // invalid range
+        assertThat(sut.Chunk(start, start).isEmpty).isTrue()
+    }
+
+    @Test
+    fun `chunk is one-shot and database failure is reported as IOException`() {
+        // probe stops at boluses, glucose is read only when body is written
+        whenever(persistenceLayer.getBolusesFromTimeToTime(any(), any(), any())).thenReturn(listOf(BS(timestamp = start - 100, amount = 0.5, type = BS.Type.SMB)))
+        whenever(persistenceLayer.getTherapyEventDataFromToTime(any(), any())).thenReturn(Single.just(listOf()))
+        whenever(persistenceLayer.getBgReadingsDataFromTimeToTime(any(), any(), any())).thenThrow(IllegalStateException("database closed"))
+        val chunk = sut.Chunk(start - T.days(1).msecs(), start)
+        assertThat(chunk.isEmpty).isFalse()
+        assertThat(chunk.isOneShot()).isTrue()
+
+        val thrown = assertThrows<IOException> { chunk.writeTo(Buffer()) }
+        assertThat(thrown).hasCauseThat().isInstanceOf(IllegalStateException::class.java)
+    }
+
+    @BenchmarkTest
+    fun `streaming seven day chunk benchmark`(reporter: TestReporter) {
+        val fixtures = mockData(7)
+        val end = start + T.days(7).msecs()
+        val benchmark = Benchmark(reporter)
+        benchmark.measure("7 day chunk list and String", 1, 3) { serializedList(fixtures) }
+        benchmark.measure("7 day chunk streamed", 1, 3) { blackholeSink().buffer().use { sink -> sut.Chunk(start, end).writeTo(sink) } }
+        benchmark.peakHeap("7 day chunk list and String") { serializedList(fixtures) }
+        benchmark.peakHeap("7 day chunk streamed") { blackholeSink().buffer().use { sink -> sut.Chunk(start, end).writeTo(sink) } }
+    }
+
     private fun convertResultJsonToBolusElements(json: String): List<BolusElement> {
         val itemType = object : TypeToken<List<BolusElement>>() {}.type
         return GsonInstance.defaultGsonInstance().fromJson(json, itemType)
@@ -16,26 +16,18 @@ package info.nightscout.comboctl.base
  * @return The computed checksum.
  */
 fun calculateCRC16MCRF4XX(data: List<Byte>, currentChecksum: Int = 0xFFFF): Int {
-    // Original implementation from https://gist.github.com/aurelj/270bb8af82f65fa645c1#gistcomment-2884584
-
-    if (data.isEmpty())
-        return currentChecksum
-
+    // comboctl is a multiplatform module and cannot use the pump:common Crc16,
+    // this is the same table driven update of reflected polynomial 0x8408.
     var newChecksum = currentChecksum
 
-    for (dataByte in data) {
-        var t: Int
-
-        newChecksum = newChecksum xor dataByte.toPosInt()
-        // The "and 0xFF" are needed since the original C implementation
-        // worked with implicit 8-bit logic, meaning that only the lower
-        // 8 bits are kept - the rest is thrown away.
-        var el: Int = (newChecksum xor (newChecksum shl 4)) and 0xFF
-        t = ((el shl 3) or (el shr 5)) and 0xFF
-        el = el xor (t and 0x07)
-        t = (t and 0xF8) xor (((t shl 1) or (t shr 7)) and 0x0F) xor (newChecksum shr 8)
-        newChecksum = (el shl 8) or t
-    }
+    for (dataByte in data)
+        newChecksum = (newChecksum ushr 8) xor crc16MCRF4XXTable[(newChecksum xor dataByte.toPosInt()) and 0xFF]
 
     return newChecksum
 }
+
+private val crc16MCRF4XXTable = IntArray(256) {
+    var value = it
+    repeat(8) { value = if ((value and 1) != 0) (value ushr 1) xor 0x8408 else value ushr 1 }
+    value
+}
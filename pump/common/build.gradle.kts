@@ -21,6 +21,8 @@ dependencies {
     api(libs.com.google.code.gson)
     implementation(project(":core:keys"))
 
+    testImplementation(project(":shared:tests"))
+
     ksp(libs.com.google.dagger.compiler)
     ksp(libs.com.google.dagger.android.processor)
 }
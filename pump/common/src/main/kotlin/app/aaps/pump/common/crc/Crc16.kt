@@ -0,0 +1,96 @@
+package app.aaps.pump.common.crc
+
+/**
+ * Table driven CRC-16 processing 4 bytes per step (slicing-by-4)
+ *
+ * Checksum is computed over part of array without copying it and can be continued
+ * over more chunks by passing previous result to [update].
+ * Parameters of presets are from CRC catalogue https://reveng.sourceforge.io/crc-catalogue/16.htm
+ *
+ * @param reflected register is shifted right, bytes are processed lowest bit first
+ * @param init initial register value
+ * @param table register change for every byte value
+ */
+class Crc16 private constructor(private val reflected: Boolean, val init: Int, table: IntArray) {
+
+    private val table0 = table
+    private val table1 = next(table0)
+    private val table2 = next(table1)
+    private val table3 = next(table2)
+
+    // register change for byte followed by zero byte
+    private fun next(previous: IntArray) = IntArray(256) {
+        val value = previous[it]
+        if (reflected) value ushr 8 xor table0[value and 0xff]
+        else value shl 8 and 0xffff xor table0[value ushr 8]
+    }
+
+    /**
+     * @return checksum of [length] bytes of [data] from [offset]
+     */
+    fun calculate(data: ByteArray, offset: Int = 0, length: Int = data.size - offset): Int = update(init, data, offset, length)
+
+    /**
+     * @return [crc] continued by [length] bytes of [data] from [offset]
+     */
+    fun update(crc: Int, data: ByteArray, offset: Int = 0, length: Int = data.size - offset): Int {
+        var value = crc and 0xffff
+        var position = offset
+        val end = offset + length
+        if (reflected) {
+            while (position + 4 <= end) {
+                value = value xor (data[position].toInt() and 0xff) xor (data[position + 1].toInt() and 0xff shl 8)
+                value = table3[value and 0xff] xor table2[value ushr 8] xor table1[data[position + 2].toInt() and 0xff] xor table0[data[position + 3].toInt() and 0xff]
+                position += 4
+            }
+            while (position < end) value = value ushr 8 xor table0[value xor data[position++].toInt() and 0xff]
+        } else {
+            while (position + 4 <= end) {
+                value = value xor (data[position].toInt() and 0xff shl 8) xor (data[position + 1].toInt() and 0xff)
+                value = table3[value ushr 8] xor table2[value and 0xff] xor table1[data[position + 2].toInt() and 0xff] xor table0[data[position + 3].toInt() and 0xff]
+                position += 4
+            }
+            while (position < end) value = value shl 8 and 0xffff xor table0[value ushr 8 xor data[position++].toInt() and 0xff]
+        }
+        return value
+    }
+
+    /**
+     * @return [crc] continued by [byte]
+     */
+    fun update(crc: Int, byte: Byte): Int {
+        val value = crc and 0xffff
+        return if (reflected) value ushr 8 xor table0[value xor byte.toInt() and 0xff]
+        else value shl 8 and 0xffff xor table0[value ushr 8 xor byte.toInt() and 0xff]
+    }
+
+    companion object {
+
+        private fun forwardTable(polynomial: Int) = IntArray(256) {
+            var value = it shl 8
+            repeat(8) { value = if (value and 0x8000 != 0) value shl 1 xor polynomial else value shl 1 }
+            value and 0xffff
+        }
+
+        private fun reflectedTable(reflectedPolynomial: Int) = IntArray(256) {
+            var value = it
+            repeat(8) { value = if (value and 1 != 0) value ushr 1 xor reflectedPolynomial else value ushr 1 }
+            value
+        }
+
+        /** CRC-16/XMODEM, DanaR serial messages */
+        @JvmField val XMODEM = Crc16(false, 0x0000, forwardTable(0x1021))
+
+        /** CRC-16/IBM-3740 also known as CCITT-FALSE, Medtronic history pages */
+        @JvmField val CCITT_FALSE = Crc16(false, 0xFFFF, forwardTable(0x1021))
+
+        /** CRC-16/MCRF4XX, Insight SATL and app layer */
+        @JvmField val MCRF4XX = Crc16(true, 0xFFFF, reflectedTable(0x8408))
+
+        /** CRC-16/MODBUS, Equil commands */
+        @JvmField val MODBUS = Crc16(true, 0xFFFF, reflectedTable(0xA001))
+
+        /** Omnipod Eros and Dash messages, not in catalogue: table of polynomial 0x8005 used with register shifted right */
+        @JvmField val OMNIPOD = Crc16(true, 0x0000, forwardTable(0x8005))
+    }
+}
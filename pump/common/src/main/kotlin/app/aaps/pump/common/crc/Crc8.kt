@@ -0,0 +1,57 @@
+package app.aaps.pump.common.crc
+
+/**
+ * Table driven CRC-8
+ *
+ * Checksum is computed over part of array without copying it and can be continued
+ * over more chunks by passing previous result to [update].
+ * Parameters of presets are from CRC catalogue https://reveng.sourceforge.io/crc-catalogue/1-15.htm
+ *
+ * @param init initial register value
+ * @param table register value for every register xor byte value
+ */
+class Crc8 private constructor(val init: Int, private val table: IntArray) {
+
+    /**
+     * @return checksum of [length] bytes of [data] from [offset]
+     */
+    fun calculate(data: ByteArray, offset: Int = 0, length: Int = data.size - offset): Int = update(init, data, offset, length)
+
+    /**
+     * @return [crc] continued by [length] bytes of [data] from [offset]
+     */
+    fun update(crc: Int, data: ByteArray, offset: Int = 0, length: Int = data.size - offset): Int {
+        var value = crc and 0xff
+        for (position in offset until offset + length) value = table[value xor data[position].toInt() and 0xff]
+        return value
+    }
+
+    /**
+     * @return [crc] continued by [byte]
+     */
+    fun update(crc: Int, byte: Byte): Int = table[crc xor byte.toInt() and 0xff]
+
+    companion object {
+
+        private fun forwardTable(polynomial: Int) = IntArray(256) {
+            var value = it
+            repeat(8) { value = if (value and 0x80 != 0) value shl 1 xor polynomial else value shl 1 }
+            value and 0xff
+        }
+
+        private fun reflectedTable(reflectedPolynomial: Int) = IntArray(256) {
+            var value = it
+            repeat(8) { value = if (value and 1 != 0) value ushr 1 xor reflectedPolynomial else value ushr 1 }
+            value
+        }
+
+        /** CRC-8/MAXIM-DOW, Equil BLE frames */
+        @JvmField val MAXIM = Crc8(0x00, reflectedTable(0x8C))
+
+        /** CRC-8/LTE, RileyLink radio packets and Medtrum packets */
+        @JvmField val LTE = Crc8(0x00, forwardTable(0x9B))
+
+        /** CRC-8/SMBUS, Omnipod Eros radio packets */
+        @JvmField val SMBUS = Crc8(0x00, forwardTable(0x07))
+    }
+}
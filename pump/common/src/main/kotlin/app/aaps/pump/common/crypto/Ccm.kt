@@ -0,0 +1,90 @@
+package app.aaps.pump.common.crypto
+
+import org.spongycastle.crypto.BlockCipher
+import kotlin.experimental.xor
+
+/**
+ * CCM (RFC 3610) with 13 bytes nonce, 2 bytes length field and associated data
+ *
+ * CTR encryption and MAC are separate steps, so pump protocols can place the MAC
+ * and encrypted payload without copying message parts.
+ * Cipher is initialized by caller, so key schedule is done once per key.
+ * Blocks are produced into reused buffers, instance must not be used by more threads at once.
+ *
+ * @param engine 16 bytes block cipher initialized for encryption
+ * @param b0Flags flags of the first CBC-MAC block, they define MAC size, see [b0Flags]
+ */
+class Ccm(private val engine: BlockCipher, private val b0Flags: Int) {
+
+    val macSize = ((b0Flags shr 3) and 0x07) * 2 + 2
+
+    private val block = ByteArray(BLOCK_SIZE)
+    private val keyStream = ByteArray(BLOCK_SIZE)
+    private val mac = ByteArray(BLOCK_SIZE)
+    private var macPosition = 0
+
+    /**
+     * CTR mode over [length] bytes of [input], counter starts at 1. Encryption and decryption are the same
+     */
+    fun ctr(nonce: ByteArray, input: ByteArray, length: Int, output: ByteArray) {
+        var counter = 1
+        var offset = 0
+        while (offset < length) {
+            encryptBlock(CTR_FLAGS, nonce, counter++, keyStream)
+            for (i in 0 until minOf(BLOCK_SIZE, length - offset)) output[offset + i] = input[offset + i] xor keyStream[i]
+            offset += BLOCK_SIZE
+        }
+    }
+
+    /**
+     * CBC-MAC over length prefixed [header] and plain [payload], each zero padded to block size,
+     * encrypted by counter 0 block. [macSize] bytes are written to [output] from [offset]
+     */
+    fun mac(nonce: ByteArray, header: ByteArray, payload: ByteArray, output: ByteArray, offset: Int = 0) {
+        encryptBlock(b0Flags, nonce, payload.size, mac)
+        macPosition = 0
+        absorb((header.size shr 8).toByte())
+        absorb(header.size.toByte())
+        for (b in header) absorb(b)
+        flush()
+        for (b in payload) absorb(b)
+        flush()
+        encryptBlock(CTR_FLAGS, nonce, 0, keyStream)
+        for (i in 0 until macSize) output[offset + i] = mac[i] xor keyStream[i]
+    }
+
+    private fun absorb(b: Byte) {
+        mac[macPosition] = mac[macPosition] xor b
+        if (++macPosition == BLOCK_SIZE) flush()
+    }
+
+    // process partial block as if it were zero padded
+    private fun flush() {
+        if (macPosition == 0) return
+        engine.processBlock(mac, 0, mac, 0)
+        macPosition = 0
+    }
+
+    // flags, 13 bytes nonce and 16 bit big endian number
+    private fun encryptBlock(flags: Int, nonce: ByteArray, number: Int, output: ByteArray) {
+        block[0] = flags.toByte()
+        nonce.copyInto(block, 1, 0, NONCE_SIZE)
+        block[BLOCK_SIZE - 2] = (number shr 8).toByte()
+        block[BLOCK_SIZE - 1] = number.toByte()
+        engine.processBlock(block, 0, output, 0)
+    }
+
+    companion object {
+
+        const val NONCE_SIZE = 13
+        private const val BLOCK_SIZE = 16
+
+        // 2 bytes length field
+        private const val CTR_FLAGS = 0x01
+
+        /**
+         * @return B0 flags for associated data, [macSize] bytes MAC and 2 bytes length field
+         */
+        fun b0Flags(macSize: Int): Int = 0x40 or ((macSize - 2) / 2 shl 3) or 0x01
+    }
+}
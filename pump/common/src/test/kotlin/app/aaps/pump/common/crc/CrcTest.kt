@@ -0,0 +1,130 @@
+package app.aaps.pump.common.crc
+
+import app.aaps.shared.tests.Benchmark
+import app.aaps.shared.tests.BenchmarkTest
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestReporter
+import kotlin.random.Random
+
+internal class CrcTest {
+
+    private val random = Random(5)
+    private val check = "123456789".toByteArray()
+
+    private class Preset16(val name: String, val crc: Crc16, val reference: (ByteArray, Int, Int) -> Int)
+    private class Preset8(val name: String, val crc: Crc8, val reference: (ByteArray, Int, Int) -> Int)
+
+    // bitwise implementations
+    private fun forward16(polynomial: Int, init: Int, data: ByteArray, offset: Int, length: Int): Int {
+        var crc = init
+        for (i in offset until offset + length) {
+            crc = crc xor (data[i].toInt() and 0xff shl 8)
+            repeat(8) { crc = if (crc and 0x8000 != 0) crc shl 1 xor polynomial and 0xffff else crc shl 1 and 0xffff }
+        }
+        return crc
+    }
+
+    private fun reflected(polynomial: Int, init: Int, data: ByteArray, offset: Int, length: Int): Int {
+        var crc = init
+        for (i in offset until offset + length) {
+            crc = crc xor (data[i].toInt() and 0xff)
+            repeat(8) { crc = if (crc and 1 != 0) crc ushr 1 xor polynomial else crc ushr 1 }
+        }
+        return crc
+    }
+
+    private fun forward8(polynomial: Int, data: ByteArray, offset: Int, length: Int): Int {
+        var crc = 0
+        for (i in offset until offset + length) {
+            crc = crc xor (data[i].toInt() and 0xff)
+            repeat(8) { crc = if (crc and 0x80 != 0) crc shl 1 xor polynomial and 0xff else crc shl 1 and 0xff }
+        }
+        return crc
+    }
+
+    // previous Omnipod Dash implementation with register shifted right and table of polynomial 0x8005
+    private fun omnipod(data: ByteArray, offset: Int, length: Int): Int {
+        var crc = 0
+        for (i in offset until offset + length) {
+            var value = (crc xor data[i].toInt()) and 0xff shl 8
+            repeat(8) { value = if (value and 0x8000 != 0) value shl 1 xor 0x8005 and 0xffff else value shl 1 and 0xffff }
+            crc = crc ushr 8 xor value
+        }
+        return crc
+    }
+
+    private val presets16 = listOf(
+        Preset16("XMODEM", Crc16.XMODEM) { data, offset, length -> forward16(0x1021, 0x0000, data, offset, length) },
+        Preset16("CCITT_FALSE", Crc16.CCITT_FALSE) { data, offset, length -> forward16(0x1021, 0xFFFF, data, offset, length) },
+        Preset16("MCRF4XX", Crc16.MCRF4XX) { data, offset, length -> reflected(0x8408, 0xFFFF, data, offset, length) },
+        Preset16("MODBUS", Crc16.MODBUS) { data, offset, length -> reflected(0xA001, 0xFFFF, data, offset, length) },
+        Preset16("OMNIPOD", Crc16.OMNIPOD) { data, offset, length -> omnipod(data, offset, length) }
+    )
+
+    private val presets8 = listOf(
+        Preset8("MAXIM", Crc8.MAXIM) { data, offset, length -> reflected(0x8C, 0x00, data, offset, length) },
+        Preset8("LTE", Crc8.LTE) { data, offset, length -> forward8(0x9B, data, offset, length) },
+        Preset8("SMBUS", Crc8.SMBUS) { data, offset, length -> forward8(0x07, data, offset, length) }
+    )
+
+    @Test
+    fun catalogueCheckValues() {
+        assertThat(Crc16.XMODEM.calculate(check)).isEqualTo(0x31C3)
+        assertThat(Crc16.CCITT_FALSE.calculate(check)).isEqualTo(0x29B1)
+        assertThat(Crc16.MCRF4XX.calculate(check)).isEqualTo(0x6F91)
+        assertThat(Crc16.MODBUS.calculate(check)).isEqualTo(0x4B37)
+        assertThat(Crc16.OMNIPOD.calculate(check)).isEqualTo(0x0265)
+        assertThat(Crc8.MAXIM.calculate(check)).isEqualTo(0xA1)
+        assertThat(Crc8.LTE.calculate(check)).isEqualTo(0xEA)
+        assertThat(Crc8.SMBUS.calculate(check)).isEqualTo(0xF4)
+    }
+
+    @Test
+    fun emptyDataIsInit() {
+        presets16.forEach { assertThat(it.crc.calculate(ByteArray(0))).isEqualTo(it.crc.init) }
+        presets8.forEach { assertThat(it.crc.calculate(ByteArray(0))).isEqualTo(it.crc.init) }
+    }
+
+    @Test
+    fun sameAsBitwiseInPlace() {
+        repeat(5000) {
+            val data = random.nextBytes(random.nextInt(70))
+            val offset = if (data.isEmpty()) 0 else random.nextInt(data.size)
+            val length = random.nextInt(data.size - offset + 1)
+            presets16.forEach { assertThat(it.crc.calculate(data, offset, length)).isEqualTo(it.reference(data, offset, length)) }
+            presets8.forEach { assertThat(it.crc.calculate(data, offset, length)).isEqualTo(it.reference(data, offset, length)) }
+        }
+    }
+
+    @Test
+    fun streamingUpdateIsTheSameAsWholeArray() {
+        repeat(1000) {
+            val data = random.nextBytes(random.nextInt(70))
+            val split = random.nextInt(data.size + 1)
+            presets16.forEach { preset ->
+                assertThat(preset.crc.update(preset.crc.calculate(data, 0, split), data, split)).isEqualTo(preset.crc.calculate(data))
+                assertThat(data.fold(preset.crc.init) { crc, byte -> preset.crc.update(crc, byte) }).isEqualTo(preset.crc.calculate(data))
+            }
+            presets8.forEach { preset ->
+                assertThat(preset.crc.update(preset.crc.calculate(data, 0, split), data, split)).isEqualTo(preset.crc.calculate(data))
+                assertThat(data.fold(preset.crc.init) { crc, byte -> preset.crc.update(crc, byte) }).isEqualTo(preset.crc.calculate(data))
+            }
+        }
+    }
+
+    @BenchmarkTest
+    fun throughputBenchmark(reporter: TestReporter) {
+        // Medtronic history page
+        val data = random.nextBytes(1024)
+        val benchmark = Benchmark(reporter)
+        presets16.forEach { preset ->
+            benchmark.measure("CRC-16 ${preset.name} of 1 kB, bitwise", 1, 2000) { preset.reference(data, 0, data.size) }
+            benchmark.measure("CRC-16 ${preset.name} of 1 kB, slicing-by-4", 1, 2000) { preset.crc.calculate(data, 0, data.size) }
+        }
+        presets8.forEach { preset ->
+            benchmark.measure("CRC-8 ${preset.name} of 1 kB, bitwise", 1, 2000) { preset.reference(data, 0, data.size) }
+            benchmark.measure("CRC-8 ${preset.name} of 1 kB, table", 1, 2000) { preset.crc.calculate(data, 0, data.size) }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package app.aaps.pump.common.crypto
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import org.spongycastle.crypto.BlockCipher
+import org.spongycastle.crypto.engines.AESEngine
+import org.spongycastle.crypto.engines.TwofishEngine
+import org.spongycastle.crypto.modes.CCMBlockCipher
+import org.spongycastle.crypto.params.AEADParameters
+import org.spongycastle.crypto.params.KeyParameter
+import kotlin.random.Random
+
+internal class CcmTest {
+
+    private val random = Random(7)
+
+    private fun reference(engine: BlockCipher, key: ByteArray, nonce: ByteArray, header: ByteArray, payload: ByteArray, macSize: Int): ByteArray {
+        val cipher = CCMBlockCipher(engine)
+        cipher.init(true, AEADParameters(KeyParameter(key), macSize * 8, nonce, header))
+        val output = ByteArray(cipher.getOutputSize(payload.size))
+        val length = cipher.processBytes(payload, 0, payload.size, output, 0)
+        cipher.doFinal(output, length)
+        return output
+    }
+
+    private fun assertSameAsReference(engine: () -> BlockCipher) {
+        for (macSize in 4..16 step 2) {
+            val key = random.nextBytes(16)
+            val ccm = Ccm(engine().also { it.init(true, KeyParameter(key)) }, Ccm.b0Flags(macSize))
+            assertThat(ccm.macSize).isEqualTo(macSize)
+            repeat(20) {
+                val nonce = random.nextBytes(Ccm.NONCE_SIZE)
+                val header = random.nextBytes(random.nextInt(1, 40))
+                val payload = random.nextBytes(random.nextInt(0, 70))
+                val output = ByteArray(payload.size + macSize)
+                ccm.ctr(nonce, payload, payload.size, output)
+                ccm.mac(nonce, header, payload, output, payload.size)
+                assertThat(output).isEqualTo(reference(engine(), key, nonce, header, payload, macSize))
+
+                val decrypted = ByteArray(payload.size)
+                ccm.ctr(nonce, output, payload.size, decrypted)
+                assertThat(decrypted).isEqualTo(payload)
+            }
+        }
+    }
+
+    @Test
+    fun b0Flags() {
+        // associated data, 8 bytes MAC, 2 bytes length used by SATL and Omnipod Dash
+        assertThat(Ccm.b0Flags(8)).isEqualTo(0x59)
+    }
+
+    @Test
+    fun aesSameAsReference() {
+        assertSameAsReference { AESEngine() }
+    }
+
+    @Test
+    fun twofishSameAsReference() {
+        assertSameAsReference { TwofishEngine() }
+    }
+}
@@ -20,6 +20,7 @@ dependencies {
     implementation(project(":core:ui"))
     implementation(project(":core:validators"))
     implementation(project(":pump:dana"))
+    implementation(project(":pump:common"))
 
     api(libs.androidx.media3.common)
 
@@ -10,4 +10,11 @@ class CRCTest {
         val data = byteArrayOf(1, 2, 3, 4, 5, 6, 7, 8, 9, 0)
         Assertions.assertEquals(27649.toShort(), CRC.getCrc16(data, 0, 10))
     }
+
+    @Test
+    fun getCrc16CheckValueTest() {
+        // CRC-16/XMODEM check value, computed in place
+        val data = "xx123456789xx".toByteArray()
+        Assertions.assertEquals(0x31C3.toShort(), CRC.getCrc16(data, 2, 9))
+    }
 }
\ No newline at end of file
@@ -12,262 +12,187 @@ class BleEncryption @Inject constructor() {
     val password = UByteArray(2)
     val timeInfo = UByteArray(6)
     var pairingKey: UByteArray? = null
+        private set
     var randomPairingKey: UByteArray? = null
+        private set
     var ble5PairingKey: UByteArray? = null
+        private set
     var encryptionBle5Key = UByteArray(3)
     var randomSyncKey: UByte = 0x00u
     var connectionState = 0
     var securityVersion: EncryptionType = EncryptionType.ENCRYPTION_DEFAULT
 
-    fun getEncryptedPacket(opcode: Int, bytes: ByteArray?, deviceName: String?): ByteArray {
-        assert(deviceName == null || deviceName.length == 10)
-        setDeviceName(deviceName)
+    // Second level encryption of a byte with key dependent steps precomputed when keys are set.
+    // RSv3 is: outer[inner[(byte xor pairingKey[0]) - randomSyncKey] xor randomSyncKey]
+    private val rsV3Inner = IntArray(256)
+    private val rsV3Outer = IntArray(256)
+    private val rsV3InnerInverse = IntArray(256)
+    private val rsV3OuterInverse = IntArray(256)
+    private val ble5 = IntArray(256)
+    private val ble5Inverse = IntArray(256)
+
+    init {
+        computeBle5Tables()
+    }
 
-        when (opcode) {
-            DANAR_PACKET__OPCODE_ENCRYPTION__PUMP_CHECK          -> {
-                connectionState = 0
-                val size = 9 + 10
-                val array = UByteArray(size)
-
-                array[DANAR_PACKET__START_POS] = DANAR_PACKET__START_PACKET
-                array[DANAR_PACKET__START_POS + 1] = DANAR_PACKET__START_PACKET
-                array[DANAR_PACKET__LENGTH_POS] = (size - 7).toUByte()
-                array[DANAR_PACKET__TYPE_POS] = DANAR_PACKET__TYPE_ENCRYPTION_REQUEST
-                @Suppress("KotlinConstantConditions")
-                array[4] = opcode.toUByte()
-
-                for (i in 0..<10) array[5 + i] = this.deviceName[i]
-
-                val checkSum = generateCrc(array.from(3, size - 7))
-                array[size - 4] = (checkSum shr 8).toUByte()
-                array[size - 3] = checkSum.toUByte()
-                array[size - 2] = DANAR_PACKET__END_PACKET
-                array[size - 1] = DANAR_PACKET__END_PACKET
-
-                encodeArrayBySn(array)
-                return array.toByteArray()
-            }
+    /**
+     * @return size of packet produced by [encryptPacket] for [opcode] and parameters of [paramsLength]
+     */
+    fun packetSize(opcode: Int, paramsLength: Int): Int = 9 + when (opcode) {
+        DANAR_PACKET__OPCODE_ENCRYPTION__PUMP_CHECK          -> 10
 
-            DANAR_PACKET__OPCODE_ENCRYPTION__CHECK_PASSKEY       -> {
-                connectionState = 0
-                val size = 9 + (bytes?.size ?: 0)
-                val array = UByteArray(size)
-
-                array[DANAR_PACKET__START_POS] = DANAR_PACKET__START_PACKET
-                array[DANAR_PACKET__START_POS + 1] = DANAR_PACKET__START_PACKET
-                array[DANAR_PACKET__LENGTH_POS] = (size - 7).toUByte()
-                array[DANAR_PACKET__TYPE_POS] = DANAR_PACKET__TYPE_ENCRYPTION_REQUEST
-                array[DANAR_PACKET__OPCODE_POS] = opcode.toUByte()
-
-                bytes?.let { bytes ->
-                    for (i in 0..<bytes.size) {
-                        passKey[0 + i] = encodeByteBySn(bytes[i].toUByte())
-                        array[5 + i] = passKey[0 + i]
-                    }
-                }
+        DANAR_PACKET__OPCODE_ENCRYPTION__PASSKEY_REQUEST,
+        DANAR_PACKET__OPCODE_ENCRYPTION__GET_PUMP_CHECK,
+        DANAR_PACKET__OPCODE_ENCRYPTION__GET_EASY_MENU_CHECK -> 0
 
-                val checkSum = generateCrc(array.from(3, size - 7))
-                array[size - 4] = (checkSum shr 8).toUByte()
-                array[size - 3] = checkSum.toUByte()
-                array[size - 2] = DANAR_PACKET__END_PACKET
-                array[size - 1] = DANAR_PACKET__END_PACKET
+        else                                                 -> paramsLength
+    }
 
-                encodeArrayBySn(array)
-                return array.toByteArray()
-            }
+    fun getEncryptedPacket(opcode: Int, bytes: ByteArray?, deviceName: String?, secondLevel: Boolean = false): ByteArray {
+        assert(deviceName == null || deviceName.length == 10)
+        setDeviceName(deviceName)
+        val length = bytes?.size ?: 0
+        val packet = ByteArray(packetSize(opcode, length))
+        encryptPacket(opcode, bytes, 0, length, packet, 0, secondLevel)
+        return packet
+    }
 
-            DANAR_PACKET__OPCODE_ENCRYPTION__PASSKEY_REQUEST     -> {
+    /**
+     * Build packet into [output] in one pass: checksum is computed while parameters are copied,
+     * first level encoding is applied to every byte as it's written and when [secondLevel] is set
+     * (RSv3, BLE5) second level encryption follows on the same byte.
+     *
+     * @return size of written packet
+     */
+    fun encryptPacket(opcode: Int, params: ByteArray?, offset: Int, length: Int, output: ByteArray, outputOffset: Int = 0, secondLevel: Boolean = false): Int {
+        val type = when (opcode) {
+            DANAR_PACKET__OPCODE_ENCRYPTION__PUMP_CHECK,
+            DANAR_PACKET__OPCODE_ENCRYPTION__CHECK_PASSKEY,
+            DANAR_PACKET__OPCODE_ENCRYPTION__PASSKEY_REQUEST,
+            DANAR_PACKET__OPCODE_ENCRYPTION__GET_PUMP_CHECK,
+            DANAR_PACKET__OPCODE_ENCRYPTION__GET_EASY_MENU_CHECK -> {
                 connectionState = 0
-                val size = 9
-                val array = UByteArray(size)
-
-                array[DANAR_PACKET__START_POS] = DANAR_PACKET__START_PACKET
-                array[DANAR_PACKET__START_POS + 1] = DANAR_PACKET__START_PACKET
-                array[DANAR_PACKET__LENGTH_POS] = (size - 7).toUByte()
-                array[DANAR_PACKET__TYPE_POS] = DANAR_PACKET__TYPE_ENCRYPTION_REQUEST
-                array[DANAR_PACKET__OPCODE_POS] = opcode.toUByte()
-
-                val checkSum = generateCrc(array.from(3, size - 7))
-                array[size - 4] = (checkSum shr 8).toUByte()
-                array[size - 3] = checkSum.toUByte()
-                array[size - 2] = DANAR_PACKET__END_PACKET
-                array[size - 1] = DANAR_PACKET__END_PACKET
-
-                encodeArrayBySn(array)
-                return array.toByteArray()
+                DANAR_PACKET__TYPE_ENCRYPTION_REQUEST
             }
 
             DANAR_PACKET__OPCODE_ENCRYPTION__TIME_INFORMATION    -> {
                 connectionState = 1
-
-                val byteArray = bytes?.toUByteArray()
-                if (securityVersion == EncryptionType.ENCRYPTION_BLE5) {
-                    // hide used ID little bit
-                    byteArray?.let { byteArray ->
-                        byteArray[1] = BLE_UNIQUE_APP_ID1 xor 0x1au
-                        byteArray[2] = BLE_UNIQUE_APP_ID2 xor 0xc0u
-                        byteArray[3] = BLE_UNIQUE_APP_ID3 xor 0xa9u
-                        byteArray[1] = byteArray[1] xor 0x1au
-                        byteArray[2] = byteArray[2] xor 0xc0u
-                        byteArray[3] = byteArray[3] xor 0xa9u
-                    }
-                }
-
-                val size = 9 + (bytes?.size ?: 0)
-                val array = UByteArray(size)
-
-                array[DANAR_PACKET__START_POS] = DANAR_PACKET__START_PACKET
-                array[DANAR_PACKET__START_POS + 1] = DANAR_PACKET__START_PACKET
-                array[DANAR_PACKET__LENGTH_POS] = (size - 7).toUByte()
-                array[DANAR_PACKET__TYPE_POS] = DANAR_PACKET__TYPE_ENCRYPTION_REQUEST
-                array[DANAR_PACKET__OPCODE_POS] = opcode.toUByte()
-
-                bytes?.let { bytes -> for (i in 0..<bytes.size) array[5 + i] = byteArray!![i] }
-
-                val checkSum = generateCrc(array.from(3, size - 7))
-                array[size - 4] = (checkSum shr 8).toUByte()
-                array[size - 3] = checkSum.toUByte()
-                array[size - 2] = DANAR_PACKET__END_PACKET
-                array[size - 1] = DANAR_PACKET__END_PACKET
-
-                encodeArrayBySn(array)
-                return array.toByteArray()
+                DANAR_PACKET__TYPE_ENCRYPTION_REQUEST
             }
 
-            DANAR_PACKET__OPCODE_ENCRYPTION__GET_PUMP_CHECK      -> {
-                connectionState = 0
-
-                val size = 9
-                val array = UByteArray(size)
+            else                                                 -> DANAR_PACKET__TYPE_COMMAND
+        }.toInt()
+        val size = packetSize(opcode, if (params == null) 0 else length)
+        val mask = firstLevelMask(type == DANAR_PACKET__TYPE_COMMAND.toInt() && securityVersion == EncryptionType.ENCRYPTION_DEFAULT)
+        val encryption = if (secondLevel) securityVersion else EncryptionType.ENCRYPTION_DEFAULT
+        val start = if (opcode == DANAR_PACKET__OPCODE_ENCRYPTION__GET_EASY_MENU_CHECK) 0 else DANAR_PACKET__START_PACKET.toInt()
+        if (encryption == EncryptionType.ENCRYPTION_RSv3) {
+            checkNotNull(pairingKey) { "pairingKey is null" }
+            checkNotNull(randomPairingKey) { "randomPairingKey is null" }
+        }
 
-                array[DANAR_PACKET__START_POS] = DANAR_PACKET__START_PACKET
-                array[DANAR_PACKET__START_POS + 1] = DANAR_PACKET__START_PACKET
-                array[DANAR_PACKET__LENGTH_POS] = (size - 7).toUByte()
-                array[DANAR_PACKET__TYPE_POS] = DANAR_PACKET__TYPE_ENCRYPTION_REQUEST
-                array[DANAR_PACKET__OPCODE_POS] = opcode.toUByte()
+        var crc = 0
+        for (position in 0 until size) {
+            var value = when (position) {
+                0, 1     -> start
+                2        -> size - 7
+                3        -> type
+                4        -> opcode
+                size - 4 -> crc ushr 8
+                size - 3 -> crc
+                size - 2,
+                size - 1 -> DANAR_PACKET__END_PACKET.toInt()
+                else     -> parameter(opcode, params, offset, position - DANAR_PACKET__PARAMETERS_POS)
+            } and 0xff
+            if (position >= DANAR_PACKET__TYPE_POS && position < size - 4) crc = updateCrc(crc, value)
+            if (position >= DANAR_PACKET__TYPE_POS && position < size - 2) value = value xor mask.maskByte(position)
+            output[outputOffset + position] = encryptSecondLevelByte(encryption, secondLevelMarker(encryption, value, position, size)).toByte()
+        }
+        return size
+    }
 
-                val checkSum = generateCrc(array.from(3, size - 7))
-                array[size - 4] = (checkSum shr 8).toUByte()
-                array[size - 3] = checkSum.toUByte()
-                array[size - 2] = DANAR_PACKET__END_PACKET
-                array[size - 1] = DANAR_PACKET__END_PACKET
+    private fun parameter(opcode: Int, params: ByteArray?, offset: Int, index: Int): Int =
+        when (opcode) {
+            DANAR_PACKET__OPCODE_ENCRYPTION__PUMP_CHECK       -> deviceName[index].toInt()
 
-                encodeArrayBySn(array)
-                return array.toByteArray()
+            DANAR_PACKET__OPCODE_ENCRYPTION__CHECK_PASSKEY    -> {
+                passKey[index] = encodeByteBySn(params!![offset + index].toUByte())
+                passKey[index].toInt()
             }
 
-            DANAR_PACKET__OPCODE_ENCRYPTION__GET_EASY_MENU_CHECK -> {
-                connectionState = 0
-
-                val size = 9
-                val array = UByteArray(size)
-
-                array[DANAR_PACKET__LENGTH_POS] = (size - 7).toUByte()
-                array[DANAR_PACKET__TYPE_POS] = DANAR_PACKET__TYPE_ENCRYPTION_REQUEST
-                array[DANAR_PACKET__OPCODE_POS] = opcode.toUByte()
-
-                val checkSum = generateCrc(array.from(3, size - 7))
-                array[size - 4] = (checkSum shr 8).toUByte()
-                array[size - 3] = checkSum.toUByte()
-                array[size - 2] = DANAR_PACKET__END_PACKET
-                array[size - 1] = DANAR_PACKET__END_PACKET
+            DANAR_PACKET__OPCODE_ENCRYPTION__TIME_INFORMATION ->
+                // hide used ID little bit
+                if (securityVersion == EncryptionType.ENCRYPTION_BLE5 && index == 1) BLE_UNIQUE_APP_ID1.toInt()
+                else if (securityVersion == EncryptionType.ENCRYPTION_BLE5 && index == 2) BLE_UNIQUE_APP_ID2.toInt()
+                else if (securityVersion == EncryptionType.ENCRYPTION_BLE5 && index == 3) BLE_UNIQUE_APP_ID3.toInt()
+                else params!![offset + index].toInt()
 
-                encodeArrayBySn(array)
-                return array.toByteArray()
-            }
-
-            else                                                 -> {
-                val size = 9 + (bytes?.size ?: 0)
-                val array = UByteArray(size)
-
-                array[DANAR_PACKET__START_POS] = DANAR_PACKET__START_PACKET
-                array[DANAR_PACKET__START_POS + 1] = DANAR_PACKET__START_PACKET
-                array[DANAR_PACKET__LENGTH_POS] = (size - 7).toUByte()
-                array[DANAR_PACKET__TYPE_POS] = DANAR_PACKET__TYPE_COMMAND
-                array[DANAR_PACKET__OPCODE_POS] = opcode.toUByte()
-
-                bytes?.let { bytes -> for (i in 0..<bytes.size) array[5 + i] = bytes[i].toUByte() }
-
-                val checkSum = generateCrc(array.from(3, size - 7))
-                array[size - 4] = (checkSum shr 8).toUByte()
-                array[size - 3] = checkSum.toUByte()
-                array[size - 2] = DANAR_PACKET__END_PACKET
-                array[size - 1] = DANAR_PACKET__END_PACKET
-
-                encodeArrayBySn(array)
-                if (securityVersion == EncryptionType.ENCRYPTION_DEFAULT) {
-                    encodeArrayByTime(array, timeInfo)
-                    encodeArrayByPassword(array, password)
-                    encodeArrayByCfPassKey(array)
-                }
-                return array.toByteArray()
-            }
+            else                                              -> params!![offset + index].toInt()
         }
-    }
 
-    fun getDecryptedPacket(bytes: ByteArray): ByteArray? {
-        val array = bytes.toUByteArray()
-        val size = array.size
+    fun getDecryptedPacket(bytes: ByteArray, offset: Int = 0, length: Int = bytes.size - offset): ByteArray? {
+        if (length < 7) return null
+        val output = ByteArray(length - 7)
+        return if (decryptPacket(bytes, offset, length, output) < 0) null else output
+    }
 
-        encodeArrayBySn(array)
-        if (connectionState == 2 && securityVersion == EncryptionType.ENCRYPTION_DEFAULT) {
-            encodeArrayByTime(array, timeInfo)
-            encodeArrayByPassword(array, password)
-            encodeArrayByCfPassKey(array)
+    /**
+     * Decode packet of [length] bytes from [offset] of [input] and write its content
+     * between packet length and checksum to [output]. [input] is not modified.
+     *
+     * @return size of content or -1 if packet is not valid
+     */
+    fun decryptPacket(input: ByteArray, offset: Int, length: Int, output: ByteArray, outputOffset: Int = 0): Int {
+        if (length < 7 || input[offset + DANAR_PACKET__LENGTH_POS] != (length - 7).toByte()) return -1
+        val mask = firstLevelMask(connectionState == 2 && securityVersion == EncryptionType.ENCRYPTION_DEFAULT)
+
+        var crc = 0
+        for (position in DANAR_PACKET__TYPE_POS until length - 4) {
+            val value = (input[offset + position].toInt() xor mask.maskByte(position)) and 0xff
+            crc = updateCrc(crc, value)
+            output[outputOffset + position - DANAR_PACKET__TYPE_POS] = value.toByte()
         }
-
-        if (array[DANAR_PACKET__LENGTH_POS] != (size - 7).toUByte())
-            return null
-
-        val checkSum = generateCrc(array.from(3, size - 7))
-        val checkSum1 = (checkSum shr 8).toUByte()
-        val checkSum2 = checkSum.toUByte()
-        if (checkSum1 != array[size - 4] || checkSum2 != array[size - 3])
-            return null
-
-        val arr = UByteArray(size - 7)
-        for (i in 0..<size - 7) arr[i] = array[i + 3]
-        if (arr[0] == DANAR_PACKET__TYPE_ENCRYPTION_RESPONSE &&
-            arr[1] == DANAR_PACKET__OPCODE_ENCRYPTION__CHECK_PASSKEY.toUByte() &&
-            arr[2] == 0x00.toUByte()
-        ) {
+        if ((input[offset + length - 4].toInt() xor mask.maskByte(length - 4)) and 0xff != crc ushr 8 ||
+            (input[offset + length - 3].toInt() xor mask.maskByte(length - 3)) and 0xff != crc and 0xff
+        ) return -1
+
+        val size = length - 7
+        if (output[outputOffset] != DANAR_PACKET__TYPE_ENCRYPTION_RESPONSE.toByte()) return size
+        val opcode = output[outputOffset + 1].toInt() and 0xff
+        if (opcode == DANAR_PACKET__OPCODE_ENCRYPTION__CHECK_PASSKEY && output[outputOffset + 2] == 0x00.toByte()) {
             cfPassKey[0] = passKey[0]
             cfPassKey[1] = passKey[1]
         }
-        if (arr[0] == DANAR_PACKET__TYPE_ENCRYPTION_RESPONSE &&
-            arr[1] == DANAR_PACKET__OPCODE_ENCRYPTION__PASSKEY_RETURN.toUByte()
-        ) {
-            passKey[0] = arr[2]
-            passKey[1] = arr[3]
+        if (opcode == DANAR_PACKET__OPCODE_ENCRYPTION__PASSKEY_RETURN) {
+            passKey[0] = output[outputOffset + 2].toUByte()
+            passKey[1] = output[outputOffset + 3].toUByte()
             cfPassKey[0] = passKey[0]
             cfPassKey[1] = passKey[1]
-            arr[2] = encodeByteBySn(arr[2])
-            arr[3] = encodeByteBySn(arr[3])
+            output[outputOffset + 2] = encodeByteBySn(passKey[0]).toByte()
+            output[outputOffset + 3] = encodeByteBySn(passKey[1]).toByte()
         }
-
-        if (arr[0] == DANAR_PACKET__TYPE_ENCRYPTION_RESPONSE &&
-            arr[1] == DANAR_PACKET__OPCODE_ENCRYPTION__TIME_INFORMATION.toUByte()
-        ) {
+        if (opcode == DANAR_PACKET__OPCODE_ENCRYPTION__TIME_INFORMATION) {
             when (securityVersion) {
                 EncryptionType.ENCRYPTION_RSv3 -> connectionState = if (pairingKey == null && randomPairingKey == null) 1 else 2
                 EncryptionType.ENCRYPTION_BLE5 -> connectionState = if (ble5PairingKey == null) 1 else 2
 
                 else                           -> {
-                    if (size - 7 != 10) return null
+                    if (size != 10) return -1
                     connectionState = 2
-                    for (i in 0..5) timeInfo[i] = arr[2 + i]
-                    for (i in 0..1) password[i] = arr[8 + i]
+                    for (i in 0..5) timeInfo[i] = output[outputOffset + 2 + i].toUByte()
+                    for (i in 0..1) password[i] = output[outputOffset + 8 + i].toUByte()
                     password[0] = password[0] xor 0x87u
                     password[1] = password[1] xor 0x0Du
                 }
             }
         }
-        return arr.toByteArray()
+        return size
     }
 
     fun setPairingKeys(pairingKeyParam: ByteArray, randomPairingKeyParam: ByteArray, randomSyncKeyParam: Byte) {
         pairingKey = pairingKeyParam.toUByteArray()
         randomPairingKey = randomPairingKeyParam.toUByteArray()
+        computeRsV3Tables(pairingKeyParam, randomPairingKeyParam)
         if (randomSyncKeyParam == 0.toByte()) {
             initialRandomSyncKey()
         } else {
@@ -297,7 +222,42 @@ class BleEncryption @Inject constructor() {
             encryptionBle5Key[1] = bleEncryptionMatrix[((ble5PairingKey[2] - 0x30u) * 10u + (ble5PairingKey[3] - 0x30u)).toInt()]
             encryptionBle5Key[2] = bleEncryptionMatrix[((ble5PairingKey[4] - 0x30u) * 10u + (ble5PairingKey[5] - 0x30u)).toInt()]
         }
+        computeBle5Tables()
+    }
 
+    private fun computeRsV3Tables(pairingKey: ByteArray, randomPairingKey: ByteArray) {
+        val key = IntArray(6) { pairingKey[it].toInt() and 0xff }
+        val matrix = IntArray(6) { encryptionMatrix[key[it]].toInt() }
+        val randomMatrix = IntArray(3) { encryptionMatrix[randomPairingKey[it].toInt() and 0xff].toInt() }
+        for (byte in 0..255) {
+            var value = byte.switchLoHi()
+            value = (value + key[1]) and 0xff xor key[2]
+            value = value.switchLoHi()
+            value = (value - key[3]) and 0xff xor key[4]
+            value = value.switchLoHi() xor key[5]
+            rsV3Inner[byte] = value
+
+            value = byte xor matrix[0]
+            value = (value + matrix[1] - matrix[2]) and 0xff
+            value = value.switchLoHi() xor matrix[3]
+            value = (value + matrix[4] - matrix[5]) and 0xff
+            value = value.switchLoHi() xor randomMatrix[0]
+            value = (value + randomMatrix[1] - randomMatrix[2]) and 0xff
+            rsV3Outer[byte] = value
+        }
+        for (byte in 0..255) {
+            rsV3InnerInverse[rsV3Inner[byte]] = byte
+            rsV3OuterInverse[rsV3Outer[byte]] = byte
+        }
+    }
+
+    private fun computeBle5Tables() {
+        val key = IntArray(3) { encryptionBle5Key[it].toInt() }
+        for (byte in 0..255) {
+            val value = (((byte + key[0]) and 0xff).switchLoHi() - key[1]) and 0xff xor key[2]
+            ble5[byte] = value
+            ble5Inverse[value] = byte
+        }
     }
 
     fun setEnhancedEncryption(securityVersion: EncryptionType) {
@@ -323,126 +283,85 @@ class BleEncryption @Inject constructor() {
         0x8cu, 0xa1u, 0x89u, 0x0du, 0xbfu, 0xe6u, 0x42u, 0x68u, 0x41u, 0x99u, 0x2du, 0x0fu, 0xb0u, 0x54u, 0xbbu, 0x16u
     )
 
-    fun encryptSecondLevelPacket(bytes: ByteArray): ByteArray {
-        val array = bytes.toUByteArray()
-        val size = array.size
-
+    fun encryptSecondLevelPacket(bytes: ByteArray): ByteArray = bytes.copyOf().also { encryptSecondLevel(it, 0, it.size) }
 
+    /**
+     * Second level encryption of [length] bytes from [offset] in place
+     */
+    fun encryptSecondLevel(data: ByteArray, offset: Int, length: Int) {
         if (securityVersion == EncryptionType.ENCRYPTION_RSv3) {
-            if (array[DANAR_PACKET__START_POS] == DANAR_PACKET__START_PACKET && array[DANAR_PACKET__START_POS + 1] == DANAR_PACKET__START_PACKET) {
-                array[DANAR_PACKET__START_POS] = DANAR_PACKET__ENCRYPTION_START
-                array[DANAR_PACKET__START_POS + 1] = DANAR_PACKET__ENCRYPTION_START
-            }
-
-            if (array[size - 2] == DANAR_PACKET__END_PACKET && array[size - 1] == DANAR_PACKET__END_PACKET) {
-                array[size - 2] = DANAR_PACKET__ENCRYPTION_END
-                array[size - 1] = DANAR_PACKET__ENCRYPTION_END
-            }
-            for (i in 0..<size) {
-                pairingKey?.let { pairingKey ->
-                    randomPairingKey?.let { randomPairingKey ->
-                        array[i] = array[i] xor pairingKey[0]
-                        array[i] = array[i].minusUByte(randomSyncKey)
-                        array[i] = array[i].switchLoHi()
-                        array[i] = array[i].plusUByte(pairingKey[1])
-                        array[i] = array[i] xor pairingKey[2]
-                        array[i] = array[i].switchLoHi()
-                        array[i] = array[i].minusUByte(pairingKey[3])
-                        array[i] = array[i] xor pairingKey[4]
-                        array[i] = array[i].switchLoHi()
-                        array[i] = array[i] xor pairingKey[5]
-                        array[i] = array[i] xor randomSyncKey
-                        array[i] = array[i] xor encryptionMatrix[pairingKey[0]]
-                        array[i] = array[i].plusUByte(encryptionMatrix[pairingKey[1]])
-                        array[i] = array[i].minusUByte(encryptionMatrix[pairingKey[2]])
-                        array[i] = array[i].switchLoHi()
-                        array[i] = array[i] xor encryptionMatrix[pairingKey[3]]
-                        array[i] = array[i].plusUByte(encryptionMatrix[pairingKey[4]])
-                        array[i] = array[i].minusUByte(encryptionMatrix[pairingKey[5]])
-                        array[i] = array[i].switchLoHi()
-                        array[i] = array[i] xor encryptionMatrix[randomPairingKey[0]]
-                        array[i] = array[i].plusUByte(encryptionMatrix[randomPairingKey[1]])
-                        array[i] = array[i].minusUByte(encryptionMatrix[randomPairingKey[2]])
-                        randomSyncKey = array[i]
-                    } ?: error("randomPairingKey is null")
-                } ?: error("pairingKey is null")
-            }
-        } else if (securityVersion == EncryptionType.ENCRYPTION_BLE5) {
-            if (array[DANAR_PACKET__START_POS] == DANAR_PACKET__START_PACKET && array[DANAR_PACKET__START_POS + 1] == DANAR_PACKET__START_PACKET) {
-                array[DANAR_PACKET__START_POS] = DANAI_PACKET__ENCRYPTION_START
-                array[DANAR_PACKET__START_POS + 1] = DANAI_PACKET__ENCRYPTION_START
-            }
-
-            if (array[size - 2] == DANAR_PACKET__END_PACKET && array[size - 1] == DANAR_PACKET__END_PACKET) {
-                array[size - 2] = DANAI_PACKET__ENCRYPTION_END
-                array[size - 1] = DANAI_PACKET__ENCRYPTION_END
-            }
-            for (i in 0..<size) {
-                array[i] = array[i].plusUByte(encryptionBle5Key[0] and 0xffu)
-                array[i] = array[i].switchLoHi()
-                array[i] = array[i].minusUByte(encryptionBle5Key[1] and 0xffu)
-                array[i] = array[i] xor (encryptionBle5Key[2] and 0xffu)
-            }
+            checkNotNull(pairingKey) { "pairingKey is null" }
+            checkNotNull(randomPairingKey) { "randomPairingKey is null" }
+        }
+        if (securityVersion == EncryptionType.ENCRYPTION_DEFAULT || length < 2) return
+        val startMarked = data[offset] == DANAR_PACKET__START_PACKET.toByte() && data[offset + 1] == DANAR_PACKET__START_PACKET.toByte()
+        val endMarked = data[offset + length - 2] == DANAR_PACKET__END_PACKET.toByte() && data[offset + length - 1] == DANAR_PACKET__END_PACKET.toByte()
+        for (position in 0 until length) {
+            var value = data[offset + position].toInt() and 0xff
+            if (startMarked && position < 2 || endMarked && position >= length - 2) value = secondLevelMarker(securityVersion, value, position, length)
+            data[offset + position] = encryptSecondLevelByte(securityVersion, value).toByte()
         }
-        return array.toByteArray()
     }
 
-    fun decryptSecondLevelPacket(bytes: ByteArray): ByteArray {
-        val size = bytes.size
-        val array = bytes.toUByteArray()
-        if (size > 0) {
-            for (i in 0..<size) {
-                if (securityVersion == EncryptionType.ENCRYPTION_RSv3) {
-                    val tempData = array[i]
-                    randomPairingKey?.let { randomPairingKey ->
-                        pairingKey?.let { pairingKey ->
-                            array[i] = array[i].plusUByte(encryptionMatrix[randomPairingKey[2]])
-                            array[i] = array[i].minusUByte(encryptionMatrix[randomPairingKey[1]])
-                            array[i] = array[i] xor encryptionMatrix[randomPairingKey[0]]
-                            array[i] = array[i].switchLoHi()
-                            array[i] = array[i].plusUByte(encryptionMatrix[pairingKey[5]])
-                            array[i] = array[i].minusUByte(encryptionMatrix[pairingKey[4]])
-                            array[i] = array[i] xor encryptionMatrix[pairingKey[3]]
-                            array[i] = array[i].switchLoHi()
-                            array[i] = array[i].plusUByte(encryptionMatrix[pairingKey[2]])
-                            array[i] = array[i].minusUByte(encryptionMatrix[pairingKey[1]])
-                            array[i] = array[i] xor encryptionMatrix[pairingKey[0]]
-                            array[i] = array[i] xor randomSyncKey
-                            array[i] = array[i] xor pairingKey[5]
-                            array[i] = array[i].switchLoHi()
-                            array[i] = array[i] xor pairingKey[4]
-                            array[i] = array[i].plusUByte(pairingKey[3])
-                            array[i] = array[i].switchLoHi()
-                            array[i] = array[i] xor pairingKey[2]
-                            array[i] = array[i].minusUByte(pairingKey[1])
-                            array[i] = array[i].switchLoHi()
-                            array[i] = array[i].plusUByte(randomSyncKey)
-                            array[i] = array[i] xor pairingKey[0]
-                            randomSyncKey = tempData
-                        } ?: error("pairingKey is null")
-                    } ?: error("randomPairingKey is null")
-                } else if (securityVersion == EncryptionType.ENCRYPTION_BLE5) {
-                    array[i] = array[i] xor encryptionBle5Key[2]
-                    array[i] = array[i].plusUByte(encryptionBle5Key[1])
-                    array[i] = array[i].switchLoHi()
-                    array[i] = array[i].minusUByte(encryptionBle5Key[0])
+    fun decryptSecondLevelPacket(bytes: ByteArray): ByteArray = bytes.copyOf().also { decryptSecondLevel(it, 0, it.size) }
+
+    /**
+     * Second level decryption of [length] bytes from [offset] in place
+     */
+    fun decryptSecondLevel(data: ByteArray, offset: Int, length: Int) {
+        if (length == 0) return
+        when (securityVersion) {
+            EncryptionType.ENCRYPTION_RSv3 -> {
+                checkNotNull(randomPairingKey) { "randomPairingKey is null" }
+                val pairingKey0 = checkNotNull(pairingKey) { "pairingKey is null" }[0].toInt()
+                var syncKey = randomSyncKey.toInt()
+                for (position in offset until offset + length) {
+                    val value = data[position].toInt() and 0xff
+                    data[position] = ((rsV3InnerInverse[rsV3OuterInverse[value] xor syncKey] + syncKey) and 0xff xor pairingKey0).toByte()
+                    syncKey = value
                 }
-            }
-            if (securityVersion == EncryptionType.ENCRYPTION_RSv3) {
-                if (array[DANAR_PACKET__START_POS] == DANAR_PACKET__ENCRYPTION_START && array[DANAR_PACKET__START_POS + 1] == DANAR_PACKET__ENCRYPTION_START) {
-                    array[DANAR_PACKET__START_POS] = DANAR_PACKET__START_PACKET
-                    array[DANAR_PACKET__START_POS + 1] = DANAR_PACKET__START_PACKET
+                randomSyncKey = syncKey.toUByte()
+                if (length < 2) return
+                if (data[offset] == DANAR_PACKET__ENCRYPTION_START.toByte() && data[offset + 1] == DANAR_PACKET__ENCRYPTION_START.toByte()) {
+                    data[offset] = DANAR_PACKET__START_PACKET.toByte()
+                    data[offset + 1] = DANAR_PACKET__START_PACKET.toByte()
                 }
-
-                if (array[size - 2] == DANAR_PACKET__ENCRYPTION_END && array[size - 1] == DANAR_PACKET__ENCRYPTION_END) {
-                    array[size - 2] = DANAR_PACKET__END_PACKET
-                    array[size - 1] = DANAR_PACKET__END_PACKET
+                if (data[offset + length - 2] == DANAR_PACKET__ENCRYPTION_END.toByte() && data[offset + length - 1] == DANAR_PACKET__ENCRYPTION_END.toByte()) {
+                    data[offset + length - 2] = DANAR_PACKET__END_PACKET.toByte()
+                    data[offset + length - 1] = DANAR_PACKET__END_PACKET.toByte()
                 }
             }
+
+            EncryptionType.ENCRYPTION_BLE5 ->
+                for (position in offset until offset + length) data[position] = ble5Inverse[data[position].toInt() and 0xff].toByte()
+
+            else                           -> Unit
         }
-        return array.toByteArray()
     }
 
+    // start and end of packet are replaced before second level encryption
+    private fun secondLevelMarker(encryption: EncryptionType, value: Int, position: Int, size: Int): Int =
+        when {
+            encryption == EncryptionType.ENCRYPTION_RSv3 && position < 2 && value == DANAR_PACKET__START_PACKET.toInt()       -> DANAR_PACKET__ENCRYPTION_START.toInt()
+            encryption == EncryptionType.ENCRYPTION_RSv3 && position >= size - 2 && value == DANAR_PACKET__END_PACKET.toInt() -> DANAR_PACKET__ENCRYPTION_END.toInt()
+            encryption == EncryptionType.ENCRYPTION_BLE5 && position < 2 && value == DANAR_PACKET__START_PACKET.toInt()       -> DANAI_PACKET__ENCRYPTION_START.toInt()
+            encryption == EncryptionType.ENCRYPTION_BLE5 && position >= size - 2 && value == DANAR_PACKET__END_PACKET.toInt() -> DANAI_PACKET__ENCRYPTION_END.toInt()
+            else                                                                                                              -> value
+        }
+
+    // RSv3 output byte is the next random sync key
+    private fun encryptSecondLevelByte(encryption: EncryptionType, value: Int): Int =
+        when (encryption) {
+            EncryptionType.ENCRYPTION_RSv3 -> {
+                val syncKey = randomSyncKey.toInt()
+                val pairingKey0 = pairingKey!![0].toInt()
+                rsV3Outer[rsV3Inner[(value xor pairingKey0) - syncKey and 0xff] xor syncKey].also { randomSyncKey = it.toUByte() }
+            }
+
+            EncryptionType.ENCRYPTION_BLE5 -> ble5[value]
+            else                           -> value
+        }
+
     private fun setDeviceName(deviceName: String?) {
         deviceName?.let { deviceName ->
             for (i in 0 until 10)
@@ -450,83 +369,58 @@ class BleEncryption @Inject constructor() {
         }
     }
 
-    fun generateCrc(buffer: UByteArray): UInt {
-        var crc: UShort = 0u
-
-        for (i in 0..<buffer.size) {
-            val byte = buffer[i]
-            var result = crc.ushr(8) or crc.shl(8)
-            result = result.xor(byte)
-            result = result.xor(result.and(0xFFu).ushr(4))
-            result = result.xor(result.shl(12))
-
-            when (securityVersion) {
-                EncryptionType.ENCRYPTION_DEFAULT ->
-                    result = result xor (result.and(0xFFu).shl(3) or result.and(0xFFu).ushr(2).shl(5))
-
-                EncryptionType.ENCRYPTION_RSv3    ->
-                    result = result xor
-                        if (connectionState == 0 || connectionState == 1)
-                            result.and(0xFFu).shl(3) or result.and(0xFFu).ushr(2).shl(5)
-                        else
-                            result.and(0xFFu).shl(5) or result.and(0xFFu).ushr(4).shl(2)
-
-                EncryptionType.ENCRYPTION_BLE5    ->
-                    result = if (connectionState == 0 || connectionState == 1)
-                        result xor (result.and(0xFFu).shl(3) or result.and(0xFFu).ushr(2).shl(5))
-                    else
-                        result xor (result.and(0xFFu).shl(4) or result.and(0xFFu).ushr(3).shl(2))
-            }
-            crc = result
-        }
-
-        return crc.toUInt()
+    private fun updateCrc(crc: Int, byte: Int): Int {
+        var result = (crc ushr 8 or (crc shl 8)) and 0xffff xor byte
+        result = result xor (result and 0xff ushr 4)
+        result = (result xor (result shl 12)) and 0xffff
+        val low = result and 0xff
+        return result xor when {
+            connectionState == 0 || connectionState == 1 || securityVersion == EncryptionType.ENCRYPTION_DEFAULT -> low shl 3 or (low ushr 2 shl 5)
+            securityVersion == EncryptionType.ENCRYPTION_RSv3                                                    -> low shl 5 or (low ushr 4 shl 2)
+            else                                                                                                 -> low shl 4 or (low ushr 3 shl 2)
+        } and 0xffff
     }
 
     /**
-     * Encode by serial number
+     * Encoding by serial number xor-ed with time, password and passkey encoding of commands
+     * in [ENCRYPTION_DEFAULT][EncryptionType.ENCRYPTION_DEFAULT] connection.
+     * Result repeats every 6 bytes, byte n of packet body is encoded by byte (n - 3) % 6.
      */
-    fun encodeArrayBySn(data: UByteArray) {
-        val codingBytes = UByteArray(3)
+    private fun firstLevelMask(command: Boolean): Long {
+        var sn0 = 0
+        var sn1 = 0
+        var sn2 = 0
         for (i in 0..<10) {
-            if (i < 3) codingBytes[0] = codingBytes[0].plusUByte(deviceName[i])
-            else if (i < 8) codingBytes[1] = codingBytes[1].plusUByte(deviceName[i])
-            else codingBytes[2] = codingBytes[2].plusUByte(deviceName[i])
+            if (i < 3) sn0 += deviceName[i].toInt()
+            else if (i < 8) sn1 += deviceName[i].toInt()
+            else sn2 += deviceName[i].toInt()
+        }
+        var commandByte = 0
+        if (command) {
+            for (i in 0..<6) commandByte += timeInfo[i].toInt()
+            commandByte = commandByte xor (password[0].toInt() + password[1].toInt())
+        }
+        var mask = 0L
+        for (i in 0..<6) {
+            var byte = (if (i % 3 == 0) sn0 else if (i % 3 == 1) sn1 else sn2) xor commandByte
+            if (command) byte = byte xor cfPassKey[(i + 1) % 2].toInt()
+            mask = mask or ((byte and 0xff).toLong() shl 8 * i)
         }
-        for (i in 0..<data.size - 5)
-            data[i + 3] = data[i + 3] xor codingBytes[i % 3]
+        return mask
     }
 
+    private fun Long.maskByte(position: Int): Int = (this ushr 8 * ((position - DANAR_PACKET__TYPE_POS) % 6)).toInt() and 0xff
+
     fun encodeByteBySn(data: UByte): UByte {
         var encodingByte: UByte = 0x00u
         for (i in 0..<10) encodingByte = encodingByte.plusUByte(deviceName[i])
         return (data xor encodingByte)
     }
 
-    fun encodeArrayByTime(data: UByteArray, time: UByteArray) {
-        var encodingByte: UByte = 0x00u
-        for (i in 0..<6) encodingByte = encodingByte.plusUByte(time[i])
-        for (i in 0..<data.size - 5) data[i + 3] = data[i + 3] xor encodingByte
-    }
-
-    fun encodeArrayByPassword(data: UByteArray, password: UByteArray) {
-        val encodingByte: UByte = password[0].plusUByte(password[1])
-        for (i in 0..<data.size - 5) data[i + 3] = data[i + 3] xor encodingByte
-    }
-
-    fun encodeArrayByCfPassKey(data: UByteArray) {
-        for (i in 0..<data.size - 5) data[i + 3] = data[i + 3] xor cfPassKey[(i + 1) % 2]
-    }
-
+    private fun Int.switchLoHi(): Int = (this ushr 4 or (this shl 4)) and 0xff
     private fun UByte.shr(bitCount: Int): UByte = toUInt().shr(bitCount).toUByte()
     private fun UByte.shl(bitCount: Int): UByte = toUInt().shl(bitCount).toUByte()
     private fun UByte.switchLoHi(): UByte = (shr(4) and 0x0fu) or (shl(4) and 0xf0u)
-    private operator fun UByteArray.get(index: UByte): UByte = get(index.toInt())
-    private infix fun UShort.ushr(bitCount: Int): UShort = toInt().ushr(bitCount).toUShort()
-    private infix fun UShort.shl(bitCount: Int): UShort = toInt().shl(bitCount).toUShort()
-    private infix fun UShort.xor(uByte: UByte): UShort = xor(uByte.toUShort())
-    private infix fun UShort.and(uByte: UByte): UShort = and(uByte.toUShort())
-    private fun UByteArray.from(start: Int, lengthAfter: Int): UByteArray = copyOfRange(start, start + lengthAfter)
     private fun UByte.plusUByte(other: UByte): UByte = plus(other).toUByte()
     private fun UByte.minusUByte(other: UByte): UByte = minus(other).toUByte()
 
@@ -422,17 +422,17 @@ class BLEComm @Inject internal constructor(
         var packetIsValid = false
         var isProcessing: Boolean
         isProcessing = true
-        var inputBuffer: ByteArray?
 
         // decrypt 2nd level after successful connection
-        val incomingBuffer =
-            if (isConnected && (encryption == EncryptionType.ENCRYPTION_RSv3 || encryption == EncryptionType.ENCRYPTION_BLE5))
-                bleEncryption.decryptSecondLevelPacket(receivedData).also {
-                    encryptedDataRead = true
-                    preferences.put(DanaLongKey.LastClearKeyRequest, 0L)
-                }
-            else receivedData
-        addToReadBuffer(incomingBuffer)
+        if (isConnected && (encryption == EncryptionType.ENCRYPTION_RSv3 || encryption == EncryptionType.ENCRYPTION_BLE5)) {
+            synchronized(readBuffer) {
+                val start = bufferLength
+                addToReadBuffer(receivedData)
+                bleEncryption.decryptSecondLevel(readBuffer, start, bufferLength - start)
+            }
+            encryptedDataRead = true
+            preferences.put(DanaLongKey.LastClearKeyRequest, 0L)
+        } else addToReadBuffer(receivedData)
         //aapsLogger.debug(LTag.PUMPBTCOMM, "incomingBuffer " + DanaRS_Packet.toHexString(incomingBuffer))
 
         while (isProcessing) {
@@ -475,9 +475,8 @@ class BLEComm @Inject internal constructor(
                 }
             }
             if (packetIsValid) {
-                inputBuffer = ByteArray(length + 7)
-                // copy packet to input buffer
-                System.arraycopy(readBuffer, 0, inputBuffer, 0, length + 7)
+                // decrypt the packet directly from readBuffer
+                val decrypted = bleEncryption.getDecryptedPacket(readBuffer, 0, length + 7)
                 // Cut off the message from readBuffer
                 try {
                     System.arraycopy(readBuffer, length + 7, readBuffer, 0, bufferLength - (length + 7))
@@ -486,10 +485,6 @@ class BLEComm @Inject internal constructor(
                     throw e
                 }
                 bufferLength -= length + 7
-                // now we have encrypted packet in inputBuffer
-
-                // decrypt the packet
-                val decrypted = bleEncryption.getDecryptedPacket(inputBuffer)
                 decrypted?.let { decryptedBuffer ->
                     if (decryptedBuffer[0] == BleEncryption.DANAR_PACKET__TYPE_ENCRYPTION_RESPONSE.toByte()) {
                         when (decryptedBuffer[1]) {
@@ -815,10 +810,9 @@ class BLEComm @Inject internal constructor(
             return
         }
         aapsLogger.debug(LTag.PUMPBTCOMM, ">>>>> " + message.friendlyName + " " + DanaRSPacket.toHexString(command) + " " + DanaRSPacket.toHexString(params))
-        var bytes = bleEncryption.getEncryptedPacket(message.opCode, params, null)
+        // 2nd level encryption is applied in the same pass
+        var bytes = bleEncryption.getEncryptedPacket(message.opCode, params, null, secondLevel = encryption != EncryptionType.ENCRYPTION_DEFAULT)
         // aapsLogger.debug(LTag.PUMPBTCOMM, ">>>>> " + DanaRS_Packet.toHexString(bytes))
-        if (encryption != EncryptionType.ENCRYPTION_DEFAULT)
-            bytes = bleEncryption.encryptSecondLevelPacket(bytes)
         // If there is another message not completely sent, add to queue only
         if (mSendQueue.isNotEmpty()) {
             // Split to parts per 20 bytes max
@@ -1,9 +1,12 @@
 package app.aaps.pump.danars.encryption
 
+import app.aaps.shared.tests.Benchmark
+import app.aaps.shared.tests.BenchmarkTest
 import app.aaps.shared.tests.TestBase
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestReporter
 
 class BleEncryptionTest() : TestBase() {
 
@@ -175,4 +178,69 @@ class BleEncryptionTest() : TestBase() {
         )
 
     }
-}
\ No newline at end of file
+
+    @Test
+    fun inPlaceWithOffsetsAndSecondLevelInSamePass() {
+        val output = ByteArray(40)
+        sut.getEncryptedPacket(BleEncryption.DANAR_PACKET__OPCODE_ENCRYPTION__PUMP_CHECK, null, "UHH00002TI")
+        sut.setEnhancedEncryption(EncryptionType.ENCRYPTION_BLE5)
+        sut.setBle5Key(byteArrayOf(56, 48, 53, 51, 52, 49))
+        sut.getEncryptedPacket(BleEncryption.DANAR_PACKET__OPCODE_ENCRYPTION__TIME_INFORMATION, byteArrayOf(0, 0, 0, 0), null)
+        Assertions.assertTrue(
+            sut.getDecryptedPacket(byteArrayOf(-91, -91, 3, -25, -13, -99, -49, -37, 90, 90))
+                .contentEquals(byteArrayOf(2, 1, 0))
+        )
+        // captured packet of ble5Flow, parameters taken from middle of array, output written at offset
+        val size = sut.encryptPacket(BleEncryption.DANAR_PACKET__OPCODE__APS_HISTORY_EVENTS, byteArrayOf(7, 7, 0, 1, 1, 0, 0, 0, 7), 2, 6, output, 5)
+        Assertions.assertEquals(15, size)
+        Assertions.assertTrue(output.copyOfRange(5, 5 + size).contentEquals(byteArrayOf(-91, -91, 8, 68, 48, -99, -28, -13, -99, -27, -14, -11, -22, 90, 90)))
+        Assertions.assertTrue(
+            sut.getEncryptedPacket(BleEncryption.DANAR_PACKET__OPCODE_ETC__KEEP_CONNECTION, byteArrayOf(), null, secondLevel = true)
+                .contentEquals(byteArrayOf(19, 19, -119, -11, 120, -52, -16, 78, 78))
+        )
+        val received = byteArrayOf(0, -86, -86, 13, 87, 48, -102, 70, -13, -11, 6, 37, -92, -27, -14, -99, -39, -31, 46, -18, -18, 0)
+        Assertions.assertEquals(13, sut.decryptPacket(received, 1, 20, output, 3))
+        Assertions.assertTrue(output.copyOfRange(3, 16).contentEquals(byteArrayOf(-78, -62, 7, -93, 1, 104, -29, -41, 57, 0, 0, 0, 60)))
+        // broken checksum
+        received[18] = 0
+        Assertions.assertEquals(-1, sut.decryptPacket(received, 1, 20, output, 3))
+
+        sut.getEncryptedPacket(BleEncryption.DANAR_PACKET__OPCODE_ENCRYPTION__PUMP_CHECK, null, "RLI00007DB")
+        sut.getDecryptedPacket(byteArrayOf(-91, -91, 9, -27, -9, -55, -84, -70, -125, -73, -26, -108, -41, -95, 90, 90))
+        sut.setEnhancedEncryption(EncryptionType.ENCRYPTION_RSv3)
+        sut.setPairingKeys(byteArrayOf(75, -59, 93, -35, -29, 55), byteArrayOf(-69, -71, -55), 0)
+        sut.getEncryptedPacket(BleEncryption.DANAR_PACKET__OPCODE_NOTIFY__DELIVERY_COMPLETE, byteArrayOf(0), null)
+        sut.getDecryptedPacket(byteArrayOf(-91, -91, 3, -27, -10, -122, -51, -34, 90, 90))
+        // captured packets of rsV3Flow, random sync key is chained over packets
+        Assertions.assertEquals(9, sut.encryptPacket(BleEncryption.DANAR_PACKET__OPCODE_ETC__KEEP_CONNECTION, null, 0, 0, output, 1, secondLevel = true))
+        Assertions.assertTrue(output.copyOfRange(1, 10).contentEquals(byteArrayOf(-60, 7, 116, -45, -34, -43, 5, 88, -72)))
+        val chunk = byteArrayOf(1, 94, 106, 22, -94, -28, -118, 86, -105, 91, 4, 1)
+        sut.decryptSecondLevel(chunk, 1, 10)
+        Assertions.assertTrue(chunk.contentEquals(byteArrayOf(1, -91, -91, 3, 85, 8, -122, -87, 3, 90, 90, 1)))
+        val packet = byteArrayOf(-91, -91, 2, 70, -41, -124, -54, 90, 90)
+        Assertions.assertTrue(sut.getEncryptedPacket(BleEncryption.DANAR_PACKET__OPCODE_REVIEW__GET_SHIPPING_INFORMATION, byteArrayOf(), null).contentEquals(packet))
+        sut.encryptSecondLevel(packet, 0, packet.size)
+        Assertions.assertTrue(packet.contentEquals(byteArrayOf(-106, 86, 40, 91, 120, 116, 89, -88, 91)))
+    }
+
+    @BenchmarkTest
+    fun packetBenchmark(reporter: TestReporter) {
+        sut.getEncryptedPacket(BleEncryption.DANAR_PACKET__OPCODE_ENCRYPTION__PUMP_CHECK, null, "UHH00002TI")
+        sut.setEnhancedEncryption(EncryptionType.ENCRYPTION_BLE5)
+        sut.setBle5Key(byteArrayOf(56, 48, 53, 51, 52, 49))
+        sut.getDecryptedPacket(byteArrayOf(-91, -91, 3, -25, -13, -99, -49, -37, 90, 90))
+        val params = byteArrayOf(0, 1, 1, 0, 0, 0)
+        val response = byteArrayOf(-86, -86, 13, 87, 48, -102, 70, -13, -11, 6, 37, -92, -27, -14, -99, -39, -31, 46, -18, -18)
+        val output = ByteArray(64)
+        val content = ByteArray(64)
+        val benchmark = Benchmark(reporter)
+        benchmark.measure("separate passes", 1, 100_000) {
+            sut.encryptSecondLevelPacket(sut.getEncryptedPacket(BleEncryption.DANAR_PACKET__OPCODE__APS_HISTORY_EVENTS, params, null))
+            sut.getDecryptedPacket(sut.decryptSecondLevelPacket(response))
+        }
+        benchmark.measure("in place", 1, 100_000) {
+            sut.encryptPacket(BleEncryption.DANAR_PACKET__OPCODE__APS_HISTORY_EVENTS, params, 0, params.size, output, 0, secondLevel = true)
+            sut.decryptPacket(response, 0, response.size, content)
+        }
+    }
+}
@@ -28,6 +28,7 @@ dependencies {
     implementation(project(":core:utils"))
     implementation(project(":core:ui"))
     implementation(project(":core:validators"))
+    implementation(project(":pump:common"))
     implementation(project(":core:keys"))
 
     testImplementation(project(":shared:tests"))
@@ -60,7 +60,7 @@ abstract class BaseCmd(
                 }
             }
             val crc = data[5].toInt() and 0xff
-            val crc1 = Crc.crc8Maxim(data.copyOfRange(0, 5))
+            val crc1 = Crc.crc8Maxim(data, 0, 5)
             if (crc != crc1) {
                 aapsLogger.debug(LTag.PUMPCOMM, "checkData crc error")
                 return false
@@ -105,9 +105,7 @@ abstract class BaseCmd(
                 buffer.put((10 * i).toByte())
                 buffer.put(toNewStart(reqIndex.toByte()))
             }
-            val crcArray = ByteArray(5)
-            System.arraycopy(buffer.array(), 0, crcArray, 0, 5)
-            buffer.put(Crc.crc8Maxim(crcArray).toByte())
+            buffer.put(Crc.crc8Maxim(buffer.array(), 0, 5).toByte())
             if (i == 0) {
                 buffer.put(allByte[byteIndex])
                 byteIndex++
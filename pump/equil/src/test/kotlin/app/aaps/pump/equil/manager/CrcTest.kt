@@ -8,6 +8,15 @@ import org.junit.jupiter.api.Test
 
 class CrcTest : TestBase() {
 
+    @Test
+    fun `crc8Maxim and getCRC should match catalogue check values`() {
+        val data = "123456789".toByteArray()
+        // CRC-8/MAXIM-DOW and CRC-16/MODBUS
+        assertEquals(0xA1, Crc.crc8Maxim(data))
+        assertEquals(0xA1, Crc.crc8Maxim("xx123456789".toByteArray(), 2, 9))
+        assertArrayEquals(byteArrayOf(0x4B, 0x37), Crc.getCRC(data))
+    }
+
     @Test
     fun `crc8Maxim should calculate correct CRC for simple data`() {
         val data = byteArrayOf(0x01, 0x02, 0x03)
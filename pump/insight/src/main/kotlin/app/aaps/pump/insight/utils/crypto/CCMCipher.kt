@@ -0,0 +1,31 @@
+package app.aaps.pump.insight.utils.crypto
+
+import app.aaps.pump.common.crypto.Ccm
+import org.spongycastle.crypto.engines.TwofishEngine
+import org.spongycastle.crypto.params.KeyParameter
+
+/**
+ * Twofish CCM used by SATL with key schedule done once per derived key.
+ * Blocks are produced into reusable buffers so only the results are allocated.
+ */
+class CCMCipher(key: ByteArray) {
+
+    private val ccm = Ccm(TwofishEngine().also { it.init(true, KeyParameter(key)) }, Ccm.b0Flags(TAG_SIZE))
+
+    /**
+     * CTR mode, counter starts at 1. Encryption and decryption are the same
+     */
+    @Synchronized fun encryptCTR(data: ByteArray, nonce: ByteArray): ByteArray =
+        ByteArray(data.size).also { ccm.ctr(nonce, data, data.size, it) }
+
+    /**
+     * CBC-MAC over length prefixed header and payload, each zero padded to block size, encrypted by counter 0 block
+     */
+    @Synchronized fun tag(nonce: ByteArray, payload: ByteArray, header: ByteArray): ByteArray =
+        ByteArray(TAG_SIZE).also { ccm.mac(nonce, header, payload, it) }
+
+    companion object {
+
+        private const val TAG_SIZE = 8
+    }
+}
@@ -1,16 +1,14 @@
 package app.aaps.pump.insight.utils.crypto
 
-import app.aaps.pump.insight.utils.ByteBuf
+import app.aaps.pump.common.crc.Crc16
 import org.spongycastle.crypto.Digest
 import org.spongycastle.crypto.InvalidCipherTextException
 import org.spongycastle.crypto.digests.MD5Digest
 import org.spongycastle.crypto.digests.SHA1Digest
 import org.spongycastle.crypto.encodings.OAEPEncoding
 import org.spongycastle.crypto.engines.RSAEngine
-import org.spongycastle.crypto.engines.TwofishEngine
 import org.spongycastle.crypto.generators.RSAKeyPairGenerator
 import org.spongycastle.crypto.macs.HMac
-import org.spongycastle.crypto.modes.CBCBlockCipher
 import org.spongycastle.crypto.params.*
 import java.math.BigInteger
 import java.security.SecureRandom
@@ -20,6 +18,8 @@ object Cryptograph {
 
     private const val keySeed = "master secret"
     private const val verificationSeed = "finished"
+    private const val CIPHER_CACHE_SIZE = 4
+
     private fun getHmac(secret: ByteArray, data: ByteArray, algorithm: Digest): ByteArray {
         val hmac = HMac(algorithm)
         hmac.init(KeyParameter(secret))
@@ -131,78 +131,24 @@ object Cryptograph {
         return combined
     }
 
-    private fun produceCCMPrimitive(headerByte: Byte, nonce: ByteArray, number: Short): ByteArray {
-        val byteBuf = ByteBuf(16)
-        byteBuf.putByte(headerByte)
-        byteBuf.putBytes(nonce)
-        byteBuf.putShort(number)
-        return byteBuf.bytes
-    }
-
-    private fun produceIV(nonce: ByteArray, payloadSize: Short): ByteArray {
-        return produceCCMPrimitive(0x59.toByte(), nonce, payloadSize)
+    fun encryptDataCTR(data: ByteArray, key: ByteArray, nonce: ByteArray): ByteArray {
+        return cipher(key).encryptCTR(data, nonce)
     }
 
-    private fun produceCTRBlock(nonce: ByteArray, counter: Short): ByteArray {
-        return produceCCMPrimitive(0x01.toByte(), nonce, counter)
+    fun produceCCMTag(nonce: ByteArray, payload: ByteArray, header: ByteArray, key: ByteArray): ByteArray {
+        return cipher(key).tag(nonce, payload, header)
     }
 
-    private fun blockCipherZeroPad(input: ByteArray): ByteArray {
-        val modulus = input.size % 16
-        if (modulus == 0) return input
-        val append = ByteArray(16 - modulus)
-        for (i in 0 until 16 - modulus) {
-            append[i] = 0x00
-        }
-        return combine(input, append)
-    }
+    // incoming and outgoing key, key schedule is not repeated for every packet
+    private val ciphers = ArrayList<Pair<ByteArray, CCMCipher>>()
 
-    fun encryptDataCTR(data: ByteArray, key: ByteArray?, nonce: ByteArray): ByteArray {
-        val padded = blockCipherZeroPad(data)
-        val length = padded.size shr 4
-        val result = ByteArray(length * 16)
-        val engine = TwofishEngine()
-        engine.init(true, KeyParameter(key))
-        for (i in 0 until length) {
-            engine.processBlock(produceCTRBlock(nonce, (i + 1).toShort()), 0, result, i * 16)
-        }
-        val xor = byteArrayXOR(padded, result)
-        val copy = ByteArray(Math.min(data.size, xor.size))
-        System.arraycopy(xor, 0, copy, 0, copy.size)
-        return copy
-    }
-
-    private fun processHeader(header: ByteArray): ByteArray {
-        val byteBuf: ByteBuf = ByteBuf(2 + header.size)
-        byteBuf.putShort(header.size.toShort())
-        byteBuf.putBytes(header)
-        return byteBuf.bytes
-    }
-
-    fun produceCCMTag(nonce: ByteArray, payload: ByteArray, header: ByteArray, key: ByteArray?): ByteArray {
-        val engine = TwofishEngine()
-        engine.init(true, KeyParameter(key))
-        val initializationVector = ByteArray(engine.blockSize)
-        engine.processBlock(produceIV(nonce, payload.size.toShort()), 0, initializationVector, 0)
-        val cbc = CBCBlockCipher(TwofishEngine())
-        cbc.init(true, ParametersWithIV(KeyParameter(key), initializationVector))
-        val processedHeader = blockCipherZeroPad(processHeader(header))
-        val processedPayload = blockCipherZeroPad(payload)
-        val combine = combine(processedHeader, blockCipherZeroPad(processedPayload))
-        val result = ByteArray(combine.size)
-        for (i in 0 until combine.size / 16) cbc.processBlock(combine, i * 16, result, i * 16)
-        val result2 = ByteArray(8)
-        System.arraycopy(result, result.size - 16, result2, 0, 8)
-        val ctr = ByteArray(engine.blockSize)
-        engine.processBlock(produceCTRBlock(nonce, 0.toShort()), 0, ctr, 0)
-        return byteArrayXOR(result2, ctr)
+    @Synchronized private fun cipher(key: ByteArray): CCMCipher {
+        for (i in ciphers.indices) if (ciphers[i].first.contentEquals(key)) return ciphers[i].second
+        if (ciphers.size == CIPHER_CACHE_SIZE) ciphers.removeAt(0)
+        return CCMCipher(key).also { ciphers.add(Pair(key.copyOf(), it)) }
     }
 
     fun calculateCRC(bytes: ByteArray): Int {
-        var crc = 0xffff
-        for (b in bytes) {
-            crc = crc ushr 8 xor CRC.TABLE[crc xor b.toInt() and 0xff]
-        }
-        return crc
+        return Crc16.MCRF4XX.calculate(bytes)
     }
 }
\ No newline at end of file
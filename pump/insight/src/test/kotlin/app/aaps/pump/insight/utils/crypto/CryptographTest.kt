@@ -0,0 +1,121 @@
+package app.aaps.pump.insight.utils.crypto
+
+import app.aaps.pump.insight.exceptions.InvalidMacTrailerException
+import app.aaps.pump.insight.satl.DataMessage
+import app.aaps.pump.insight.satl.SatlMessage
+import app.aaps.pump.insight.utils.ByteBuf
+import app.aaps.pump.insight.utils.Nonce
+import app.aaps.shared.tests.Benchmark
+import app.aaps.shared.tests.BenchmarkTest
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestReporter
+import org.junit.jupiter.api.assertThrows
+import org.spongycastle.crypto.engines.TwofishEngine
+import org.spongycastle.crypto.modes.CBCBlockCipher
+import org.spongycastle.crypto.params.KeyParameter
+import org.spongycastle.crypto.params.ParametersWithIV
+import org.spongycastle.util.encoders.Hex
+import kotlin.experimental.xor
+import kotlin.random.Random
+
+class CryptographTest {
+
+    private val random = Random(3)
+
+    // previous implementation with new engines and copies for every packet
+    private fun primitive(headerByte: Int, nonce: ByteArray, number: Int): ByteArray =
+        ByteBuf(16).also {
+            it.putByte(headerByte.toByte())
+            it.putBytes(nonce)
+            it.putShort(number.toShort())
+        }.bytes
+
+    private fun zeroPad(input: ByteArray): ByteArray = if (input.size % 16 == 0) input else input.copyOf(input.size + 16 - input.size % 16)
+
+    private fun referenceCTR(data: ByteArray, key: ByteArray, nonce: ByteArray): ByteArray {
+        val padded = zeroPad(data)
+        val result = ByteArray(padded.size)
+        val engine = TwofishEngine()
+        engine.init(true, KeyParameter(key))
+        for (i in 0 until padded.size / 16) engine.processBlock(primitive(0x01, nonce, i + 1), 0, result, i * 16)
+        return ByteArray(data.size) { padded[it] xor result[it] }
+    }
+
+    private fun referenceTag(nonce: ByteArray, payload: ByteArray, header: ByteArray, key: ByteArray): ByteArray {
+        val engine = TwofishEngine()
+        engine.init(true, KeyParameter(key))
+        val initializationVector = ByteArray(16)
+        engine.processBlock(primitive(0x59, nonce, payload.size), 0, initializationVector, 0)
+        val cbc = CBCBlockCipher(TwofishEngine())
+        cbc.init(true, ParametersWithIV(KeyParameter(key), initializationVector))
+        val processedHeader = ByteBuf(2 + header.size).also { it.putShort(header.size.toShort()); it.putBytes(header) }.bytes
+        val combined = Cryptograph.combine(zeroPad(processedHeader), zeroPad(payload))
+        val result = ByteArray(combined.size)
+        for (i in 0 until combined.size / 16) cbc.processBlock(combined, i * 16, result, i * 16)
+        val ctr = ByteArray(16)
+        engine.processBlock(primitive(0x01, nonce, 0), 0, ctr, 0)
+        return ByteArray(8) { result[result.size - 16 + it] xor ctr[it] }
+    }
+
+    @Test
+    fun testVector() {
+        val key = ByteArray(16) { it.toByte() }
+        val nonce = ByteArray(13) { (0xA0 + it).toByte() }
+        val payload = "SATL test payload 27 bytes!".toByteArray()
+        val header = ByteArray(21) { (it * 7).toByte() }
+        val encrypted = Cryptograph.encryptDataCTR(payload, key, nonce)
+        assertThat(Hex.toHexString(encrypted)).isEqualTo("8f453b29d9a8de0832e7da457d734dd9966173a911f21900ce8b27")
+        assertThat(Hex.toHexString(Cryptograph.produceCCMTag(nonce, payload, header, key))).isEqualTo("d41fea799b44c10b")
+        assertThat(Cryptograph.encryptDataCTR(encrypted, key, nonce)).isEqualTo(payload)
+    }
+
+    @Test
+    fun crcCheckValue() {
+        // CRC-16/MCRF4XX
+        assertThat(Cryptograph.calculateCRC("123456789".toByteArray())).isEqualTo(0x6F91)
+    }
+
+    @Test
+    fun sameAsPreviousImplementation() {
+        val keys = List(6) { random.nextBytes(16) }
+        repeat(2000) {
+            val key = keys[random.nextInt(keys.size)]
+            val nonce = random.nextBytes(13)
+            val payload = random.nextBytes(random.nextInt(300))
+            val header = random.nextBytes(random.nextInt(40))
+            assertThat(Cryptograph.encryptDataCTR(payload, key, nonce)).isEqualTo(referenceCTR(payload, key, nonce))
+            assertThat(Cryptograph.produceCCMTag(nonce, payload, header, key)).isEqualTo(referenceTag(nonce, payload, header, key))
+        }
+    }
+
+    @Test
+    fun satlMessageRoundTrip() {
+        val key = random.nextBytes(16)
+        val payload = random.nextBytes(90)
+        val message = DataMessage().also {
+            it.data = ByteBuf.from(payload)
+            it.nonce = Nonce().also { nonce -> nonce.increment(5) }
+            it.commID = 1234
+        }
+        val serialized = message.serialize(key).bytes
+
+        val deserialized = SatlMessage.deserialize(ByteBuf.from(serialized), Nonce(), key) as DataMessage
+        assertThat(deserialized.data.bytes).isEqualTo(payload)
+        assertThat(deserialized.commID).isEqualTo(1234)
+
+        serialized[serialized.size - 20] = serialized[serialized.size - 20] xor 1
+        assertThrows<InvalidMacTrailerException> { SatlMessage.deserialize(ByteBuf.from(serialized), Nonce(), key) }
+    }
+
+    @BenchmarkTest
+    fun packetBenchmark(reporter: TestReporter) {
+        val key = random.nextBytes(16)
+        val header = random.nextBytes(21)
+        // app layer messages are mostly short, history reads are longer
+        val packets = List(1000) { Pair(random.nextBytes(13), random.nextBytes(listOf(8, 24, 64, 200)[it % 4])) }
+        val benchmark = Benchmark(reporter)
+        benchmark.measure("previous", packets.size) { packets.map { (nonce, payload) -> referenceCTR(payload, key, nonce) + referenceTag(nonce, payload, header, key) } }
+        benchmark.measure("cached", packets.size) { packets.map { (nonce, payload) -> Cryptograph.encryptDataCTR(payload, key, nonce) + Cryptograph.produceCCMTag(nonce, payload, header, key) } }
+    }
+}
@@ -387,9 +387,14 @@ class MedtronicCommunicationManager @Inject constructor(
                 return pumpTotalResult
             }
             rawHistoryPage.dumpToDebug()
-            val medtronicHistoryEntries = medtronicPumpHistoryDecoder.processPageAndCreateRecords(rawHistoryPage)
-            aapsLogger.debug(LTag.PUMPCOMM, String.format(Locale.ENGLISH, "getPumpHistory: Found %d history entries.", medtronicHistoryEntries.size))
-            pumpTotalResult.addHistoryEntries(medtronicHistoryEntries) //, pageNumber)
+            // records are searched as they are decoded, page is not collected into list first
+            var foundEntries = 0
+            medtronicPumpHistoryDecoder.processPage(rawHistoryPage) {
+                pumpTotalResult.addHistoryEntry(it)
+                foundEntries++
+            }
+            pumpTotalResult.finishPage()
+            aapsLogger.debug(LTag.PUMPCOMM, String.format(Locale.ENGLISH, "getPumpHistory: Found %d history entries.", foundEntries))
             aapsLogger.debug(LTag.PUMPCOMM, String.format(Locale.ENGLISH, "getPumpHistory: Search status: Search finished: %b", pumpTotalResult.isSearchFinished))
             if (pumpTotalResult.isSearchFinished) {
                 medtronicPumpStatus.pumpDeviceState = PumpDeviceState.Sleeping
@@ -28,28 +28,36 @@ abstract class MedtronicHistoryDecoder<T : MedtronicHistoryEntry?>(
 
     // TODO_ extend this to also use bigger pages (for now we support only 1024 pages)
     @Throws(RuntimeException::class)
-    private fun checkPage(page: RawHistoryPage): MutableList<Byte> {
+    private fun checkPage(page: RawHistoryPage): ByteArray {
         if (!medtronicUtil.isModelSet) {
             aapsLogger.error(LTag.PUMPCOMM, "Device Type is not defined.")
-            return mutableListOf()
+            return byteArrayOf()
         }
         return if (page.data.size != 1024) {
-            page.data.toMutableList()
+            page.data
         } else if (page.isChecksumOK) {
-            page.onlyData.toMutableList()
+            page.onlyData
         } else {
-            mutableListOf()
+            byteArrayOf()
         }
     }
 
     fun processPageAndCreateRecords(rawHistoryPage: RawHistoryPage): MutableList<T> {
-        val dataClear = checkPage(rawHistoryPage)
-        val records: MutableList<T> = createRecords(dataClear)
-        for (record in records) {
+        val records: MutableList<T> = mutableListOf()
+        processPage(rawHistoryPage) { records.add(it) }
+        return records
+    }
+
+    /**
+     * Decodes page and hands each record to [consumer] as soon as it is decoded, without
+     * building intermediate list of all records first.
+     */
+    fun processPage(rawHistoryPage: RawHistoryPage, consumer: (T) -> Unit) {
+        for (record in decodeRecords(checkPage(rawHistoryPage))) {
             decodeRecord(record)
+            consumer(record)
         }
         runPostDecodeTasks()
-        return records
     }
 
     protected fun prepareStatistics() {
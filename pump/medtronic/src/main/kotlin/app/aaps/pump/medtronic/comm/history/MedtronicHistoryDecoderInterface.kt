@@ -7,4 +7,5 @@ interface MedtronicHistoryDecoderInterface<T> {
 
     fun decodeRecord(record: T): RecordDecodeStatus?
     fun createRecords(dataClearInput: MutableList<Byte>): MutableList<T>
+    fun decodeRecords(dataClearInput: ByteArray): Sequence<T>
 }
\ No newline at end of file
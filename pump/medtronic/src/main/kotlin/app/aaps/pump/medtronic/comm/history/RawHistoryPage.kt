@@ -3,7 +3,7 @@ package app.aaps.pump.medtronic.comm.history
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.utils.pump.ByteUtil
-import app.aaps.pump.common.utils.CRC
+import app.aaps.pump.common.crc.Crc16
 import app.aaps.pump.medtronic.util.MedtronicUtil
 import java.util.Locale
 
@@ -30,8 +30,7 @@ class RawHistoryPage(private val aapsLogger: AAPSLogger) {
             if (length != 1024) {
                 return false
             }
-            val computedCRC = CRC.calculate16CCITT(ByteUtil.substring(data, 0, 1022))
-            val crcCalculated = ByteUtil.toInt(computedCRC[0].toInt(), computedCRC[1].toInt())
+            val crcCalculated = Crc16.CCITT_FALSE.calculate(data, 0, 1022)
             val crcStored = ByteUtil.toInt(data[1022].toInt(), data[1023].toInt())
             if (crcCalculated != crcStored) {
                 aapsLogger.error(
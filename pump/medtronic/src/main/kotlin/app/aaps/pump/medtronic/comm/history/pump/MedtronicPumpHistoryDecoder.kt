@@ -36,76 +36,64 @@ class MedtronicPumpHistoryDecoder @Inject constructor(
     //private var tbrPreviousRecord: PumpHistoryEntry? = null
     private var changeTimeRecord: PumpHistoryEntry? = null
 
-    override fun createRecords(dataClearInput: MutableList<Byte>): MutableList<PumpHistoryEntry> {
+    override fun createRecords(dataClearInput: MutableList<Byte>): MutableList<PumpHistoryEntry> =
+        decodeRecords(dataClearInput.toByteArray()).toMutableList()
+
+    /**
+     * Decodes history records directly over [dataClearInput] with a cursor, emitting every valid record as soon as it
+     * is decoded (records are emitted lazily, so consumers can start processing before whole page is decoded).
+     * Output is same as for [createRecords].
+     */
+    override fun decodeRecords(dataClearInput: ByteArray): Sequence<PumpHistoryEntry> = sequence {
         prepareStatistics()
         var counter = 0
         var record = 0
-        var incompletePacket: Boolean
-        val outList: MutableList<PumpHistoryEntry> = mutableListOf()
         var skipped: String? = null
         if (dataClearInput.isEmpty()) {
             aapsLogger.error(LTag.PUMPBTCOMM, "Empty page.")
-            return outList
+            return@sequence
         }
-        do {
+        while (counter < dataClearInput.size) {
             val opCode: Int = dataClearInput[counter].toInt()
             var special = false
-            incompletePacket = false
-            var skippedRecords = false
             if (opCode == 0) {
                 counter++
                 if (skipped == null) skipped = "0x00" else skipped += " 0x00"
                 continue
-            } else {
-                if (skipped != null) {
-                    aapsLogger.warn(LTag.PUMPBTCOMM, " ... Skipped $skipped")
-                    skipped = null
-                    skippedRecords = true
-                }
-            }
-            if (skippedRecords) {
+            } else if (skipped != null) {
+                aapsLogger.warn(LTag.PUMPBTCOMM, " ... Skipped $skipped")
+                skipped = null
                 aapsLogger.error(LTag.PUMPBTCOMM, "We had some skipped bytes, which might indicate error in pump history. Please report this problem.")
             }
             val entryType = getByCode(opCode.toByte())
             val pe = PumpHistoryEntry()
             pe.setEntryType(medtronicUtil.medtronicPumpModel, entryType, if (entryType == PumpHistoryEntryType.UnknownBasePacket) opCode.toByte() else null)
             pe.offset = counter
+            val recordStart = counter
             counter++
             if (counter >= 1022) {
                 break
             }
-            val listRawData: MutableList<Byte> = ArrayList()
-            listRawData.add(opCode.toByte())
             if (entryType === PumpHistoryEntryType.UnabsorbedInsulin
                 || entryType === PumpHistoryEntryType.UnabsorbedInsulin512
             ) {
-                val elements: Int = dataClearInput[counter].toInt()
-                listRawData.add(elements.toByte())
+                if (counter >= dataClearInput.size) break
+                val els = getUnsignedInt(dataClearInput[counter])
                 counter++
-                val els = getUnsignedInt(elements)
-                for (k in 0 until els - 2) {
-                    if (counter < 1022) {
-                        listRawData.add(dataClearInput[counter])
-                        counter++
-                    }
+                if (counter < 1022) {
+                    counter = minOf(counter + maxOf(els - 2, 0), 1022, dataClearInput.size)
                 }
                 special = true
             } else {
-                for (j in 0 until entryType.getTotalLength(medtronicUtil.medtronicPumpModel) - 1) {
-                    try {
-                        listRawData.add(dataClearInput[counter])
-                        counter++
-                    } catch (ex: Exception) {
-                        aapsLogger.error(
-                            LTag.PUMPBTCOMM, "OpCode: " + ByteUtil.shortHexString(opCode.toByte()) + ", Invalid package: "
-                                + ByteUtil.getHex(listRawData)
-                        )
-                        // throw ex;
-                        incompletePacket = true
-                        break
-                    }
+                val end = counter + maxOf(entryType.getTotalLength(medtronicUtil.medtronicPumpModel) - 1, 0)
+                if (end > dataClearInput.size) {
+                    aapsLogger.error(
+                        LTag.PUMPBTCOMM, "OpCode: " + ByteUtil.shortHexString(opCode.toByte()) + ", Invalid package: "
+                            + ByteUtil.getHex(dataClearInput.copyOfRange(recordStart, dataClearInput.size))
+                    )
+                    break
                 }
-                if (incompletePacket) break
+                counter = end
             }
             if (entryType === PumpHistoryEntryType.None) {
                 aapsLogger.error(LTag.PUMPBTCOMM, "Error in code. We should have not come into this branch.")
@@ -114,22 +102,19 @@ class MedtronicPumpHistoryDecoder @Inject constructor(
                     pe.opCode = opCode.toByte()
                 }
                 if (entryType.getHeadLength(medtronicUtil.medtronicPumpModel) == 0) special = true
-                pe.setData(listRawData, special)
+                pe.setData(dataClearInput.copyOfRange(recordStart, counter).toMutableList(), special)
                 val decoded = decodeRecord(pe)
-                if (decoded === RecordDecodeStatus.OK || decoded === RecordDecodeStatus.Ignored) {
-                    //Log.i(TAG, "#" + record + " " + decoded.getDescription() + " " + pe);
-                } else {
+                if (decoded !== RecordDecodeStatus.OK && decoded !== RecordDecodeStatus.Ignored) {
                     aapsLogger.warn(LTag.PUMPBTCOMM, "#" + record + " " + decoded.description + "  " + pe)
                 }
                 addToStatistics(pe, decoded, null)
                 record++
                 if (decoded === RecordDecodeStatus.OK) // we add only OK records, all others are ignored
                 {
-                    outList.add(pe)
+                    yield(pe)
                 }
             }
-        } while (counter < dataClearInput.size)
-        return outList
+        }
     }
 
     override fun decodeRecord(record: PumpHistoryEntry): RecordDecodeStatus {
@@ -20,19 +20,40 @@ class PumpHistoryResult(private val aapsLogger: AAPSLogger, searchEntry: PumpHis
     var unprocessedEntries: MutableList<PumpHistoryEntry> = ArrayList()
     var validEntries: MutableList<PumpHistoryEntry> = ArrayList()
 
-    fun addHistoryEntries(entries: MutableList<PumpHistoryEntry> /*, page: Int*/) {
-        unprocessedEntries = entries
-        //aapsLogger.debug(LTag.PUMPCOMM,"PumpHistoryResult. Unprocessed entries: {}", MedtronicUtil.getGsonInstance().toJson(entries));
-        processEntries()
+    // entries of page being decoded and the ones which passed date search, in page order (oldest first)
+    private var pageEntries: MutableList<PumpHistoryEntry> = ArrayList()
+    private var pageValidEntries: MutableList<PumpHistoryEntry> = ArrayList()
+    private var olderEntries = 0
+
+    /**
+     * Adds entry of page being decoded, entries of one page are passed in page order. Date search is done
+     * while entries are decoded, page is completed by [finishPage].
+     */
+    fun addHistoryEntry(entry: PumpHistoryEntry) {
+        pageEntries.add(entry)
+        when (searchType) {
+            SearchType.None      -> pageValidEntries.add(entry)
+            SearchType.LastEntry -> Unit // needs whole page from newest entry, done in finishPage
+
+            SearchType.Date      -> {
+                if (entry.atechDateTime == 0L) {
+                    aapsLogger.debug(LTag.PUMPCOMM, "PE. PumpHistoryResult. Search entry date: Entry with no date: $entry")
+                } else if (entry.isAfter(searchDate!!)) {
+                    pageValidEntries.add(entry)
+                } else {
+                    if (DateTimeUtil.getYear(entry.atechDateTime) > 2015) olderEntries++
+                }
+            }
+        }
     }
 
     // TODO Bug #145 need to check if we had timeChange that went -1, that situation needs to be evaluated separately
-    private fun processEntries() {
-        var olderEntries = 0
+    fun finishPage() {
+        unprocessedEntries = pageEntries
         unprocessedEntries.reverse()
         when (searchType) {
             SearchType.None      ->                 //aapsLogger.debug(LTag.PUMPCOMM,"PE. None search");
-                validEntries.addAll(unprocessedEntries)
+                validEntries.addAll(pageValidEntries.asReversed())
 
             SearchType.LastEntry -> {
                 aapsLogger.debug(LTag.PUMPCOMM, "PE. Last entry search")
@@ -56,25 +77,16 @@ class PumpHistoryResult(private val aapsLogger: AAPSLogger, searchEntry: PumpHis
 
             SearchType.Date      -> {
                 aapsLogger.debug(LTag.PUMPCOMM, "PE. Date search: Search date: $searchDate")
-                for (unprocessedEntry in unprocessedEntries) {
-                    if (unprocessedEntry.atechDateTime == 0L) {
-                        aapsLogger.debug(LTag.PUMPCOMM, "PE. PumpHistoryResult. Search entry date: Entry with no date: $unprocessedEntry")
-                        continue
-                    }
-                    if (unprocessedEntry.isAfter(searchDate!!)) {
-                        validEntries.add(unprocessedEntry)
-                    } else {
-//                        aapsLogger.debug(LTag.PUMPCOMM,"PE. PumpHistoryResult. Not after.. Unprocessed Entry [year={},entry={}]",
-//                                DateTimeUtil.getYear(unprocessedEntry.atechDateTime), unprocessedEntry);
-                        if (DateTimeUtil.getYear(unprocessedEntry.atechDateTime) > 2015) olderEntries++
-                    }
-                }
+                validEntries.addAll(pageValidEntries.asReversed())
                 if (olderEntries > 0) {
                     //Collections.sort(this.validEntries, new PumpHistoryEntry.Comparator());
                     isSearchFinished = true
                 }
             }
         }
+        pageEntries = ArrayList()
+        pageValidEntries = ArrayList()
+        olderEntries = 0
 
         //aapsLogger.debug(LTag.PUMPCOMM,"PE. Valid Entries: {}", validEntries);
     }
@@ -589,7 +589,7 @@ class MedtronicHistoryData @Inject constructor(
 
     private fun processBolusEntries(entryList: MutableList<PumpHistoryEntry>) {
 
-        val boluses = pumpSyncStorage.getBoluses()
+        val boluses: MutableList<PumpDbEntry> = pumpSyncStorage.getBoluses().sortedBy { it.date }.toMutableList()
 
         for (bolus in entryList) {
 
@@ -611,8 +611,7 @@ class MedtronicHistoryData @Inject constructor(
             var temporaryId: Long? = null
 
             if (!multiWave) {
-                @Suppress("Unchecked_Cast")
-                val entryWithTempId = findDbEntry(bolus, boluses as MutableList<PumpDbEntry>) as PumpDbEntryBolus?
+                val entryWithTempId = findDbEntry(bolus, boluses) as PumpDbEntryBolus?
 
                 aapsLogger.debug(LTag.PUMP, "DD: entryWithTempId=$entryWithTempId")
 
@@ -727,7 +726,7 @@ class MedtronicHistoryData @Inject constructor(
             }
         }
 
-        val tbrRecords = pumpSyncStorage.getTBRs()
+        val tbrRecords: MutableList<PumpDbEntry> = pumpSyncStorage.getTBRs().sortedBy { it.date }.toMutableList()
 
         val processList: MutableList<TempBasalProcessDTO> = createTBRProcessList(entryList)
 
@@ -738,8 +737,7 @@ class MedtronicHistoryData @Inject constructor(
                 //aapsLogger.debug(LTag.PUMP, "DD: tempBasalProcessDTO.itemOne: " + gson.toJson(tempBasalProcessDTO.itemOne))
                 //aapsLogger.debug(LTag.PUMP, "DD: tempBasalProcessDTO.itemTwo: " + (if (tempBasalProcessDTO.itemTwo == null) "null" else gson.toJson(tempBasalProcessDTO.itemTwo!!)))
 
-                @Suppress("Unchecked_Cast")
-                val entryWithTempId = findDbEntry(tempBasalProcessDTO.itemOne, tbrRecords as MutableList<PumpDbEntry>) as PumpDbEntryTBR?
+                val entryWithTempId = findDbEntry(tempBasalProcessDTO.itemOne, tbrRecords) as PumpDbEntryTBR?
 
                 aapsLogger.debug(LTag.PUMP, "DD: entryWithTempId: " + (entryWithTempId?.toString() ?: "null"))
 
@@ -988,12 +986,12 @@ class MedtronicHistoryData @Inject constructor(
      * is no treatment at all. For now we look fro treatment that was from 0s - 1m59s within pump entry.
      *
      * @param treatment          Pump Entry
-     * @param temporaryEntries entries from history
+     * @param temporaryEntries entries from history, sorted by date (ascending)
      * @return DbObject from AAPS (if found)
      *
      * Looks at all boluses that have temporaryId and find one that is correct for us (if such entry exists)
      */
-    private fun findDbEntry(treatment: PumpHistoryEntry, temporaryEntries: MutableList<PumpDbEntry>): PumpDbEntry? {
+    private fun findDbEntry(treatment: PumpHistoryEntry, temporaryEntries: List<PumpDbEntry>): PumpDbEntry? {
 
         if (temporaryEntries.isEmpty()) {
             return null
@@ -1005,13 +1003,17 @@ class MedtronicHistoryData @Inject constructor(
         this.pumpTime?.let { proposedTime += (it.timeDifference * 1000) }
 
         val proposedTimeDiff: LongArray = longArrayOf(proposedTime - (2 * 60 * 1000), proposedTime + (2L * 60L * 1000L))
-        val tempEntriesList: MutableList<PumpDbEntry> = mutableListOf()
 
-        for (temporaryEntry in temporaryEntries) {
-            if (temporaryEntry.date > proposedTimeDiff[0] && temporaryEntry.date < proposedTimeDiff[1]) {
-                tempEntriesList.add(temporaryEntry)
-            }
+        // binary search for first entry after start of window, entries are sorted by date
+        var low = 0
+        var high = temporaryEntries.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (temporaryEntries[mid].date > proposedTimeDiff[0]) high = mid else low = mid + 1
         }
+        var end = low
+        while (end < temporaryEntries.size && temporaryEntries[end].date < proposedTimeDiff[1]) end++
+        val tempEntriesList: List<PumpDbEntry> = temporaryEntries.subList(low, end)
 
         if (tempEntriesList.isEmpty()) {
             return null
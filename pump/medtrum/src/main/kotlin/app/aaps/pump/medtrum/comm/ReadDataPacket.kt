@@ -10,7 +10,7 @@ class ReadDataPacket(data: ByteArray) {
     private var sequenceNumber: Byte = data[3]
 
     init {
-        val crcInitialChunk = calcCrc8(data.copyOfRange(0, data.size - 1), data.size - 1)
+        val crcInitialChunk = calcCrc8(data, data.size - 1)
 
         if (crcInitialChunk != data[data.size - 1]) {
             failed = true
@@ -20,7 +20,7 @@ class ReadDataPacket(data: ByteArray) {
     fun addData(newData: ByteArray) {
         totalData += newData.copyOfRange(4, newData.size - 1) // Strip header and crc
         sequenceNumber++
-        val crcNewChunk = calcCrc8(newData.copyOfRange(0, newData.size - 1), newData.size - 1)
+        val crcNewChunk = calcCrc8(newData, newData.size - 1)
         if (crcNewChunk != newData[newData.size - 1]) {
             failed = true
         }
@@ -1,10 +1,69 @@
 package app.aaps.pump.medtrum.encryption
 
+import app.aaps.pump.medtrum.extension.toByteArray
+import app.aaps.pump.medtrum.extension.toLong
+import app.aaps.shared.tests.Benchmark
+import app.aaps.shared.tests.BenchmarkTest
 import com.google.common.truth.Truth.assertThat
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestReporter
+import kotlin.random.Random
 
 class CryptTest {
 
+    private val random = Random(17)
+
+    // Rijndael S-box generated from multiplicative inverse and affine transformation
+    private val sBox = IntArray(256).also { box ->
+        var p = 1
+        var q = 1
+        do {
+            // p * 3, q / 3 in GF(2^8)
+            p = p xor (p shl 1) xor (if (p and 0x80 != 0) 0x1B else 0) and 0xFF
+            q = q xor (q shl 1)
+            q = q xor (q shl 2)
+            q = q xor (q shl 4)
+            q = q and 0xFF
+            if (q and 0x80 != 0) q = q xor 0x09
+            var value = q
+            for (shift in 1..4) value = value xor (q shl shift or (q ushr 8 - shift) and 0xFF)
+            box[p] = value xor 0x63
+        } while (p != 1)
+        box[0] = 0x63
+    }
+    private val inverseSBox = IntArray(256).also { box -> for (i in 0 until 256) box[sBox[i]] = i }
+
+    // previous implementation with byte array and Long conversions in every round
+    private val medCipher = 1344751489L
+
+    private fun referenceChangeByTable(inputData: Long, tableData: IntArray): Long {
+        val value = inputData.toByteArray(4)
+        val results = ByteArray(4)
+        for (i in value.indices) results[i] = tableData[value[i].toInt() and 0xFF].toByte()
+        return results.toLong()
+    }
+
+    private fun referenceRandomGen(input: Long): Long {
+        val tmp1 = input / 127773
+        val ret = (input - (tmp1 * 127773)) * 16807 - (tmp1 * 2836)
+        return if (ret < 0) ret + 2147483647L else ret
+    }
+
+    private fun referenceKeyGen(input: Long): Long {
+        var temp = referenceRandomGen(referenceRandomGen(medCipher xor input)) xor medCipher
+        for (i in 0 until 32) temp = referenceChangeByTable((temp shl 1) or (temp ushr 31), sBox)
+        return temp
+    }
+
+    private fun referenceSimpleDecrypt(inputData: Long): Long {
+        var temp = inputData
+        for (i in 0 until 32) {
+            val x = referenceChangeByTable(temp, inverseSBox)
+            temp = (x ushr 1 or (x shl 31)).toInt().toLong()
+        }
+        return temp xor medCipher
+    }
+
     @Test
     fun givenSNExpectKey() {
         val crypt = Crypt()
@@ -25,4 +84,25 @@ class CryptTest {
         print("ljw result: $output\n")
         assertThat(output).isEqualTo(expected)
     }
+
+    @Test
+    fun sameAsPreviousImplementation() {
+        val crypt = Crypt()
+        assertThat(referenceKeyGen(2859923929)).isEqualTo(3364239851L)
+        repeat(100000) {
+            // serial numbers are 32 bit, whole range of Long is checked too
+            val input = if (it % 2 == 0) random.nextLong() and 0xFFFFFFFFL else random.nextLong()
+            assertThat(crypt.keyGen(input)).isEqualTo(referenceKeyGen(input))
+            assertThat(crypt.simpleDecrypt(input)).isEqualTo(referenceSimpleDecrypt(input))
+        }
+    }
+
+    @BenchmarkTest
+    fun cryptBenchmark(reporter: TestReporter) {
+        val crypt = Crypt()
+        val inputs = LongArray(10000) { random.nextLong() and 0xFFFFFFFFL }
+        val benchmark = Benchmark(reporter)
+        benchmark.measure("previous", inputs.size) { inputs.sumOf { referenceKeyGen(it) + referenceSimpleDecrypt(it) } }
+        benchmark.measure("table driven", inputs.size) { inputs.sumOf { crypt.keyGen(it) + crypt.simpleDecrypt(it) } }
+    }
 }
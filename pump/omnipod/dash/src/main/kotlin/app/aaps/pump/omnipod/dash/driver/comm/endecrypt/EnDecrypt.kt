@@ -3,58 +3,52 @@ package app.aaps.pump.omnipod.dash.driver.comm.endecrypt
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.utils.toHex
+import app.aaps.pump.common.crypto.Ccm
 import app.aaps.pump.omnipod.dash.driver.comm.message.MessagePacket
+import org.spongycastle.crypto.InvalidCipherTextException
 import org.spongycastle.crypto.engines.AESEngine
-import org.spongycastle.crypto.modes.CCMBlockCipher
-import org.spongycastle.crypto.params.AEADParameters
 import org.spongycastle.crypto.params.KeyParameter
+import kotlin.experimental.xor
 
-class EnDecrypt(private val aapsLogger: AAPSLogger, private val nonce: Nonce, private val ck: ByteArray) {
+/**
+ * AES-CCM of message payload with 16 bytes message header as associated data.
+ * Key schedule of session key is prepared once, header, nonce and cipher blocks use reused buffers.
+ */
+class EnDecrypt(private val aapsLogger: AAPSLogger, private val nonce: Nonce, ck: ByteArray) {
 
-    val engine = AESEngine()
-    val cipher = CCMBlockCipher(engine)
+    private val ccm = Ccm(AESEngine().also { it.init(true, KeyParameter(ck)) }, Ccm.b0Flags(MAC_SIZE))
+    private val header = ByteArray(MessagePacket.HEADER_SIZE)
+    private val n = ByteArray(Nonce.SIZE)
+    private val mac = ByteArray(MAC_SIZE)
 
-    fun decrypt(msg: MessagePacket): MessagePacket {
+    @Synchronized fun decrypt(msg: MessagePacket): MessagePacket {
         val payload = msg.payload
-        val header = msg.asByteArray().copyOfRange(0, 16)
+        msg.writeHeader(header)
 
-        val n = nonce.increment(false)
-        aapsLogger.debug(LTag.PUMPBTCOMM, "Decrypt header ${header.toHex()} payload: ${payload.toHex()}")
-        aapsLogger.debug(LTag.PUMPBTCOMM, "Decrypt NONCE ${n.toHex()}")
-        cipher.init(
-            false,
-            AEADParameters(
-                KeyParameter(ck),
-                MAC_SIZE * 8, // in bits
-                n,
-                header
-            )
-        )
+        nonce.increment(false, n)
+        aapsLogger.debug(LTag.PUMPBTCOMM) { "Decrypt header ${header.toHex()} payload: ${payload.toHex()}" }
+        aapsLogger.debug(LTag.PUMPBTCOMM) { "Decrypt NONCE ${n.toHex()}" }
+        if (payload.size < MAC_SIZE) throw InvalidCipherTextException("data too short")
         val decryptedPayload = ByteArray(payload.size - MAC_SIZE)
-        cipher.processPacket(payload, 0, payload.size, decryptedPayload, 0)
-        aapsLogger.debug(LTag.PUMPBTCOMM, "Decrypted payload ${decryptedPayload.toHex()}")
+        ccm.ctr(n, payload, decryptedPayload.size, decryptedPayload)
+        ccm.mac(n, header, decryptedPayload, mac)
+        var difference = 0
+        for (i in 0 until MAC_SIZE) difference = difference or (mac[i] xor payload[decryptedPayload.size + i]).toInt()
+        if (difference != 0) throw InvalidCipherTextException("mac check in CCM failed")
+        aapsLogger.debug(LTag.PUMPBTCOMM) { "Decrypted payload ${decryptedPayload.toHex()}" }
         return msg.copy(payload = decryptedPayload)
     }
 
-    fun encrypt(headerMessage: MessagePacket): MessagePacket {
+    @Synchronized fun encrypt(headerMessage: MessagePacket): MessagePacket {
         val payload = headerMessage.payload
-        val header = headerMessage.asByteArray(true).copyOfRange(0, 16)
+        headerMessage.writeHeader(header, true)
 
-        val n = nonce.increment(true)
-        aapsLogger.debug(LTag.PUMPBTCOMM, "Encrypt header ${header.toHex()} payload: ${payload.toHex()}")
-        aapsLogger.debug(LTag.PUMPBTCOMM, "Encrypt NONCE ${n.toHex()}")
+        nonce.increment(true, n)
+        aapsLogger.debug(LTag.PUMPBTCOMM) { "Encrypt header ${header.toHex()} payload: ${payload.toHex()}" }
+        aapsLogger.debug(LTag.PUMPBTCOMM) { "Encrypt NONCE ${n.toHex()}" }
         val encryptedPayload = ByteArray(payload.size + MAC_SIZE)
-
-        cipher.init(
-            true,
-            AEADParameters(
-                KeyParameter(ck),
-                MAC_SIZE * 8, // in bits
-                n,
-                header
-            )
-        )
-        cipher.processPacket(payload, 0, payload.size, encryptedPayload, 0)
+        ccm.ctr(n, payload, payload.size, encryptedPayload)
+        ccm.mac(n, header, payload, encryptedPayload, payload.size)
 
         return headerMessage.copy(payload = encryptedPayload)
     }
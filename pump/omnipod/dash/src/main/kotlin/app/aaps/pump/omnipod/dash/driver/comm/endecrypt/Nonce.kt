@@ -1,23 +1,28 @@
 package app.aaps.pump.omnipod.dash.driver.comm.endecrypt
 
-import java.nio.ByteBuffer
-
 data class Nonce(val prefix: ByteArray, var sqn: Long) {
     init {
         require(prefix.size == 8) { "Nonce prefix should be 8 bytes long" }
     }
 
-    fun increment(podReceiving: Boolean): ByteArray {
+    fun increment(podReceiving: Boolean): ByteArray = ByteArray(SIZE).also { increment(podReceiving, it) }
+
+    /**
+     * Increment sequence number and write 13 bytes nonce to [output]
+     */
+    fun increment(podReceiving: Boolean, output: ByteArray) {
         sqn++
-        val ret = ByteBuffer.allocate(8)
-            .putLong(sqn)
-            .array()
-            .copyOfRange(3, 8)
+        prefix.copyInto(output)
+        for (i in 0 until 5) output[prefix.size + i] = (sqn ushr 8 * (4 - i)).toByte()
         if (podReceiving) {
-            ret[0] = (ret[0].toInt() and 127).toByte()
+            output[prefix.size] = (output[prefix.size].toInt() and 127).toByte()
         } else {
-            ret[0] = (ret[0].toInt() or 128).toByte()
+            output[prefix.size] = (output[prefix.size].toInt() or 128).toByte()
         }
-        return prefix + ret
+    }
+
+    companion object {
+
+        const val SIZE = 13
     }
 }
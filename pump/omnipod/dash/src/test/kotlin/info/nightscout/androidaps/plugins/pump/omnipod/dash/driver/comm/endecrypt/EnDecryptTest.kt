@@ -1,14 +1,63 @@
 package app.aaps.pump.omnipod.dash.driver.comm.endecrypt
 
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.utils.toHex
+import app.aaps.pump.omnipod.dash.driver.comm.Id
 import app.aaps.pump.omnipod.dash.driver.comm.message.MessagePacket
+import app.aaps.pump.omnipod.dash.driver.comm.message.MessageType
 import app.aaps.shared.tests.AAPSLoggerTest
+import app.aaps.shared.tests.Benchmark
+import app.aaps.shared.tests.BenchmarkTest
 import com.google.common.truth.Truth.assertThat
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestReporter
+import org.junit.jupiter.api.assertThrows
+import org.mockito.kotlin.mock
+import org.spongycastle.crypto.InvalidCipherTextException
+import org.spongycastle.crypto.engines.AESEngine
+import org.spongycastle.crypto.modes.CCMBlockCipher
+import org.spongycastle.crypto.params.AEADParameters
+import org.spongycastle.crypto.params.KeyParameter
 import org.spongycastle.util.encoders.Hex
+import kotlin.experimental.xor
+import kotlin.random.Random
 
 @Suppress("SpellCheckingInspection") class EnDecryptTest {
 
+    private val random = Random(7)
+    private val referenceCipher = CCMBlockCipher(AESEngine())
+
+    // previous implementation initializing cipher with the key and formatting log for every message
+    private fun reference(aapsLogger: AAPSLogger, nonce: Nonce, ck: ByteArray, msg: MessagePacket, encrypt: Boolean): MessagePacket {
+        val header = msg.asByteArray(encrypt).copyOfRange(0, 16)
+        val n = nonce.increment(encrypt)
+        aapsLogger.debug(LTag.PUMPBTCOMM, "Header ${header.toHex()} payload: ${msg.payload.toHex()}")
+        aapsLogger.debug(LTag.PUMPBTCOMM, "NONCE ${n.toHex()}")
+        referenceCipher.init(encrypt, AEADParameters(KeyParameter(ck), 64, n, header))
+        val output = ByteArray(msg.payload.size + if (encrypt) 8 else -8)
+        referenceCipher.processPacket(msg.payload, 0, msg.payload.size, output, 0)
+        return msg.copy(payload = output)
+    }
+
+    // response encrypted by pod
+    private fun podEncrypt(nonce: Nonce, ck: ByteArray, msg: MessagePacket): MessagePacket {
+        val n = nonce.increment(false)
+        referenceCipher.init(true, AEADParameters(KeyParameter(ck), 64, n, msg.asByteArray(true).copyOfRange(0, 16)))
+        val output = ByteArray(msg.payload.size + 8)
+        referenceCipher.processPacket(msg.payload, 0, msg.payload.size, output, 0)
+        return msg.copy(payload = output)
+    }
+
+    private fun message(payload: ByteArray) = MessagePacket(
+        type = MessageType.ENCRYPTED,
+        source = Id.fromLong(136326824),
+        destination = Id.fromLong(136326825),
+        payload = payload,
+        sequenceNumber = 7.toByte(),
+        eqos = 1.toShort()
+    )
+
     @Test
     fun decrypt() {
         val received =
@@ -58,4 +107,54 @@ import org.spongycastle.util.encoders.Hex
 
         assertThat(encrypted.asByteArray().toHex()).isEqualTo(encryptedMessage.toHex())
     }
+
+    @Test
+    fun sameAsCCMBlockCipher() {
+        val ck = random.nextBytes(16)
+        val prefix = random.nextBytes(8)
+        val enDecrypt = EnDecrypt(AAPSLoggerTest(), Nonce(prefix, 10), ck)
+        val referenceNonce = Nonce(prefix, 10)
+        val referenceLogger = mock<AAPSLogger>()
+        repeat(200) {
+            val command = message(random.nextBytes(random.nextInt(200)))
+            assertThat(enDecrypt.encrypt(command).asByteArray().toHex())
+                .isEqualTo(reference(referenceLogger, referenceNonce, ck, command, true).asByteArray().toHex())
+            val response = message(random.nextBytes(random.nextInt(200)))
+            assertThat(enDecrypt.decrypt(podEncrypt(referenceNonce, ck, response)).payload.toHex()).isEqualTo(response.payload.toHex())
+        }
+
+        val tampered = podEncrypt(referenceNonce, ck, message(random.nextBytes(30)))
+        tampered.payload[3] = tampered.payload[3] xor 1
+        assertThrows<InvalidCipherTextException> { enDecrypt.decrypt(tampered) }
+    }
+
+    @BenchmarkTest
+    fun exchangeBenchmark(reporter: TestReporter) {
+        val ck = random.nextBytes(16)
+        val prefix = random.nextBytes(8)
+        val commands = List(100) { message(random.nextBytes(16 + it % 4 * 8)) }
+        // responses encrypted by pod with nonce following each command
+        val podNonce = Nonce(prefix, 0)
+        val responses = List(100) {
+            podNonce.increment(true)
+            podEncrypt(podNonce, ck, message(random.nextBytes(24 + it % 3 * 8)))
+        }
+        // debug level off
+        val aapsLogger = mock<AAPSLogger>()
+        val benchmark = Benchmark(reporter)
+        benchmark.measure("previous", 100, 200) {
+            val nonce = Nonce(prefix, 0)
+            for (i in 0 until 100) {
+                reference(aapsLogger, nonce, ck, commands[i], true)
+                reference(aapsLogger, nonce, ck, responses[i], false)
+            }
+        }
+        benchmark.measure("prepared key", 100, 200) {
+            val enDecrypt = EnDecrypt(aapsLogger, Nonce(prefix, 0), ck)
+            for (i in 0 until 100) {
+                enDecrypt.encrypt(commands[i])
+                enDecrypt.decrypt(responses[i])
+            }
+        }
+    }
 }
@@ -1,7 +1,6 @@
 package app.aaps.pump.omnipod.eros.driver.communication.message;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import app.aaps.pump.omnipod.eros.driver.definition.MessageBlockType;
 
@@ -17,15 +16,32 @@ public abstract class MessageBlock {
     //It should be rewritten in a derived class if raw representation of a concrete message
     //is something else than just message type concatenated with message data
     public byte[] getRawData() {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        try {
-            stream.write(this.getType().getValue());
-            stream.write((byte) encodedData.length);
-            stream.write(encodedData);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
-        }
-        return stream.toByteArray();
+        byte[] rawData = new byte[getRawLength()];
+        writeTo(ByteBuffer.wrap(rawData));
+        return rawData;
+    }
+
+    //Length of the raw message representation as written by writeTo(ByteBuffer)
+    public int getRawLength() {
+        return 2 + getDataLength();
+    }
+
+    //Writes raw message representation at the current position of the buffer
+    //Should be overridden together with getRawLength() in a derived class with different raw representation
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(this.getType().getValue());
+        buffer.put((byte) getDataLength());
+        writeData(buffer);
+    }
+
+    //Length of the message data following message type and length
+    protected int getDataLength() {
+        return encodedData.length;
+    }
+
+    //Writes message data following message type and length
+    //Commands override it together with getDataLength() to write their fields directly into the message buffer
+    protected void writeData(ByteBuffer buffer) {
+        buffer.put(encodedData);
     }
 }
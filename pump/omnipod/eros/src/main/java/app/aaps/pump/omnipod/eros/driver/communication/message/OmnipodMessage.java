@@ -2,6 +2,7 @@ package app.aaps.pump.omnipod.eros.driver.communication.message;
 
 import androidx.annotation.NonNull;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
@@ -52,7 +53,7 @@ public class OmnipodMessage {
         }
         int sequenceNumber = (((int) b9 >> 2) & 0b11111);
         int crc = ByteUtil.INSTANCE.toInt(data[data.length - 2], data[data.length - 1]);
-        int calculatedCrc = OmnipodCrc.crc16(ByteUtil.INSTANCE.substring(data, 0, data.length - 2));
+        int calculatedCrc = OmnipodCrc.crc16(data, 0, data.length - 2);
         if (crc != calculatedCrc) {
             throw new CrcMismatchException(calculatedCrc, crc);
         }
@@ -70,10 +71,9 @@ public class OmnipodMessage {
         while (index < data.length) {
             try {
                 MessageBlockType blockType = MessageBlockType.fromByte(data[index]);
-                MessageBlock block = blockType.decode(ByteUtil.INSTANCE.substring(data, index));
+                MessageBlock block = blockType.decode(data, index);
                 blocks.add(block);
-                int blockLength = block.getRawData().length;
-                index += blockLength;
+                index += block.getRawLength();
             } catch (Exception ex) {
                 throw new MessageDecodingException("Failed to decode blocks", ex);
             }
@@ -83,25 +83,50 @@ public class OmnipodMessage {
     }
 
     public byte[] getEncoded() {
-        byte[] encodedData = new byte[0];
+        byte[] encodedData = new byte[getEncodedLength()];
+        writeTo(ByteBuffer.wrap(encodedData));
+        return encodedData;
+    }
+
+    public int getEncodedLength() {
+        return 6 + getBlocksLength() + 2;
+    }
+
+    // Writes encoded message (header, message blocks and crc) at the current position of the buffer
+    public void writeTo(ByteBuffer buffer) {
+        int start = buffer.position();
+        int blocksLength = getBlocksLength();
+        //right before the message blocks we have 6 bits of seqNum and 10 bits of length
+        buffer.putInt(address);
+        buffer.put((byte) (((sequenceNumber & 0x1F) << 2) + ((blocksLength >> 8) & 0x03)));
+        buffer.put((byte) (blocksLength & 0xFF));
         for (MessageBlock messageBlock : messageBlocks) {
-            encodedData = ByteUtil.INSTANCE.concat(encodedData, messageBlock.getRawData());
+            messageBlock.writeTo(buffer);
         }
+        int crc;
+        if (buffer.hasArray()) {
+            crc = OmnipodCrc.crc16(buffer.array(), buffer.arrayOffset() + start, buffer.position() - start);
+        } else {
+            byte[] written = new byte[buffer.position() - start];
+            ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(start);
+            duplicate.get(written);
+            crc = OmnipodCrc.crc16(written);
+        }
+        buffer.putShort((short) crc);
+    }
 
-        byte[] header = new byte[0];
-        //right before the message blocks we have 6 bits of seqNum and 10 bits of length
-        header = ByteUtil.INSTANCE.concat(header, ByteUtil.INSTANCE.getBytesFromInt(address));
-        header = ByteUtil.INSTANCE.concat(header, (byte) (((sequenceNumber & 0x1F) << 2) + ((encodedData.length >> 8) & 0x03)));
-        header = ByteUtil.INSTANCE.concat(header, (byte) (encodedData.length & 0xFF));
-        encodedData = ByteUtil.INSTANCE.concat(header, encodedData);
-        int crc = OmnipodCrc.crc16(encodedData);
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, ByteUtil.INSTANCE.substring(ByteUtil.INSTANCE.getBytesFromInt(crc), 2, 2));
-        return encodedData;
+    private int getBlocksLength() {
+        int length = 0;
+        for (MessageBlock messageBlock : messageBlocks) {
+            length += messageBlock.getRawLength();
+        }
+        return length;
     }
 
     public void padWithGetStatusCommands(int packetSize, AAPSLogger aapsLogger) {
-        while (getEncoded().length <= packetSize) {
-            if (getEncoded().length == PacketType.PDM.getMaxBodyLength()) {
+        while (getEncodedLength() <= packetSize) {
+            if (getEncodedLength() == PacketType.PDM.getMaxBodyLength()) {
                 aapsLogger.debug(LTag.PUMPBTCOMM, "Message length equals max body length: {}", this);
             }
             messageBlocks.add(new GetStatusCommand(PodInfoType.NORMAL));
@@ -3,6 +3,8 @@ package app.aaps.pump.omnipod.eros.driver.communication.message;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.nio.ByteBuffer;
+
 import app.aaps.core.utils.pump.ByteUtil;
 import app.aaps.pump.common.hw.rileylink.ble.data.RLMessage;
 import app.aaps.pump.omnipod.eros.driver.definition.OmnipodCrc;
@@ -32,7 +34,7 @@ public class OmnipodPacket implements RLMessage {
             throw new IllegalPacketTypeException(null, null);
         }
         this.sequenceNumber = (encoded[4] & 0b11111);
-        byte crc = OmnipodCrc.crc8(ByteUtil.INSTANCE.substring(encoded, 0, encoded.length - 1));
+        byte crc = OmnipodCrc.crc8(encoded, 0, encoded.length - 1);
         if (crc != encoded[encoded.length - 1]) {
             throw new CrcMismatchException(crc, encoded[encoded.length - 1]);
         }
@@ -69,11 +71,13 @@ public class OmnipodPacket implements RLMessage {
 
     @Override
     public byte[] getTxData() {
-        byte[] output = new byte[0];
-        output = ByteUtil.INSTANCE.concat(output, ByteUtil.INSTANCE.getBytesFromInt(this.packetAddress));
-        output = ByteUtil.INSTANCE.concat(output, (byte) ((this.packetType.getValue() << 5) + (sequenceNumber & 0b11111)));
-        output = ByteUtil.INSTANCE.concat(output, encodedMessage);
-        output = ByteUtil.INSTANCE.concat(output, OmnipodCrc.crc8(output));
+        byte[] message = encodedMessage != null ? encodedMessage : new byte[0];
+        byte[] output = new byte[5 + message.length + 1];
+        ByteBuffer buffer = ByteBuffer.wrap(output);
+        buffer.putInt(this.packetAddress);
+        buffer.put((byte) ((this.packetType.getValue() << 5) + (sequenceNumber & 0b11111)));
+        buffer.put(message);
+        buffer.put(OmnipodCrc.crc8(output, 0, output.length - 1));
         return output;
     }
 
@@ -2,9 +2,9 @@ package app.aaps.pump.omnipod.eros.driver.communication.message.command;
 
 import androidx.annotation.NonNull;
 
+import java.nio.ByteBuffer;
 import java.util.Collections;
 
-import app.aaps.core.utils.pump.ByteUtil;
 import app.aaps.pump.omnipod.eros.driver.communication.message.NonceResyncableMessageBlock;
 import app.aaps.pump.omnipod.eros.driver.definition.AlertSet;
 import app.aaps.pump.omnipod.eros.driver.definition.AlertSlot;
@@ -18,7 +18,6 @@ public class AcknowledgeAlertsCommand extends NonceResyncableMessageBlock {
     public AcknowledgeAlertsCommand(int nonce, AlertSet alerts) {
         this.nonce = nonce;
         this.alerts = alerts;
-        encode();
     }
 
     public AcknowledgeAlertsCommand(int nonce, AlertSlot alertSlot) {
@@ -30,9 +29,15 @@ public class AcknowledgeAlertsCommand extends NonceResyncableMessageBlock {
         return MessageBlockType.ACKNOWLEDGE_ALERT;
     }
 
-    private void encode() {
-        encodedData = ByteUtil.INSTANCE.getBytesFromInt(nonce);
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, alerts.getRawValue());
+    @Override
+    protected int getDataLength() {
+        return 5;
+    }
+
+    @Override
+    protected void writeData(ByteBuffer buffer) {
+        buffer.putInt(nonce);
+        buffer.put(alerts.getRawValue());
     }
 
     @Override
@@ -43,7 +48,6 @@ public class AcknowledgeAlertsCommand extends NonceResyncableMessageBlock {
     @Override
     public void setNonce(int nonce) {
         this.nonce = nonce;
-        encode();
     }
 
     @NonNull @Override
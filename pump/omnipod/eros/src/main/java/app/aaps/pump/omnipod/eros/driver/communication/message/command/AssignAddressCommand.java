@@ -12,7 +12,6 @@ public class AssignAddressCommand extends MessageBlock {
 
     public AssignAddressCommand(int address) {
         this.address = address;
-        encodedData = ByteBuffer.allocate(4).putInt(this.address).array();
     }
 
     public int getAddress() {
@@ -24,6 +23,16 @@ public class AssignAddressCommand extends MessageBlock {
         return MessageBlockType.ASSIGN_ADDRESS;
     }
 
+    @Override
+    protected int getDataLength() {
+        return 4;
+    }
+
+    @Override
+    protected void writeData(ByteBuffer buffer) {
+        buffer.putInt(address);
+    }
+
     @NonNull @Override
     public String toString() {
         return "AssignAddressCommand{" +
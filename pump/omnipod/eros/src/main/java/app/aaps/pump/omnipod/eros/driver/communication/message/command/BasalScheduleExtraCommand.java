@@ -4,10 +4,10 @@ import androidx.annotation.NonNull;
 
 import org.joda.time.Duration;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
-import app.aaps.core.utils.pump.ByteUtil;
 import app.aaps.pump.omnipod.eros.driver.communication.message.MessageBlock;
 import app.aaps.pump.omnipod.eros.driver.definition.MessageBlockType;
 import app.aaps.pump.omnipod.eros.driver.definition.OmnipodConstants;
@@ -35,7 +35,6 @@ public class BasalScheduleExtraCommand extends MessageBlock {
         this.remainingPulses = remainingPulses;
         this.delayUntilNextTenthOfPulseInSeconds = delayUntilNextTenthOfPulseInSeconds;
         this.rateEntries = rateEntries;
-        encode();
     }
 
     public BasalScheduleExtraCommand(@NonNull BasalSchedule schedule, Duration scheduleOffset,
@@ -61,23 +60,24 @@ public class BasalScheduleExtraCommand extends MessageBlock {
         double timeBetweenPulses = 3600.0 / pulsesPerHour;
         delayUntilNextTenthOfPulseInSeconds = (timeRemainingInEntryInSeconds % (timeBetweenPulses / 10.0));
         remainingPulses = pulsesPerHour * (timeRemainingInEntryInSeconds - delayUntilNextTenthOfPulseInSeconds) / 3600.0 + 0.1;
+    }
 
-        encode();
+    @Override
+    protected int getDataLength() {
+        return 8 + rateEntries.size() * RateEntry.RAW_LENGTH;
     }
 
-    private void encode() {
+    @Override
+    protected void writeData(ByteBuffer buffer) {
         byte beepOptions = (byte) ((programReminderInterval.getStandardMinutes() & 0x3f) + (completionBeep ? 1 << 6 : 0) + (acknowledgementBeep ? 1 << 7 : 0));
 
-        encodedData = new byte[]{
-                beepOptions,
-                currentEntryIndex
-        };
-
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, ByteUtil.INSTANCE.getBytesFromInt16((int) Math.round(remainingPulses * 10)));
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, ByteUtil.INSTANCE.getBytesFromInt((int) Math.round(delayUntilNextTenthOfPulseInSeconds * 1000 * 1000)));
+        buffer.put(beepOptions);
+        buffer.put(currentEntryIndex);
+        buffer.putShort((short) Math.round(remainingPulses * 10));
+        buffer.putInt((int) Math.round(delayUntilNextTenthOfPulseInSeconds * 1000 * 1000));
 
         for (RateEntry entry : rateEntries) {
-            encodedData = ByteUtil.INSTANCE.concat(encodedData, entry.getRawData());
+            entry.writeTo(buffer);
         }
     }
 
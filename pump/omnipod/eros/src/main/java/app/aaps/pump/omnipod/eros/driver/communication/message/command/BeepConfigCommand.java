@@ -4,7 +4,8 @@ import androidx.annotation.NonNull;
 
 import org.joda.time.Duration;
 
-import app.aaps.core.utils.pump.ByteUtil;
+import java.nio.ByteBuffer;
+
 import app.aaps.pump.omnipod.eros.driver.communication.message.MessageBlock;
 import app.aaps.pump.omnipod.eros.driver.definition.BeepConfigType;
 import app.aaps.pump.omnipod.eros.driver.definition.MessageBlockType;
@@ -28,15 +29,19 @@ public class BeepConfigCommand extends MessageBlock {
         this.tempBasalIntervalBeep = tempBasalIntervalBeep;
         this.bolusCompletionBeep = bolusCompletionBeep;
         this.bolusIntervalBeep = bolusIntervalBeep;
+    }
 
-        encode();
+    @Override
+    protected int getDataLength() {
+        return 4;
     }
 
-    private void encode() {
-        encodedData = new byte[]{beepType.getValue()};
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, (byte) ((basalCompletionBeep ? (1 << 6) : 0) + (basalIntervalBeep.getStandardMinutes() & 0x3f)));
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, (byte) ((tempBasalCompletionBeep ? (1 << 6) : 0) + (tempBasalIntervalBeep.getStandardMinutes() & 0x3f)));
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, (byte) ((bolusCompletionBeep ? (1 << 6) : 0) + (bolusIntervalBeep.getStandardMinutes() & 0x3f)));
+    @Override
+    protected void writeData(ByteBuffer buffer) {
+        buffer.put(beepType.getValue());
+        buffer.put((byte) ((basalCompletionBeep ? (1 << 6) : 0) + (basalIntervalBeep.getStandardMinutes() & 0x3f)));
+        buffer.put((byte) ((tempBasalCompletionBeep ? (1 << 6) : 0) + (tempBasalIntervalBeep.getStandardMinutes() & 0x3f)));
+        buffer.put((byte) ((bolusCompletionBeep ? (1 << 6) : 0) + (bolusIntervalBeep.getStandardMinutes() & 0x3f)));
     }
 
     @NonNull @Override
@@ -4,7 +4,8 @@ import androidx.annotation.NonNull;
 
 import org.joda.time.Duration;
 
-import app.aaps.core.utils.pump.ByteUtil;
+import java.nio.ByteBuffer;
+
 import app.aaps.pump.omnipod.eros.driver.communication.message.MessageBlock;
 import app.aaps.pump.omnipod.eros.driver.definition.MessageBlockType;
 import app.aaps.pump.omnipod.eros.driver.definition.OmnipodConstants;
@@ -41,20 +42,25 @@ public class BolusExtraCommand extends MessageBlock {
         this.completionBeep = completionBeep;
         this.programReminderInterval = programReminderInterval;
         this.timeBetweenPulses = timeBetweenPulses;
-        encode();
     }
 
-    private void encode() {
+    @Override
+    protected int getDataLength() {
+        return 13;
+    }
+
+    @Override
+    protected void writeData(ByteBuffer buffer) {
         byte beepOptions = (byte) ((programReminderInterval.getStandardMinutes() & 0x3f) + (completionBeep ? 1 << 6 : 0) + (acknowledgementBeep ? 1 << 7 : 0));
 
         int squareWavePulseCountCountX10 = (int) Math.round(squareWaveUnits * 200);
         int timeBetweenExtendedPulses = squareWavePulseCountCountX10 > 0 ? (int) squareWaveDuration.getMillis() * 100 / squareWavePulseCountCountX10 : 0;
 
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, beepOptions);
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, ByteUtil.INSTANCE.getBytesFromInt16((int) Math.round(units * 200)));
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, ByteUtil.INSTANCE.getBytesFromInt((int) timeBetweenPulses.getMillis() * 100));
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, ByteUtil.INSTANCE.getBytesFromInt16(squareWavePulseCountCountX10));
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, ByteUtil.INSTANCE.getBytesFromInt(timeBetweenExtendedPulses));
+        buffer.put(beepOptions);
+        buffer.putShort((short) Math.round(units * 200));
+        buffer.putInt((int) timeBetweenPulses.getMillis() * 100);
+        buffer.putShort((short) squareWavePulseCountCountX10);
+        buffer.putInt(timeBetweenExtendedPulses);
     }
 
     @Override
@@ -2,9 +2,9 @@ package app.aaps.pump.omnipod.eros.driver.communication.message.command;
 
 import androidx.annotation.NonNull;
 
+import java.nio.ByteBuffer;
 import java.util.EnumSet;
 
-import app.aaps.core.utils.pump.ByteUtil;
 import app.aaps.pump.omnipod.eros.driver.communication.message.NonceResyncableMessageBlock;
 import app.aaps.pump.omnipod.eros.driver.definition.BeepType;
 import app.aaps.pump.omnipod.eros.driver.definition.DeliveryType;
@@ -20,7 +20,6 @@ public class CancelDeliveryCommand extends NonceResyncableMessageBlock {
         this.nonce = nonce;
         this.beepType = beepType;
         this.deliveryTypes = deliveryTypes;
-        encode();
     }
 
     public CancelDeliveryCommand(int nonce, BeepType beepType, DeliveryType deliveryType) {
@@ -32,23 +31,29 @@ public class CancelDeliveryCommand extends NonceResyncableMessageBlock {
         return MessageBlockType.CANCEL_DELIVERY;
     }
 
-    private void encode() {
-        encodedData = new byte[5];
-        System.arraycopy(ByteUtil.INSTANCE.getBytesFromInt(nonce), 0, encodedData, 0, 4);
+    @Override
+    protected int getDataLength() {
+        return 5;
+    }
+
+    @Override
+    protected void writeData(ByteBuffer buffer) {
+        buffer.putInt(nonce);
         byte beepTypeValue = beepType.getValue();
         if (beepTypeValue > 8) {
             beepTypeValue = 0;
         }
-        encodedData[4] = (byte) ((beepTypeValue & 0x0F) << 4);
+        byte deliveryTypeValue = (byte) ((beepTypeValue & 0x0F) << 4);
         if (deliveryTypes.contains(DeliveryType.BASAL)) {
-            encodedData[4] |= 1;
+            deliveryTypeValue |= 1;
         }
         if (deliveryTypes.contains(DeliveryType.TEMP_BASAL)) {
-            encodedData[4] |= 2;
+            deliveryTypeValue |= 2;
         }
         if (deliveryTypes.contains(DeliveryType.BOLUS)) {
-            encodedData[4] |= 4;
+            deliveryTypeValue |= 4;
         }
+        buffer.put(deliveryTypeValue);
     }
 
     @Override
@@ -59,7 +64,6 @@ public class CancelDeliveryCommand extends NonceResyncableMessageBlock {
     @Override
     public void setNonce(int nonce) {
         this.nonce = nonce;
-        encode();
     }
 
     public EnumSet<DeliveryType> getDeliveryTypes() {
@@ -2,9 +2,9 @@ package app.aaps.pump.omnipod.eros.driver.communication.message.command;
 
 import androidx.annotation.NonNull;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
-import app.aaps.core.utils.pump.ByteUtil;
 import app.aaps.pump.omnipod.eros.driver.communication.message.NonceResyncableMessageBlock;
 import app.aaps.pump.omnipod.eros.driver.definition.AlertConfiguration;
 import app.aaps.pump.omnipod.eros.driver.definition.MessageBlockType;
@@ -16,7 +16,6 @@ public class ConfigureAlertsCommand extends NonceResyncableMessageBlock {
     public ConfigureAlertsCommand(int nonce, List<AlertConfiguration> configurations) {
         this.nonce = nonce;
         this.configurations = configurations;
-        encode();
     }
 
     @Override
@@ -24,10 +23,20 @@ public class ConfigureAlertsCommand extends NonceResyncableMessageBlock {
         return MessageBlockType.CONFIGURE_ALERTS;
     }
 
-    private void encode() {
-        encodedData = ByteUtil.INSTANCE.getBytesFromInt(nonce);
+    @Override
+    protected int getDataLength() {
+        int length = 4;
+        for (AlertConfiguration config : configurations) {
+            length += config.getRawLength();
+        }
+        return length;
+    }
+
+    @Override
+    protected void writeData(ByteBuffer buffer) {
+        buffer.putInt(nonce);
         for (AlertConfiguration config : configurations) {
-            encodedData = ByteUtil.INSTANCE.concat(encodedData, config.getRawData());
+            config.writeTo(buffer);
         }
     }
 
@@ -39,7 +48,6 @@ public class ConfigureAlertsCommand extends NonceResyncableMessageBlock {
     @Override
     public void setNonce(int nonce) {
         this.nonce = nonce;
-        encode();
     }
 
     @Override @NonNull
@@ -2,7 +2,8 @@ package app.aaps.pump.omnipod.eros.driver.communication.message.command;
 
 import androidx.annotation.NonNull;
 
-import app.aaps.core.utils.pump.ByteUtil;
+import java.nio.ByteBuffer;
+
 import app.aaps.pump.omnipod.eros.driver.communication.message.NonceResyncableMessageBlock;
 import app.aaps.pump.omnipod.eros.driver.definition.MessageBlockType;
 
@@ -11,7 +12,6 @@ public class DeactivatePodCommand extends NonceResyncableMessageBlock {
 
     public DeactivatePodCommand(int nonce) {
         this.nonce = nonce;
-        encode();
     }
 
     @NonNull @Override
@@ -19,8 +19,14 @@ public class DeactivatePodCommand extends NonceResyncableMessageBlock {
         return MessageBlockType.DEACTIVATE_POD;
     }
 
-    private void encode() {
-        encodedData = ByteUtil.INSTANCE.getBytesFromInt(nonce);
+    @Override
+    protected int getDataLength() {
+        return 4;
+    }
+
+    @Override
+    protected void writeData(ByteBuffer buffer) {
+        buffer.putInt(nonce);
     }
 
     @Override
@@ -31,7 +37,6 @@ public class DeactivatePodCommand extends NonceResyncableMessageBlock {
     @Override
     public void setNonce(int nonce) {
         this.nonce = nonce;
-        encode();
     }
 
     @Override @NonNull
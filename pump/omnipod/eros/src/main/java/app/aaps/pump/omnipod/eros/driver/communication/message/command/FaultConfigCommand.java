@@ -2,7 +2,8 @@ package app.aaps.pump.omnipod.eros.driver.communication.message.command;
 
 import androidx.annotation.NonNull;
 
-import app.aaps.core.utils.pump.ByteUtil;
+import java.nio.ByteBuffer;
+
 import app.aaps.pump.omnipod.eros.driver.communication.message.NonceResyncableMessageBlock;
 import app.aaps.pump.omnipod.eros.driver.definition.MessageBlockType;
 
@@ -15,14 +16,18 @@ public class FaultConfigCommand extends NonceResyncableMessageBlock {
         this.nonce = nonce;
         this.tab5sub16 = tab5sub16;
         this.tab5sub17 = tab5sub17;
+    }
 
-        encode();
+    @Override
+    protected int getDataLength() {
+        return 6;
     }
 
-    private void encode() {
-        encodedData = ByteUtil.INSTANCE.getBytesFromInt(nonce);
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, tab5sub16);
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, tab5sub17);
+    @Override
+    protected void writeData(ByteBuffer buffer) {
+        buffer.putInt(nonce);
+        buffer.put(tab5sub16);
+        buffer.put(tab5sub17);
     }
 
     @Override
@@ -38,7 +43,6 @@ public class FaultConfigCommand extends NonceResyncableMessageBlock {
     @Override
     public void setNonce(int nonce) {
         this.nonce = nonce;
-        encode();
     }
 
     @Override @NonNull
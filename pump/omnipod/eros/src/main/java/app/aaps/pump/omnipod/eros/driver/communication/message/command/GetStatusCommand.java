@@ -2,6 +2,8 @@ package app.aaps.pump.omnipod.eros.driver.communication.message.command;
 
 import androidx.annotation.NonNull;
 
+import java.nio.ByteBuffer;
+
 import app.aaps.pump.omnipod.eros.driver.communication.message.MessageBlock;
 import app.aaps.pump.omnipod.eros.driver.definition.MessageBlockType;
 import app.aaps.pump.omnipod.eros.driver.definition.PodInfoType;
@@ -11,11 +13,16 @@ public class GetStatusCommand extends MessageBlock {
 
     public GetStatusCommand(PodInfoType podInfoType) {
         this.podInfoType = podInfoType;
-        encode();
     }
 
-    private void encode() {
-        encodedData = new byte[]{podInfoType.getValue()};
+    @Override
+    protected int getDataLength() {
+        return 1;
+    }
+
+    @Override
+    protected void writeData(ByteBuffer buffer) {
+        buffer.put(podInfoType.getValue());
     }
 
     @Override
@@ -4,7 +4,8 @@ import androidx.annotation.NonNull;
 
 import org.joda.time.Duration;
 
-import app.aaps.core.utils.pump.ByteUtil;
+import java.nio.ByteBuffer;
+
 import app.aaps.pump.omnipod.eros.driver.communication.message.NonceResyncableMessageBlock;
 import app.aaps.pump.omnipod.eros.driver.definition.MessageBlockType;
 import app.aaps.pump.omnipod.eros.driver.definition.OmnipodConstants;
@@ -18,13 +19,17 @@ import app.aaps.pump.omnipod.eros.driver.definition.schedule.TempBasalDeliverySc
 public class SetInsulinScheduleCommand extends NonceResyncableMessageBlock {
 
     private final DeliverySchedule schedule;
+    // schedule doesn't change, only nonce is updated on resync
+    private final byte[] scheduleData;
+    private final int scheduleChecksum;
     private int nonce;
 
     // Bolus
     public SetInsulinScheduleCommand(int nonce, BolusDeliverySchedule schedule) {
         this.nonce = nonce;
         this.schedule = schedule;
-        encode();
+        this.scheduleData = this.schedule.getRawData();
+        this.scheduleChecksum = this.schedule.getChecksum();
     }
 
     // Basal schedule
@@ -46,7 +51,8 @@ public class SetInsulinScheduleCommand extends NonceResyncableMessageBlock {
 
         this.nonce = nonce;
         this.schedule = new BasalDeliverySchedule(segment, timeRemainingInSegment, pulsesRemainingInSegment, table);
-        encode();
+        this.scheduleData = this.schedule.getRawData();
+        this.scheduleChecksum = this.schedule.getChecksum();
     }
 
     // Temp basal
@@ -63,14 +69,21 @@ public class SetInsulinScheduleCommand extends NonceResyncableMessageBlock {
         int pulsesPerSegment = pulsesPerHour / 2;
         this.nonce = nonce;
         this.schedule = new TempBasalDeliverySchedule(BasalDeliveryTable.SEGMENT_DURATION, pulsesPerSegment, new BasalDeliveryTable(tempBasalRate, duration));
-        encode();
+        this.scheduleData = this.schedule.getRawData();
+        this.scheduleChecksum = this.schedule.getChecksum();
     }
 
-    private void encode() {
-        encodedData = ByteUtil.INSTANCE.getBytesFromInt(nonce);
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, schedule.getType().getValue());
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, ByteUtil.INSTANCE.getBytesFromInt16(schedule.getChecksum()));
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, schedule.getRawData());
+    @Override
+    protected int getDataLength() {
+        return 7 + scheduleData.length;
+    }
+
+    @Override
+    protected void writeData(ByteBuffer buffer) {
+        buffer.putInt(nonce);
+        buffer.put(schedule.getType().getValue());
+        buffer.putShort((short) scheduleChecksum);
+        buffer.put(scheduleData);
     }
 
     @Override
@@ -86,7 +99,6 @@ public class SetInsulinScheduleCommand extends NonceResyncableMessageBlock {
     @Override
     public void setNonce(int nonce) {
         this.nonce = nonce;
-        encode();
     }
 
     @NonNull @Override
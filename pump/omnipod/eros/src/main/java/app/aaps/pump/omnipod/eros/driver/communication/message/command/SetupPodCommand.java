@@ -4,7 +4,8 @@ import androidx.annotation.NonNull;
 
 import org.joda.time.DateTime;
 
-import app.aaps.core.utils.pump.ByteUtil;
+import java.nio.ByteBuffer;
+
 import app.aaps.pump.omnipod.eros.driver.communication.message.MessageBlock;
 import app.aaps.pump.omnipod.eros.driver.definition.MessageBlockType;
 
@@ -22,7 +23,6 @@ public class SetupPodCommand extends MessageBlock {
         this.lot = lot;
         this.tid = tid;
         this.date = date;
-        encode();
     }
 
     @Override
@@ -30,20 +30,23 @@ public class SetupPodCommand extends MessageBlock {
         return MessageBlockType.SETUP_POD;
     }
 
-    private void encode() {
-        encodedData = new byte[0];
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, ByteUtil.INSTANCE.getBytesFromInt(address));
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, new byte[]{ //
-                (byte) 0x14, // unknown
-                PACKET_TIMEOUT_LIMIT, //
-                (byte) date.monthOfYear().get(), //
-                (byte) date.dayOfMonth().get(), //
-                (byte) (date.year().get() - 2000), //
-                (byte) date.hourOfDay().get(), //
-                (byte) date.minuteOfHour().get() //
-        });
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, ByteUtil.INSTANCE.getBytesFromInt(lot));
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, ByteUtil.INSTANCE.getBytesFromInt(tid));
+    @Override
+    protected int getDataLength() {
+        return 19;
+    }
+
+    @Override
+    protected void writeData(ByteBuffer buffer) {
+        buffer.putInt(address);
+        buffer.put((byte) 0x14); // unknown
+        buffer.put(PACKET_TIMEOUT_LIMIT);
+        buffer.put((byte) date.monthOfYear().get());
+        buffer.put((byte) date.dayOfMonth().get());
+        buffer.put((byte) (date.year().get() - 2000));
+        buffer.put((byte) date.hourOfDay().get());
+        buffer.put((byte) date.minuteOfHour().get());
+        buffer.putInt(lot);
+        buffer.putInt(tid);
     }
 
     @NonNull @Override
@@ -2,9 +2,9 @@ package app.aaps.pump.omnipod.eros.driver.communication.message.command;
 
 import org.joda.time.Duration;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
-import app.aaps.core.utils.pump.ByteUtil;
 import app.aaps.pump.omnipod.eros.driver.communication.message.MessageBlock;
 import app.aaps.pump.omnipod.eros.driver.definition.MessageBlockType;
 import app.aaps.pump.omnipod.eros.driver.definition.OmnipodConstants;
@@ -42,27 +42,28 @@ public class TempBasalExtraCommand extends MessageBlock {
         RateEntry currentRateEntry = rateEntries.get(0);
         remainingPulses = currentRateEntry.getTotalPulses();
         delayUntilNextPulse = currentRateEntry.getDelayBetweenPulsesInSeconds();
+    }
 
-        encode();
+    @Override
+    protected int getDataLength() {
+        return 8 + rateEntries.size() * RateEntry.RAW_LENGTH;
     }
 
-    private void encode() {
+    @Override
+    protected void writeData(ByteBuffer buffer) {
         byte beepOptions = (byte) ((programReminderInterval.getStandardMinutes() & 0x3f) + (completionBeep ? 1 << 6 : 0) + (acknowledgementBeep ? 1 << 7 : 0));
 
-        encodedData = new byte[]{
-                beepOptions,
-                (byte) 0x00
-        };
-
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, ByteUtil.INSTANCE.getBytesFromInt16((int) Math.round(remainingPulses * 10)));
+        buffer.put(beepOptions);
+        buffer.put((byte) 0x00);
+        buffer.putShort((short) Math.round(remainingPulses * 10));
         if (remainingPulses == 0) {
-            encodedData = ByteUtil.INSTANCE.concat(encodedData, ByteUtil.INSTANCE.getBytesFromInt((int) (delayUntilNextPulse * 1000 * 100) * 10));
+            buffer.putInt((int) (delayUntilNextPulse * 1000 * 100) * 10);
         } else {
-            encodedData = ByteUtil.INSTANCE.concat(encodedData, ByteUtil.INSTANCE.getBytesFromInt((int) (delayUntilNextPulse * 1000 * 100)));
+            buffer.putInt((int) (delayUntilNextPulse * 1000 * 100));
         }
 
         for (RateEntry entry : rateEntries) {
-            encodedData = ByteUtil.INSTANCE.concat(encodedData, entry.getRawData());
+            entry.writeTo(buffer);
         }
     }
 
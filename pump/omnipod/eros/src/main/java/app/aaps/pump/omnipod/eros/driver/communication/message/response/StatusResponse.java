@@ -4,8 +4,7 @@ import androidx.annotation.NonNull;
 
 import org.joda.time.Duration;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import app.aaps.core.utils.pump.ByteUtil;
 import app.aaps.pump.omnipod.eros.driver.communication.message.MessageBlock;
@@ -29,28 +28,33 @@ public class StatusResponse extends MessageBlock implements StatusUpdatableRespo
     private final AlertSet unacknowledgedAlerts;
 
     public StatusResponse(byte[] encodedData) {
-        if (encodedData.length < MESSAGE_LENGTH) {
+        this(encodedData, 0);
+    }
+
+    // Parses the status response in place, starting at offset of the message block type byte
+    public StatusResponse(byte[] data, int offset) {
+        if (data.length - offset < MESSAGE_LENGTH) {
             throw new IllegalArgumentException("Not enough data");
         }
-        this.encodedData = ByteUtil.INSTANCE.substring(encodedData, 1, MESSAGE_LENGTH - 1);
+        this.encodedData = ByteUtil.INSTANCE.substring(data, offset + 1, MESSAGE_LENGTH - 1);
 
-        deliveryStatus = DeliveryStatus.fromByte((byte) (ByteUtil.INSTANCE.convertUnsignedByteToInt(encodedData[1]) >>> 4));
-        podProgressStatus = PodProgressStatus.fromByte((byte) (encodedData[1] & 0x0F));
+        deliveryStatus = DeliveryStatus.fromByte((byte) (ByteUtil.INSTANCE.convertUnsignedByteToInt(data[offset + 1]) >>> 4));
+        podProgressStatus = PodProgressStatus.fromByte((byte) (data[offset + 1] & 0x0F));
 
-        int minutes = ((encodedData[7] & 0x7F) << 6) | ((encodedData[8] & 0xFC) >>> 2);
+        int minutes = ((data[offset + 7] & 0x7F) << 6) | ((data[offset + 8] & 0xFC) >>> 2);
         timeActive = Duration.standardMinutes(minutes);
 
-        int highInsulinBits = (encodedData[2] & 0xF) << 9;
-        int middleInsulinBits = ByteUtil.INSTANCE.convertUnsignedByteToInt(encodedData[3]) << 1;
-        int lowInsulinBits = ByteUtil.INSTANCE.convertUnsignedByteToInt(encodedData[4]) >>> 7;
+        int highInsulinBits = (data[offset + 2] & 0xF) << 9;
+        int middleInsulinBits = ByteUtil.INSTANCE.convertUnsignedByteToInt(data[offset + 3]) << 1;
+        int lowInsulinBits = ByteUtil.INSTANCE.convertUnsignedByteToInt(data[offset + 4]) >>> 7;
         ticksDelivered = (highInsulinBits | middleInsulinBits | lowInsulinBits);
         insulinDelivered = OmnipodConstants.POD_PULSE_SIZE * ticksDelivered;
-        podMessageCounter = (byte) ((encodedData[4] >>> 3) & 0xf);
+        podMessageCounter = (byte) ((data[offset + 4] >>> 3) & 0xf);
 
-        bolusNotDelivered = OmnipodConstants.POD_PULSE_SIZE * (((encodedData[4] & 0x03) << 8) | ByteUtil.INSTANCE.convertUnsignedByteToInt(encodedData[5]));
-        unacknowledgedAlerts = new AlertSet((byte) (((encodedData[6] & 0x7f) << 1) | (ByteUtil.INSTANCE.convertUnsignedByteToInt(encodedData[7]) >>> 7)));
+        bolusNotDelivered = OmnipodConstants.POD_PULSE_SIZE * (((data[offset + 4] & 0x03) << 8) | ByteUtil.INSTANCE.convertUnsignedByteToInt(data[offset + 5]));
+        unacknowledgedAlerts = new AlertSet((byte) (((data[offset + 6] & 0x7f) << 1) | (ByteUtil.INSTANCE.convertUnsignedByteToInt(data[offset + 7]) >>> 7)));
 
-        double reservoirValue = (((encodedData[8] & 0x3) << 8) + ByteUtil.INSTANCE.convertUnsignedByteToInt(encodedData[9])) * OmnipodConstants.POD_PULSE_SIZE;
+        double reservoirValue = (((data[offset + 8] & 0x3) << 8) + ByteUtil.INSTANCE.convertUnsignedByteToInt(data[offset + 9])) * OmnipodConstants.POD_PULSE_SIZE;
         if (reservoirValue > OmnipodConstants.MAX_RESERVOIR_READING) {
             reservoirLevel = null;
         } else {
@@ -99,16 +103,13 @@ public class StatusResponse extends MessageBlock implements StatusUpdatableRespo
         return unacknowledgedAlerts;
     }
 
-    @Override public byte[] getRawData() {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        try {
-            stream.write(getType().getValue());
-            stream.write(encodedData);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
-        }
-        return stream.toByteArray();
+    @Override public int getRawLength() {
+        return 1 + encodedData.length;
+    }
+
+    @Override public void writeTo(ByteBuffer buffer) {
+        buffer.put(getType().getValue());
+        buffer.put(encodedData);
     }
 
     @NonNull @Override public String toString() {
@@ -12,10 +12,15 @@ public class PodInfoResponse extends MessageBlock {
     private final PodInfo podInfo;
 
     public PodInfoResponse(@NonNull byte[] encodedData) {
-        int bodyLength = ByteUtil.INSTANCE.convertUnsignedByteToInt(encodedData[1]);
+        this(encodedData, 0);
+    }
+
+    // Parses the pod info response in place, starting at offset of the message block type byte
+    public PodInfoResponse(@NonNull byte[] data, int offset) {
+        int bodyLength = ByteUtil.INSTANCE.convertUnsignedByteToInt(data[offset + 1]);
 
-        this.encodedData = ByteUtil.INSTANCE.substring(encodedData, 2, bodyLength);
-        subType = PodInfoType.fromByte(encodedData[2]);
+        this.encodedData = ByteUtil.INSTANCE.substring(data, offset + 2, bodyLength);
+        subType = PodInfoType.fromByte(data[offset + 2]);
         podInfo = subType.decode(this.encodedData, bodyLength);
     }
 
@@ -4,7 +4,7 @@ import androidx.annotation.NonNull;
 
 import org.joda.time.Duration;
 
-import app.aaps.core.utils.pump.ByteUtil;
+import java.nio.ByteBuffer;
 
 public class AlertConfiguration {
     private final AlertType alertType;
@@ -46,6 +46,17 @@ public class AlertConfiguration {
     }
 
     public byte[] getRawData() {
+        byte[] encodedData = new byte[getRawLength()];
+        writeTo(ByteBuffer.wrap(encodedData));
+        return encodedData;
+    }
+
+    public int getRawLength() {
+        boolean hasTriggerValue = alertTrigger instanceof UnitsRemainingAlertTrigger || alertTrigger instanceof TimerAlertTrigger;
+        return hasTriggerValue ? 6 : 4;
+    }
+
+    public void writeTo(ByteBuffer buffer) {
         int firstByte = (alertSlot.getValue() << 4);
         firstByte += active ? (1 << 3) : 0;
 
@@ -59,23 +70,19 @@ public class AlertConfiguration {
 
         firstByte += ((int) duration.getStandardMinutes() >>> 8) & 0x1;
 
-        byte[] encodedData = new byte[]{
-                (byte) firstByte,
-                (byte) duration.getStandardMinutes()
-        };
+        buffer.put((byte) firstByte);
+        buffer.put((byte) duration.getStandardMinutes());
 
         if (alertTrigger instanceof UnitsRemainingAlertTrigger) {
             int ticks = (int) (((UnitsRemainingAlertTrigger) alertTrigger).getValue() / OmnipodConstants.POD_PULSE_SIZE / 2);
-            encodedData = ByteUtil.INSTANCE.concat(encodedData, ByteUtil.INSTANCE.getBytesFromInt16(ticks));
+            buffer.putShort((short) ticks);
         } else if (alertTrigger instanceof TimerAlertTrigger) {
             int durationInMinutes = (int) ((TimerAlertTrigger) alertTrigger).getValue().getStandardMinutes();
-            encodedData = ByteUtil.INSTANCE.concat(encodedData, ByteUtil.INSTANCE.getBytesFromInt16(durationInMinutes));
+            buffer.putShort((short) durationInMinutes);
         }
 
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, beepRepeat.getValue());
-        encodedData = ByteUtil.INSTANCE.concat(encodedData, beepType.getValue());
-
-        return encodedData;
+        buffer.put(beepRepeat.getValue());
+        buffer.put(beepType.getValue());
     }
 
     @NonNull @Override public String toString() {
@@ -2,6 +2,7 @@ package app.aaps.pump.omnipod.eros.driver.definition;
 
 import org.apache.commons.lang3.NotImplementedException;
 
+import app.aaps.core.utils.pump.ByteUtil;
 import app.aaps.pump.omnipod.eros.driver.communication.message.MessageBlock;
 import app.aaps.pump.omnipod.eros.driver.communication.message.response.ErrorResponse;
 import app.aaps.pump.omnipod.eros.driver.communication.message.response.StatusResponse;
@@ -47,15 +48,27 @@ public enum MessageBlockType {
     }
 
     public MessageBlock decode(byte[] encodedData) {
+        return decode(encodedData, 0);
+    }
+
+    // Decodes the message block starting at offset, pod info and status responses are parsed in place
+    public MessageBlock decode(byte[] data, int offset) {
+        switch (this) {
+            case POD_INFO_RESPONSE:
+                return new PodInfoResponse(data, offset);
+            case STATUS_RESPONSE:
+                return new StatusResponse(data, offset);
+            default:
+                return decodeCopy(offset == 0 ? data : ByteUtil.INSTANCE.substring(data, offset));
+        }
+    }
+
+    private MessageBlock decodeCopy(byte[] encodedData) {
         switch (this) {
             case VERSION_RESPONSE:
                 return new VersionResponse(encodedData);
             case ERROR_RESPONSE:
                 return new ErrorResponse(encodedData);
-            case POD_INFO_RESPONSE:
-                return new PodInfoResponse(encodedData);
-            case STATUS_RESPONSE:
-                return new StatusResponse(encodedData);
             default:
                 throw new NotImplementedException(this.name());
         }
@@ -6,15 +6,17 @@ import androidx.annotation.NonNull;
 
 import org.joda.time.Duration;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
-import app.aaps.core.utils.pump.ByteUtil;
 import app.aaps.pump.omnipod.eros.driver.communication.message.IRawRepresentable;
 import app.aaps.pump.omnipod.eros.driver.definition.OmnipodConstants;
 
 public class RateEntry implements IRawRepresentable {
 
+    public static final int RAW_LENGTH = 6;
+
     private final double totalPulses;
     // We use a double for the delay between pulses because the Joda time API lacks precision for our calculations
     private final double delayBetweenPulsesInSeconds;
@@ -68,14 +70,18 @@ public class RateEntry implements IRawRepresentable {
 
     @Override
     public byte[] getRawData() {
-        byte[] rawData = new byte[0];
-        rawData = ByteUtil.INSTANCE.concat(rawData, ByteUtil.INSTANCE.getBytesFromInt16((int) Math.round(totalPulses * 10)));
+        byte[] rawData = new byte[RAW_LENGTH];
+        writeTo(ByteBuffer.wrap(rawData));
+        return rawData;
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putShort((short) Math.round(totalPulses * 10));
         if (totalPulses == 0) {
-            rawData = ByteUtil.INSTANCE.concat(rawData, ByteUtil.INSTANCE.getBytesFromInt((int) (delayBetweenPulsesInSeconds * 1000 * 1000)));
+            buffer.putInt((int) (delayBetweenPulsesInSeconds * 1000 * 1000));
         } else {
-            rawData = ByteUtil.INSTANCE.concat(rawData, ByteUtil.INSTANCE.getBytesFromInt((int) (delayBetweenPulsesInSeconds * 1000 * 100)));
+            buffer.putInt((int) (delayBetweenPulsesInSeconds * 1000 * 100));
         }
-        return rawData;
     }
 
     @NonNull @Override
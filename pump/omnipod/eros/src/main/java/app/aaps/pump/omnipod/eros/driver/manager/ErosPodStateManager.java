@@ -204,7 +204,7 @@ public abstract class ErosPodStateManager {
         }
 
         int sum = (sentNonce & 0xFFFF)
-                + OmnipodCrc.crc16lookup[sequenceNumber]
+                + OmnipodCrc.crc16TableEntry(sequenceNumber)
                 + (podState.getLot() & 0xFFFF)
                 + (podState.getTid() & 0xFFFF);
         int seed = ((sum & 0xFFFF) ^ syncWord);
@@ -0,0 +1,235 @@
+package app.aaps.pump.omnipod.eros.driver.communication.message;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import app.aaps.core.utils.pump.ByteUtil;
+import app.aaps.pump.omnipod.eros.driver.communication.message.command.AcknowledgeAlertsCommand;
+import app.aaps.pump.omnipod.eros.driver.communication.message.command.AssignAddressCommand;
+import app.aaps.pump.omnipod.eros.driver.communication.message.command.BasalScheduleExtraCommand;
+import app.aaps.pump.omnipod.eros.driver.communication.message.command.BeepConfigCommand;
+import app.aaps.pump.omnipod.eros.driver.communication.message.command.BolusExtraCommand;
+import app.aaps.pump.omnipod.eros.driver.communication.message.command.CancelDeliveryCommand;
+import app.aaps.pump.omnipod.eros.driver.communication.message.command.ConfigureAlertsCommand;
+import app.aaps.pump.omnipod.eros.driver.communication.message.command.DeactivatePodCommand;
+import app.aaps.pump.omnipod.eros.driver.communication.message.command.FaultConfigCommand;
+import app.aaps.pump.omnipod.eros.driver.communication.message.command.GetStatusCommand;
+import app.aaps.pump.omnipod.eros.driver.communication.message.command.SetInsulinScheduleCommand;
+import app.aaps.pump.omnipod.eros.driver.communication.message.command.SetupPodCommand;
+import app.aaps.pump.omnipod.eros.driver.communication.message.command.TempBasalExtraCommand;
+import app.aaps.pump.omnipod.eros.driver.communication.message.response.StatusResponse;
+import app.aaps.pump.omnipod.eros.driver.definition.AlertConfiguration;
+import app.aaps.pump.omnipod.eros.driver.definition.AlertSet;
+import app.aaps.pump.omnipod.eros.driver.definition.AlertSlot;
+import app.aaps.pump.omnipod.eros.driver.definition.AlertType;
+import app.aaps.pump.omnipod.eros.driver.definition.BeepConfigType;
+import app.aaps.pump.omnipod.eros.driver.definition.BeepRepeat;
+import app.aaps.pump.omnipod.eros.driver.definition.BeepType;
+import app.aaps.pump.omnipod.eros.driver.definition.DeliveryType;
+import app.aaps.pump.omnipod.eros.driver.definition.OmnipodCrc;
+import app.aaps.pump.omnipod.eros.driver.definition.PacketType;
+import app.aaps.pump.omnipod.eros.driver.definition.PodInfoType;
+import app.aaps.pump.omnipod.eros.driver.definition.TimerAlertTrigger;
+import app.aaps.pump.omnipod.eros.driver.definition.UnitsRemainingAlertTrigger;
+import app.aaps.pump.omnipod.eros.driver.definition.schedule.BasalSchedule;
+import app.aaps.pump.omnipod.eros.driver.definition.schedule.BasalScheduleEntry;
+import app.aaps.pump.omnipod.eros.driver.definition.schedule.BolusDeliverySchedule;
+import app.aaps.shared.tests.Benchmark;
+import app.aaps.shared.tests.BenchmarkTest;
+
+class OmnipodMessageTest {
+    @Test
+    void testEncodeGetStatusMessage() {
+        OmnipodMessage message = new OmnipodMessage(0x1f01482a, Collections.singletonList(new GetStatusCommand(PodInfoType.NORMAL)), 4);
+
+        assertThat(message.getEncoded()).isEqualTo(ByteUtil.INSTANCE.fromHexString("1f01482a10030e0100802c"));
+        assertThat(message.getEncodedLength()).isEqualTo(11);
+    }
+
+    @Test
+    void testWriteToReusedBuffer() {
+        OmnipodMessage message = new OmnipodMessage(0x1f01482a, Collections.singletonList(new GetStatusCommand(PodInfoType.NORMAL)), 4);
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.put((byte) 0xff);
+
+        message.writeTo(buffer);
+
+        byte[] written = new byte[buffer.position() - 1];
+        System.arraycopy(buffer.array(), 1, written, 0, written.length);
+        assertThat(written).isEqualTo(message.getEncoded());
+    }
+
+    @Test
+    void testDecodeStatusResponseMessage() {
+        byte[] data = ByteUtil.INSTANCE.fromHexString("1f01482a140a1d180258f80000146fff8211");
+
+        OmnipodMessage message = OmnipodMessage.decodeMessage(data);
+
+        assertThat(message.getAddress()).isEqualTo(0x1f01482a);
+        assertThat(message.getSequenceNumber()).isEqualTo(5);
+        assertThat(message.getMessageBlocks()).hasSize(1);
+        StatusResponse statusResponse = (StatusResponse) message.getMessageBlocks().get(0);
+        assertThat(statusResponse.getTicksDelivered()).isEqualTo(1201);
+        assertThat(statusResponse.getRawLength()).isEqualTo(10);
+        assertThat(message.getEncoded()).isEqualTo(data);
+    }
+
+    @Test
+    void testPaddingUsesEncodedLength() {
+        OmnipodMessage message = new OmnipodMessage(0x1f01482a, Collections.singletonList(new GetStatusCommand(PodInfoType.NORMAL)), 4);
+
+        message.padWithGetStatusCommands(20, null);
+
+        assertThat(message.getEncodedLength()).isEqualTo(message.getEncoded().length);
+        assertThat(message.getEncodedLength()).isGreaterThan(20);
+    }
+
+    @Test
+    void testCrc16OverSlice() {
+        byte[] data = ByteUtil.INSTANCE.fromHexString("001f01482a10030e010000");
+
+        assertThat(OmnipodCrc.crc16(data, 1, 9)).isEqualTo(0x802c);
+        assertThat(OmnipodCrc.crc16(ByteUtil.INSTANCE.fromHexString("1f01482a10030e0100"))).isEqualTo(0x802c);
+    }
+
+    // Expected messages were encoded by previous implementation which concatenated arrays
+
+    private static byte[] encode(MessageBlock... messageBlocks) {
+        return new OmnipodMessage(0x1f01482a, Arrays.asList(messageBlocks), 4).getEncoded();
+    }
+
+    @Test
+    void testEncodeAcknowledgeAlertsMessage() {
+        assertThat(encode(new AcknowledgeAlertsCommand(0x10203040, new AlertSet(Arrays.asList(AlertSlot.SLOT0, AlertSlot.SLOT5)))))
+                .isEqualTo(ByteUtil.INSTANCE.fromHexString("1f01482a1007110510203040218117"));
+    }
+
+    @Test
+    void testEncodeAssignAddressMessage() {
+        assertThat(encode(new AssignAddressCommand(0x11223344))).isEqualTo(ByteUtil.INSTANCE.fromHexString("1f01482a100607041122334483f2"));
+    }
+
+    @Test
+    void testEncodeBasalScheduleMessage() {
+        BasalSchedule schedule = new BasalSchedule(Arrays.asList( //
+                new BasalScheduleEntry(1.05, Duration.ZERO), //
+                new BasalScheduleEntry(0.9, Duration.standardHours(10).plus(Duration.standardMinutes(30))), //
+                new BasalScheduleEntry(1.0, Duration.standardHours(18).plus(Duration.standardMinutes(30)))));
+        Duration scheduleOffset = Duration.standardMinutes((0x2e + 1) * 30).minus(Duration.standardSeconds(0x1be8 / 8));
+
+        assertThat(encode(new SetInsulinScheduleCommand(0x9746c65b, schedule, scheduleOffset),
+                new BasalScheduleExtraCommand(schedule, scheduleOffset, false, true, Duration.ZERO)))
+                .isEqualTo(ByteUtil.INSTANCE.fromHexString("1f01482a10321a149746c65b0003102e1be80005f80a480af009a00a131a4002009600a7d8c0089d0105944905a001312d00044c0112a8808019"));
+    }
+
+    @Test
+    void testEncodeBeepConfigMessage() {
+        assertThat(encode(new BeepConfigCommand(BeepConfigType.BIP_BEEP_BIP_BEEP_BIP_BEEP_BIP_BEEP, true, Duration.ZERO,
+                false, Duration.ZERO, false, Duration.ZERO)))
+                .isEqualTo(ByteUtil.INSTANCE.fromHexString("1f01482a10061e0402400000006e"));
+    }
+
+    @Test
+    void testEncodeBolusMessage() {
+        assertThat(encode(new SetInsulinScheduleCommand(0xbed2e16b, new BolusDeliverySchedule(1.25, Duration.standardSeconds(2))),
+                new BolusExtraCommand(1.25, Duration.standardSeconds(2), false, true)))
+                .isEqualTo(ByteUtil.INSTANCE.fromHexString("1f01482a101f1a0ebed2e16b0200c401019000190019170d4000fa00030d4000000000000082e1"));
+    }
+
+    @Test
+    void testEncodeCancelDeliveryMessage() {
+        assertThat(encode(new CancelDeliveryCommand(0x10203040, BeepType.BIP_BIP, EnumSet.of(DeliveryType.BASAL, DeliveryType.BOLUS))))
+                .isEqualTo(ByteUtil.INSTANCE.fromHexString("1f01482a10071f05102030403501fc"));
+    }
+
+    @Test
+    void testEncodeConfigureAlertsMessage() {
+        AlertConfiguration expirationAdvisory = new AlertConfiguration(AlertType.EXPIRATION_ADVISORY_ALERT, AlertSlot.SLOT7, true, false,
+                Duration.standardHours(7), new TimerAlertTrigger(Duration.standardHours(71)), BeepType.BIP_BEEP_BIP_BEEP_BIP_BEEP_BIP_BEEP,
+                BeepRepeat.EVERY_MINUTE_FOR_3_MINUTES_REPEAT_EVERY_60_MINUTES);
+        AlertConfiguration lowReservoir = new AlertConfiguration(AlertType.LOW_RESERVOIR_ALERT, AlertSlot.SLOT4, true, false,
+                Duration.ZERO, new UnitsRemainingAlertTrigger(10.0), BeepType.BIP_BEEP_BIP_BEEP_BIP_BEEP_BIP_BEEP,
+                BeepRepeat.EVERY_MINUTE_FOR_3_MINUTES_REPEAT_EVERY_60_MINUTES);
+
+        assertThat(encode(new ConfigureAlertsCommand(0xfeb6268b, Arrays.asList(expirationAdvisory, lowReservoir))))
+                .isEqualTo(ByteUtil.INSTANCE.fromHexString("1f01482a10121910feb6268b79a410a401024c00006401028055"));
+    }
+
+    @Test
+    void testEncodeDeactivatePodMessage() {
+        assertThat(encode(new DeactivatePodCommand(0x10203040))).isEqualTo(ByteUtil.INSTANCE.fromHexString("1f01482a10061c04102030400296"));
+    }
+
+    @Test
+    void testEncodeFaultConfigMessage() {
+        assertThat(encode(new FaultConfigCommand(0x10203040, (byte) 0x00, (byte) 0x10))).isEqualTo(ByteUtil.INSTANCE.fromHexString("1f01482a1008080610203040001000e4"));
+    }
+
+    @Test
+    void testEncodeGetDetailedStatusMessage() {
+        assertThat(encode(new GetStatusCommand(PodInfoType.DETAILED_STATUS))).isEqualTo(ByteUtil.INSTANCE.fromHexString("1f01482a10030e01020023"));
+    }
+
+    @Test
+    void testEncodeSetupPodMessage() {
+        assertThat(encode(new SetupPodCommand(0x1f00ee87, new DateTime(2013, 4, 5, 22, 52, 0), 41847, 240439)))
+                .isEqualTo(ByteUtil.INSTANCE.fromHexString("1f01482a101503131f00ee87140404050d16340000a3770003ab37818b"));
+    }
+
+    @Test
+    void testEncodeTempBasalMessage() {
+        assertThat(encode(new SetInsulinScheduleCommand(0xea2d0a3b, 0.2, Duration.standardHours(1)),
+                new TempBasalExtraCommand(0.2, Duration.standardHours(1), false, true, Duration.ZERO)))
+                .isEqualTo(ByteUtil.INSTANCE.fromHexString("1f01482a10201a0eea2d0a3b01008002384000021002160e40000028055d4a800028055d4a808329"));
+    }
+
+    @Test
+    void testEncodeZeroTempBasalMessage() {
+        assertThat(encode(new SetInsulinScheduleCommand(0x10203040, 0.0, Duration.standardHours(3)),
+                new TempBasalExtraCommand(0.0, Duration.standardHours(3), true, true, Duration.standardMinutes(60))))
+                .isEqualTo(ByteUtil.INSTANCE.fromHexString("1f01482a103e1a0e1020304001007e06384000005000162cfc0000006b49d20000006b49d20000006b49d20000006b49d20000006b49d20000006b49d20000006b49d20081b6"));
+    }
+
+    @Test
+    void testEncodeResyncedNonceAndPacket() {
+        OmnipodMessage message = new OmnipodMessage(0x1f01482a, Collections.singletonList(
+                new CancelDeliveryCommand(0x10203040, BeepType.NO_BEEP, DeliveryType.TEMP_BASAL)), 4);
+
+        message.resyncNonce(0xf76d34c4);
+
+        assertThat(message.getEncoded()).isEqualTo(ByteUtil.INSTANCE.fromHexString("1f01482a10071f05f76d34c4020073"));
+        OmnipodPacket packet = new OmnipodPacket(0x1f01482a, PacketType.PDM, 6, message.getEncoded());
+        assertThat(packet.getTxData()).isEqualTo(ByteUtil.INSTANCE.fromHexString("1f01482aa61f01482a10071f05f76d34c40200731c"));
+        assertThat(new OmnipodPacket(packet.getTxData()).getEncodedMessage()).isEqualTo(message.getEncoded());
+    }
+
+    @BenchmarkTest
+    void encodeBenchmark(TestReporter reporter) {
+        BasalSchedule schedule = new BasalSchedule(Arrays.asList( //
+                new BasalScheduleEntry(1.05, Duration.ZERO), //
+                new BasalScheduleEntry(0.9, Duration.standardHours(10).plus(Duration.standardMinutes(30))), //
+                new BasalScheduleEntry(1.0, Duration.standardHours(18).plus(Duration.standardMinutes(30)))));
+        OmnipodMessage basalSchedule = new OmnipodMessage(0x1f01482a, Arrays.asList(new SetInsulinScheduleCommand(0x9746c65b, schedule, Duration.ZERO),
+                new BasalScheduleExtraCommand(schedule, Duration.ZERO, false, true, Duration.ZERO)), 4);
+        OmnipodMessage getStatus = new OmnipodMessage(0x1f01482a, Collections.singletonList(new GetStatusCommand(PodInfoType.NORMAL)), 4);
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+
+        Benchmark benchmark = new Benchmark(reporter);
+        benchmark.measure("basal schedule message", 1, 100_000, basalSchedule::getEncoded);
+        benchmark.measure("status message", 1, 100_000, getStatus::getEncoded);
+        benchmark.measure("status message to reused buffer", 1, 100_000, () -> {
+            buffer.clear();
+            getStatus.writeTo(buffer);
+            return buffer.position();
+        });
+    }
+}
@@ -32,6 +32,16 @@ class StatusResponseTest {
         assertThat(statusResponse.getRawData()).isEqualTo(expected);
     }
 
+    @Test
+    void testParseInPlaceAtOffset() {
+        byte[] data = ByteUtil.INSTANCE.fromHexString("0e01001d180258f80000146fff8211");
+
+        StatusResponse statusResponse = new StatusResponse(data, 3);
+
+        assertThat(statusResponse.getTicksDelivered()).isEqualTo(1201);
+        assertThat(statusResponse.getRawData()).isEqualTo(ByteUtil.INSTANCE.fromHexString("1d180258f80000146fff"));
+    }
+
     @Test
     void testWithSampleCapture() {
         byte[] bytes = ByteUtil.INSTANCE.fromHexString("1d180258f80000146fff"); // From https://github.com/openaps/openomni/wiki/Command-1D-Status-response
@@ -0,0 +1,48 @@
+package app.aaps.pump.omnipod.eros.driver.definition;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+import app.aaps.core.utils.pump.ByteUtil;
+
+// Expected values were computed by previous implementation with its own lookup tables
+class OmnipodCrcTest {
+
+    private static byte[] hex(String data) {
+        return ByteUtil.INSTANCE.fromHexString(data);
+    }
+
+    @Test
+    void testCrc16() {
+        assertThat(OmnipodCrc.crc16(new byte[0])).isEqualTo(0x0000);
+        assertThat(OmnipodCrc.crc16(hex("313233343536373839"))).isEqualTo(0x0265);
+        assertThat(OmnipodCrc.crc16(hex("1f01482a10030e0100"))).isEqualTo(0x802c);
+        assertThat(OmnipodCrc.crc16(hex("1f01482aa61f01482a10071f05f76d34c4020073"))).isEqualTo(0x83a3);
+        assertThat(OmnipodCrc.crc16(hex("ffffffffffffffff"))).isEqualTo(0x81db);
+        assertThat(OmnipodCrc.crc16(hex("80"))).isEqualTo(0x8303);
+        assertThat(OmnipodCrc.crc16(hex("1f01482a10321a149746c65b0003102e1be80005f80a480af009a00a131a4002009600a7d8c0089d0105944905a001312d00044c0112a880")))
+                .isEqualTo(0x8019);
+        assertThat(OmnipodCrc.crc16(hex("001f01482a10030e010000"), 1, 9)).isEqualTo(0x802c);
+    }
+
+    @Test
+    void testCrc8() {
+        assertThat(OmnipodCrc.crc8(new byte[0])).isEqualTo((byte) 0x00);
+        assertThat(OmnipodCrc.crc8(hex("313233343536373839"))).isEqualTo((byte) 0xf4);
+        assertThat(OmnipodCrc.crc8(hex("1f01482a10030e0100"))).isEqualTo((byte) 0x87);
+        assertThat(OmnipodCrc.crc8(hex("1f01482aa61f01482a10071f05f76d34c4020073"))).isEqualTo((byte) 0x1c);
+        assertThat(OmnipodCrc.crc8(hex("ffffffffffffffff"))).isEqualTo((byte) 0xd7);
+        assertThat(OmnipodCrc.crc8(hex("80"))).isEqualTo((byte) 0x89);
+        assertThat(OmnipodCrc.crc8(hex("001f01482a10030e010000"), 2, 5)).isEqualTo((byte) 0xd3);
+    }
+
+    @Test
+    void testCrc16TableEntriesUsedByNonceResync() {
+        int[] expected = {0x0000, 0x8005, 0x800f, 0x000a, 0x801b, 0x001e, 0x0014, 0x8011, 0x8033, 0x0036, 0x003c, 0x8039, 0x0028, 0x802d, 0x8027, 0x0022};
+        for (int i = 0; i < expected.length; i++) {
+            assertThat(OmnipodCrc.crc16TableEntry(i)).isEqualTo(expected[i]);
+        }
+        assertThat(OmnipodCrc.crc16TableEntry(255)).isEqualTo(0x0202);
+    }
+}
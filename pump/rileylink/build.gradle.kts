@@ -17,6 +17,7 @@ dependencies {
     implementation(project(":core:ui"))
     implementation(project(":core:utils"))
     implementation(project(":core:keys"))
+    implementation(project(":pump:common"))
 
     testImplementation(project(":shared:tests"))
 
@@ -10,6 +10,14 @@ import org.junit.jupiter.api.Test
  */
 class CRCTest {
 
+    @Test
+    fun `crc8 and calculate16CCITT match catalogue check values`() {
+        val data = "123456789".toByteArray()
+        // CRC-8/LTE and CRC-16/IBM-3740
+        assertEquals(0xEA.toByte(), CRC.crc8(data))
+        assertArrayEquals(byteArrayOf(0x29, 0xB1.toByte()), CRC.calculate16CCITT(data))
+    }
+
     @Test
     fun `crc8lookup table has 256 entries`() {
         assertEquals(256, CRC.crc8lookup.size)
@@ -0,0 +1,82 @@
+package app.aaps.shared.tests
+
+import org.junit.jupiter.api.Tag
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestReporter
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.concurrent.thread
+
+/**
+ * Benchmark excluded from regular test run
+ *
+ * Run benchmarks of all modules by `./gradlew testFullDebugUnitTest -Pbenchmark`
+ */
+@Target(AnnotationTarget.FUNCTION)
+@Retention(AnnotationRetention.RUNTIME)
+@Tag("benchmark")
+@Test
+annotation class BenchmarkTest
+
+/**
+ * Measurements for [BenchmarkTest], results are published to [reporter]
+ */
+class Benchmark(private val reporter: TestReporter) {
+
+    class Result(val nanosPerOperation: Long, val bytesPerOperation: Long) {
+
+        override fun toString() = "$nanosPerOperation ns, $bytesPerOperation B per operation"
+    }
+
+    // result of measured block is kept so it can't be optimized out
+    @Volatile private var sink: Any? = null
+
+    /**
+     * Time and bytes allocated by current thread per operation
+     *
+     * @param operations operations done by one call of [block]
+     * @param rounds calls of [block] for warm up and then for measurement
+     */
+    fun measure(name: String, operations: Int, rounds: Int = 10, block: () -> Any?): Result {
+        repeat(rounds) { sink = block() }
+        val allocatedBefore = allocatedBytes()
+        val start = System.nanoTime()
+        repeat(rounds) { sink = block() }
+        val time = System.nanoTime() - start
+        val allocated = allocatedBytes() - allocatedBefore
+        return Result(time / rounds / operations, allocated / rounds / operations).also { reporter.publishEntry(name, it.toString()) }
+    }
+
+    /**
+     * Heap high-water above baseline while [block] runs, sampled every millisecond
+     */
+    fun peakHeap(name: String, block: () -> Any?): Long {
+        val runtime = Runtime.getRuntime()
+        System.gc()
+        val baseline = runtime.totalMemory() - runtime.freeMemory()
+        var peak = baseline
+        val running = AtomicBoolean(true)
+        val sampler = thread {
+            while (running.get()) {
+                peak = maxOf(peak, runtime.totalMemory() - runtime.freeMemory())
+                Thread.sleep(1)
+            }
+        }
+        try {
+            sink = block()
+        } finally {
+            running.set(false)
+            sampler.join()
+        }
+        return (peak - baseline).also { reporter.publishEntry(name, "${it / 1024} kB peak heap") }
+    }
+
+    private fun allocatedBytes(): Long =
+        getThreadAllocatedBytes.invoke(threadBean, Thread.currentThread().id) as Long
+
+    private companion object {
+
+        // java.lang.management is not part of android.jar but it's provided by JVM running the test
+        val threadBean: Any = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null)
+        val getThreadAllocatedBytes = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", Long::class.javaPrimitiveType)
+    }
+}
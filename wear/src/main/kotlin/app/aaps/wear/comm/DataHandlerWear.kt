@@ -23,6 +23,7 @@ import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventWearDataToMobile
 import app.aaps.core.interfaces.rx.events.EventWearToMobile
 import app.aaps.core.interfaces.rx.weardata.EventData
+import app.aaps.core.interfaces.rx.weardata.GraphDataDeltaMerger
 import app.aaps.core.interfaces.sharedPreferences.SP
 import app.aaps.core.keys.BooleanKey
 import app.aaps.core.keys.DoubleKey
@@ -77,6 +78,8 @@ class DataHandlerWear @Inject constructor(
 
     // Coroutine scope for DataStore operations
     private val dataStoreScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val graphDataDeltaMerger = GraphDataDeltaMerger()
+    private var lastGraphResyncRequest = 0L
 
     private val disposable = CompositeDisposable()
 
@@ -235,6 +238,34 @@ class DataHandlerWear @Inject constructor(
                 }
                 LocalBroadcastManager.getInstance(context).sendBroadcast(Intent(DataLayerListenerServiceWear.INTENT_NEW_DATA))
             }
+        disposable += rxBus
+            .toObservable(EventData.GraphDataDelta::class.java)
+            .observeOn(aapsSchedulers.io)
+            .subscribe {
+                aapsLogger.debug(LTag.WEAR, "GraphDataDelta ${it.baseSequence}->${it.sequence} received from ${it.sourceNodeId}")
+                when (graphDataDeltaMerger.apply(it)) {
+                    GraphDataDeltaMerger.Result.APPLIED -> {
+                        val graphData = graphDataDeltaMerger.graphData()
+                        val treatmentData = graphDataDeltaMerger.treatmentData()
+                        // Store in DataStore
+                        dataStoreScope.launch {
+                            complicationDataRepository.updateGraphData(graphData)
+                            complicationDataRepository.updateTreatmentData(treatmentData)
+                        }
+                        LocalBroadcastManager.getInstance(context).sendBroadcast(Intent(DataLayerListenerServiceWear.INTENT_NEW_DATA))
+                    }
+
+                    GraphDataDeltaMerger.Result.GAP     -> {
+                        // Missed or reordered message. Ask for full state but don't flood phone while waiting for it
+                        if (SystemClock.elapsedRealtime() - lastGraphResyncRequest > GRAPH_RESYNC_INTERVAL) {
+                            lastGraphResyncRequest = SystemClock.elapsedRealtime()
+                            rxBus.send(EventWearToMobile(EventData.ActionResendData("GraphDataDelta ${graphDataDeltaMerger.sequence}->${it.baseSequence}")))
+                        }
+                    }
+
+                    GraphDataDeltaMerger.Result.IGNORED -> aapsLogger.debug(LTag.WEAR, "GraphDataDelta ${it.sequence} outdated")
+                }
+            }
         disposable += rxBus
             .toObservable(EventData.Preferences::class.java)
             .observeOn(aapsSchedulers.io)
@@ -485,4 +516,9 @@ class DataHandlerWear @Inject constructor(
             }
         }
     }
+
+    companion object {
+
+        private const val GRAPH_RESYNC_INTERVAL = 60 * 1000L
+    }
 }
@@ -1,6 +1,7 @@
 package app.aaps.wear.data
 
 import android.content.Context
+import androidx.datastore.core.DataMigration
 import androidx.datastore.core.DataStore
 import androidx.datastore.core.DataStoreFactory
 import androidx.datastore.core.Serializer
@@ -13,9 +14,12 @@ import app.aaps.core.interfaces.rx.weardata.EventData
 import app.aaps.shared.impl.weardata.ResFileMap
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.catch
+import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.flow.first
+import kotlinx.serialization.KSerializer
 import kotlinx.serialization.SerializationException
 import kotlinx.serialization.protobuf.ProtoBuf
+import java.io.File
 import java.io.InputStream
 import java.io.OutputStream
 import javax.inject.Inject
@@ -30,28 +34,56 @@ import javax.inject.Singleton
  * - Type-safe data access
  * - Corruption handling with recovery
  * - Reactive updates via Flow
+ * - Live data and watchface definitions in separate stores, BG update doesn't rewrite watchface resources
  *
  */
 @Singleton
-class ComplicationDataRepository @Inject constructor(
-    private val context: Context,
-    private val aapsLogger: AAPSLogger
+class ComplicationDataRepository internal constructor(
+    private val aapsLogger: AAPSLogger,
+    legacyFile: File,
+    liveFile: File,
+    watchfaceFile: File
 ) {
 
+    @Inject constructor(context: Context, aapsLogger: AAPSLogger) : this(
+        aapsLogger = aapsLogger,
+        legacyFile = context.dataStoreFile(LEGACY_FILE),
+        liveFile = context.dataStoreFile(LIVE_FILE),
+        watchfaceFile = context.dataStoreFile(WATCHFACE_FILE)
+    )
+
+    private val watchfaceStore: DataStore<WatchfaceData> = DataStoreFactory.create(
+        serializer = ProtoBufSerializer(WatchfaceData.serializer(), WatchfaceData(), "watchface", aapsLogger),
+        migrations = listOf(WatchfaceMigration(legacyFile, aapsLogger)),
+        produceFile = { watchfaceFile }
+    )
+
     private val dataStore: DataStore<ComplicationData> = DataStoreFactory.create(
-        serializer = ComplicationDataSerializer(aapsLogger),
-        produceFile = { context.dataStoreFile("complication_data.pb") }
+        serializer = ProtoBufSerializer(ComplicationData.serializer(), ComplicationData(), "complication", aapsLogger),
+        migrations = listOf(LiveDataMigration(legacyFile, watchfaceStore, aapsLogger)),
+        produceFile = { liveFile }
     )
 
+    private val watchfaceData: Flow<WatchfaceData> = watchfaceStore.data
+        .catch { exception ->
+            aapsLogger.error(LTag.WEAR, "Error reading watchface data", exception)
+            emit(WatchfaceData())
+        }
+
     /**
      * Reactive Flow of complication data
      * Complications should collect this Flow to get automatic updates
      */
-    val complicationData: Flow<ComplicationData> = dataStore.data
-        .catch { exception ->
-            aapsLogger.error(LTag.WEAR, "Error reading complication data", exception)
-            emit(ComplicationData()) // Emit default on error
-        }
+    val complicationData: Flow<ComplicationData> = combine(dataStore.data, watchfaceStore.data) { data, watchface ->
+        data.copy(
+            customWatchface = watchface.customWatchface,
+            customWatchfaceDefault = watchface.customWatchfaceDefault,
+            customWatchfaceDefaultFull = watchface.customWatchfaceDefaultFull
+        )
+    }.catch { exception ->
+        aapsLogger.error(LTag.WEAR, "Error reading complication data", exception)
+        emit(ComplicationData()) // Emit default on error
+    }
 
     /**
      * Update BG data from phone
@@ -141,7 +173,7 @@ class ComplicationDataRepository @Inject constructor(
         isDefault: Boolean = false
     ) {
         try {
-            dataStore.updateData { current ->
+            watchfaceStore.updateData { current ->
                 if (isDefault) {
                     current.copy(
                         customWatchfaceDefault = customWatchface,
@@ -163,7 +195,7 @@ class ComplicationDataRepository @Inject constructor(
      */
     suspend fun updateCustomWatchfaceMetadata(newMetadata: Map<CwfMetadataKey, String>) {
         try {
-            dataStore.updateData { current ->
+            watchfaceStore.updateData { current ->
                 current.customWatchface?.let { savedCwf ->
                     // Check if name and version match before updating
                     if (newMetadata[CwfMetadataKey.CWF_NAME] == savedCwf.metadata[CwfMetadataKey.CWF_NAME] &&
@@ -187,7 +219,7 @@ class ComplicationDataRepository @Inject constructor(
      */
     suspend fun setDefaultWatchface() {
         try {
-            dataStore.updateData { current ->
+            watchfaceStore.updateData { current ->
                 current.customWatchfaceDefault?.let { default ->
                     aapsLogger.debug(LTag.WEAR, "Reset to default watchface")
                     current.copy(customWatchface = default)
@@ -205,7 +237,7 @@ class ComplicationDataRepository @Inject constructor(
      */
     suspend fun getCustomWatchface(isDefault: Boolean = false): CwfData? {
         return try {
-            val current = complicationData.first()
+            val current = watchfaceData.first()
             if (isDefault) {
                 current.customWatchfaceDefault
             } else {
@@ -225,7 +257,7 @@ class ComplicationDataRepository @Inject constructor(
      */
     suspend fun getSimplifiedCustomWatchface(useDefault: Boolean = false): CwfData? {
         return try {
-            val current = complicationData.first()
+            val current = watchfaceData.first()
             val source = if (useDefault) {
                 current.customWatchfaceDefaultFull ?: current.customWatchfaceDefault
             } else {
@@ -246,35 +278,87 @@ class ComplicationDataRepository @Inject constructor(
     }
 }
 
+private const val LEGACY_FILE = "complication_data.pb"
+private const val LIVE_FILE = "complication_live_data.pb"
+private const val WATCHFACE_FILE = "complication_watchface.pb"
+
 /**
- * Serializer for ComplicationData using Protocol Buffers
+ * Serializer using Protocol Buffers
  * Handles corruption gracefully by returning default data
  */
 @OptIn(kotlinx.serialization.ExperimentalSerializationApi::class)
-private class ComplicationDataSerializer(
+private class ProtoBufSerializer<T>(
+    private val serializer: KSerializer<T>,
+    override val defaultValue: T,
+    private val name: String,
     private val aapsLogger: AAPSLogger
-) : Serializer<ComplicationData> {
+) : Serializer<T> {
 
-    override val defaultValue: ComplicationData = ComplicationData()
-
-    override suspend fun readFrom(input: InputStream): ComplicationData {
+    override suspend fun readFrom(input: InputStream): T {
         return try {
-            ProtoBuf.decodeFromByteArray(
-                ComplicationData.serializer(),
-                input.readBytes()
-            )
+            ProtoBuf.decodeFromByteArray(serializer, input.readBytes())
         } catch (e: SerializationException) {
-            aapsLogger.error(LTag.WEAR, "Corrupted complication data, using default", e)
+            aapsLogger.error(LTag.WEAR, "Corrupted $name data, using default", e)
             defaultValue
         }
     }
 
-    override suspend fun writeTo(t: ComplicationData, output: OutputStream) {
-        output.write(
-            ProtoBuf.encodeToByteArray(
-                ComplicationData.serializer(),
-                t
-            )
-        )
+    override suspend fun writeTo(t: T, output: OutputStream) {
+        output.write(ProtoBuf.encodeToByteArray(serializer, t))
+    }
+}
+
+/**
+ * Read [ComplicationData] including watchfaces from the original single file store
+ */
+@OptIn(kotlinx.serialization.ExperimentalSerializationApi::class)
+private fun readLegacy(legacyFile: File, aapsLogger: AAPSLogger): ComplicationData =
+    try {
+        ProtoBuf.decodeFromByteArray(ComplicationData.serializer(), legacyFile.readBytes())
+    } catch (e: Exception) {
+        aapsLogger.error(LTag.WEAR, "Failed to read ${legacyFile.name}, using default", e)
+        ComplicationData()
+    }
+
+/**
+ * Move watchfaces from the original single file store. File is deleted by [LiveDataMigration]
+ */
+private class WatchfaceMigration(
+    private val legacyFile: File,
+    private val aapsLogger: AAPSLogger
+) : DataMigration<WatchfaceData> {
+
+    // don't overwrite watchfaces stored before interrupted migration
+    override suspend fun shouldMigrate(currentData: WatchfaceData): Boolean = legacyFile.exists() && currentData == WatchfaceData()
+
+    override suspend fun migrate(currentData: WatchfaceData): WatchfaceData {
+        val legacy = readLegacy(legacyFile, aapsLogger)
+        aapsLogger.debug(LTag.WEAR, "Migrated watchfaces from ${legacyFile.name}")
+        return WatchfaceData(legacy.customWatchface, legacy.customWatchfaceDefault, legacy.customWatchfaceDefaultFull)
+    }
+
+    override suspend fun cleanUp() {}
+}
+
+/**
+ * Move live data from the original single file store and delete it.
+ * Watchface store is migrated first so watchfaces are not lost with the file.
+ */
+private class LiveDataMigration(
+    private val legacyFile: File,
+    private val watchfaceStore: DataStore<WatchfaceData>,
+    private val aapsLogger: AAPSLogger
+) : DataMigration<ComplicationData> {
+
+    override suspend fun shouldMigrate(currentData: ComplicationData): Boolean = legacyFile.exists()
+
+    override suspend fun migrate(currentData: ComplicationData): ComplicationData {
+        watchfaceStore.data.first()
+        aapsLogger.debug(LTag.WEAR, "Migrated complication data from ${legacyFile.name}")
+        return readLegacy(legacyFile, aapsLogger).copy(customWatchface = null, customWatchfaceDefault = null, customWatchfaceDefaultFull = null)
+    }
+
+    override suspend fun cleanUp() {
+        if (!legacyFile.delete()) aapsLogger.warn(LTag.WEAR, "Failed to delete ${legacyFile.name}")
     }
 }
@@ -10,6 +10,12 @@ import kotlinx.serialization.Serializable
  * Kotlin Serialization with ProtoBuf format for efficient storage
  */
 
+/**
+ * Live data shown by complications and watchfaces
+ *
+ * Watchface fields are persisted in [WatchfaceData] and filled in only when read from [ComplicationDataRepository.complicationData].
+ * They are kept here to read the original single file store.
+ */
 @Serializable
 data class ComplicationData(
     val bgData: EventData.SingleBg = EventData.SingleBg(
@@ -131,3 +137,14 @@ data class ComplicationData(
     val customWatchfaceDefaultFull: CwfData? = null,
     val lastUpdateTimestamp: Long = 0L
 )
+
+/**
+ * Custom watchface definitions, stored apart from [ComplicationData] live data
+ * so BG and status updates don't rewrite watchface resources
+ */
+@Serializable
+data class WatchfaceData(
+    val customWatchface: CwfData? = null,
+    val customWatchfaceDefault: CwfData? = null,
+    val customWatchfaceDefaultFull: CwfData? = null
+)
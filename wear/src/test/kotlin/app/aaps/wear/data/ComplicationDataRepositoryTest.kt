@@ -0,0 +1,98 @@
+package app.aaps.wear.data
+
+import app.aaps.core.interfaces.rx.weardata.CwfData
+import app.aaps.core.interfaces.rx.weardata.CwfMetadataKey
+import app.aaps.core.interfaces.rx.weardata.EventData
+import app.aaps.core.interfaces.rx.weardata.ResData
+import app.aaps.core.interfaces.rx.weardata.ResFormat
+import app.aaps.core.interfaces.rx.weardata.isEquals
+import app.aaps.shared.impl.weardata.ResFileMap
+import app.aaps.wear.AAPSLoggerTest
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.protobuf.ProtoBuf
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import kotlin.random.Random
+
+@OptIn(ExperimentalSerializationApi::class)
+class ComplicationDataRepositoryTest {
+
+    @TempDir lateinit var dir: File
+
+    private val legacyFile by lazy { File(dir, "complication_data.pb") }
+    private val liveFile by lazy { File(dir, "complication_live_data.pb") }
+    private val watchfaceFile by lazy { File(dir, "complication_watchface.pb") }
+
+    private fun repository() = ComplicationDataRepository(AAPSLoggerTest(), legacyFile, liveFile, watchfaceFile)
+
+    private fun watchface(name: String) = CwfData(
+        json = """{"metadata":{"name":"$name"}}""",
+        metadata = mutableMapOf(CwfMetadataKey.CWF_NAME to name),
+        resData = mutableMapOf(
+            ResFileMap.CUSTOM_WATCHFACE.fileName to ResData(Random(1).nextBytes(100_000), ResFormat.PNG),
+            ResFileMap.BACKGROUND.fileName to ResData(Random(2).nextBytes(200_000), ResFormat.JPG)
+        )
+    )
+
+    private fun singleBg(timestamp: Long, sgv: Double) =
+        EventData.SingleBg(dataset = 0, timeStamp = timestamp, sgvString = sgv.toInt().toString(), glucoseUnits = "mg/dl", slopeArrow = "→", delta = "+2", sgv = sgv, high = 180.0, low = 72.0)
+
+    private fun assertSameWatchface(actual: CwfData?, expected: CwfData) {
+        assertThat(actual).isNotNull()
+        assertThat(actual!!.json).isEqualTo(expected.json)
+        assertThat(actual.metadata).isEqualTo(expected.metadata)
+        assertThat(actual.resData.isEquals(expected.resData)).isTrue()
+    }
+
+    @Test
+    fun migratesSingleFileStore() = runBlocking {
+        val legacy = ComplicationData(
+            bgData = singleBg(1000L, 120.0),
+            customWatchface = watchface("current"),
+            customWatchfaceDefault = watchface("default"),
+            customWatchfaceDefaultFull = watchface("full"),
+            lastUpdateTimestamp = 1000L
+        )
+        legacyFile.writeBytes(ProtoBuf.encodeToByteArray(ComplicationData.serializer(), legacy))
+
+        val repository = repository()
+        val data = repository.complicationData.first()
+        assertThat(data.bgData.sgv).isEqualTo(120.0)
+        assertThat(data.lastUpdateTimestamp).isEqualTo(1000L)
+        assertSameWatchface(data.customWatchface, legacy.customWatchface!!)
+        assertSameWatchface(data.customWatchfaceDefault, legacy.customWatchfaceDefault!!)
+        assertSameWatchface(data.customWatchfaceDefaultFull, legacy.customWatchfaceDefaultFull!!)
+        assertSameWatchface(repository.getCustomWatchface(), legacy.customWatchface!!)
+
+        assertThat(legacyFile.exists()).isFalse()
+        // watchfaces are not stored with live data
+        assertThat(liveFile.length()).isLessThan(1000L)
+        assertThat(watchfaceFile.length()).isGreaterThan(3 * 300_000L)
+    }
+
+    @Test
+    fun startsEmptyWithoutSingleFileStore() = runBlocking {
+        val repository = repository()
+        assertThat(repository.complicationData.first()).isEqualTo(ComplicationData())
+        assertThat(repository.getCustomWatchface()).isNull()
+    }
+
+    @Test
+    fun bgUpdateDoesNotRewriteWatchface() = runBlocking {
+        val repository = repository()
+        repository.storeCustomWatchface(watchface("default"), watchface("full"), isDefault = true)
+        repository.storeCustomWatchface(watchface("current"))
+        repository.updateStatusData(ComplicationData().statusData.copy(iobSum = "1.25U", cob = "12g"))
+        val watchfaceBytes = watchfaceFile.readBytes()
+
+        repository.updateBgData(singleBg(2000L, 135.0))
+        assertThat(liveFile.length()).isLessThan(500L)
+        assertThat(watchfaceFile.readBytes()).isEqualTo(watchfaceBytes)
+        assertThat(repository.complicationData.first().bgData.sgv).isEqualTo(135.0)
+        assertSameWatchface(repository.complicationData.first().customWatchface, watchface("current"))
+    }
+}
@@ -0,0 +1,196 @@
+package app.aaps.workflow
+
+import app.aaps.core.data.aps.BasalData
+import app.aaps.core.data.time.T
+import app.aaps.core.graph.data.ScaledDataPoint
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.graph.Scale
+import app.aaps.core.interfaces.iob.IobCobCalculator
+import app.aaps.core.interfaces.profile.Profile
+import app.aaps.core.interfaces.profile.ProfileFunction
+import java.time.Instant
+import java.time.ZoneId
+import java.util.TreeSet
+
+/**
+ * Points of base basal, temp basal, basal line and absolute basal line series
+ *
+ * Graph shows basal sampled every minute. Basal changes only at temp basal, extended bolus,
+ * profile switch and profile block boundaries so only samples around these changes are evaluated.
+ */
+internal class BasalGraphPoints(
+    private val persistenceLayer: PersistenceLayer,
+    private val profileFunction: ProfileFunction,
+    private val iobCobCalculator: IobCobCalculator,
+    private val scale: Scale
+) {
+
+    val baseBasal: MutableList<ScaledDataPoint> = ArrayList()
+    val tempBasal: MutableList<ScaledDataPoint> = ArrayList()
+    val basalLine: MutableList<ScaledDataPoint> = ArrayList()
+    val absoluteBasalLine: MutableList<ScaledDataPoint> = ArrayList()
+
+    private var lastLineBasal = 0.0
+    private var lastAbsoluteLineBasal = -1.0
+    private var lastBaseBasal = 0.0
+    private var lastTempBasal = 0.0
+
+    /**
+     * Generate points from [fromTime] to [endTime]
+     *
+     * @param isStopped checked before every evaluated sample
+     * @param progress called with progress in percent, every [PROGRESS_STEP] percent
+     * @return false if stopped
+     */
+    fun generate(fromTime: Long, endTime: Long, isStopped: () -> Boolean, progress: (Int) -> Unit): Boolean {
+        var reported = 0
+        for (time in sampleTimes(fromTime, endTime)) {
+            if (isStopped()) return false
+            val percent = ((time - fromTime).toDouble() / (endTime - fromTime) * 100.0).toInt()
+            if (percent >= reported + PROGRESS_STEP) {
+                reported = percent - percent % PROGRESS_STEP
+                progress(reported)
+            }
+            val profile = profileFunction.getProfile(time) ?: continue
+            add(time, iobCobCalculator.getBasalData(profile, time))
+        }
+        // final points
+        basalLine.add(ScaledDataPoint(endTime, lastLineBasal, scale))
+        baseBasal.add(ScaledDataPoint(endTime, lastBaseBasal, scale))
+        tempBasal.add(ScaledDataPoint(endTime, lastTempBasal, scale))
+        absoluteBasalLine.add(ScaledDataPoint(endTime, lastAbsoluteLineBasal, scale))
+        return true
+    }
+
+    /**
+     * Process sample at [time]. Sample with the same [basalData] as the previous one adds no points
+     */
+    private fun add(time: Long, basalData: BasalData) {
+        val baseBasalValue = basalData.basal
+        var absoluteLineValue = baseBasalValue
+        var tempBasalValue = 0.0
+        var basal = 0.0
+        if (basalData.isTempBasalRunning) {
+            tempBasalValue = basalData.tempBasalAbsolute
+            absoluteLineValue = tempBasalValue
+            if (tempBasalValue != lastTempBasal) {
+                tempBasal.add(ScaledDataPoint(time, lastTempBasal, scale))
+                tempBasal.add(ScaledDataPoint(time, tempBasalValue.also { basal = it }, scale))
+            }
+            if (lastBaseBasal != 0.0) {
+                baseBasal.add(ScaledDataPoint(time, lastBaseBasal, scale))
+                baseBasal.add(ScaledDataPoint(time, 0.0, scale))
+                lastBaseBasal = 0.0
+            }
+        } else {
+            if (baseBasalValue != lastBaseBasal) {
+                baseBasal.add(ScaledDataPoint(time, lastBaseBasal, scale))
+                baseBasal.add(ScaledDataPoint(time, baseBasalValue.also { basal = it }, scale))
+                lastBaseBasal = baseBasalValue
+            }
+            if (lastTempBasal != 0.0) {
+                tempBasal.add(ScaledDataPoint(time, lastTempBasal, scale))
+                tempBasal.add(ScaledDataPoint(time, 0.0, scale))
+            }
+        }
+        if (baseBasalValue != lastLineBasal) {
+            basalLine.add(ScaledDataPoint(time, lastLineBasal, scale))
+            basalLine.add(ScaledDataPoint(time, baseBasalValue, scale))
+        }
+        if (absoluteLineValue != lastAbsoluteLineBasal) {
+            absoluteBasalLine.add(ScaledDataPoint(time, lastAbsoluteLineBasal, scale))
+            absoluteBasalLine.add(ScaledDataPoint(time, basal, scale))
+        }
+        lastAbsoluteLineBasal = absoluteLineValue
+        lastLineBasal = baseBasalValue
+        lastTempBasal = tempBasalValue
+    }
+
+    /**
+     * Minute samples (fromTime + n * [STEP]) which may differ from the previous sample.
+     * Basal data are evaluated at time rounded up to minute and profile at time rounded to seconds,
+     * so the samples around every change are used. Extra samples don't add points.
+     */
+    private fun sampleTimes(fromTime: Long, endTime: Long): List<Long> {
+        val samples = TreeSet<Long>()
+        samples.add(fromTime)
+        for (change in changes(fromTime, endTime + STEP)) {
+            val index = Math.floorDiv(change - fromTime, STEP)
+            for (i in index - 1..index + 2) {
+                val sample = fromTime + i * STEP
+                if (sample in fromTime until endTime) samples.add(sample)
+            }
+        }
+        return samples.toList()
+    }
+
+    /**
+     * Times in [fromTime]..[toTime] when basal can change, fetched once for the whole window
+     */
+    private fun changes(fromTime: Long, toTime: Long): List<Long> {
+        val changes = ArrayList<Long>()
+        persistenceLayer.getTemporaryBasalsActiveBetweenTimeAndTime(fromTime, toTime).forEach {
+            changes.add(it.timestamp)
+            changes.add(it.timestamp + it.duration)
+        }
+        // extended boluses are not longer than 24h
+        persistenceLayer.getExtendedBolusesStartingFromTimeToTime(fromTime - T.days(1).msecs(), toTime, true).forEach {
+            changes.add(it.timestamp)
+            changes.add(it.timestamp + it.duration)
+        }
+        // profile is constant between profile switches, add its blocks
+        val switches = persistenceLayer.getEffectiveProfileSwitchesFromTimeToTime(fromTime, toTime, true).map { it.timestamp }.filter { it > fromTime }
+        changes.addAll(switches)
+        val bounds = listOf(fromTime) + switches + toTime
+        for (i in 0 until bounds.size - 1) {
+            val profile = profileFunction.getProfile(bounds[i]) ?: continue
+            changes.addAll(profileBlockChanges(profile, bounds[i], bounds[i + 1]))
+        }
+        // secondsFromMidnight jumps on DST change
+        val zone = ZoneId.systemDefault()
+        var transition = zone.rules.nextTransition(Instant.ofEpochMilli(fromTime))
+        while (transition != null && transition.toEpochSecond() * 1000 <= toTime) {
+            changes.add(transition.toEpochSecond() * 1000)
+            transition = zone.rules.nextTransition(transition.instant)
+        }
+        return changes
+    }
+
+    /**
+     * Times in [fromTime]..[toTime] when [profile] basal changes. Profile blocks start at whole minutes.
+     */
+    private fun profileBlockChanges(profile: Profile, fromTime: Long, toTime: Long): List<Long> {
+        val seconds = ArrayList<Int>()
+        var last = profile.getBasalTimeFromMidnight(0)
+        seconds.add(0)
+        val step = T.mins(1).secs().toInt()
+        for (second in step until T.days(1).secs().toInt() step step) {
+            val basal = profile.getBasalTimeFromMidnight(second)
+            if (basal != last) seconds.add(second)
+            last = basal
+        }
+        val zone = ZoneId.systemDefault()
+        val changes = ArrayList<Long>()
+        var day = Instant.ofEpochMilli(fromTime).atZone(zone).toLocalDate()
+        val lastDay = Instant.ofEpochMilli(toTime).atZone(zone).toLocalDate()
+        while (day <= lastDay) {
+            val midnight = day.atStartOfDay(zone).toLocalDateTime()
+            for (second in seconds) {
+                // local time is repeated when DST ends and missing when DST starts (DST change itself is added separately)
+                val localTime = midnight.plusSeconds(second.toLong())
+                for (offset in zone.rules.getValidOffsets(localTime)) {
+                    val time = localTime.toInstant(offset).toEpochMilli()
+                    if (time in fromTime..toTime) changes.add(time)
+                }
+            }
+            day = day.plusDays(1)
+        }
+        return changes
+    }
+
+    companion object {
+
+        private val STEP = T.mins(1).msecs()
+        private const val PROGRESS_STEP = 10
+    }
+}
@@ -0,0 +1,69 @@
+package app.aaps.workflow
+
+/**
+ * Items loaded for time window, reused when window moves
+ *
+ * Only parts of new window not covered by previous one and invalidated ranges are loaded again.
+ * Loader must return all items with time in from..to (inclusive) sorted by time.
+ *
+ * @param time time used by loader to select item
+ */
+internal class IntervalCache<T>(private val time: (T) -> Long) {
+
+    private var items: List<T>? = null
+    private var from = 0L
+    private var to = 0L
+    private var parameter: Any? = null
+    private val invalidated = ArrayList<LongRange>()
+
+    /**
+     * @param parameter value items are built with, change causes reload of whole window
+     * @return items with time in [from]..[to] sorted by time
+     */
+    fun get(from: Long, to: Long, parameter: Any? = null, load: (from: Long, to: Long) -> List<T>): List<T> {
+        val cached = items
+        if (cached == null || parameter != this.parameter || to < this.from || from > this.to) return store(from, to, parameter, load(from, to))
+
+        val result = ArrayList<T>(cached.size)
+        for (item in cached) {
+            val itemTime = time(item)
+            if (itemTime in from..to && invalidated.none { itemTime in it }) result.add(item)
+        }
+        if (from < this.from) result.addAll(load(from, this.from - 1))
+        if (to > this.to) result.addAll(load(this.to + 1, to))
+        for (range in invalidated) {
+            val start = maxOf(range.first, from)
+            val end = minOf(range.last, to)
+            if (start <= end) result.addAll(load(start, end))
+        }
+        result.sortBy(time)
+        return store(from, to, parameter, result)
+    }
+
+    /**
+     * Items with time in [from]..[to] will be loaded again
+     */
+    fun invalidate(from: Long, to: Long) {
+        if (items == null || to < this.from || from > this.to) return
+        val start = maxOf(from, this.from)
+        val end = minOf(to, this.to)
+        // keep ranges disjoint so every item is loaded once
+        val overlapping = invalidated.filter { it.first <= end + 1 && it.last >= start - 1 }
+        invalidated.removeAll(overlapping)
+        invalidated.add(minOf(start, overlapping.minOfOrNull { it.first } ?: start)..maxOf(end, overlapping.maxOfOrNull { it.last } ?: end))
+    }
+
+    fun clear() {
+        items = null
+        invalidated.clear()
+    }
+
+    private fun store(from: Long, to: Long, parameter: Any?, items: List<T>): List<T> {
+        this.items = items
+        this.from = from
+        this.to = to
+        this.parameter = parameter
+        invalidated.clear()
+        return items
+    }
+}
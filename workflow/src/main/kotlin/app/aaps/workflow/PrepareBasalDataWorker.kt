@@ -6,13 +6,12 @@ import android.graphics.Paint
 import androidx.work.WorkerParameters
 import androidx.work.workDataOf
 import app.aaps.core.graph.data.LineGraphSeries
-import app.aaps.core.graph.data.ScaledDataPoint
+import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.iob.IobCobCalculator
 import app.aaps.core.interfaces.overview.OverviewData
 import app.aaps.core.interfaces.profile.ProfileFunction
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
-import app.aaps.core.interfaces.rx.events.EventIobCalculationProgress
 import app.aaps.core.interfaces.workflow.CalculationWorkflow
 import app.aaps.core.objects.workflow.LoggingWorker
 import app.aaps.core.utils.receivers.DataWorkerStorage
@@ -26,6 +25,7 @@ class PrepareBasalDataWorker(
 
     @Inject lateinit var dataWorkerStorage: DataWorkerStorage
     @Inject lateinit var profileFunction: ProfileFunction
+    @Inject lateinit var persistenceLayer: PersistenceLayer
     @Inject lateinit var rh: ResourceHelper
     @Inject lateinit var rxBus: RxBus
     private var ctx: Context = rh.getThemedCtx(context)
@@ -40,87 +40,24 @@ class PrepareBasalDataWorker(
         val data = dataWorkerStorage.pickupObject(inputData.getLong(DataWorkerStorage.STORE_KEY, -1)) as PrepareBasalData?
             ?: return Result.failure(workDataOf("Error" to "missing input data"))
 
-        rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_BASAL_DATA, 0, null))
-        val baseBasalArray: MutableList<ScaledDataPoint> = ArrayList()
-        val tempBasalArray: MutableList<ScaledDataPoint> = ArrayList()
-        val basalLineArray: MutableList<ScaledDataPoint> = ArrayList()
-        val absoluteBasalLineArray: MutableList<ScaledDataPoint> = ArrayList()
-        var lastLineBasal = 0.0
-        var lastAbsoluteLineBasal = -1.0
-        var lastBaseBasal = 0.0
-        var lastTempBasal = 0.0
-        val endTime = data.overviewData.endTime
-        val fromTime = data.overviewData.fromTime
-        var time = fromTime
-        while (time < endTime) {
-            if (isStopped) return Result.failure(workDataOf("Error" to "stopped"))
-            val progress = (time - fromTime).toDouble() / (endTime - fromTime) * 100.0
-            rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_BASAL_DATA, progress.toInt(), null))
-            val profile = profileFunction.getProfile(time)
-            if (profile == null) {
-                time += 60 * 1000L
-                continue
-            }
-            val basalData = data.iobCobCalculator.getBasalData(profile, time)
-            val baseBasalValue = basalData.basal
-            var absoluteLineValue = baseBasalValue
-            var tempBasalValue = 0.0
-            var basal = 0.0
-            if (basalData.isTempBasalRunning) {
-                tempBasalValue = basalData.tempBasalAbsolute
-                absoluteLineValue = tempBasalValue
-                if (tempBasalValue != lastTempBasal) {
-                    tempBasalArray.add(ScaledDataPoint(time, lastTempBasal, data.overviewData.basalScale))
-                    tempBasalArray.add(ScaledDataPoint(time, tempBasalValue.also { basal = it }, data.overviewData.basalScale))
-                }
-                if (lastBaseBasal != 0.0) {
-                    baseBasalArray.add(ScaledDataPoint(time, lastBaseBasal, data.overviewData.basalScale))
-                    baseBasalArray.add(ScaledDataPoint(time, 0.0, data.overviewData.basalScale))
-                    lastBaseBasal = 0.0
-                }
-            } else {
-                if (baseBasalValue != lastBaseBasal) {
-                    baseBasalArray.add(ScaledDataPoint(time, lastBaseBasal, data.overviewData.basalScale))
-                    baseBasalArray.add(ScaledDataPoint(time, baseBasalValue.also { basal = it }, data.overviewData.basalScale))
-                    lastBaseBasal = baseBasalValue
-                }
-                if (lastTempBasal != 0.0) {
-                    tempBasalArray.add(ScaledDataPoint(time, lastTempBasal, data.overviewData.basalScale))
-                    tempBasalArray.add(ScaledDataPoint(time, 0.0, data.overviewData.basalScale))
-                }
-            }
-            if (baseBasalValue != lastLineBasal) {
-                basalLineArray.add(ScaledDataPoint(time, lastLineBasal, data.overviewData.basalScale))
-                basalLineArray.add(ScaledDataPoint(time, baseBasalValue, data.overviewData.basalScale))
-            }
-            if (absoluteLineValue != lastAbsoluteLineBasal) {
-                absoluteBasalLineArray.add(ScaledDataPoint(time, lastAbsoluteLineBasal, data.overviewData.basalScale))
-                absoluteBasalLineArray.add(ScaledDataPoint(time, basal, data.overviewData.basalScale))
-            }
-            lastAbsoluteLineBasal = absoluteLineValue
-            lastLineBasal = baseBasalValue
-            lastTempBasal = tempBasalValue
-            time += 60 * 1000L
-        }
-
-        // final points
-        basalLineArray.add(ScaledDataPoint(endTime, lastLineBasal, data.overviewData.basalScale))
-        baseBasalArray.add(ScaledDataPoint(endTime, lastBaseBasal, data.overviewData.basalScale))
-        tempBasalArray.add(ScaledDataPoint(endTime, lastTempBasal, data.overviewData.basalScale))
-        absoluteBasalLineArray.add(ScaledDataPoint(endTime, lastAbsoluteLineBasal, data.overviewData.basalScale))
+        val progressReporter = ProgressReporter(rxBus, CalculationWorkflow.ProgressData.PREPARE_BASAL_DATA)
+        progressReporter.report(0)
+        val points = BasalGraphPoints(persistenceLayer, profileFunction, data.iobCobCalculator, data.overviewData.basalScale)
+        val finished = points.generate(data.overviewData.fromTime, data.overviewData.endTime, isStopped = { isStopped }, progress = progressReporter::report)
+        if (!finished) return Result.failure(workDataOf("Error" to "stopped"))
 
         // create series
-        data.overviewData.baseBasalGraphSeries = LineGraphSeries(Array(baseBasalArray.size) { i -> baseBasalArray[i] }).also {
+        data.overviewData.baseBasalGraphSeries = LineGraphSeries(Array(points.baseBasal.size) { i -> points.baseBasal[i] }).also {
             it.isDrawBackground = true
             it.backgroundColor = rh.gac(ctx, app.aaps.core.ui.R.attr.baseBasalColor)
             it.thickness = 0
         }
-        data.overviewData.tempBasalGraphSeries = LineGraphSeries(Array(tempBasalArray.size) { i -> tempBasalArray[i] }).also {
+        data.overviewData.tempBasalGraphSeries = LineGraphSeries(Array(points.tempBasal.size) { i -> points.tempBasal[i] }).also {
             it.isDrawBackground = true
             it.backgroundColor = rh.gac(ctx, app.aaps.core.ui.R.attr.tempBasalColor)
             it.thickness = 0
         }
-        data.overviewData.basalLineGraphSeries = LineGraphSeries(Array(basalLineArray.size) { i -> basalLineArray[i] }).also {
+        data.overviewData.basalLineGraphSeries = LineGraphSeries(Array(points.basalLine.size) { i -> points.basalLine[i] }).also {
             it.setCustomPaint(Paint().also { paint ->
                 paint.style = Paint.Style.STROKE
                 @Suppress("DEPRECATION")
@@ -129,7 +66,7 @@ class PrepareBasalDataWorker(
                 paint.color = rh.gac(ctx, app.aaps.core.ui.R.attr.basal)
             })
         }
-        data.overviewData.absoluteBasalGraphSeries = LineGraphSeries(Array(absoluteBasalLineArray.size) { i -> absoluteBasalLineArray[i] }).also {
+        data.overviewData.absoluteBasalGraphSeries = LineGraphSeries(Array(points.absoluteBasalLine.size) { i -> points.absoluteBasalLine[i] }).also {
             it.setCustomPaint(Paint().also { absolutePaint ->
                 absolutePaint.style = Paint.Style.STROKE
                 @Suppress("DEPRECATION")
@@ -137,7 +74,7 @@ class PrepareBasalDataWorker(
                 absolutePaint.color = rh.gac(ctx, app.aaps.core.ui.R.attr.basal)
             })
         }
-        rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_BASAL_DATA, 100, null))
+        progressReporter.finish()
         return Result.success()
     }
 }
\ No newline at end of file
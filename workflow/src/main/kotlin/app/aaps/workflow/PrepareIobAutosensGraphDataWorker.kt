@@ -27,7 +27,6 @@ import app.aaps.core.interfaces.profile.ProfileFunction
 import app.aaps.core.interfaces.profile.ProfileUtil
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
-import app.aaps.core.interfaces.rx.events.EventIobCalculationProgress
 import app.aaps.core.interfaces.utils.DateUtil
 import app.aaps.core.interfaces.utils.DecimalFormatter
 import app.aaps.core.interfaces.workflow.CalculationWorkflow
@@ -110,7 +109,8 @@ class PrepareIobAutosensGraphDataWorker(
 
         val endTime = data.overviewData.endTime
         val fromTime = data.overviewData.fromTime
-        rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_IOB_AUTOSENS_DATA, 0, null))
+        val progressReporter = ProgressReporter(rxBus, CalculationWorkflow.ProgressData.PREPARE_IOB_AUTOSENS_DATA)
+        progressReporter.report(0)
         val iobArray: MutableList<ScaledDataPoint> = ArrayList()
         val absIobArray: MutableList<ScaledDataPoint> = ArrayList()
         data.overviewData.maxIobValueFound = Double.MIN_VALUE
@@ -149,7 +149,7 @@ class PrepareIobAutosensGraphDataWorker(
         while (time <= endTime) {
             if (isStopped) return Result.failure(workDataOf("Error" to "stopped"))
             val progress = (time - fromTime).toDouble() / (endTime - fromTime) * 100.0
-            rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_IOB_AUTOSENS_DATA, progress.toInt(), null))
+            progressReporter.report(progress.toInt())
             val profile = profileFunction.getProfile(time)
             if (profile == null) {
                 time += 5 * 60 * 1000L
@@ -339,7 +339,7 @@ class PrepareIobAutosensGraphDataWorker(
             it.thickness = 3
         }
 
-        rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_IOB_AUTOSENS_DATA, 100, null))
+        progressReporter.finish()
         return Result.success()
     }
 }
\ No newline at end of file
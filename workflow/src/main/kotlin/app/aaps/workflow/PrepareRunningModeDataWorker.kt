@@ -13,7 +13,6 @@ import app.aaps.core.interfaces.profile.ProfileFunction
 import app.aaps.core.interfaces.profile.ProfileUtil
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
-import app.aaps.core.interfaces.rx.events.EventIobCalculationProgress
 import app.aaps.core.interfaces.workflow.CalculationWorkflow
 import app.aaps.core.objects.workflow.LoggingWorker
 import app.aaps.core.utils.receivers.DataWorkerStorage
@@ -43,7 +42,8 @@ class PrepareRunningModeDataWorker(
         val data = dataWorkerStorage.pickupObject(inputData.getLong(DataWorkerStorage.STORE_KEY, -1)) as PrepareRunningModeData?
             ?: return Result.failure(workDataOf("Error" to "missing input data"))
 
-        rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_RUNNING_MODE_DATA, 0, null))
+        val progressReporter = ProgressReporter(rxBus, CalculationWorkflow.ProgressData.PREPARE_RUNNING_MODE_DATA)
+        progressReporter.report(0)
         var endTime = data.overviewData.endTime
         val fromTime = data.overviewData.fromTime
         val modesSeriesArray: MutableList<RunningModeDataPoint> = ArrayList()
@@ -54,7 +54,7 @@ class PrepareRunningModeDataWorker(
         while (time < endTime) {
             if (isStopped) return Result.failure(workDataOf("Error" to "stopped"))
             val progress = (time - fromTime).toDouble() / (endTime - fromTime) * 100.0
-            rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_RUNNING_MODE_DATA, progress.toInt(), null))
+            progressReporter.report(progress.toInt())
             val mode = persistenceLayer.getRunningModeActiveAt(time)
             if (lastMode != mode.mode) {
                 if (lastMode != RM.Mode.RESUME)
@@ -67,7 +67,7 @@ class PrepareRunningModeDataWorker(
         modesSeriesArray.add(RunningModeDataPoint(lastMode, lastModeChange, time, rh))
         // create series
         data.overviewData.runningModesSeries = PointsWithLabelGraphSeries(Array(modesSeriesArray.size) { i -> modesSeriesArray[i] })
-        rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_RUNNING_MODE_DATA, 100, null))
+        progressReporter.finish()
         return Result.success()
     }
 }
\ No newline at end of file
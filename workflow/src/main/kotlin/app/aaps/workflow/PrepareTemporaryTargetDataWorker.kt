@@ -11,7 +11,6 @@ import app.aaps.core.interfaces.profile.ProfileFunction
 import app.aaps.core.interfaces.profile.ProfileUtil
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
-import app.aaps.core.interfaces.rx.events.EventIobCalculationProgress
 import app.aaps.core.interfaces.workflow.CalculationWorkflow
 import app.aaps.core.objects.extensions.target
 import app.aaps.core.objects.workflow.LoggingWorker
@@ -44,7 +43,8 @@ class PrepareTemporaryTargetDataWorker(
         val data = dataWorkerStorage.pickupObject(inputData.getLong(DataWorkerStorage.STORE_KEY, -1)) as PrepareTemporaryTargetData?
             ?: return Result.failure(workDataOf("Error" to "missing input data"))
 
-        rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_TEMPORARY_TARGET_DATA, 0, null))
+        val progressReporter = ProgressReporter(rxBus, CalculationWorkflow.ProgressData.PREPARE_TEMPORARY_TARGET_DATA)
+        progressReporter.report(0)
         val profile = profileFunction.getProfile() ?: return Result.success(workDataOf("Error" to "missing profile"))
         var endTime = data.overviewData.endTime
         val fromTime = data.overviewData.fromTime
@@ -55,7 +55,7 @@ class PrepareTemporaryTargetDataWorker(
         while (time < endTime) {
             if (isStopped) return Result.failure(workDataOf("Error" to "stopped"))
             val progress = (time - fromTime).toDouble() / (endTime - fromTime) * 100.0
-            rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_TEMPORARY_TARGET_DATA, progress.toInt(), null))
+            progressReporter.report(progress.toInt())
             val tt = persistenceLayer.getTemporaryTargetActiveAt(time)
             val value: Double = if (tt != null) {
                 profileUtil.fromMgdlToUnits(tt.target())
@@ -77,7 +77,7 @@ class PrepareTemporaryTargetDataWorker(
             it.color = rh.gac(ctx, app.aaps.core.ui.R.attr.tempTargetBackgroundColor)
             it.thickness = 2
         }
-        rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_TEMPORARY_TARGET_DATA, 100, null))
+        progressReporter.finish()
         return Result.success()
     }
 }
\ No newline at end of file
@@ -21,7 +21,7 @@ import app.aaps.core.interfaces.plugin.ActivePlugin
 import app.aaps.core.interfaces.profile.ProfileUtil
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
-import app.aaps.core.interfaces.rx.events.EventIobCalculationProgress
+import app.aaps.core.interfaces.rx.events.EventRecordsChanged
 import app.aaps.core.interfaces.utils.DecimalFormatter
 import app.aaps.core.interfaces.utils.Round
 import app.aaps.core.interfaces.utils.Translator
@@ -46,6 +46,7 @@ class PrepareTreatmentsDataWorker(
     @Inject lateinit var persistenceLayer: PersistenceLayer
     @Inject lateinit var decimalFormatter: DecimalFormatter
     @Inject lateinit var preferences: Preferences
+    @Inject lateinit var treatmentsGraphCache: TreatmentsGraphCache
 
     class PrepareTreatmentsData(
         val overviewData: OverviewData
@@ -58,53 +59,65 @@ class PrepareTreatmentsDataWorker(
 
         val endTime = data.overviewData.endTime
         val fromTime = data.overviewData.fromTime
-        rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_TREATMENTS_DATA, 0, null))
+        val progressReporter = ProgressReporter(rxBus, CalculationWorkflow.ProgressData.PREPARE_TREATMENTS_DATA)
+        progressReporter.report(0)
         data.overviewData.maxTreatmentsValue = 0.0
         data.overviewData.maxTherapyEventValue = 0.0
         data.overviewData.maxEpsValue = 0.0
         val filteredTreatments: MutableList<DataPointWithLabelInterface> = ArrayList()
         val filteredTherapyEvents: MutableList<DataPointWithLabelInterface> = ArrayList()
         val filteredEps: MutableList<DataPointWithLabelInterface> = ArrayList()
-
-        persistenceLayer.getBolusesFromTimeToTime(fromTime, endTime, true)
-            .map { BolusDataPoint(it, rh, activePlugin.activePump.pumpDescription.bolusStep, preferences, decimalFormatter) }
-            .filter { it.data.type == BS.Type.NORMAL || it.data.type == BS.Type.SMB }
-            .forEach {
-                it.y = getNearestBg(data.overviewData, it.x.toLong())
-                filteredTreatments.add(it)
-            }
-        persistenceLayer.getCarbsFromTimeToTimeExpanded(fromTime, endTime, true)
-            .map { CarbsDataPoint(it, rh) }
-            .forEach {
-                it.y = getNearestBg(data.overviewData, it.x.toLong())
-                filteredTreatments.add(it)
-            }
+        val nearestBg = NearestBg(data.overviewData.bgReadingsArray)
+
+        val bolusStep = activePlugin.activePump.pumpDescription.bolusStep
+        treatmentsGraphCache.points(data.overviewData, EventRecordsChanged.Type.BOLUS, fromTime, endTime, bolusStep) { from, to ->
+            persistenceLayer.getBolusesFromTimeToTime(from, to, true)
+                .map { BolusDataPoint(it, rh, bolusStep, preferences, decimalFormatter) }
+                .filter { it.data.type == BS.Type.NORMAL || it.data.type == BS.Type.SMB }
+        }.forEach {
+            it.y = getNearestBg(nearestBg, it.x.toLong())
+            filteredTreatments.add(it)
+        }
+        treatmentsGraphCache.points(data.overviewData, EventRecordsChanged.Type.CARBS, fromTime, endTime) { from, to ->
+            // expanded carbs of record ending exactly at from are not returned, make it inclusive
+            persistenceLayer.getCarbsFromTimeToTimeExpanded(from - 1, to, true)
+                .filter { it.timestamp >= from }
+                .map { CarbsDataPoint(it, rh) }
+        }.forEach {
+            it.y = getNearestBg(nearestBg, it.x.toLong())
+            filteredTreatments.add(it)
+        }
 
         // ProfileSwitch
-        persistenceLayer.getEffectiveProfileSwitchesFromTimeToTime(fromTime, endTime, true)
-            .map { EffectiveProfileSwitchDataPoint(it, rh, data.overviewData.epsScale) }
-            .forEach {
-                data.overviewData.maxEpsValue = maxOf(data.overviewData.maxEpsValue, it.data.originalPercentage.toDouble())
-                filteredEps.add(it)
-            }
+        treatmentsGraphCache.points(data.overviewData, EventRecordsChanged.Type.EFFECTIVE_PROFILE_SWITCH, fromTime, endTime) { from, to ->
+            persistenceLayer.getEffectiveProfileSwitchesFromTimeToTime(from, to, true)
+                .map { EffectiveProfileSwitchDataPoint(it, rh, data.overviewData.epsScale) }
+        }.forEach {
+            data.overviewData.maxEpsValue = maxOf(data.overviewData.maxEpsValue, it.data.originalPercentage.toDouble())
+            filteredEps.add(it)
+        }
 
         // Extended bolus
         if (!activePlugin.activePump.isFakingTempsByExtendedBoluses) {
-            persistenceLayer.getExtendedBolusesStartingFromTimeToTime(fromTime, endTime, true)
-                .map { ExtendedBolusDataPoint(it, rh) }
-                .filter { it.duration != 0L }
-                .forEach {
-                    it.y = getNearestBg(data.overviewData, it.x.toLong())
-                    filteredTreatments.add(it)
-                }
+            treatmentsGraphCache.points(data.overviewData, EventRecordsChanged.Type.EXTENDED_BOLUS, fromTime, endTime) { from, to ->
+                persistenceLayer.getExtendedBolusesStartingFromTimeToTime(from, to, true)
+                    .map { ExtendedBolusDataPoint(it, rh) }
+                    .filter { it.duration != 0L }
+            }.forEach {
+                it.y = getNearestBg(nearestBg, it.x.toLong())
+                filteredTreatments.add(it)
+            }
         }
 
         // Careportal
-        persistenceLayer.getTherapyEventDataFromToTime(fromTime - T.hours(6).msecs(), endTime).blockingGet()
-            .map { TherapyEventDataPoint(it, rh, profileUtil, translator) }
+        treatmentsGraphCache.points(data.overviewData, EventRecordsChanged.Type.THERAPY_EVENT, fromTime - T.hours(6).msecs(), endTime) { from, to ->
+            persistenceLayer.getTherapyEventDataFromToTime(from, to).blockingGet()
+                .map { TherapyEventDataPoint(it, rh, profileUtil, translator) }
+        }
             .filterTimeframe(fromTime, endTime)
             .forEach {
-                if (it.y == 0.0) it.y = getNearestBg(data.overviewData, it.x.toLong())
+                // used only if there is no glucose value in event, point may be cached from previous run
+                it.y = getNearestBg(nearestBg, it.x.toLong())
                 filteredTherapyEvents.add(it)
             }
 
@@ -121,34 +134,24 @@ class PrepareTreatmentsDataWorker(
         data.overviewData.epsSeries = PointsWithLabelGraphSeries(filteredEps.toTypedArray())
 
         data.overviewData.heartRateGraphSeries = PointsWithLabelGraphSeries<DataPointWithLabelInterface>(
-            persistenceLayer.getHeartRatesFromTimeToTime(fromTime, endTime)
-                .map { hr -> HeartRateDataPoint(hr, rh) }
-                .toTypedArray()).apply { color = rh.gac(null, app.aaps.core.ui.R.attr.heartRateColor) }
+            // point is drawn from start of measurement, record is selected by its end
+            treatmentsGraphCache.points(data.overviewData, EventRecordsChanged.Type.HEART_RATE, fromTime, endTime, time = { it.x.toLong() + it.duration }) { from, to ->
+                persistenceLayer.getHeartRatesFromTimeToTime(from, to).map { hr -> HeartRateDataPoint(hr, rh) }
+            }.toTypedArray()).apply { color = rh.gac(null, app.aaps.core.ui.R.attr.heartRateColor) }
 
         data.overviewData.stepsCountGraphSeries = PointsWithLabelGraphSeries<DataPointWithLabelInterface>(
-            persistenceLayer.getStepsCountFromTimeToTime(fromTime, endTime)
-                .map { steps -> StepsDataPoint(steps, rh) }
-                .toTypedArray()).apply { color = rh.gac(null, app.aaps.core.ui.R.attr.stepsColor) }
+            treatmentsGraphCache.points(data.overviewData, EventRecordsChanged.Type.STEPS_COUNT, fromTime, endTime) { from, to ->
+                persistenceLayer.getStepsCountFromTimeToTime(from, to).map { steps -> StepsDataPoint(steps, rh) }
+            }.toTypedArray()).apply { color = rh.gac(null, app.aaps.core.ui.R.attr.stepsColor) }
 
 
-        rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_TREATMENTS_DATA, 100, null))
+        progressReporter.finish()
         return Result.success()
     }
 
     private fun addUpperChartMargin(maxBgValue: Double) =
         if (profileUtil.units == GlucoseUnit.MGDL) Round.roundTo(maxBgValue, 40.0) + 80 else Round.roundTo(maxBgValue, 2.0) + 4
 
-    private fun getNearestBg(overviewData: OverviewData, date: Long): Double {
-        overviewData.bgReadingsArray.let { bgReadingsArray ->
-            for (reading in bgReadingsArray) {
-                if (reading.timestamp > date) continue
-                return profileUtil.fromMgdlToUnits(reading.value)
-            }
-            return if (bgReadingsArray.isNotEmpty()) profileUtil.fromMgdlToUnits(bgReadingsArray[0].value)
-            else profileUtil.fromMgdlToUnits(100.0)
-        }
-    }
-
-    private fun <E : DataPointWithLabelInterface> List<E>.filterTimeframe(fromTime: Long, endTime: Long): List<E> =
-        filter { it.x + it.duration >= fromTime && it.x <= endTime }
+    private fun getNearestBg(nearestBg: NearestBg, date: Long): Double =
+        profileUtil.fromMgdlToUnits(nearestBg.valueAt(date) ?: 100.0)
 }
@@ -0,0 +1,46 @@
+package app.aaps.workflow
+
+import app.aaps.core.interfaces.rx.bus.RxBus
+import app.aaps.core.interfaces.rx.events.Event
+import app.aaps.core.interfaces.rx.events.EventIobCalculationProgress
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
+
+/**
+ * Sends [EventIobCalculationProgress] of one pass to [rxBus]
+ *
+ * Progress of calculation loops is reported on every step, it is sent only if it moved by [minPercentStep]
+ * and [minInterval] passed from last event. Sent values never go back, 100 % is always sent by [finish].
+ *
+ * @param clock time in milliseconds, only differences are used
+ */
+internal class ProgressReporter(
+    private val rxBus: RxBus,
+    private val pass: CalculationWorkflow.ProgressData,
+    private val cause: Event? = null,
+    private val minPercentStep: Int = 1,
+    private val minInterval: Long = 100,
+    private val clock: () -> Long = { System.nanoTime() / 1_000_000 }
+) {
+
+    private var lastPercent = -1
+    private var lastTime = 0L
+
+    fun report(percent: Int) {
+        val value = percent.coerceAtLeast(0)
+        // 100 % is sent by finish only
+        if (value >= 100 || lastPercent >= 0 && value < lastPercent + minPercentStep) return
+        val now = clock()
+        if (lastPercent >= 0 && now - lastTime < minInterval) return
+        send(value, now)
+    }
+
+    fun finish() {
+        if (lastPercent < 100) send(100, clock())
+    }
+
+    private fun send(percent: Int, now: Long) {
+        lastPercent = percent
+        lastTime = now
+        rxBus.send(EventIobCalculationProgress(pass, percent, cause))
+    }
+}
@@ -0,0 +1,63 @@
+package app.aaps.workflow
+
+import app.aaps.core.graph.data.DataPointWithLabelInterface
+import app.aaps.core.interfaces.overview.OverviewData
+import app.aaps.core.interfaces.rx.bus.RxBus
+import app.aaps.core.interfaces.rx.events.EventRecordsChanged
+import app.aaps.core.interfaces.utils.fabric.FabricPrivacy
+import io.reactivex.rxjava3.disposables.CompositeDisposable
+import io.reactivex.rxjava3.kotlin.plusAssign
+import java.util.EnumMap
+import java.util.WeakHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Points prepared by [PrepareTreatmentsDataWorker] for every [OverviewData] (overview, history browser)
+ *
+ * Points are invalidated only in ranges where records of their type changed,
+ * new BG reading or moved window doesn't cause reload of whole window.
+ */
+@Singleton
+class TreatmentsGraphCache @Inject constructor(
+    rxBus: RxBus,
+    fabricPrivacy: FabricPrivacy
+) {
+
+    private val caches = WeakHashMap<OverviewData, EnumMap<EventRecordsChanged.Type, IntervalCache<*>>>()
+    private val disposable = CompositeDisposable()
+
+    init {
+        // invalidated in thread of sender, before events triggering recalculation are sent
+        disposable += rxBus
+            .toObservable(EventRecordsChanged::class.java)
+            .subscribe(
+                {
+                    synchronized(caches) { caches.values.forEach { cache -> cache[it.type]?.invalidate(it.from, it.to) } }
+                }, fabricPrivacy::logException
+            )
+    }
+
+    /**
+     * Loading runs locked so change of records can't be missed while loading
+     *
+     * @param time time of point used by [load] to select record
+     * @param parameter value points are built with, change causes reload of whole window
+     * @return points with time in [from]..[to] sorted by time
+     */
+    @Suppress("UNCHECKED_CAST")
+    internal fun <P : DataPointWithLabelInterface> points(
+        overviewData: OverviewData,
+        type: EventRecordsChanged.Type,
+        from: Long,
+        to: Long,
+        parameter: Any? = null,
+        time: (P) -> Long = { it.x.toLong() },
+        load: (from: Long, to: Long) -> List<P>
+    ): List<P> = synchronized(caches) {
+        // every type is always loaded as the same point class
+        val cache = caches.getOrPut(overviewData) { EnumMap(EventRecordsChanged.Type::class.java) }
+            .getOrPut(type) { IntervalCache(time) } as IntervalCache<P>
+        cache.get(from, to, parameter, load)
+    }
+}
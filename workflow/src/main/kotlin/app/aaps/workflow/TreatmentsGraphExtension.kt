@@ -0,0 +1,60 @@
+package app.aaps.workflow
+
+import app.aaps.core.data.model.GV
+import app.aaps.core.graph.data.DataPointWithLabelInterface
+
+/**
+ * Lookup of BG value used to position treatments on BG graph
+ *
+ * @param readings BG readings sorted from newest, as loaded by [PrepareBgDataWorker]
+ */
+internal class NearestBg(private val readings: List<GV>) {
+
+    private val timestamps = LongArray(readings.size) { readings[it].timestamp }
+    private val sorted = (1 until timestamps.size).all { timestamps[it - 1] >= timestamps[it] }
+
+    /**
+     * @return value of the first reading not newer than [time], the first reading if all are newer, null if there are no readings
+     */
+    fun valueAt(time: Long): Double? {
+        if (readings.isEmpty()) return null
+        val index = if (sorted) firstNotNewer(time) else timestamps.indexOfFirst { it <= time }
+        return if (index in readings.indices) readings[index].value else readings[0].value
+    }
+
+    private fun firstNotNewer(time: Long): Int {
+        var low = 0
+        var high = timestamps.size
+        while (low < high) {
+            val middle = (low + high) ushr 1
+            if (timestamps[middle] <= time) high = middle else low = middle + 1
+        }
+        return low
+    }
+}
+
+/**
+ * Points visible in [fromTime]..[endTime]
+ *
+ * Points must be sorted by time. Points starting inside the timeframe are taken as a range,
+ * only the older ones are checked for duration reaching into it.
+ */
+internal fun <E : DataPointWithLabelInterface> List<E>.filterTimeframe(fromTime: Long, endTime: Long): List<E> {
+    val start = firstIndex { it.x >= fromTime }
+    val end = firstIndex { it.x > endTime }
+    val result = ArrayList<E>()
+    for (i in 0 until start) if (this[i].x + this[i].duration >= fromTime && this[i].x <= endTime) result.add(this[i])
+    result.addAll(subList(start, maxOf(start, end)))
+    return result
+}
+
+// first index where predicate becomes true, predicate must be monotonic
+private inline fun <E> List<E>.firstIndex(predicate: (E) -> Boolean): Int {
+    var low = 0
+    var high = size
+    while (low < high) {
+        val middle = (low + high) ushr 1
+        if (predicate(this[middle])) high = middle else low = middle + 1
+    }
+    return low
+}
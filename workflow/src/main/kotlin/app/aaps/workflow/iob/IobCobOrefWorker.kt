@@ -19,7 +19,6 @@ import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.Event
 import app.aaps.core.interfaces.rx.events.EventAutosensCalculationFinished
-import app.aaps.core.interfaces.rx.events.EventIobCalculationProgress
 import app.aaps.core.interfaces.utils.DateUtil
 import app.aaps.core.interfaces.utils.DecimalFormatter
 import app.aaps.core.interfaces.workflow.CalculationWorkflow
@@ -27,6 +26,7 @@ import app.aaps.core.keys.DoubleKey
 import app.aaps.core.keys.interfaces.Preferences
 import app.aaps.core.objects.workflow.LoggingWorker
 import app.aaps.core.utils.receivers.DataWorkerStorage
+import app.aaps.workflow.ProgressReporter
 import kotlinx.coroutines.Dispatchers
 import javax.inject.Inject
 import javax.inject.Provider
@@ -68,6 +68,7 @@ class IobCobOrefWorker @Inject internal constructor(
             ?: return Result.success(workDataOf("Error" to "missing input data"))
 
         val start = dateUtil.now()
+        val progressReporter = ProgressReporter(rxBus, CalculationWorkflow.ProgressData.IOB_COB_OREF, data.cause)
         try {
             aapsLogger.debug(LTag.AUTOSENS) { "AUTOSENSDATA thread started: ${data.reason}" }
             if (!profileFunction.isProfileValid("IobCobThread")) {
@@ -89,7 +90,7 @@ class IobCobOrefWorker @Inject internal constructor(
             var previous = autosensDataTable[prevDataTime]
             // start from oldest to be able sub cob
             for (i in bucketedData.size - 4 downTo 0) {
-                rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.IOB_COB_OREF, 100 - (100.0 * i / bucketedData.size).toInt(), data.cause))
+                progressReporter.report(100 - (100.0 * i / bucketedData.size).toInt())
                 if (isStopped) {
                     aapsLogger.debug(LTag.AUTOSENS) { "Aborting calculation thread (trigger): ${data.reason}" }
                     return Result.failure(workDataOf("Error" to "Aborting calculation thread (trigger): ${data.reason}"))
@@ -268,7 +269,7 @@ class IobCobOrefWorker @Inject internal constructor(
                 rxBus.send(EventAutosensCalculationFinished(data.cause))
             }.start()
         } finally {
-            rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.IOB_COB_OREF, 100, data.cause))
+            progressReporter.finish()
             aapsLogger.debug(LTag.AUTOSENS) { "AUTOSENSDATA thread ended: ${data.reason}" }
             profiler.log(LTag.AUTOSENS, "IobCobThread", start)
         }
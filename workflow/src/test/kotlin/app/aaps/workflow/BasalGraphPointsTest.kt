@@ -0,0 +1,215 @@
+package app.aaps.workflow
+
+import app.aaps.core.data.aps.BasalData
+import app.aaps.core.data.model.EB
+import app.aaps.core.data.model.TB
+import app.aaps.core.data.time.T
+import app.aaps.core.graph.data.ScaledDataPoint
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.graph.Scale
+import app.aaps.core.interfaces.profile.Profile
+import app.aaps.core.objects.extensions.convertedToAbsolute
+import app.aaps.core.objects.extensions.toTemporaryBasal
+import app.aaps.core.utils.MidnightUtils
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.whenever
+import java.util.TimeZone
+import kotlin.random.Random
+
+class BasalGraphPointsTest : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+
+    private val random = Random(1)
+    private val scale = Scale()
+    private lateinit var defaultTimeZone: TimeZone
+
+    private class Switch(val timestamp: Long, val profile: Profile)
+
+    private var switches: List<Switch> = emptyList()
+    private var tempBasals: List<TB> = emptyList()
+    private var extendedBoluses: List<EB> = emptyList()
+    private var basalDataCalls = 0
+
+    // 2023-03-25 12:00 and 2023-10-28 12:00 Prague, day before DST change
+    private val dstDays = listOf(1_679_742_000_000L, 1_698_487_200_000L)
+
+    @BeforeEach
+    fun mock() {
+        defaultTimeZone = TimeZone.getDefault()
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Prague"))
+        whenever(profileFunction.getProfile(any<Long>())).thenAnswer { invocation -> profileAt(invocation.getArgument(0)) }
+        whenever(iobCobCalculator.getBasalData(any(), any())).thenAnswer { invocation -> basalData(invocation.getArgument(0), invocation.getArgument(1)) }
+        whenever(persistenceLayer.getTemporaryBasalsActiveBetweenTimeAndTime(any(), any())).thenAnswer { invocation ->
+            tempBasals.filter { it.timestamp <= invocation.getArgument<Long>(1) && it.timestamp + it.duration > invocation.getArgument<Long>(0) }
+        }
+        whenever(persistenceLayer.getExtendedBolusesStartingFromTimeToTime(any(), any(), any())).thenAnswer { invocation ->
+            extendedBoluses.filter { it.timestamp in invocation.getArgument<Long>(0)..invocation.getArgument<Long>(1) }
+        }
+        whenever(persistenceLayer.getEffectiveProfileSwitchesFromTimeToTime(any(), any(), any())).thenAnswer { invocation ->
+            switches.filter { it.timestamp in invocation.getArgument<Long>(0)..invocation.getArgument<Long>(1) }.map { effectiveProfileSwitch.copy(timestamp = it.timestamp) }
+        }
+    }
+
+    @AfterEach
+    fun tearDown() {
+        TimeZone.setDefault(defaultTimeZone)
+    }
+
+    private fun profileAt(time: Long): Profile? = switches.lastOrNull { it.timestamp <= time }?.profile
+    private fun extendedBolusAt(time: Long): EB? = extendedBoluses.lastOrNull { it.timestamp <= time && it.timestamp + it.duration > time }
+
+    // the same as IobCobCalculatorPlugin.getBasalData with pump faking temps by extended boluses
+    private fun basalData(profile: Profile, fromTime: Long): BasalData {
+        basalDataCalls++
+        val time = if (fromTime % 60000 == 0L) fromTime else (fromTime / 60000 + 1) * 60000
+        val tb = tempBasals.lastOrNull { it.timestamp <= time && it.timestamp + it.duration > time }
+            ?: extendedBolusAt(time)?.let { eb -> profileAt(time)?.let { eb.toTemporaryBasal(it) } }
+        return BasalData().also {
+            it.basal = profile.getBasal(time)
+            it.isTempBasalRunning = tb != null
+            it.tempBasalAbsolute = tb?.convertedToAbsolute(time, profile) ?: it.basal
+        }
+    }
+
+    private fun randomProfile(): Profile {
+        val starts = (listOf(0) + List(random.nextInt(8)) { random.nextInt(48) * 1800 } + List(random.nextInt(3)) { random.nextInt(1440) * 60 }).distinct().sorted()
+        val rates = starts.map { listOf(0.0, 0.5, 0.8, 0.85, 1.25)[random.nextInt(5)] }
+        val basal = { seconds: Int -> rates[starts.indexOfLast { it <= seconds }] }
+        return mock<Profile>().also { profile ->
+            whenever(profile.getBasal(any())).thenAnswer { invocation -> basal(MidnightUtils.secondsFromMidnight(invocation.getArgument<Long>(0))) }
+            whenever(profile.getBasalTimeFromMidnight(any())).thenAnswer { invocation -> basal(invocation.getArgument(0)) }
+        }
+    }
+
+    private fun randomHistory(fromTime: Long, endTime: Long) {
+        val span = endTime - fromTime
+        fun randomTime() = fromTime - T.hours(4).msecs() + (random.nextDouble() * (span + T.hours(5).msecs())).toLong()
+        val profiles = List(3) { randomProfile() }
+        switches = List(random.nextInt(4)) { Switch(randomTime(), profiles[random.nextInt(profiles.size)]) }.sortedBy { it.timestamp }
+        if (random.nextBoolean()) switches = listOf(Switch(fromTime - T.days(1).msecs(), profiles[0])) + switches
+        tempBasals = List(random.nextInt(25)) {
+            val absolute = random.nextBoolean()
+            TB(
+                timestamp = randomTime(), type = TB.Type.NORMAL, isAbsolute = absolute,
+                rate = if (absolute) listOf(0.0, 0.3, 0.85, 2.0)[random.nextInt(4)] else listOf(0.0, 50.0, 100.0, 150.0)[random.nextInt(4)],
+                duration = if (random.nextInt(5) == 0) random.nextLong(1000, T.mins(3).msecs()) else random.nextLong(T.mins(1).msecs(), T.mins(240).msecs())
+            )
+        }.sortedBy { it.timestamp }
+        extendedBoluses = List(random.nextInt(3)) {
+            EB(timestamp = randomTime(), duration = random.nextLong(T.mins(15).msecs(), T.mins(180).msecs()), amount = random.nextInt(1, 20) * 0.5)
+        }.sortedBy { it.timestamp }
+    }
+
+    // previous implementation evaluating every minute
+    private fun minuteStepped(fromTime: Long, endTime: Long): List<List<ScaledDataPoint>> {
+        val baseBasalArray: MutableList<ScaledDataPoint> = ArrayList()
+        val tempBasalArray: MutableList<ScaledDataPoint> = ArrayList()
+        val basalLineArray: MutableList<ScaledDataPoint> = ArrayList()
+        val absoluteBasalLineArray: MutableList<ScaledDataPoint> = ArrayList()
+        var lastLineBasal = 0.0
+        var lastAbsoluteLineBasal = -1.0
+        var lastBaseBasal = 0.0
+        var lastTempBasal = 0.0
+        var time = fromTime
+        while (time < endTime) {
+            val profile = profileFunction.getProfile(time)
+            if (profile == null) {
+                time += 60 * 1000L
+                continue
+            }
+            val basalData = iobCobCalculator.getBasalData(profile, time)
+            val baseBasalValue = basalData.basal
+            var absoluteLineValue = baseBasalValue
+            var tempBasalValue = 0.0
+            var basal = 0.0
+            if (basalData.isTempBasalRunning) {
+                tempBasalValue = basalData.tempBasalAbsolute
+                absoluteLineValue = tempBasalValue
+                if (tempBasalValue != lastTempBasal) {
+                    tempBasalArray.add(ScaledDataPoint(time, lastTempBasal, scale))
+                    tempBasalArray.add(ScaledDataPoint(time, tempBasalValue.also { basal = it }, scale))
+                }
+                if (lastBaseBasal != 0.0) {
+                    baseBasalArray.add(ScaledDataPoint(time, lastBaseBasal, scale))
+                    baseBasalArray.add(ScaledDataPoint(time, 0.0, scale))
+                    lastBaseBasal = 0.0
+                }
+            } else {
+                if (baseBasalValue != lastBaseBasal) {
+                    baseBasalArray.add(ScaledDataPoint(time, lastBaseBasal, scale))
+                    baseBasalArray.add(ScaledDataPoint(time, baseBasalValue.also { basal = it }, scale))
+                    lastBaseBasal = baseBasalValue
+                }
+                if (lastTempBasal != 0.0) {
+                    tempBasalArray.add(ScaledDataPoint(time, lastTempBasal, scale))
+                    tempBasalArray.add(ScaledDataPoint(time, 0.0, scale))
+                }
+            }
+            if (baseBasalValue != lastLineBasal) {
+                basalLineArray.add(ScaledDataPoint(time, lastLineBasal, scale))
+                basalLineArray.add(ScaledDataPoint(time, baseBasalValue, scale))
+            }
+            if (absoluteLineValue != lastAbsoluteLineBasal) {
+                absoluteBasalLineArray.add(ScaledDataPoint(time, lastAbsoluteLineBasal, scale))
+                absoluteBasalLineArray.add(ScaledDataPoint(time, basal, scale))
+            }
+            lastAbsoluteLineBasal = absoluteLineValue
+            lastLineBasal = baseBasalValue
+            lastTempBasal = tempBasalValue
+            time += 60 * 1000L
+        }
+        basalLineArray.add(ScaledDataPoint(endTime, lastLineBasal, scale))
+        baseBasalArray.add(ScaledDataPoint(endTime, lastBaseBasal, scale))
+        tempBasalArray.add(ScaledDataPoint(endTime, lastTempBasal, scale))
+        absoluteBasalLineArray.add(ScaledDataPoint(endTime, lastAbsoluteLineBasal, scale))
+        return listOf(baseBasalArray, tempBasalArray, basalLineArray, absoluteBasalLineArray)
+    }
+
+    private fun List<ScaledDataPoint>.values() = map { Pair(it.getX(), it.getY()) }
+
+    @Test
+    fun sameSeriesAsMinuteStepped() {
+        var minuteCalls = 0
+        var changeCalls = 0
+        repeat(300) { round ->
+            val day = if (round % 3 == 0) now else dstDays[round % 2]
+            val fromTime = day + random.nextLong(-T.hours(12).msecs(), T.hours(12).msecs())
+            val endTime = fromTime + random.nextLong(T.hours(1).msecs(), T.hours(30).msecs())
+            randomHistory(fromTime, endTime)
+
+            basalDataCalls = 0
+            val expected = minuteStepped(fromTime, endTime)
+            minuteCalls += basalDataCalls
+
+            basalDataCalls = 0
+            val reported = ArrayList<Int>()
+            val points = BasalGraphPoints(persistenceLayer, profileFunction, iobCobCalculator, scale)
+            assertThat(points.generate(fromTime, endTime, isStopped = { false }) { reported.add(it) }).isTrue()
+            changeCalls += basalDataCalls
+
+            assertThat(points.baseBasal.values()).isEqualTo(expected[0].values())
+            assertThat(points.tempBasal.values()).isEqualTo(expected[1].values())
+            assertThat(points.basalLine.values()).isEqualTo(expected[2].values())
+            assertThat(points.absoluteBasalLine.values()).isEqualTo(expected[3].values())
+            assertThat(reported).isInStrictOrder()
+            assertThat(reported.size).isAtMost(10)
+        }
+        assertThat(changeCalls).isLessThan(minuteCalls / 4)
+    }
+
+    @Test
+    fun stopped() {
+        randomHistory(now, now + T.hours(6).msecs())
+        val points = BasalGraphPoints(persistenceLayer, profileFunction, iobCobCalculator, scale)
+        assertThat(points.generate(now, now + T.hours(6).msecs(), isStopped = { true }) {}).isFalse()
+        assertThat(points.basalLine).isEmpty()
+    }
+}
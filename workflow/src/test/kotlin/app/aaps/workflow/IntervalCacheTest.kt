@@ -0,0 +1,106 @@
+package app.aaps.workflow
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import kotlin.random.Random
+
+class IntervalCacheTest {
+
+    private val random = Random(11)
+    private val hour = 3600000L
+
+    private data class Record(val id: Int, val time: Long, val version: Int)
+
+    // records in database, loading is full rebuild
+    private val records = ArrayList<Record>()
+    private fun load(from: Long, to: Long): List<Record> = records.filter { it.time in from..to }.sortedWith(compareBy({ it.time }, { it.id }))
+
+    // records loaded by cache
+    private var loadedRecords = 0
+    private fun cached(cache: IntervalCache<Record>, from: Long, to: Long, parameter: Any? = null): List<Record> =
+        cache.get(from, to, parameter) { start, end -> load(start, end).also { loadedRecords += it.size } }
+
+    private fun cachedMatchesFullRebuild(cache: IntervalCache<Record>, from: Long, to: Long, parameter: Any? = null) {
+        assertThat(cached(cache, from, to, parameter)).containsExactlyElementsIn(load(from, to)).inOrder()
+    }
+
+    @Test
+    fun randomChangesAreSameAsFullRebuild() {
+        val cache = IntervalCache<Record> { it.time }
+        var nextId = 0
+        var from = 0L
+        var range = 6 * hour
+        repeat(5000) {
+            when (random.nextInt(10)) {
+                // new record, mostly recent
+                0, 1 -> {
+                    val time = if (random.nextBoolean()) from + range - random.nextLong(hour) else random.nextLong(from - range, from + 2 * range)
+                    records.add(Record(nextId++, time, 0))
+                    cache.invalidate(time, time)
+                }
+                // update or invalidation of record keeps its time
+                2    -> if (records.isNotEmpty()) {
+                    val index = random.nextInt(records.size)
+                    val record = records[index]
+                    if (random.nextBoolean()) records[index] = record.copy(version = record.version + 1) else records.removeAt(index)
+                    cache.invalidate(record.time, record.time)
+                }
+                // change of longer record affecting range
+                3    -> {
+                    val start = random.nextLong(from - range, from + 2 * range)
+                    val end = start + random.nextLong(3 * hour)
+                    records.replaceAll { if (it.time in start..end) it.copy(version = it.version + 1) else it }
+                    cache.invalidate(start, end)
+                }
+                // window moves with time
+                4, 5 -> from += random.nextLong(10 * 60000)
+                // scrolling in history browser or range change
+                6    -> from += random.nextLong(-2 * range, 2 * range)
+                7    -> range = random.nextLong(1, 4) * 6 * hour
+                8    -> cache.clear()
+            }
+            cachedMatchesFullRebuild(cache, from, from + range)
+        }
+    }
+
+    @Test
+    fun changedParameterReloadsWholeWindow() {
+        val cache = IntervalCache<Record> { it.time }
+        repeat(20) { records.add(Record(it, it * hour, 0)) }
+        cachedMatchesFullRebuild(cache, 0, 10 * hour, 0.1)
+        loadedRecords = 0
+        cachedMatchesFullRebuild(cache, 0, 10 * hour, 0.1)
+        assertThat(loadedRecords).isEqualTo(0)
+        cachedMatchesFullRebuild(cache, 0, 10 * hour, 0.05)
+        assertThat(loadedRecords).isEqualTo(11)
+    }
+
+    @Test
+    fun unchangedWindowLoadsOnlyEdges() {
+        val cache = IntervalCache<Record> { it.time }
+        // record every 5 min for a day
+        repeat(288) { records.add(Record(it, it * 300000L, 0)) }
+        cachedMatchesFullRebuild(cache, 0, 6 * hour)
+
+        // moved by an hour with new record at the end, 13 records loaded instead of 74
+        loadedRecords = 0
+        records.add(Record(288, 7 * hour - 1000, 0))
+        cache.invalidate(7 * hour - 1000, 7 * hour - 1000)
+        cachedMatchesFullRebuild(cache, hour, 7 * hour)
+        assertThat(loadedRecords).isEqualTo(13)
+
+        // change in the middle of window
+        loadedRecords = 0
+        records[50] = records[50].copy(version = 1)
+        cache.invalidate(records[50].time, records[50].time)
+        cachedMatchesFullRebuild(cache, hour, 7 * hour)
+        assertThat(loadedRecords).isEqualTo(1)
+
+        // change outside of window is ignored
+        loadedRecords = 0
+        records[250] = records[250].copy(version = 1)
+        cache.invalidate(records[250].time, records[250].time)
+        cachedMatchesFullRebuild(cache, hour, 7 * hour)
+        assertThat(loadedRecords).isEqualTo(0)
+    }
+}
@@ -0,0 +1,91 @@
+package app.aaps.workflow
+
+import app.aaps.core.interfaces.rx.bus.RxBus
+import app.aaps.core.interfaces.rx.events.EventIobCalculationProgress
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.atLeastOnce
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.verify
+import kotlin.random.Random
+
+class ProgressReporterTest {
+
+    private val random = Random(13)
+    private val rxBus: RxBus = mock()
+    private var now = 0L
+
+    private fun reporter(minPercentStep: Int = 1, minInterval: Long = 100) =
+        ProgressReporter(rxBus, CalculationWorkflow.ProgressData.IOB_COB_OREF, null, minPercentStep, minInterval) { now }
+
+    private fun sentPercents(): List<Int> {
+        val captor = argumentCaptor<EventIobCalculationProgress>()
+        verify(rxBus, atLeastOnce()).send(captor.capture())
+        captor.allValues.forEach { assertThat(it.pass).isEqualTo(CalculationWorkflow.ProgressData.IOB_COB_OREF) }
+        return captor.allValues.map { it.progressPct }
+    }
+
+    // like loops of workers, progress reported on every step
+    private fun runLoop(reporter: ProgressReporter, steps: Int, millisPerStep: Long) {
+        reporter.report(0)
+        for (i in 0 until steps) {
+            now += millisPerStep
+            reporter.report((100.0 * i / steps).toInt())
+        }
+        reporter.finish()
+    }
+
+    private fun assertIncreasingTo100(percents: List<Int>) {
+        assertThat(percents.first()).isEqualTo(0)
+        assertThat(percents.last()).isEqualTo(100)
+        assertThat(percents).isInStrictOrder()
+    }
+
+    @Test
+    fun fastLoopIsLimitedByInterval() {
+        // 5000 steps in 5 s
+        runLoop(reporter(), 5000, 1)
+        val percents = sentPercents()
+        assertThat(percents.size).isAtMost(5000 / 100 + 2)
+        assertIncreasingTo100(percents)
+    }
+
+    @Test
+    fun slowLoopIsLimitedByPercentStep() {
+        runLoop(reporter(), 1000, 1000)
+        val percents = sentPercents()
+        assertThat(percents).containsExactlyElementsIn(0..100).inOrder()
+    }
+
+    @Test
+    fun configuredPercentStep() {
+        runLoop(reporter(minPercentStep = 10, minInterval = 0), 1000, 1)
+        val percents = sentPercents()
+        assertThat(percents).containsExactly(0, 10, 20, 30, 40, 50, 60, 70, 80, 90, 100).inOrder()
+    }
+
+    @Test
+    fun sentProgressNeverGoesBack() {
+        val reporter = reporter()
+        repeat(2000) {
+            now += random.nextLong(50)
+            reporter.report(random.nextInt(-10, 120))
+        }
+        reporter.finish()
+        val percents = sentPercents()
+        assertThat(percents.size).isAtMost(101)
+        assertThat(percents).isInStrictOrder()
+        assertThat(percents.last()).isEqualTo(100)
+        assertThat(percents.count { it == 100 }).isEqualTo(1)
+    }
+
+    @Test
+    fun finishIsSentOnceEvenWithoutProgress() {
+        val reporter = reporter()
+        reporter.finish()
+        reporter.finish()
+        assertThat(sentPercents()).containsExactly(100)
+    }
+}
@@ -0,0 +1,77 @@
+package app.aaps.workflow
+
+import app.aaps.core.graph.data.DataPointWithLabelInterface
+import app.aaps.core.interfaces.overview.OverviewData
+import app.aaps.core.interfaces.rx.events.EventRecordsChanged
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+
+class TreatmentsGraphCacheTest : TestBase() {
+
+    private val hour = 3600000L
+    private val overviewData: OverviewData = mock()
+
+    private lateinit var sut: TreatmentsGraphCache
+
+    // times of records in database
+    private val records = ArrayList<Long>()
+    private var loadedPoints = 0
+
+    private fun point(time: Long): DataPointWithLabelInterface = mock {
+        on { getX() } doReturn time.toDouble()
+    }
+
+    private fun points(type: EventRecordsChanged.Type, from: Long, to: Long): List<Long> =
+        sut.points<DataPointWithLabelInterface>(overviewData, type, from, to) { start, end ->
+            records.filter { it in start..end }.sorted().map { point(it) }.also { loadedPoints += it.size }
+        }.map { it.x.toLong() }
+
+    private fun insert(type: EventRecordsChanged.Type, time: Long) {
+        records.add(time)
+        rxBus.send(EventRecordsChanged(type, time, time))
+    }
+
+    @BeforeEach
+    fun setup() {
+        sut = TreatmentsGraphCache(rxBus, mock())
+        repeat(12) { records.add(it * hour) }
+    }
+
+    @Test
+    fun sentEventReloadsChangedRange() {
+        assertThat(points(EventRecordsChanged.Type.BOLUS, 0, 6 * hour)).containsExactly(0L, hour, 2 * hour, 3 * hour, 4 * hour, 5 * hour, 6 * hour).inOrder()
+
+        loadedPoints = 0
+        insert(EventRecordsChanged.Type.BOLUS, 2 * hour + 1000)
+        assertThat(points(EventRecordsChanged.Type.BOLUS, 0, 6 * hour)).containsExactly(0L, hour, 2 * hour, 2 * hour + 1000, 3 * hour, 4 * hour, 5 * hour, 6 * hour).inOrder()
+        assertThat(loadedPoints).isEqualTo(1)
+    }
+
+    @Test
+    fun eventOfOtherTypeKeepsPoints() {
+        points(EventRecordsChanged.Type.BOLUS, 0, 6 * hour)
+        points(EventRecordsChanged.Type.CARBS, 0, 6 * hour)
+
+        loadedPoints = 0
+        insert(EventRecordsChanged.Type.CARBS, 3 * hour + 1000)
+        assertThat(points(EventRecordsChanged.Type.BOLUS, 0, 6 * hour)).doesNotContain(3 * hour + 1000)
+        assertThat(loadedPoints).isEqualTo(0)
+        assertThat(points(EventRecordsChanged.Type.CARBS, 0, 6 * hour)).contains(3 * hour + 1000)
+        assertThat(loadedPoints).isEqualTo(1)
+    }
+
+    @Test
+    fun movedRecordIsRemovedFromPreviousTime() {
+        points(EventRecordsChanged.Type.BOLUS, 0, 6 * hour)
+
+        // pump sync moves record stored with temporary id, previous and new time are reported
+        records.remove(2 * hour)
+        records.add(5 * hour + 1000)
+        rxBus.send(EventRecordsChanged(EventRecordsChanged.Type.BOLUS, 2 * hour, 5 * hour + 1000))
+        assertThat(points(EventRecordsChanged.Type.BOLUS, 0, 6 * hour)).containsExactly(0L, hour, 3 * hour, 4 * hour, 5 * hour, 5 * hour + 1000, 6 * hour).inOrder()
+    }
+}
@@ -0,0 +1,85 @@
+package app.aaps.workflow
+
+import app.aaps.core.data.model.GV
+import app.aaps.core.data.model.SourceSensor
+import app.aaps.core.data.model.TrendArrow
+import app.aaps.core.data.time.T
+import app.aaps.core.graph.data.DataPointWithLabelInterface
+import app.aaps.shared.tests.Benchmark
+import app.aaps.shared.tests.BenchmarkTest
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestReporter
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import kotlin.random.Random
+
+class TreatmentsGraphExtensionTest {
+
+    private val random = Random(7)
+    private val now = 1656358822000L
+
+    private fun gv(timestamp: Long, value: Double) =
+        GV(timestamp = timestamp, raw = null, value = value, trendArrow = TrendArrow.FLAT, noise = null, sourceSensor = SourceSensor.UNKNOWN)
+
+    // readings every 5 min from newest like PrepareBgDataWorker loads them, with gaps and duplicates
+    private fun readings(hours: Long): List<GV> {
+        val readings = ArrayList<GV>()
+        var time = now
+        while (time > now - T.hours(hours).msecs()) {
+            if (random.nextInt(20) != 0) readings.add(gv(time, random.nextInt(40, 400).toDouble()))
+            if (random.nextInt(30) == 0) readings.add(gv(time, random.nextInt(40, 400).toDouble()))
+            time -= T.mins(5).msecs() + random.nextLong(-20000, 20000)
+        }
+        return readings
+    }
+
+    // previous implementation
+    private fun linearNearestBg(readings: List<GV>, date: Long): Double? {
+        for (reading in readings) {
+            if (reading.timestamp > date) continue
+            return reading.value
+        }
+        return if (readings.isNotEmpty()) readings[0].value else null
+    }
+
+    private fun point(time: Long, duration: Long): DataPointWithLabelInterface = mock {
+        on { getX() } doReturn time.toDouble()
+        on { it.duration } doReturn duration
+    }
+
+    @Test
+    fun nearestBgIsTheSameAsLinearScan() {
+        val fixtures = listOf(emptyList(), listOf(gv(now, 120.0)), readings(48), readings(6), readings(6).shuffled(random))
+        for (readings in fixtures) {
+            val nearestBg = NearestBg(readings)
+            val times = readings.map { it.timestamp } + readings.map { it.timestamp + 1 } + readings.map { it.timestamp - 1 } +
+                List(1000) { now - random.nextLong(-T.hours(1).msecs(), T.hours(50).msecs()) }
+            for (time in times)
+                assertThat(nearestBg.valueAt(time)).isEqualTo(linearNearestBg(readings, time))
+        }
+    }
+
+    @Test
+    fun filterTimeframeIsTheSameAsFilter() {
+        repeat(200) {
+            val fromTime = now - T.hours(6).msecs()
+            val endTime = now
+            val points = List(random.nextInt(50)) { now - random.nextLong(-T.hours(1).msecs(), T.hours(13).msecs()) }.sorted()
+                .map { point(it, if (random.nextBoolean()) 0L else random.nextLong(T.hours(8).msecs())) }
+            val expected = points.filter { it.x + it.duration >= fromTime && it.x <= endTime }
+            assertThat(points.filterTimeframe(fromTime, endTime)).containsExactlyElementsIn(expected).inOrder()
+        }
+    }
+
+    @BenchmarkTest
+    fun dense48HoursBenchmark(reporter: TestReporter) {
+        val readings = readings(48)
+        // SMB every 5 min, carbs and therapy events
+        val treatments = List(576 + 30 + 50) { now - random.nextLong(T.hours(48).msecs()) }
+        val benchmark = Benchmark(reporter)
+        // one worker run positions all treatments
+        benchmark.measure("linear scan", treatments.size, 200) { treatments.sumOf { linearNearestBg(readings, it) ?: 0.0 } }
+        benchmark.measure("binary search", treatments.size, 200) { NearestBg(readings).let { nearestBg -> treatments.sumOf { nearestBg.valueAt(it) ?: 0.0 } } }
+    }
+}